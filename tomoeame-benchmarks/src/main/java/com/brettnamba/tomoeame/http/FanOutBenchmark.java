@@ -0,0 +1,183 @@
+package com.brettnamba.tomoeame.http;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a fan-out of concurrent GET requests, such as a screen loading its items at once, to
+ * a server that takes a few milliseconds per response.  The Http2Transport multiplexes the
+ * fan-out over one connection to a LoopbackH2cServer, while the NioTransport opens a keep-alive
+ * connection per concurrent request to a LoopbackServer with the same latency.
+ *
+ * @author Brett Namba (https://github.com/bretten)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FanOutBenchmark {
+
+    /**
+     * The length of the body of every response
+     */
+    private static final int RESPONSE_BODY_LENGTH = 512;
+
+    /**
+     * The time the servers take to answer each request
+     */
+    private static final long LATENCY_MILLIS = 5;
+
+    /**
+     * The transport the requests are sent through
+     */
+    @Param({"http2", "nio"})
+    public String transport;
+
+    /**
+     * The number of concurrent requests in a fan-out
+     */
+    @Param({"10", "50"})
+    public int fanOut;
+
+    /**
+     * The HTTP/1.1 server or null if HTTP/2 is measured
+     */
+    private LoopbackServer mServer;
+
+    /**
+     * The HTTP/2 server or null if HTTP/1.1 is measured
+     */
+    private LoopbackH2cServer mH2cServer;
+
+    /**
+     * The transport the requests are sent through
+     */
+    private Transport mTransport;
+
+    /**
+     * The URL of the requests
+     */
+    private URL mUrl;
+
+    /**
+     * Sends the requests of a fan-out at once
+     */
+    private ExecutorService mExecutorService;
+
+    /**
+     * Sends one GET request
+     */
+    private Callable<Integer> mGet;
+
+    /**
+     * Starts the server and creates the transport
+     *
+     * @throws IOException
+     */
+    @Setup
+    public void setUp() throws IOException {
+        if ("http2".equals(this.transport)) {
+            this.mH2cServer = new LoopbackH2cServer(RESPONSE_BODY_LENGTH);
+            this.mH2cServer.setLatency(LATENCY_MILLIS);
+            this.mUrl = new URL(this.mH2cServer.getUrl() + "/items/1");
+            this.mTransport = new Http2Transport();
+        } else {
+            this.mServer = new LoopbackServer(RESPONSE_BODY_LENGTH);
+            this.mServer.setLatency(LATENCY_MILLIS);
+            this.mUrl = new URL(this.mServer.getUrl() + "/items/1");
+            this.mTransport = new NioTransport(this.fanOut, 60000,
+                    HttpUrlConnectionTransport.getDefault());
+        }
+        this.mExecutorService = Executors.newFixedThreadPool(this.fanOut);
+        this.mGet = new Callable<Integer>() {
+            @Override
+            public Integer call() throws IOException {
+                return FanOutBenchmark.this.get();
+            }
+        };
+    }
+
+    /**
+     * Closes the connections and stops the server
+     */
+    @TearDown
+    public void tearDown() {
+        this.mExecutorService.shutdownNow();
+        if (this.mTransport instanceof Http2Transport) {
+            ((Http2Transport) this.mTransport).evictAll();
+            this.mH2cServer.close();
+        } else {
+            ((NioTransport) this.mTransport).evictAll();
+            this.mServer.close();
+        }
+    }
+
+    /**
+     * Sends the requests of a fan-out at once and waits for all of their responses
+     *
+     * @return The number of body bytes read
+     * @throws InterruptedException
+     * @throws ExecutionException   If a request failed
+     */
+    @Benchmark
+    public int fanOut() throws InterruptedException, ExecutionException {
+        final List<Future<Integer>> futures = new ArrayList<Future<Integer>>(this.fanOut);
+        for (int i = 0; i < this.fanOut; i++) {
+            futures.add(this.mExecutorService.submit(this.mGet));
+        }
+        int length = 0;
+        for (Future<Integer> future : futures) {
+            length += future.get();
+        }
+        return length;
+    }
+
+    /**
+     * Sends a GET request and reads the response body
+     *
+     * @return The number of body bytes read
+     * @throws IOException
+     */
+    private int get() throws IOException {
+        final HttpURLConnection connection = this.mTransport.openConnection(this.mUrl);
+        if (connection.getResponseCode() != 200) {
+            throw new IllegalStateException("The request failed with "
+                    + connection.getResponseCode());
+        }
+        final InputStream inputStream = connection.getInputStream();
+        final byte[] buffer = new byte[RESPONSE_BODY_LENGTH];
+        int length = 0;
+        int bytesRead;
+        while ((bytesRead = inputStream.read(buffer)) != -1) {
+            length += bytesRead;
+        }
+        inputStream.close();
+        return length;
+    }
+
+}
@@ -0,0 +1,112 @@
+package com.brettnamba.tomoeame.http;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures downloading a resource to a file from a LoopbackServer in the same JVM that answers
+ * Range requests, in one segment and in several segments downloaded in parallel.
+ *
+ * @author Brett Namba (https://github.com/bretten)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FileDownloadBenchmark {
+
+    /**
+     * The length of the resource
+     */
+    private static final int RESOURCE_LENGTH = 8 * 1024 * 1024;
+
+    /**
+     * The minimum length of a segment, so the resource can be split into every segment count
+     */
+    private static final long MIN_SEGMENT_LENGTH = 256 * 1024;
+
+    /**
+     * The maximum number of segments downloaded in parallel
+     */
+    @Param({"1", "4"})
+    public int segmentCount;
+
+    /**
+     * The server the resource is downloaded from
+     */
+    private LoopbackServer mServer;
+
+    /**
+     * The client the requests are sent through
+     */
+    private HttpClient mClient;
+
+    /**
+     * The URL of the resource
+     */
+    private String mUrl;
+
+    /**
+     * The file the resource is downloaded to
+     */
+    private File mDestination;
+
+    /**
+     * Starts the server and creates the client
+     *
+     * @throws IOException
+     */
+    @Setup
+    public void setUp() throws IOException {
+        this.mServer = new LoopbackServer(RESOURCE_LENGTH);
+        this.mServer.setRangesSupported(true);
+        this.mClient = new HttpClient();
+        this.mUrl = this.mServer.getUrl() + "/resource";
+        this.mDestination = File.createTempFile("download", ".bin");
+    }
+
+    /**
+     * Stops the server and deletes the downloaded file
+     */
+    @TearDown
+    public void tearDown() {
+        this.mServer.close();
+        this.mDestination.delete();
+    }
+
+    /**
+     * Downloads the resource, replacing the previous download
+     *
+     * @return The length of the downloaded file
+     * @throws IOException
+     */
+    @Benchmark
+    public long download() throws IOException {
+        final FileDownload download = new FileDownload(this.mUrl, this.mDestination);
+        download.setSegmentCount(this.segmentCount);
+        download.setMinSegmentLength(MIN_SEGMENT_LENGTH);
+        download.download(this.mClient);
+        if (this.mDestination.length() != RESOURCE_LENGTH) {
+            throw new IllegalStateException("Downloaded " + this.mDestination.length()
+                    + " bytes");
+        }
+        return this.mDestination.length();
+    }
+
+}
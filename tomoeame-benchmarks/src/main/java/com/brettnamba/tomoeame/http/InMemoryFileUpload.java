@@ -0,0 +1,49 @@
+package com.brettnamba.tomoeame.http;
+
+import java.io.ByteArrayInputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * FileUpload whose contents are in memory, so its length and MIME type are known without any
+ * I/O and only the request's own work is measured.
+ *
+ * @author Brett Namba (https://github.com/bretten)
+ */
+final class InMemoryFileUpload implements FileUpload {
+
+    /**
+     * The contents of the file
+     */
+    private final byte[] mContents;
+
+    /**
+     * Constructor
+     *
+     * @param length The length of the file
+     */
+    InMemoryFileUpload(int length) {
+        this.mContents = new byte[length];
+    }
+
+    @Override
+    public String getContentType() {
+        return "application/octet-stream";
+    }
+
+    @Override
+    public long getLength() {
+        return this.mContents.length;
+    }
+
+    @Override
+    public boolean isMetadataCheap() {
+        return true;
+    }
+
+    @Override
+    public ReadableByteChannel open() {
+        return Channels.newChannel(new ByteArrayInputStream(this.mContents));
+    }
+
+}
@@ -0,0 +1,127 @@
+package com.brettnamba.tomoeame.http;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures reading the ids of a list endpoint by streaming it through JsonPullParser, against
+ * building the response String first and scanning it, which is a lower bound for parsing it with
+ * a DOM parser afterwards.  Run it with -prof gc to compare the bytes allocated per list.
+ *
+ * @author Brett Namba (https://github.com/bretten)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonPullParserBenchmark {
+
+    /**
+     * The number of objects in the list
+     */
+    @Param({"100", "20000"})
+    public int itemCount;
+
+    /**
+     * The UTF-8 JSON of the list
+     */
+    private byte[] mList;
+
+    /**
+     * Builds the list of objects with several fields
+     *
+     * @throws UnsupportedEncodingException
+     */
+    @Setup
+    public void setUp() throws UnsupportedEncodingException {
+        final StringBuilder builder = new StringBuilder(this.itemCount * 128);
+        builder.append('[');
+        for (int i = 0; i < this.itemCount; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append("{\"id\":").append(i).append(",\"name\":\"Item ").append(i)
+                    .append(" \u00e9t\u00e9\",\"price\":").append(i * 0.25)
+                    .append(",\"tags\":[\"a\",\"b\\n\"],\"active\":").append(i % 2 == 0)
+                    .append(",\"owner\":{\"uid\":").append(-i).append(",\"name\":null}}");
+        }
+        builder.append(']');
+        this.mList = builder.toString().getBytes("UTF-8");
+    }
+
+    /**
+     * Sums the ids by streaming the list through the parser the way
+     * openResponseBody().jsonParser() would
+     *
+     * @return The sum of the ids
+     * @throws IOException
+     */
+    @Benchmark
+    public long parser() throws IOException {
+        final JsonPullParser parser = this.open().jsonParser();
+        long sum = 0;
+        parser.next();
+        while (parser.next() == JsonPullParser.Token.BEGIN_OBJECT) {
+            while (parser.next() == JsonPullParser.Token.NAME) {
+                if (parser.textEquals("id")) {
+                    parser.next();
+                    sum += parser.getLong();
+                } else {
+                    parser.skipValue();
+                }
+            }
+        }
+        parser.close();
+        return sum;
+    }
+
+    /**
+     * Sums the ids by building the response String the way getResponseBody() does and scanning
+     * it
+     *
+     * @return The sum of the ids
+     * @throws IOException
+     */
+    @Benchmark
+    public long responseString() throws IOException {
+        final String body = this.open().string();
+        long sum = 0;
+        int index = 0;
+        while ((index = body.indexOf("\"id\":", index)) != -1) {
+            index += 5;
+            int end = index;
+            while (Character.isDigit(body.charAt(end))) {
+                end++;
+            }
+            sum += Long.parseLong(body.substring(index, end));
+        }
+        return sum;
+    }
+
+    /**
+     * Opens the list over an in-memory stream
+     *
+     * @return The body
+     */
+    private ResponseBody open() {
+        return new ResponseBody(new ByteArrayInputStream(this.mList), "application/json",
+                this.mList.length);
+    }
+
+}
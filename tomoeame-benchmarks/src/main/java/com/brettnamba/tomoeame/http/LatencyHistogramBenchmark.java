@@ -0,0 +1,70 @@
+package com.brettnamba.tomoeame.http;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures 8 threads recording into one LatencyHistogram at once, which it does without locks,
+ * so the cost of a HistogramMetricsSink under concurrent calls is known.
+ *
+ * @author Brett Namba (https://github.com/bretten)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(8)
+@Fork(1)
+public class LatencyHistogramBenchmark {
+
+    /**
+     * The histogram the threads record into
+     */
+    private final LatencyHistogram mHistogram = new LatencyHistogram();
+
+    /**
+     * Records a latency
+     *
+     * @param latency Supplies the latencies of the thread
+     */
+    @Benchmark
+    public void record(Latency latency) {
+        this.mHistogram.record(latency.next());
+    }
+
+    /**
+     * Latencies of one thread, spread over the buckets the way call durations in microseconds are
+     */
+    @State(Scope.Thread)
+    public static class Latency {
+
+        /**
+         * The last value of the sequence
+         */
+        private long mValue = 1;
+
+        /**
+         * Returns the next latency from 1 to about a million
+         *
+         * @return The latency
+         */
+        long next() {
+            // A cheap linear congruential sequence, so the generator is not what is measured
+            this.mValue = this.mValue * 6364136223846793005L + 1442695040888963407L;
+            return (this.mValue >>> 44) + 1;
+        }
+
+    }
+
+}
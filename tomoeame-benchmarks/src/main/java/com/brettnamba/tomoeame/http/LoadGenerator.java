@@ -0,0 +1,235 @@
+package com.brettnamba.tomoeame.http;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends requests to a LoopbackServer from a number of client threads at once for a fixed time
+ * and reports the throughput, the latency percentiles, the sockets the server accepted and the
+ * garbage collections.
+ *
+ * Each client sends its next request as soon as the last one completes, so the load is closed:
+ * adding clients raises the throughput until the client or the server saturates, after which
+ * only the latency rises.  The clients share one HttpClient and send on their own threads
+ * rather than through its Dispatcher, so no per-host limit caps the throughput.  The requests of the
+ * warmup are sent but not measured, which lets the JIT compile the request path and the
+ * connections get established first.
+ *
+ * @author Brett Namba (https://github.com/bretten)
+ */
+public final class LoadGenerator {
+
+    /**
+     * The default duration in milliseconds that requests are sent before they are measured
+     */
+    public static final long DEFAULT_WARMUP_MILLIS = 2000;
+
+    /**
+     * The default duration in milliseconds that requests are measured
+     */
+    public static final long DEFAULT_DURATION_MILLIS = 5000;
+
+    /**
+     * The server the requests are sent to
+     */
+    private final LoopbackServer mServer;
+
+    /**
+     * Creates the requests the clients send
+     */
+    private final RequestFactory mRequestFactory;
+
+    /**
+     * The number of clients that send requests at once
+     */
+    private int mConcurrency = 1;
+
+    /**
+     * The duration in milliseconds that requests are sent before they are measured
+     */
+    private long mWarmupMillis = DEFAULT_WARMUP_MILLIS;
+
+    /**
+     * The duration in milliseconds that requests are measured
+     */
+    private long mDurationMillis = DEFAULT_DURATION_MILLIS;
+
+    /**
+     * Determines if the completed requests are being measured
+     */
+    private volatile boolean mIsMeasuring;
+
+    /**
+     * Determines if the clients should stop sending requests
+     */
+    private volatile boolean mIsStopped;
+
+    /**
+     * Constructor
+     *
+     * @param server         The server the requests are sent to
+     * @param requestFactory Creates the requests the clients send
+     */
+    public LoadGenerator(LoopbackServer server, RequestFactory requestFactory) {
+        if (server == null || requestFactory == null) {
+            throw new IllegalArgumentException("The server and request factory are required");
+        }
+        this.mServer = server;
+        this.mRequestFactory = requestFactory;
+    }
+
+    /**
+     * Sets the number of clients that send requests at once
+     *
+     * @param concurrency The number of clients
+     */
+    public void setConcurrency(int concurrency) {
+        if (concurrency <= 0) {
+            throw new IllegalArgumentException("Concurrency must be positive");
+        }
+        this.mConcurrency = concurrency;
+    }
+
+    /**
+     * Sets the duration that requests are sent before they are measured
+     *
+     * @param warmupMillis The duration in milliseconds
+     */
+    public void setWarmupMillis(long warmupMillis) {
+        if (warmupMillis < 0) {
+            throw new IllegalArgumentException("Warmup cannot be negative");
+        }
+        this.mWarmupMillis = warmupMillis;
+    }
+
+    /**
+     * Sets the duration that requests are measured
+     *
+     * @param durationMillis The duration in milliseconds
+     */
+    public void setDurationMillis(long durationMillis) {
+        if (durationMillis <= 0) {
+            throw new IllegalArgumentException("Duration must be positive");
+        }
+        this.mDurationMillis = durationMillis;
+    }
+
+    /**
+     * Sends requests through a new HttpClient for the warmup and the measurement
+     *
+     * @return The results of the measurement
+     * @throws InterruptedException If the thread was interrupted while the clients were running
+     */
+    public LoadReport run() throws InterruptedException {
+        final HttpClient client = new HttpClient();
+        final LatencyHistogram latencies = new LatencyHistogram();
+        final AtomicLong requestCount = new AtomicLong();
+        final AtomicLong failureCount = new AtomicLong();
+        this.mIsMeasuring = false;
+        this.mIsStopped = false;
+
+        final long connectionCount = this.mServer.getConnectionCount();
+        final Thread[] clients = new Thread[this.mConcurrency];
+        for (int i = 0; i < clients.length; i++) {
+            clients[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    LoadGenerator.this.sendRequests(client, latencies, requestCount,
+                            failureCount);
+                }
+            }, "LoadGenerator client " + i);
+            clients[i].setDaemon(true);
+            clients[i].start();
+        }
+
+        Thread.sleep(this.mWarmupMillis);
+        final long gcCount = getGcCount();
+        final long gcTimeMillis = getGcTimeMillis();
+        final long start = System.nanoTime();
+        this.mIsMeasuring = true;
+        Thread.sleep(this.mDurationMillis);
+        this.mIsMeasuring = false;
+        final long elapsedNanos = System.nanoTime() - start;
+        final long gcCountDelta = getGcCount() - gcCount;
+        final long gcTimeMillisDelta = getGcTimeMillis() - gcTimeMillis;
+        this.mIsStopped = true;
+        for (Thread thread : clients) {
+            thread.join();
+        }
+
+        return new LoadReport(this.mConcurrency, requestCount.get(), failureCount.get(),
+                elapsedNanos, latencies, this.mServer.getConnectionCount() - connectionCount,
+                gcCountDelta, gcTimeMillisDelta);
+    }
+
+    /**
+     * Sends requests one after another until the run is stopped, recording the ones that complete
+     * while it is measuring
+     *
+     * @param client       The client the requests are sent through
+     * @param latencies    The latencies of the requests in microseconds
+     * @param requestCount The number of requests completed
+     * @param failureCount The number of requests that failed
+     */
+    private void sendRequests(HttpClient client, LatencyHistogram latencies,
+                              AtomicLong requestCount, AtomicLong failureCount) {
+        while (!this.mIsStopped) {
+            final long start = System.nanoTime();
+            final HttpUrlConnectionRequest request = this.mRequestFactory.newRequest();
+            request.send(client);
+            final long latencyNanos = System.nanoTime() - start;
+            if (!this.mIsMeasuring) {
+                continue;
+            }
+            latencies.record(TimeUnit.NANOSECONDS.toMicros(latencyNanos));
+            requestCount.incrementAndGet();
+            if (request.getException() != null || request.getResponseCode() != 200) {
+                failureCount.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Returns the total number of garbage collections of all collectors
+     *
+     * @return The number of collections
+     */
+    private static long getGcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, bean.getCollectionCount());
+        }
+        return count;
+    }
+
+    /**
+     * Returns the total time in milliseconds all collectors spent collecting garbage
+     *
+     * @return The time in milliseconds
+     */
+    private static long getGcTimeMillis() {
+        long time = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            time += Math.max(0, bean.getCollectionTime());
+        }
+        return time;
+    }
+
+    /**
+     * Creates the requests the clients send.  It is called by every client at once, so it must
+     * be thread-safe.
+     */
+    public interface RequestFactory {
+
+        /**
+         * Creates a request that has not been sent
+         *
+         * @return The request
+         */
+        HttpUrlConnectionRequest newRequest();
+
+    }
+
+}
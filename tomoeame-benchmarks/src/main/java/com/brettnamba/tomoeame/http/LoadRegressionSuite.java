@@ -0,0 +1,446 @@
+package com.brettnamba.tomoeame.http;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * Runs a fixed set of load scenarios against a LoopbackServer and compares each to the baseline
+ * recorded for it, exiting with a status of 1 if any regressed.
+ *
+ * A scenario regressed if its throughput fell or its 99th percentile latency rose by more than
+ * the tolerances in the baselines file, if it opened more sockets than its baseline plus one per
+ * client, which means connections stopped being reused, or if more requests failed than the
+ * server injected errors into.  The baselines depend on the machine, so they should be recorded
+ * on the machine the suite is run on:
+ *
+ * ./gradlew :tomoeame-benchmarks:loadTest -PupdateBaselines
+ *
+ * Passing -Psweep instead sends GET requests from 1 to 64 clients and reports the number of
+ * clients after which adding more stops raising the throughput.
+ *
+ * @author Brett Namba (https://github.com/bretten)
+ */
+public final class LoadRegressionSuite {
+
+    /**
+     * The share the throughput can fall below its baseline if none is in the baselines file
+     */
+    private static final double DEFAULT_THROUGHPUT_TOLERANCE = 0.3;
+
+    /**
+     * The share the 99th percentile latency can rise above its baseline if none is in the
+     * baselines file
+     */
+    private static final double DEFAULT_LATENCY_TOLERANCE = 0.5;
+
+    /**
+     * The share of the requests that can fail beyond the errors the server injected
+     */
+    private static final double FAILURE_RATE_TOLERANCE = 0.01;
+
+    /**
+     * The numbers of clients the sweep sends requests from
+     */
+    private static final int[] SWEEP_CONCURRENCY = {1, 2, 4, 8, 16, 32, 64};
+
+    /**
+     * The share the throughput must rise by when the clients are doubled for the sweep to
+     * consider the client unsaturated
+     */
+    private static final double SATURATION_GAIN = 0.1;
+
+    /**
+     * The number of fields of each form
+     */
+    private static final int FORM_FIELD_COUNT = 10;
+
+    /**
+     * The length of the file of each multi-part request
+     */
+    private static final int FILE_LENGTH = 64 * 1024;
+
+    /**
+     * The scenarios that are compared to the baselines
+     */
+    private static final Scenario[] SCENARIOS = {
+            new Scenario("get-1", RequestKind.GET, 1, 1024, 0, 0),
+            new Scenario("get-16", RequestKind.GET, 16, 1024, 0, 0),
+            new Scenario("get-16-large", RequestKind.GET, 16, 65536, 0, 0),
+            new Scenario("get-16-latency", RequestKind.GET, 16, 1024, 5, 0),
+            new Scenario("get-16-errors", RequestKind.GET, 16, 1024, 0, 0.05),
+            new Scenario("form-16", RequestKind.FORM, 16, 1024, 0, 0),
+            new Scenario("multipart-8", RequestKind.MULTI_PART, 8, 1024, 0, 0)
+    };
+
+    /**
+     * Runs the scenarios
+     *
+     * @param args The path of the baselines file, followed by --update to record the baselines
+     *             instead of comparing to them or --sweep to run the concurrency sweep instead
+     * @throws IOException          If the server could not be started or the baselines could not
+     *                              be read or written
+     * @throws InterruptedException If the thread was interrupted
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length == 0) {
+            throw new IllegalArgumentException(
+                    "Usage: LoadRegressionSuite <baselines file> [--update | --sweep]");
+        }
+        final File baselinesFile = new File(args[0]);
+        final String mode = args.length > 1 ? args[1] : "";
+
+        // HttpURLConnection keeps only 5 idle connections per host by default, so more clients
+        // than that would keep opening sockets no matter how the pool behaves
+        if (System.getProperty("http.maxConnections") == null) {
+            System.setProperty("http.maxConnections",
+                    String.valueOf(SWEEP_CONCURRENCY[SWEEP_CONCURRENCY.length - 1]));
+        }
+
+        final LoopbackServer server = new LoopbackServer(0);
+        try {
+            if ("--sweep".equals(mode)) {
+                sweep(server);
+            } else if ("--update".equals(mode)) {
+                writeBaselines(baselinesFile, runScenarios(server));
+                System.out.println("Recorded the baselines in " + baselinesFile);
+            } else {
+                final Properties baselines = readBaselines(baselinesFile);
+                final List<LoadReport> reports = runScenarios(server);
+                int regressionCount = 0;
+                for (int i = 0; i < SCENARIOS.length; i++) {
+                    regressionCount += checkScenario(SCENARIOS[i], reports.get(i), baselines);
+                }
+                if (regressionCount > 0) {
+                    System.out.println(regressionCount + " regression(s) found");
+                    System.exit(1);
+                }
+                System.out.println("No regressions found");
+            }
+        } finally {
+            server.close();
+        }
+    }
+
+    /**
+     * Runs every scenario and prints its report
+     *
+     * @param server The server the requests are sent to
+     * @return The reports in the order of the scenarios
+     * @throws InterruptedException If the thread was interrupted
+     */
+    private static List<LoadReport> runScenarios(LoopbackServer server)
+            throws InterruptedException {
+        final List<LoadReport> reports = new ArrayList<LoadReport>(SCENARIOS.length);
+        for (Scenario scenario : SCENARIOS) {
+            final LoadReport report = scenario.run(server);
+            System.out.println(scenario.name + ": " + report);
+            reports.add(report);
+        }
+        return reports;
+    }
+
+    /**
+     * Compares the report of a scenario to its baseline and prints each regression
+     *
+     * @param scenario  The scenario
+     * @param report    The report of the scenario
+     * @param baselines The baselines
+     * @return The number of regressions
+     */
+    private static int checkScenario(Scenario scenario, LoadReport report, Properties baselines) {
+        int regressionCount = 0;
+        if (report.getFailureRate() > scenario.errorRate + FAILURE_RATE_TOLERANCE) {
+            regressionCount += regression(scenario, "failure rate", report.getFailureRate(),
+                    scenario.errorRate);
+        }
+        if (baselines.getProperty(scenario.name + ".throughput") == null) {
+            System.out.println(scenario.name + ": no baseline");
+            return regressionCount;
+        }
+        final double throughputTolerance = getDouble(baselines, "throughputTolerance",
+                DEFAULT_THROUGHPUT_TOLERANCE);
+        final double latencyTolerance = getDouble(baselines, "latencyTolerance",
+                DEFAULT_LATENCY_TOLERANCE);
+        final double throughput = getDouble(baselines, scenario.name + ".throughput", 0);
+        final double p99Micros = getDouble(baselines, scenario.name + ".p99Micros", 0);
+        final double socketsOpened = getDouble(baselines, scenario.name + ".socketsOpened", 0);
+        if (report.getThroughput() < throughput * (1 - throughputTolerance)) {
+            regressionCount += regression(scenario, "throughput", report.getThroughput(),
+                    throughput);
+        }
+        final long p99 = report.getLatencies().getValueAtPercentile(99);
+        if (p99 > p99Micros * (1 + latencyTolerance)) {
+            regressionCount += regression(scenario, "p99 latency", p99, p99Micros);
+        }
+        if (report.getSocketsOpened() > socketsOpened + scenario.concurrency) {
+            regressionCount += regression(scenario, "sockets opened", report.getSocketsOpened(),
+                    socketsOpened);
+        }
+        return regressionCount;
+    }
+
+    /**
+     * Prints a regression
+     *
+     * @param scenario The scenario that regressed
+     * @param metric   The name of the metric that regressed
+     * @param actual   The measured value
+     * @param baseline The value it was compared to
+     * @return 1, the number of regressions printed
+     */
+    private static int regression(Scenario scenario, String metric, double actual,
+                                  double baseline) {
+        System.out.println(String.format(Locale.US, "%s: REGRESSION in %s: %.3f against %.3f",
+                scenario.name, metric, actual, baseline));
+        return 1;
+    }
+
+    /**
+     * Sends GET requests from an increasing number of clients and prints the number after which
+     * the throughput stops rising
+     *
+     * @param server The server the requests are sent to
+     * @throws InterruptedException If the thread was interrupted
+     */
+    private static void sweep(LoopbackServer server) throws InterruptedException {
+        double lastThroughput = 0;
+        int saturation = -1;
+        for (int concurrency : SWEEP_CONCURRENCY) {
+            final LoadReport report = new Scenario("sweep-" + concurrency, RequestKind.GET,
+                    concurrency, 1024, 0, 0).run(server);
+            System.out.println("sweep: " + report);
+            if (saturation < 0 && lastThroughput > 0
+                    && report.getThroughput() < lastThroughput * (1 + SATURATION_GAIN)) {
+                saturation = concurrency / 2;
+            }
+            lastThroughput = report.getThroughput();
+        }
+        System.out.println(saturation < 0
+                ? "The throughput rose up to " + SWEEP_CONCURRENCY[SWEEP_CONCURRENCY.length - 1]
+                + " clients"
+                : "The throughput saturated at " + saturation + " clients");
+    }
+
+    /**
+     * Reads the baselines file
+     *
+     * @param file The file
+     * @return The baselines, which are empty if the file does not exist
+     * @throws IOException If the file could not be read
+     */
+    private static Properties readBaselines(File file) throws IOException {
+        final Properties baselines = new Properties();
+        if (!file.exists()) {
+            return baselines;
+        }
+        final InputStream in = new FileInputStream(file);
+        try {
+            baselines.load(in);
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {
+            }
+        }
+        return baselines;
+    }
+
+    /**
+     * Writes the reports to the baselines file, keeping the tolerances it already has
+     *
+     * @param file    The file
+     * @param reports The reports in the order of the scenarios
+     * @throws IOException If the file could not be read or written
+     */
+    private static void writeBaselines(File file, List<LoadReport> reports) throws IOException {
+        final Properties previous = readBaselines(file);
+        final Writer writer = new OutputStreamWriter(new FileOutputStream(file), "ISO-8859-1");
+        try {
+            writer.write("# Recorded by ./gradlew :tomoeame-benchmarks:loadTest -PupdateBaselines"
+                    + "\n# on " + System.getProperty("os.name") + " "
+                    + System.getProperty("os.arch") + " with "
+                    + Runtime.getRuntime().availableProcessors() + " processors and Java "
+                    + System.getProperty("java.version") + "\n");
+            writer.write(String.format(Locale.US, "throughputTolerance=%s\nlatencyTolerance=%s\n",
+                    getDouble(previous, "throughputTolerance", DEFAULT_THROUGHPUT_TOLERANCE),
+                    getDouble(previous, "latencyTolerance", DEFAULT_LATENCY_TOLERANCE)));
+            for (int i = 0; i < SCENARIOS.length; i++) {
+                final String name = SCENARIOS[i].name;
+                final LoadReport report = reports.get(i);
+                writer.write(String.format(Locale.US,
+                        "\n%s.throughput=%.0f\n%s.p99Micros=%d\n%s.socketsOpened=%d\n",
+                        name, report.getThroughput(),
+                        name, report.getLatencies().getValueAtPercentile(99),
+                        name, report.getSocketsOpened()));
+            }
+        } finally {
+            try {
+                writer.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    /**
+     * Returns a number from the baselines
+     *
+     * @param baselines    The baselines
+     * @param key          The key of the number
+     * @param defaultValue The value if the key is not in the baselines
+     * @return The number
+     */
+    private static double getDouble(Properties baselines, String key, double defaultValue) {
+        final String value = baselines.getProperty(key);
+        return value == null ? defaultValue : Double.parseDouble(value.trim());
+    }
+
+    /**
+     * The kinds of request a scenario sends
+     */
+    private enum RequestKind {
+
+        /**
+         * A GET request
+         */
+        GET,
+
+        /**
+         * A form POST request with FORM_FIELD_COUNT fields
+         */
+        FORM,
+
+        /**
+         * A multi-part POST request with one field and a file of FILE_LENGTH bytes
+         */
+        MULTI_PART
+
+    }
+
+    /**
+     * A kind of request sent from a number of clients to the server configured in a certain way
+     */
+    private static final class Scenario {
+
+        /**
+         * The name the scenario's baselines are recorded under
+         */
+        final String name;
+
+        /**
+         * The kind of request sent
+         */
+        final RequestKind kind;
+
+        /**
+         * The number of clients that send requests at once
+         */
+        final int concurrency;
+
+        /**
+         * The length of the body of every response
+         */
+        final int responseBodyLength;
+
+        /**
+         * The delay in milliseconds before the server writes each response
+         */
+        final long latencyMillis;
+
+        /**
+         * The share of the requests the server answers with a 503
+         */
+        final double errorRate;
+
+        /**
+         * Constructor
+         *
+         * @param name               The name the scenario's baselines are recorded under
+         * @param kind               The kind of request sent
+         * @param concurrency        The number of clients that send requests at once
+         * @param responseBodyLength The length of the body of every response
+         * @param latencyMillis      The delay in milliseconds before each response
+         * @param errorRate          The share of the requests answered with a 503
+         */
+        Scenario(String name, RequestKind kind, int concurrency, int responseBodyLength,
+                 long latencyMillis, double errorRate) {
+            this.name = name;
+            this.kind = kind;
+            this.concurrency = concurrency;
+            this.responseBodyLength = responseBodyLength;
+            this.latencyMillis = latencyMillis;
+            this.errorRate = errorRate;
+        }
+
+        /**
+         * Configures the server and sends the scenario's requests to it
+         *
+         * @param server The server
+         * @return The results
+         * @throws InterruptedException If the thread was interrupted
+         */
+        LoadReport run(LoopbackServer server) throws InterruptedException {
+            server.setResponseBodyLength(this.responseBodyLength);
+            server.setLatency(this.latencyMillis);
+            server.setErrorRate(this.errorRate);
+            final LoadGenerator generator = new LoadGenerator(server,
+                    this.newRequestFactory(server.getUrl()));
+            generator.setConcurrency(this.concurrency);
+            return generator.run();
+        }
+
+        /**
+         * Creates the factory of the scenario's requests
+         *
+         * @param baseUrl The base URL of the server
+         * @return The factory
+         */
+        private LoadGenerator.RequestFactory newRequestFactory(String baseUrl) {
+            final String itemUrl = baseUrl + "/items/1";
+            final String formUrl = baseUrl + "/form";
+            final FileUpload fileUpload = new InMemoryFileUpload(FILE_LENGTH);
+            switch (this.kind) {
+                case FORM:
+                    return new LoadGenerator.RequestFactory() {
+                        @Override
+                        public HttpUrlConnectionRequest newRequest() {
+                            final HttpUrlWwwFormRequest request =
+                                    new HttpUrlWwwFormRequest(formUrl);
+                            for (int i = 0; i < FORM_FIELD_COUNT; i++) {
+                                request.addRequestParameter("field", "value");
+                            }
+                            return request;
+                        }
+                    };
+                case MULTI_PART:
+                    return new LoadGenerator.RequestFactory() {
+                        @Override
+                        public HttpUrlConnectionRequest newRequest() {
+                            final HttpUrlMultiPartRequest request =
+                                    new HttpUrlMultiPartRequest(formUrl);
+                            request.addRequestParameter("field", "value");
+                            request.addFileUpload("file", fileUpload);
+                            return request;
+                        }
+                    };
+                default:
+                    return new LoadGenerator.RequestFactory() {
+                        @Override
+                        public HttpUrlConnectionRequest newRequest() {
+                            return new HttpUrlGetRequest(itemUrl);
+                        }
+                    };
+            }
+        }
+
+    }
+
+}
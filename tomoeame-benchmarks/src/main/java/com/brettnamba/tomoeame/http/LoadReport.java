@@ -0,0 +1,168 @@
+package com.brettnamba.tomoeame.http;
+
+import java.util.Locale;
+
+/**
+ * The results of one run of a LoadGenerator, covering the requests completed while it measured.
+ *
+ * @author Brett Namba (https://github.com/bretten)
+ */
+public final class LoadReport {
+
+    /**
+     * The number of clients that sent requests at once
+     */
+    private final int mConcurrency;
+
+    /**
+     * The number of requests completed, including the failed ones
+     */
+    private final long mRequestCount;
+
+    /**
+     * The number of requests that threw or were not answered with a 200
+     */
+    private final long mFailureCount;
+
+    /**
+     * The duration of the measurement in nanoseconds
+     */
+    private final long mElapsedNanos;
+
+    /**
+     * The latencies of the requests in microseconds
+     */
+    private final LatencyHistogram mLatencies;
+
+    /**
+     * The number of connections the server accepted during the whole run, including warmup
+     */
+    private final long mSocketsOpened;
+
+    /**
+     * The number of garbage collections during the measurement
+     */
+    private final long mGcCount;
+
+    /**
+     * The time in milliseconds spent collecting garbage during the measurement
+     */
+    private final long mGcTimeMillis;
+
+    /**
+     * Constructor
+     *
+     * @param concurrency   The number of clients that sent requests at once
+     * @param requestCount  The number of requests completed
+     * @param failureCount  The number of requests that failed
+     * @param elapsedNanos  The duration of the measurement in nanoseconds
+     * @param latencies     The latencies of the requests in microseconds
+     * @param socketsOpened The number of connections the server accepted
+     * @param gcCount       The number of garbage collections
+     * @param gcTimeMillis  The time in milliseconds spent collecting garbage
+     */
+    LoadReport(int concurrency, long requestCount, long failureCount, long elapsedNanos,
+               LatencyHistogram latencies, long socketsOpened, long gcCount, long gcTimeMillis) {
+        this.mConcurrency = concurrency;
+        this.mRequestCount = requestCount;
+        this.mFailureCount = failureCount;
+        this.mElapsedNanos = elapsedNanos;
+        this.mLatencies = latencies;
+        this.mSocketsOpened = socketsOpened;
+        this.mGcCount = gcCount;
+        this.mGcTimeMillis = gcTimeMillis;
+    }
+
+    /**
+     * Returns the number of clients that sent requests at once
+     *
+     * @return The number of clients
+     */
+    public int getConcurrency() {
+        return this.mConcurrency;
+    }
+
+    /**
+     * Returns the number of requests completed, including the failed ones
+     *
+     * @return The number of requests
+     */
+    public long getRequestCount() {
+        return this.mRequestCount;
+    }
+
+    /**
+     * Returns the number of requests that threw or were not answered with a 200
+     *
+     * @return The number of requests
+     */
+    public long getFailureCount() {
+        return this.mFailureCount;
+    }
+
+    /**
+     * Returns the share of the requests that failed
+     *
+     * @return The share from 0 to 1
+     */
+    public double getFailureRate() {
+        return this.mRequestCount == 0 ? 0 : (double) this.mFailureCount / this.mRequestCount;
+    }
+
+    /**
+     * Returns the number of requests completed per second
+     *
+     * @return The throughput
+     */
+    public double getThroughput() {
+        return this.mElapsedNanos == 0 ? 0 : this.mRequestCount * 1e9 / this.mElapsedNanos;
+    }
+
+    /**
+     * Returns the latencies of the requests in microseconds
+     *
+     * @return The latencies
+     */
+    public LatencyHistogram getLatencies() {
+        return this.mLatencies;
+    }
+
+    /**
+     * Returns the number of connections the server accepted during the whole run.  Once the
+     * connections are kept alive, this should be about the concurrency.
+     *
+     * @return The number of connections
+     */
+    public long getSocketsOpened() {
+        return this.mSocketsOpened;
+    }
+
+    /**
+     * Returns the number of garbage collections during the measurement
+     *
+     * @return The number of collections
+     */
+    public long getGcCount() {
+        return this.mGcCount;
+    }
+
+    /**
+     * Returns the time in milliseconds spent collecting garbage during the measurement
+     *
+     * @return The time in milliseconds
+     */
+    public long getGcTimeMillis() {
+        return this.mGcTimeMillis;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "clients=%d requests=%d failures=%d throughput=%.0f/s"
+                        + " p50=%dus p90=%dus p99=%dus max=%dus sockets=%d gc=%d (%dms)",
+                this.mConcurrency, this.mRequestCount, this.mFailureCount, this.getThroughput(),
+                this.mLatencies.getValueAtPercentile(50), this.mLatencies.getValueAtPercentile(90),
+                this.mLatencies.getValueAtPercentile(99), this.mLatencies.getMax(),
+                this.mSocketsOpened, this.mGcCount, this.mGcTimeMillis);
+    }
+
+}
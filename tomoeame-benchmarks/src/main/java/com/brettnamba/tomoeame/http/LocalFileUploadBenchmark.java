@@ -0,0 +1,114 @@
+package com.brettnamba.tomoeame.http;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures uploading a file on disk in a multi-part request to a LoopbackServer in the same JVM,
+ * with a fixed length body and with chunked streaming.  The file is read through its FileChannel,
+ * so this covers the path from the disk to the socket that InMemoryFileUpload leaves out.
+ *
+ * @author Brett Namba (https://github.com/bretten)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LocalFileUploadBenchmark {
+
+    /**
+     * The length of the file
+     */
+    @Param({"65536", "4194304"})
+    public int fileLength;
+
+    /**
+     * Determines if the body is streamed in chunks instead of with a Content-Length
+     */
+    @Param({"false", "true"})
+    public boolean isChunked;
+
+    /**
+     * The server the files are uploaded to
+     */
+    private LoopbackServer mServer;
+
+    /**
+     * The client the requests are sent through
+     */
+    private HttpClient mClient;
+
+    /**
+     * The file that is uploaded
+     */
+    private File mFile;
+
+    /**
+     * Starts the server and writes the file
+     *
+     * @throws IOException
+     */
+    @Setup
+    public void setUp() throws IOException {
+        this.mServer = new LoopbackServer(2);
+        this.mClient = new HttpClient();
+        final byte[] contents = new byte[this.fileLength];
+        new Random(7).nextBytes(contents);
+        this.mFile = File.createTempFile("upload", ".bin");
+        this.mFile.deleteOnExit();
+        final FileOutputStream out = new FileOutputStream(this.mFile);
+        try {
+            out.write(contents);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Stops the server and deletes the file
+     */
+    @TearDown
+    public void tearDown() {
+        this.mServer.close();
+        this.mFile.delete();
+    }
+
+    /**
+     * Uploads the file with one parameter
+     *
+     * @return The response code
+     */
+    @Benchmark
+    public int upload() {
+        final HttpUrlMultiPartRequest request = new HttpUrlMultiPartRequest(
+                this.mServer.getUrl() + "/upload");
+        request.setChunkedStreamingEnabled(this.isChunked);
+        request.addRequestParameter("name", "value");
+        request.addFileUpload("file", new LocalFileUpload(this.mFile));
+        request.send(this.mClient);
+        if (request.getException() != null || request.getResponseCode() != 200) {
+            throw new IllegalStateException("The upload failed with "
+                    + request.getResponseCode(), request.getException());
+        }
+        return request.getResponseCode();
+    }
+
+}
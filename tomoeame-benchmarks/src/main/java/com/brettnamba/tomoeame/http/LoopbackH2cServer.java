@@ -0,0 +1,378 @@
+package com.brettnamba.tomoeame.http;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * HTTP/2 server on the loopback interface that the benchmarks send h2c requests to with prior
+ * knowledge.
+ *
+ * Every request is answered with a 200 and a body of the configured length, and request bodies
+ * are read, acknowledged with WINDOW_UPDATE frames and discarded.  A latency can be added before
+ * each response, which is scheduled rather than slept so the streams of one connection wait for
+ * it concurrently, as they would on a real server.  Responses ignore the client's flow control
+ * windows, so the response body must fit in the client's initial window of 64 KB.
+ *
+ * @author Brett Namba (https://github.com/bretten)
+ */
+public final class LoopbackH2cServer implements Runnable {
+
+    /**
+     * The largest response body that fits in the client's initial flow control window
+     */
+    private static final int MAX_RESPONSE_BODY_LENGTH = 65535;
+
+    /**
+     * The listening socket
+     */
+    private final ServerSocket mServerSocket;
+
+    /**
+     * Writes the delayed responses
+     */
+    private final ScheduledExecutorService mScheduler = Executors.newScheduledThreadPool(1);
+
+    /**
+     * The body of every response
+     */
+    private final byte[] mBody;
+
+    /**
+     * The delay in milliseconds before each response is written
+     */
+    private volatile long mLatencyMillis;
+
+    /**
+     * The number of connections accepted
+     */
+    private final AtomicLong mConnectionCount = new AtomicLong();
+
+    /**
+     * The number of requests read
+     */
+    private final AtomicLong mRequestCount = new AtomicLong();
+
+    /**
+     * Constructor that starts accepting connections
+     *
+     * @param responseBodyLength The length of the body of every response
+     * @throws IOException If the socket could not be bound
+     */
+    public LoopbackH2cServer(int responseBodyLength) throws IOException {
+        if (responseBodyLength < 1 || responseBodyLength > MAX_RESPONSE_BODY_LENGTH) {
+            throw new IllegalArgumentException("Response body length must be from 1 to "
+                    + MAX_RESPONSE_BODY_LENGTH);
+        }
+        this.mBody = new byte[responseBodyLength];
+        this.mServerSocket = new ServerSocket(0, 128, InetAddress.getByName("127.0.0.1"));
+        final Thread thread = new Thread(this, "LoopbackH2cServer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Sets the delay before each response is written, which stands in for the time a real server
+     * takes to handle the request
+     *
+     * @param latencyMillis The delay in milliseconds
+     */
+    public void setLatency(long latencyMillis) {
+        if (latencyMillis < 0) {
+            throw new IllegalArgumentException("Latency cannot be negative");
+        }
+        this.mLatencyMillis = latencyMillis;
+    }
+
+    /**
+     * Returns the number of connections accepted since the server started
+     *
+     * @return The number of connections
+     */
+    public long getConnectionCount() {
+        return this.mConnectionCount.get();
+    }
+
+    /**
+     * Returns the number of requests read since the server started
+     *
+     * @return The number of requests
+     */
+    public long getRequestCount() {
+        return this.mRequestCount.get();
+    }
+
+    /**
+     * Returns the base URL of the server
+     *
+     * @return The URL without a trailing slash
+     */
+    public String getUrl() {
+        return "http://127.0.0.1:" + this.mServerSocket.getLocalPort();
+    }
+
+    /**
+     * Stops accepting connections and writing delayed responses
+     */
+    public void close() {
+        this.mScheduler.shutdownNow();
+        try {
+            this.mServerSocket.close();
+        } catch (IOException e) {
+        }
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            final Socket socket;
+            try {
+                socket = this.mServerSocket.accept();
+                socket.setTcpNoDelay(true);
+                this.mConnectionCount.incrementAndGet();
+            } catch (IOException e) {
+                return;
+            }
+            final Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    LoopbackH2cServer.this.serve(socket);
+                }
+            }, "LoopbackH2cServer connection");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Reads the frames of one connection until the client closes it or sends a GOAWAY
+     *
+     * @param socket The connection
+     */
+    private void serve(Socket socket) {
+        try {
+            final InputStream inputStream = new BufferedInputStream(socket.getInputStream());
+            final FrameWriter writer = new FrameWriter(socket.getOutputStream());
+            readFully(inputStream, new byte[24]);
+            writer.writeFrame(Http2Connection.TYPE_SETTINGS, 0, 0, new byte[0], 0, 0);
+
+            final byte[] header = new byte[9];
+            byte[] payload = new byte[Http2Connection.DEFAULT_MAX_FRAME_SIZE];
+            while (true) {
+                readFully(inputStream, header, header.length);
+                final int length = (header[0] & 0xFF) << 16 | (header[1] & 0xFF) << 8
+                        | (header[2] & 0xFF);
+                final int type = header[3];
+                final int flags = header[4];
+                final int streamId = readInt(header, 5);
+                if (length > payload.length) {
+                    payload = new byte[length];
+                }
+                readFully(inputStream, payload, length);
+                final boolean isEndStream = (flags & Http2Connection.FLAG_END_STREAM) != 0;
+                if (type == Http2Connection.TYPE_SETTINGS
+                        && (flags & Http2Connection.FLAG_ACK) == 0) {
+                    writer.writeFrame(Http2Connection.TYPE_SETTINGS, Http2Connection.FLAG_ACK, 0,
+                            payload, 0, 0);
+                } else if (type == Http2Connection.TYPE_HEADERS) {
+                    this.mRequestCount.incrementAndGet();
+                    if (isEndStream) {
+                        this.respond(writer, streamId);
+                    }
+                } else if (type == Http2Connection.TYPE_DATA) {
+                    if (length > 0) {
+                        final byte[] increment = new byte[4];
+                        writeInt(increment, 0, length);
+                        writer.writeFrame(Http2Connection.TYPE_WINDOW_UPDATE, 0, 0, increment, 0,
+                                4);
+                        writer.writeFrame(Http2Connection.TYPE_WINDOW_UPDATE, 0, streamId,
+                                increment, 0, 4);
+                    }
+                    if (isEndStream) {
+                        this.respond(writer, streamId);
+                    }
+                } else if (type == Http2Connection.TYPE_GOAWAY) {
+                    return;
+                }
+            }
+        } catch (IOException e) {
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    /**
+     * Writes the response of a stream now or once the latency has passed
+     *
+     * @param writer   The writer of the connection
+     * @param streamId The stream id
+     * @throws IOException
+     */
+    private void respond(final FrameWriter writer, final int streamId) throws IOException {
+        final long latencyMillis = this.mLatencyMillis;
+        if (latencyMillis == 0) {
+            writer.writeResponse(streamId, this.mBody);
+            return;
+        }
+        this.mScheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    writer.writeResponse(streamId, LoopbackH2cServer.this.mBody);
+                } catch (IOException e) {
+                }
+            }
+        }, latencyMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Reads bytes until the array is full
+     *
+     * @param inputStream The stream
+     * @param bytes       The array
+     * @throws IOException If the stream ended first
+     */
+    private static void readFully(InputStream inputStream, byte[] bytes) throws IOException {
+        readFully(inputStream, bytes, bytes.length);
+    }
+
+    /**
+     * Reads the specified number of bytes into the start of the array
+     *
+     * @param inputStream The stream
+     * @param bytes       The array
+     * @param length      The number of bytes
+     * @throws IOException If the stream ended first
+     */
+    private static void readFully(InputStream inputStream, byte[] bytes, int length)
+            throws IOException {
+        int offset = 0;
+        while (offset < length) {
+            final int bytesRead = inputStream.read(bytes, offset, length - offset);
+            if (bytesRead == -1) {
+                throw new IOException("The connection closed inside a frame");
+            }
+            offset += bytesRead;
+        }
+    }
+
+    /**
+     * Writes a big-endian 32-bit integer
+     *
+     * @param bytes  The array
+     * @param offset The index of the first byte
+     * @param value  The value
+     */
+    private static void writeInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    /**
+     * Reads a big-endian 32-bit integer
+     *
+     * @param bytes  The array
+     * @param offset The index of the first byte
+     * @return The value
+     */
+    private static int readInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) << 24 | (bytes[offset + 1] & 0xFF) << 16
+                | (bytes[offset + 2] & 0xFF) << 8 | (bytes[offset + 3] & 0xFF);
+    }
+
+    /**
+     * Writes the frames of a connection from its reading thread and the scheduler
+     */
+    private static final class FrameWriter {
+
+        /**
+         * The stream frames are written to
+         */
+        private final OutputStream mOutputStream;
+
+        /**
+         * The HPACK encoder of the response headers
+         */
+        private final Hpack.Encoder mEncoder = new Hpack.Encoder();
+
+        /**
+         * Constructor
+         *
+         * @param outputStream The stream frames are written to
+         */
+        FrameWriter(OutputStream outputStream) {
+            this.mOutputStream = outputStream;
+        }
+
+        /**
+         * Writes a 200 response's headers and its body in DATA frames
+         *
+         * @param streamId The stream id
+         * @param body     The body
+         * @throws IOException
+         */
+        synchronized void writeResponse(int streamId, byte[] body) throws IOException {
+            final List<String> names = new ArrayList<String>();
+            final List<String> values = new ArrayList<String>();
+            names.add(":status");
+            values.add("200");
+            names.add("content-length");
+            values.add(String.valueOf(body.length));
+            final ByteArrayOutputStream block = new ByteArrayOutputStream();
+            this.mEncoder.encode(names, values, block);
+            this.writeFrame(Http2Connection.TYPE_HEADERS, Http2Connection.FLAG_END_HEADERS,
+                    streamId, block.toByteArray(), 0, block.size());
+            int offset = 0;
+            while (offset < body.length) {
+                final int length = Math.min(body.length - offset,
+                        Http2Connection.DEFAULT_MAX_FRAME_SIZE);
+                this.writeFrame(Http2Connection.TYPE_DATA, offset + length == body.length
+                        ? Http2Connection.FLAG_END_STREAM : 0, streamId, body, offset, length);
+                offset += length;
+            }
+        }
+
+        /**
+         * Writes a frame
+         *
+         * @param type     The frame type
+         * @param flags    The flags
+         * @param streamId The stream id
+         * @param payload  The payload
+         * @param offset   The index of the first byte of the payload
+         * @param length   The length of the payload
+         * @throws IOException
+         */
+        synchronized void writeFrame(int type, int flags, int streamId, byte[] payload,
+                                     int offset, int length) throws IOException {
+            final byte[] header = new byte[9];
+            header[0] = (byte) (length >>> 16);
+            header[1] = (byte) (length >>> 8);
+            header[2] = (byte) length;
+            header[3] = (byte) type;
+            header[4] = (byte) flags;
+            writeInt(header, 5, streamId);
+            this.mOutputStream.write(header);
+            this.mOutputStream.write(payload, offset, length);
+            this.mOutputStream.flush();
+        }
+
+    }
+
+}
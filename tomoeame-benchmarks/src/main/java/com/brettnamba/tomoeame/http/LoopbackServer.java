@@ -0,0 +1,620 @@
+package com.brettnamba.tomoeame.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * HTTP/1.1 server on the loopback interface that the benchmarks send requests to.
+ *
+ * Every request is answered with a 200 and a body of the configured length, and request bodies
+ * with a Content-Length or in chunks are read and discarded.  A latency can be added before each
+ * response, and a share of the requests can be answered with a 503 instead, spread evenly over
+ * the requests so a run injects the same errors every time.  Range requests can be answered with
+ * a 206 and the part of the body they ask for, so a resource can be downloaded in segments.
+ * Connections are kept alive and
+ * each is served by its own thread, and the connections accepted are counted so a load test can
+ * tell how many sockets the client used.  The server runs in the same JVM as the benchmark, so it
+ * parses requests in a reused buffer and writes a prebuilt response, which keeps its allocations
+ * out of the allocation rate reported for the client.
+ *
+ * @author Brett Namba (https://github.com/bretten)
+ */
+public final class LoopbackServer implements Runnable {
+
+    /**
+     * The length of the buffer each connection reads requests into
+     */
+    private static final int BUFFER_LENGTH = 16 * 1024;
+
+    /**
+     * The lowercase name of the Content-Length header followed by its colon
+     */
+    private static final byte[] CONTENT_LENGTH = ascii("content-length:");
+
+    /**
+     * The lowercase name of the Transfer-Encoding header followed by its colon
+     */
+    private static final byte[] TRANSFER_ENCODING = ascii("transfer-encoding:");
+
+    /**
+     * The lowercase name of the Range header followed by its colon
+     */
+    private static final byte[] RANGE = ascii("range:");
+
+    /**
+     * The ETag of the body when Range requests are supported, which never changes
+     */
+    private static final String ETAG = "\"loopback\"";
+
+    /**
+     * The response to a request that an error is injected into
+     */
+    private static final byte[] ERROR_RESPONSE =
+            ascii("HTTP/1.1 503 Service Unavailable\r\nContent-Length: 0\r\n\r\n");
+
+    /**
+     * The listening socket
+     */
+    private final ServerSocket mServerSocket;
+
+    /**
+     * The head and body of the response
+     */
+    private volatile byte[] mResponse;
+
+    /**
+     * The delay in milliseconds before each response is written
+     */
+    private volatile long mLatencyMillis;
+
+    /**
+     * The share of the requests from 0 to 1 that are answered with a 503
+     */
+    private volatile double mErrorRate;
+
+    /**
+     * Determines if Range requests are answered with a 206
+     */
+    private volatile boolean mIsRangesSupported;
+
+    /**
+     * The number of connections accepted
+     */
+    private final AtomicLong mConnectionCount = new AtomicLong();
+
+    /**
+     * The number of requests read
+     */
+    private final AtomicLong mRequestCount = new AtomicLong();
+
+    /**
+     * The number of requests answered with a 503
+     */
+    private final AtomicLong mErrorCount = new AtomicLong();
+
+    /**
+     * Constructor that starts accepting connections
+     *
+     * @param responseBodyLength The length of the body of every response
+     * @throws IOException If the socket could not be bound
+     */
+    public LoopbackServer(int responseBodyLength) throws IOException {
+        this.setResponseBodyLength(responseBodyLength);
+        this.mServerSocket = new ServerSocket(0, 128, InetAddress.getByName("127.0.0.1"));
+        final Thread thread = new Thread(this, "LoopbackServer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Sets the length of the body of every response
+     *
+     * @param responseBodyLength The length in bytes
+     */
+    public void setResponseBodyLength(int responseBodyLength) {
+        if (responseBodyLength < 0) {
+            throw new IllegalArgumentException("Response body length cannot be negative");
+        }
+        final byte[] head = ascii("HTTP/1.1 200 OK\r\nContent-Type: text/plain; charset=utf-8\r\n"
+                + (this.mIsRangesSupported ? "Accept-Ranges: bytes\r\nETag: " + ETAG + "\r\n" : "")
+                + "Content-Length: " + responseBodyLength + "\r\n\r\n");
+        final byte[] response = Arrays.copyOf(head, head.length + responseBodyLength);
+        Arrays.fill(response, head.length, response.length, (byte) 'x');
+        this.mResponse = response;
+    }
+
+    /**
+     * Sets if Range requests are answered with a 206 Partial Content.  Responses then carry an
+     * ETag that never changes, so every If-Range matches.
+     *
+     * @param isRangesSupported True to answer Range requests with the part they ask for
+     */
+    public void setRangesSupported(boolean isRangesSupported) {
+        this.mIsRangesSupported = isRangesSupported;
+        final byte[] response = this.mResponse;
+        this.setResponseBodyLength(response.length - getHeadLength(response));
+    }
+
+    /**
+     * Sets the delay before each response is written, which stands in for the time a real server
+     * takes to handle the request
+     *
+     * @param latencyMillis The delay in milliseconds
+     */
+    public void setLatency(long latencyMillis) {
+        if (latencyMillis < 0) {
+            throw new IllegalArgumentException("Latency cannot be negative");
+        }
+        this.mLatencyMillis = latencyMillis;
+    }
+
+    /**
+     * Sets the share of the requests that are answered with a 503 Service Unavailable
+     *
+     * @param errorRate The share from 0 to 1
+     */
+    public void setErrorRate(double errorRate) {
+        if (errorRate < 0 || errorRate > 1) {
+            throw new IllegalArgumentException("Error rate must be from 0 to 1");
+        }
+        this.mErrorRate = errorRate;
+    }
+
+    /**
+     * Returns the number of connections accepted since the server started
+     *
+     * @return The number of connections
+     */
+    public long getConnectionCount() {
+        return this.mConnectionCount.get();
+    }
+
+    /**
+     * Returns the number of requests read since the server started
+     *
+     * @return The number of requests
+     */
+    public long getRequestCount() {
+        return this.mRequestCount.get();
+    }
+
+    /**
+     * Returns the number of requests answered with a 503 since the server started
+     *
+     * @return The number of requests
+     */
+    public long getErrorCount() {
+        return this.mErrorCount.get();
+    }
+
+    /**
+     * Returns the base URL of the server
+     *
+     * @return The URL without a trailing slash
+     */
+    public String getUrl() {
+        return "http://127.0.0.1:" + this.mServerSocket.getLocalPort();
+    }
+
+    /**
+     * Stops accepting connections
+     */
+    public void close() {
+        try {
+            this.mServerSocket.close();
+        } catch (IOException e) {
+        }
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            final Socket socket;
+            try {
+                socket = this.mServerSocket.accept();
+                socket.setTcpNoDelay(true);
+                this.mConnectionCount.incrementAndGet();
+            } catch (IOException e) {
+                return;
+            }
+            final Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    LoopbackServer.this.serve(socket);
+                }
+            }, "LoopbackServer connection");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Serves the requests of one connection until the client closes it
+     *
+     * @param socket The connection
+     */
+    private void serve(Socket socket) {
+        try {
+            final RequestReader reader = new RequestReader(socket.getInputStream());
+            final OutputStream out = socket.getOutputStream();
+            while (reader.readRequest()) {
+                final long latencyMillis = this.mLatencyMillis;
+                if (latencyMillis > 0) {
+                    Thread.sleep(latencyMillis);
+                }
+                if (this.isErrorInjected()) {
+                    out.write(ERROR_RESPONSE);
+                } else if (this.mIsRangesSupported && reader.getRangeStart() >= 0) {
+                    this.writePartialResponse(out, reader.getRangeStart(), reader.getRangeEnd());
+                } else {
+                    out.write(this.mResponse);
+                }
+                out.flush();
+            }
+        } catch (IOException e) {
+        } catch (InterruptedException e) {
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    /**
+     * Writes a 206 response with part of the body.  Its head is built for each request, but
+     * downloads in segments send few requests for large parts, so that does not skew them.
+     *
+     * @param out   The connection's stream
+     * @param start The index of the first byte requested
+     * @param end   The index of the last byte requested or -1 for the rest of the body
+     * @throws IOException
+     */
+    private void writePartialResponse(OutputStream out, long start, long end) throws IOException {
+        final byte[] response = this.mResponse;
+        final int headLength = getHeadLength(response);
+        final int bodyLength = response.length - headLength;
+        if (start >= bodyLength) {
+            out.write(ascii("HTTP/1.1 416 Range Not Satisfiable\r\nContent-Range: bytes */"
+                    + bodyLength + "\r\nContent-Length: 0\r\n\r\n"));
+            return;
+        }
+        final int last = (int) (end < 0 || end >= bodyLength ? bodyLength - 1 : end);
+        final int length = last - (int) start + 1;
+        out.write(ascii("HTTP/1.1 206 Partial Content\r\nContent-Type: text/plain; charset=utf-8"
+                + "\r\nETag: " + ETAG + "\r\nContent-Range: bytes " + start + "-" + last + "/"
+                + bodyLength + "\r\nContent-Length: " + length + "\r\n\r\n"));
+        out.write(response, headLength + (int) start, length);
+    }
+
+    /**
+     * Counts a request and determines if it is answered with an error.  The nth request fails
+     * when n times the error rate passes a whole number, so the errors are spread evenly instead
+     * of at random.
+     *
+     * @return True if the request is answered with a 503
+     */
+    private boolean isErrorInjected() {
+        final long n = this.mRequestCount.incrementAndGet();
+        final double errorRate = this.mErrorRate;
+        if ((long) (n * errorRate) == (long) ((n - 1) * errorRate)) {
+            return false;
+        }
+        this.mErrorCount.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Returns the length of the head of a prebuilt response
+     *
+     * @param response The head and body of the response
+     * @return The index after the blank line ending the head
+     */
+    private static int getHeadLength(byte[] response) {
+        for (int i = 3; i < response.length; i++) {
+            if (response[i] == '\n' && response[i - 1] == '\r' && response[i - 2] == '\n'
+                    && response[i - 3] == '\r') {
+                return i + 1;
+            }
+        }
+        return response.length;
+    }
+
+    /**
+     * Returns the ASCII bytes of text
+     *
+     * @param text The text
+     * @return The bytes
+     */
+    private static byte[] ascii(String text) {
+        try {
+            return text.getBytes("US-ASCII");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Reads the requests of a connection through a reused buffer without building Strings
+     */
+    private static final class RequestReader {
+
+        /**
+         * The connection's stream
+         */
+        private final InputStream mInputStream;
+
+        /**
+         * The buffer the requests are read into
+         */
+        private final byte[] mBuffer = new byte[BUFFER_LENGTH];
+
+        /**
+         * The index of the first unread byte in the buffer
+         */
+        private int mStart;
+
+        /**
+         * The index after the last byte read into the buffer
+         */
+        private int mEnd;
+
+        /**
+         * The first byte of the Range of the last request or -1 if it had none
+         */
+        private long mRangeStart;
+
+        /**
+         * The last byte of the Range of the last request or -1 if it runs to the end
+         */
+        private long mRangeEnd;
+
+        /**
+         * Constructor
+         *
+         * @param inputStream The connection's stream
+         */
+        RequestReader(InputStream inputStream) {
+            this.mInputStream = inputStream;
+        }
+
+        /**
+         * Reads the head of the next request and discards its body
+         *
+         * @return True if a request was read or false if the connection was closed
+         * @throws IOException If the connection failed or the request is malformed
+         */
+        boolean readRequest() throws IOException {
+            int headEnd;
+            while ((headEnd = this.indexOf("\r\n\r\n")) < 0) {
+                if (!this.fill()) {
+                    return false;
+                }
+            }
+            final long contentLength = this.parseContentLength(headEnd);
+            final boolean isChunked = this.findHeader(TRANSFER_ENCODING, headEnd) >= 0;
+            this.parseRange(headEnd);
+            this.mStart = headEnd + 4;
+            if (isChunked) {
+                long chunkLength;
+                while ((chunkLength = this.readChunkLength()) > 0) {
+                    this.skip(chunkLength);
+                    this.skipLine();
+                }
+                this.skipLine();
+            } else if (contentLength > 0) {
+                this.skip(contentLength);
+            }
+            return true;
+        }
+
+        /**
+         * Returns the first byte of the Range of the last request
+         *
+         * @return The index or -1 if the request had no Range
+         */
+        long getRangeStart() {
+            return this.mRangeStart;
+        }
+
+        /**
+         * Returns the last byte of the Range of the last request
+         *
+         * @return The index or -1 if the Range runs to the end of the body
+         */
+        long getRangeEnd() {
+            return this.mRangeEnd;
+        }
+
+        /**
+         * Parses a Range header such as "bytes=0-499" in the request head
+         *
+         * @param headEnd The index of the blank line ending the head
+         */
+        private void parseRange(int headEnd) {
+            this.mRangeStart = -1;
+            this.mRangeEnd = -1;
+            int position = this.findHeader(RANGE, headEnd);
+            if (position < 0) {
+                return;
+            }
+            while (position < headEnd && this.mBuffer[position] != '=') {
+                position++;
+            }
+            long start = -1;
+            long end = -1;
+            boolean isEnd = false;
+            for (position++; position < headEnd && this.mBuffer[position] != '\r'; position++) {
+                final byte b = this.mBuffer[position];
+                if (b == '-') {
+                    isEnd = true;
+                } else if (b >= '0' && b <= '9') {
+                    if (isEnd) {
+                        end = (end < 0 ? 0 : end * 10) + (b - '0');
+                    } else {
+                        start = (start < 0 ? 0 : start * 10) + (b - '0');
+                    }
+                }
+            }
+            this.mRangeStart = start;
+            this.mRangeEnd = end;
+        }
+
+        /**
+         * Parses the Content-Length of the request head
+         *
+         * @param headEnd The index of the blank line ending the head
+         * @return The length or 0 if there is none
+         */
+        private long parseContentLength(int headEnd) {
+            int position = this.findHeader(CONTENT_LENGTH, headEnd);
+            if (position < 0) {
+                return 0;
+            }
+            long length = 0;
+            for (; position < headEnd && this.mBuffer[position] != '\r'; position++) {
+                final byte b = this.mBuffer[position];
+                if (b >= '0' && b <= '9') {
+                    length = length * 10 + (b - '0');
+                }
+            }
+            return length;
+        }
+
+        /**
+         * Finds a header in the request head
+         *
+         * @param name    The lowercase header name followed by its colon
+         * @param headEnd The index of the blank line ending the head
+         * @return The index after the colon or -1 if the header is not in the head
+         */
+        private int findHeader(byte[] name, int headEnd) {
+            for (int i = this.mStart; i < headEnd; i++) {
+                // Headers start after a line break
+                if (this.mBuffer[i] != '\n' || i + name.length >= headEnd) {
+                    continue;
+                }
+                int j = 0;
+                while (j < name.length && (this.mBuffer[i + 1 + j] | 0x20) == name[j]) {
+                    j++;
+                }
+                if (j == name.length) {
+                    return i + 1 + j;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Reads the line holding the length of the next chunk
+         *
+         * @return The length of the chunk, which is 0 for the last chunk
+         * @throws IOException If the connection failed or the chunk header is malformed
+         */
+        private long readChunkLength() throws IOException {
+            int lineEnd;
+            while ((lineEnd = this.indexOf("\r\n")) < 0) {
+                if (!this.fill()) {
+                    throw new IOException("The connection closed inside a chunked body");
+                }
+            }
+            long length = 0;
+            for (int i = this.mStart; i < lineEnd; i++) {
+                final int digit = Character.digit(this.mBuffer[i], 16);
+                if (digit < 0) {
+                    break;
+                }
+                length = length * 16 + digit;
+            }
+            this.mStart = lineEnd + 2;
+            return length;
+        }
+
+        /**
+         * Skips the rest of the current line, including its line break
+         *
+         * @throws IOException If the connection failed
+         */
+        private void skipLine() throws IOException {
+            int lineEnd;
+            while ((lineEnd = this.indexOf("\r\n")) < 0) {
+                if (!this.fill()) {
+                    throw new IOException("The connection closed inside a chunked body");
+                }
+            }
+            this.mStart = lineEnd + 2;
+        }
+
+        /**
+         * Skips bytes of the body
+         *
+         * @param length The number of bytes
+         * @throws IOException If the connection closed first
+         */
+        private void skip(long length) throws IOException {
+            long remaining = length;
+            while (remaining > 0) {
+                if (this.mStart == this.mEnd && !this.fill()) {
+                    throw new IOException("The connection closed inside a body");
+                }
+                final int skipped = (int) Math.min(remaining, this.mEnd - this.mStart);
+                this.mStart += skipped;
+                remaining -= skipped;
+            }
+        }
+
+        /**
+         * Finds ASCII text in the unread bytes
+         *
+         * @param text The text
+         * @return The index of the text or -1 if it was not read yet
+         */
+        private int indexOf(String text) {
+            final int last = this.mEnd - text.length();
+            for (int i = this.mStart; i <= last; i++) {
+                int j = 0;
+                while (j < text.length() && this.mBuffer[i + j] == text.charAt(j)) {
+                    j++;
+                }
+                if (j == text.length()) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Reads more bytes after the unread ones, moving them to the start of the buffer first
+         *
+         * @return True if bytes were read or false if the connection was closed
+         * @throws IOException If the connection failed or a line does not fit in the buffer
+         */
+        private boolean fill() throws IOException {
+            if (this.mStart > 0) {
+                System.arraycopy(this.mBuffer, this.mStart, this.mBuffer, 0,
+                        this.mEnd - this.mStart);
+                this.mEnd -= this.mStart;
+                this.mStart = 0;
+            }
+            if (this.mEnd == this.mBuffer.length) {
+                throw new IOException("The request head is too large");
+            }
+            final int read = this.mInputStream.read(this.mBuffer, this.mEnd,
+                    this.mBuffer.length - this.mEnd);
+            if (read == -1) {
+                return false;
+            }
+            this.mEnd += read;
+            return true;
+        }
+
+    }
+
+}
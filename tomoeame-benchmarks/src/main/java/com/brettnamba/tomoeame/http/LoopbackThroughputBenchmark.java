@@ -0,0 +1,160 @@
+package com.brettnamba.tomoeame.http;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the end-to-end throughput of GET, form POST and multi-part POST requests sent through
+ * one HttpClient to a LoopbackServer in the same JVM, including building the request, the
+ * pooled keep-alive connection and reading the response body into a String.  Run it with more
+ * threads, such as -t 8, to measure the client under concurrency.
+ *
+ * @author Brett Namba (https://github.com/bretten)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoopbackThroughputBenchmark {
+
+    /**
+     * The number of fields of each form
+     */
+    private static final int FORM_FIELD_COUNT = 10;
+
+    /**
+     * The length of the file of each multi-part request
+     */
+    private static final int FILE_LENGTH = 64 * 1024;
+
+    /**
+     * The length of the body of every response
+     */
+    @Param({"1024", "65536"})
+    public int responseBodyLength;
+
+    /**
+     * The server the requests are sent to
+     */
+    private LoopbackServer mServer;
+
+    /**
+     * The client the requests are sent through
+     */
+    private HttpClient mClient;
+
+    /**
+     * The URL of the GET requests
+     */
+    private String mItemUrl;
+
+    /**
+     * The URL of the POST requests
+     */
+    private String mFormUrl;
+
+    /**
+     * The file of each multi-part request
+     */
+    private FileUpload mFileUpload;
+
+    /**
+     * Starts the server and creates the client
+     *
+     * @throws IOException
+     */
+    @Setup
+    public void setUp() throws IOException {
+        this.mServer = new LoopbackServer(this.responseBodyLength);
+        this.mClient = new HttpClient();
+        this.mItemUrl = this.mServer.getUrl() + "/items/1";
+        this.mFormUrl = this.mServer.getUrl() + "/form";
+        this.mFileUpload = new InMemoryFileUpload(FILE_LENGTH);
+    }
+
+    /**
+     * Stops the server
+     */
+    @TearDown
+    public void tearDown() {
+        this.mServer.close();
+    }
+
+    /**
+     * Sends a GET request
+     *
+     * @return The response body
+     */
+    @Benchmark
+    public String get() {
+        return checkResponse(this.send(new HttpUrlGetRequest(this.mItemUrl)));
+    }
+
+    /**
+     * Sends a form POST request
+     *
+     * @return The response body
+     */
+    @Benchmark
+    public String postForm() {
+        final HttpUrlWwwFormRequest request = new HttpUrlWwwFormRequest(this.mFormUrl);
+        for (int i = 0; i < FORM_FIELD_COUNT; i++) {
+            request.addRequestParameter("field", "value");
+        }
+        return checkResponse(this.send(request));
+    }
+
+    /**
+     * Sends a multi-part POST request with one parameter and one file
+     *
+     * @return The response body
+     */
+    @Benchmark
+    public String postMultiPart() {
+        final HttpUrlMultiPartRequest request = new HttpUrlMultiPartRequest(this.mFormUrl);
+        request.addRequestParameter("field", "value");
+        request.addFileUpload("file", this.mFileUpload);
+        return checkResponse(this.send(request));
+    }
+
+    /**
+     * Sends a request through the client
+     *
+     * @param request The request
+     * @return The request
+     */
+    private HttpUrlConnectionRequest send(HttpUrlConnectionRequest request) {
+        request.send(this.mClient);
+        return request;
+    }
+
+    /**
+     * Fails the run if a request did not succeed, so errors are never measured as throughput
+     *
+     * @param request The request that was sent
+     * @return The response body
+     */
+    private static String checkResponse(HttpUrlConnectionRequest request) {
+        if (request.getException() != null || request.getResponseCode() != 200) {
+            throw new IllegalStateException("The request failed with "
+                    + request.getResponseCode(), request.getException());
+        }
+        return request.getResponseBody();
+    }
+
+}
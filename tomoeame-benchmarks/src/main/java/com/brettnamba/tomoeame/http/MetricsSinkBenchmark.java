@@ -0,0 +1,105 @@
+package com.brettnamba.tomoeame.http;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of measuring calls by sending GET requests to a LoopbackServer in the same
+ * JVM with and without a HistogramMetricsSink.
+ *
+ * @author Brett Namba (https://github.com/bretten)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MetricsSinkBenchmark {
+
+    /**
+     * The length of the body of every response
+     */
+    private static final int RESPONSE_BODY_LENGTH = 1000;
+
+    /**
+     * Determines if the calls are published to a HistogramMetricsSink
+     */
+    @Param({"false", "true"})
+    public boolean isMeasured;
+
+    /**
+     * The server the requests are sent to
+     */
+    private LoopbackServer mServer;
+
+    /**
+     * The client the requests are sent through
+     */
+    private HttpClient mClient;
+
+    /**
+     * The sink the calls are published to
+     */
+    private HistogramMetricsSink mSink;
+
+    /**
+     * The URL of the requests
+     */
+    private String mUrl;
+
+    /**
+     * Starts the server and creates the client
+     *
+     * @throws IOException
+     */
+    @Setup
+    public void setUp() throws IOException {
+        this.mServer = new LoopbackServer(RESPONSE_BODY_LENGTH);
+        this.mClient = new HttpClient();
+        this.mSink = new HistogramMetricsSink();
+        if (this.isMeasured) {
+            this.mClient.setMetricsSink(this.mSink);
+        }
+        this.mUrl = this.mServer.getUrl() + "/items/1";
+    }
+
+    /**
+     * Stops the server
+     */
+    @TearDown
+    public void tearDown() {
+        this.mServer.close();
+    }
+
+    /**
+     * Sends a GET request for an endpoint template, published to the sink if it is measured
+     *
+     * @return The response body
+     */
+    @Benchmark
+    public String get() {
+        final HttpUrlGetRequest request = new HttpUrlGetRequest(this.mUrl);
+        request.setEndpointTemplate("/items/{id}");
+        request.send(this.mClient);
+        if (request.getException() != null || request.getResponseCode() != 200) {
+            throw new IllegalStateException("The request failed with "
+                    + request.getResponseCode(), request.getException());
+        }
+        return request.getResponseBody();
+    }
+
+}
@@ -0,0 +1,90 @@
+package com.brettnamba.tomoeame.http;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures framing the body of a HttpUrlMultiPartRequest before it is sent: generating the
+ * boundary, converting each parameter to its part with getRequestParameterAsBytes(), building
+ * the header of a file and summing the length of the body with determineRequestBodyLength().
+ * Nothing is sent, and the file's metadata is in memory, so only the framing is measured.
+ *
+ * @author Brett Namba (https://github.com/bretten)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MultiPartFramingBenchmark {
+
+    /**
+     * The URL the requests are built for
+     */
+    private static final String REQUEST_URL = "http://127.0.0.1:8080/upload";
+
+    /**
+     * The file each request uploads
+     */
+    private static final FileUpload FILE_UPLOAD = new InMemoryFileUpload(1024 * 1024);
+
+    /**
+     * The number of parameters sent before the file
+     */
+    @Param({"0", "10", "100"})
+    public int parameterCount;
+
+    /**
+     * The names of the parameters
+     */
+    private String[] mNames;
+
+    /**
+     * The values of the parameters
+     */
+    private String[] mValues;
+
+    /**
+     * Builds the parameters, so their Strings are not part of the measurement
+     */
+    @Setup
+    public void setUp() {
+        this.mNames = new String[this.parameterCount];
+        this.mValues = new String[this.parameterCount];
+        for (int i = 0; i < this.parameterCount; i++) {
+            this.mNames[i] = "field" + i;
+            this.mValues[i] = "value " + i;
+        }
+    }
+
+    /**
+     * Frames a request with the parameters and one file
+     *
+     * @return The length of the request body
+     * @throws IOException
+     */
+    @Benchmark
+    public long frameRequestBody() throws IOException {
+        final HttpUrlMultiPartRequest request = new HttpUrlMultiPartRequest(REQUEST_URL);
+        for (int i = 0; i < this.parameterCount; i++) {
+            request.addRequestParameter(this.mNames[i], this.mValues[i]);
+        }
+        request.addFileUpload("file", FILE_UPLOAD);
+        request.prepareRequest();
+        return request.determineRequestBodyLength();
+    }
+
+}
@@ -0,0 +1,104 @@
+package com.brettnamba.tomoeame.http;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures reading response bodies of 1 KB to 10 MB.  buildResponseBody() reads the body with
+ * ResponseBody.string(), so it is measured here over an in-memory stream, both when the
+ * Content-Length is known and when it is not, such as for a chunked or decompressed response.
+ *
+ * @author Brett Namba (https://github.com/bretten)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResponseBodyBenchmark {
+
+    /**
+     * The Content-Type of the bodies
+     */
+    private static final String CONTENT_TYPE = "application/json; charset=utf-8";
+
+    /**
+     * The length of the body
+     */
+    @Param({"1024", "65536", "1048576", "10485760"})
+    public int bodyLength;
+
+    /**
+     * Determines if the Content-Length of the body is known
+     */
+    @Param({"true", "false"})
+    public boolean isLengthKnown;
+
+    /**
+     * The body, which is ASCII JSON like most API responses
+     */
+    private byte[] mBody;
+
+    /**
+     * Builds the body
+     *
+     * @throws UnsupportedEncodingException
+     */
+    @Setup
+    public void setUp() throws UnsupportedEncodingException {
+        final byte[] item = "{\"id\":12345,\"name\":\"item\",\"tags\":[\"a\",\"b\"]},"
+                .getBytes("US-ASCII");
+        this.mBody = new byte[this.bodyLength];
+        for (int i = 0; i < this.bodyLength; i += item.length) {
+            System.arraycopy(item, 0, this.mBody, i, Math.min(item.length, this.bodyLength - i));
+        }
+    }
+
+    /**
+     * Reads the body into a String, as buildResponseBody() does
+     *
+     * @return The body
+     * @throws IOException
+     */
+    @Benchmark
+    public String string() throws IOException {
+        return this.open().string();
+    }
+
+    /**
+     * Reads the body into a byte array
+     *
+     * @return The body
+     * @throws IOException
+     */
+    @Benchmark
+    public byte[] bytes() throws IOException {
+        return this.open().bytes();
+    }
+
+    /**
+     * Opens the body over an in-memory stream
+     *
+     * @return The body
+     */
+    private ResponseBody open() {
+        return new ResponseBody(new ByteArrayInputStream(this.mBody), CONTENT_TYPE,
+                this.isLengthKnown ? this.mBody.length : -1);
+    }
+
+}
@@ -0,0 +1,118 @@
+package com.brettnamba.tomoeame.http;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures GET requests sent from 8 threads at once to a LoopbackServer in the same JVM through
+ * the platform HttpURLConnection and through the NioTransport, with and without pipelining.  The
+ * connections are opened directly on the transport, so only the transport is measured.
+ *
+ * @author Brett Namba (https://github.com/bretten)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+@Fork(1)
+public class TransportBenchmark {
+
+    /**
+     * The length of the body of every response
+     */
+    private static final int RESPONSE_BODY_LENGTH = 512;
+
+    /**
+     * The transport the requests are sent through
+     */
+    @Param({"platform", "nio", "nio-pipelined"})
+    public String transport;
+
+    /**
+     * The server the requests are sent to
+     */
+    private LoopbackServer mServer;
+
+    /**
+     * The transport the requests are sent through
+     */
+    private Transport mTransport;
+
+    /**
+     * The URL of the requests
+     */
+    private URL mUrl;
+
+    /**
+     * Starts the server and creates the transport
+     *
+     * @throws IOException
+     */
+    @Setup
+    public void setUp() throws IOException {
+        this.mServer = new LoopbackServer(RESPONSE_BODY_LENGTH);
+        this.mUrl = new URL(this.mServer.getUrl() + "/items/1");
+        if ("platform".equals(this.transport)) {
+            this.mTransport = HttpUrlConnectionTransport.getDefault();
+        } else {
+            final NioTransport nioTransport = new NioTransport();
+            nioTransport.setPipeliningEnabled("nio-pipelined".equals(this.transport));
+            this.mTransport = nioTransport;
+        }
+    }
+
+    /**
+     * Closes the pooled sockets and stops the server
+     */
+    @TearDown
+    public void tearDown() {
+        if (this.mTransport instanceof NioTransport) {
+            ((NioTransport) this.mTransport).evictAll();
+        }
+        this.mServer.close();
+    }
+
+    /**
+     * Sends a GET request and reads the response body
+     *
+     * @return The number of body bytes read
+     * @throws IOException
+     */
+    @Benchmark
+    public int get() throws IOException {
+        final HttpURLConnection connection = this.mTransport.openConnection(this.mUrl);
+        if (connection.getResponseCode() != 200) {
+            throw new IllegalStateException("The request failed with "
+                    + connection.getResponseCode());
+        }
+        final InputStream inputStream = connection.getInputStream();
+        final byte[] buffer = new byte[RESPONSE_BODY_LENGTH];
+        int length = 0;
+        int bytesRead;
+        while ((bytesRead = inputStream.read(buffer)) != -1) {
+            length += bytesRead;
+        }
+        inputStream.close();
+        return length;
+    }
+
+}
@@ -0,0 +1,97 @@
+package com.brettnamba.tomoeame.http;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures URL encoding parameters into a query string, as urlEncodeParameters() does, and into
+ * a form body, against the URLEncoder loop the encoders replaced.
+ *
+ * @author Brett Namba (https://github.com/bretten)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UrlEncodeParametersBenchmark {
+
+    /**
+     * The number of parameters encoded
+     */
+    @Param({"1", "10", "100", "1000"})
+    public int parameterCount;
+
+    /**
+     * The parameters, whose values mix plain, reserved and non-ASCII characters
+     */
+    private List<Pair<String, String>> mParameters;
+
+    /**
+     * Builds the parameters
+     */
+    @Setup
+    public void setUp() {
+        this.mParameters = new ArrayList<Pair<String, String>>(this.parameterCount);
+        for (int i = 0; i < this.parameterCount; i++) {
+            this.mParameters.add(new Pair<String, String>("field" + i,
+                    "value " + i + " & more=stuff/\u00fc"));
+        }
+    }
+
+    /**
+     * Encodes the parameters into a query string
+     *
+     * @return The query string
+     */
+    @Benchmark
+    public String queryString() {
+        return HttpUrlConnectionRequest.urlEncodeToString(this.mParameters);
+    }
+
+    /**
+     * Encodes the parameters into a form body of the exact length
+     *
+     * @return The form body
+     */
+    @Benchmark
+    public byte[] formBody() {
+        return HttpUrlConnectionRequest.urlEncodeToBytes(this.mParameters);
+    }
+
+    /**
+     * Encodes the parameters into a form body with URLEncoder and a StringBuilder
+     *
+     * @return The form body
+     * @throws UnsupportedEncodingException
+     */
+    @Benchmark
+    public byte[] urlEncoderBaseline() throws UnsupportedEncodingException {
+        final StringBuilder builder = new StringBuilder();
+        for (Pair<String, String> parameter : this.mParameters) {
+            if (builder.length() > 0) {
+                builder.append('&');
+            }
+            builder.append(URLEncoder.encode(parameter.first, "UTF-8")).append('=')
+                    .append(URLEncoder.encode(parameter.second, "UTF-8"));
+        }
+        return builder.toString().getBytes("UTF-8");
+    }
+
+}
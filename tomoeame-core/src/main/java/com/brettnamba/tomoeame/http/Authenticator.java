@@ -0,0 +1,34 @@
+package com.brettnamba.tomoeame.http;
+
+import java.io.IOException;
+
+/**
+ * Provides the value of the HTTP authentication header of a request when it is sent.
+ *
+ * A request asks for the value before its first attempt, so constructing a request never blocks
+ * on fetching a token.  When the server responds with 401 Unauthorized, the rejected value is
+ * invalidated and the request is retried once with a new one.  On Android, an implementation
+ * backed by the AccountManager is returned by AuthTokenProvider.getAuthenticator().
+ *
+ * @author Brett Namba (https://github.com/bretten)
+ */
+public interface Authenticator {
+
+    /**
+     * Returns the value of the authentication header.  It is called on the sending thread and may
+     * block, for example to fetch a token.
+     *
+     * @return The header value or null to send the request without one
+     * @throws IOException If the value could not be fetched
+     */
+    String getAuthHeaderValue() throws IOException;
+
+    /**
+     * Called when the server rejected a header value, so the next call to getAuthHeaderValue()
+     * returns a new one
+     *
+     * @param headerValue The header value that was rejected
+     */
+    void invalidate(String headerValue);
+
+}
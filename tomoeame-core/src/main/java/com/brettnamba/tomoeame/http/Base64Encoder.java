@@ -0,0 +1,61 @@
+package com.brettnamba.tomoeame.http;
+
+/**
+ * Utility class for encoding bytes as URL-safe Base64.
+ *
+ * The output matches android.util.Base64.encodeToString() with the URL_SAFE and NO_WRAP flags,
+ * so "-" and "_" replace "+" and "/", the output is padded with "=" and it is not split into
+ * lines.  It is used to encode the authentication header value.
+ *
+ * @author Brett Namba (https://github.com/bretten)
+ */
+public final class Base64Encoder {
+
+    /**
+     * The URL-safe Base64 alphabet
+     */
+    private static final char[] ALPHABET =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+
+    /**
+     * Private constructor to prevent instantiation
+     */
+    private Base64Encoder() {
+    }
+
+    /**
+     * Encodes the bytes as padded URL-safe Base64
+     *
+     * @param bytes The bytes to encode
+     * @return The encoded text
+     */
+    public static String encodeUrlSafe(byte[] bytes) {
+        if (bytes == null) {
+            throw new IllegalArgumentException("Bytes cannot be null");
+        }
+        final char[] chars = new char[(bytes.length + 2) / 3 * 4];
+        int position = 0;
+        int i = 0;
+        // Encode each full group of three bytes as four characters
+        for (final int end = bytes.length - bytes.length % 3; i < end; i += 3) {
+            final int group = (bytes[i] & 0xFF) << 16 | (bytes[i + 1] & 0xFF) << 8
+                    | (bytes[i + 2] & 0xFF);
+            chars[position++] = ALPHABET[group >>> 18];
+            chars[position++] = ALPHABET[(group >>> 12) & 0x3F];
+            chars[position++] = ALPHABET[(group >>> 6) & 0x3F];
+            chars[position++] = ALPHABET[group & 0x3F];
+        }
+        // Pad the last one or two bytes
+        final int remaining = bytes.length - i;
+        if (remaining > 0) {
+            final int group = (bytes[i] & 0xFF) << 16
+                    | (remaining == 2 ? (bytes[i + 1] & 0xFF) << 8 : 0);
+            chars[position++] = ALPHABET[group >>> 18];
+            chars[position++] = ALPHABET[(group >>> 12) & 0x3F];
+            chars[position++] = remaining == 2 ? ALPHABET[(group >>> 6) & 0x3F] : '=';
+            chars[position] = '=';
+        }
+        return new String(chars);
+    }
+
+}
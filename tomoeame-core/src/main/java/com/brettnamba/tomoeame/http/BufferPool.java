@@ -0,0 +1,329 @@
+package com.brettnamba.tomoeame.http;
+
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded pool of byte arrays that request bodies, response bodies and file uploads are copied
+ * through.
+ *
+ * Arrays are grouped in size classes that are powers of two from 4 KB to 256 KB, so a request
+ * for a buffer is served by the smallest class that fits it.  Returned arrays are kept until the
+ * pool retains its maximum number of bytes, after which they are left to the garbage collector.
+ * Arrays larger than the largest class are never pooled.  Each class has its own lock so threads
+ * copying different sizes do not contend.
+ *
+ * An array belongs to its borrower until it is released, and must be released at most once.  By
+ * default the pool does not check this, so a double release hands the same array to two
+ * borrowers.  A pool that tracks its loans checks every release against the arrays it lent out
+ * and rejects the ones it did not lend or that were already returned, which makes ownership
+ * bugs visible while debugging at the cost of a lock per acquire() and release().
+ *
+ * @author Brett Namba (https://github.com/bretten)
+ */
+public class BufferPool {
+
+    /**
+     * The length of the smallest size class
+     */
+    public static final int MIN_POOLED_LENGTH = 4 * 1024;
+
+    /**
+     * The length of the largest size class
+     */
+    public static final int MAX_POOLED_LENGTH = 256 * 1024;
+
+    /**
+     * The default maximum number of bytes kept by the pool
+     */
+    public static final long DEFAULT_MAX_RETAINED_BYTES = 1024 * 1024;
+
+    /**
+     * The log2 of the smallest size class
+     */
+    private static final int MIN_POOLED_SHIFT = 12;
+
+    /**
+     * The lazily created pool shared by all requests
+     */
+    private static BufferPool sDefaultPool;
+
+    /**
+     * The free arrays of each size class, from smallest to largest
+     */
+    private final ArrayDeque<byte[]>[] mFreeBuffers;
+
+    /**
+     * The maximum number of bytes kept by the pool
+     */
+    private final long mMaxRetainedBytes;
+
+    /**
+     * The number of bytes currently kept by the pool
+     */
+    private final AtomicLong mRetainedBytes = new AtomicLong();
+
+    /**
+     * Collection of the arrays currently lent out, compared by identity, or null if loans are not
+     * tracked
+     */
+    private final Map<byte[], Boolean> mLoans;
+
+    /**
+     * The number of arrays that had to be allocated
+     */
+    private final AtomicLong mAllocatedCount = new AtomicLong();
+
+    /**
+     * The number of bytes that had to be allocated
+     */
+    private final AtomicLong mAllocatedBytes = new AtomicLong();
+
+    /**
+     * The number of arrays that were served from the pool
+     */
+    private final AtomicLong mReusedCount = new AtomicLong();
+
+    /**
+     * The number of returned arrays that were not kept
+     */
+    private final AtomicLong mDiscardedCount = new AtomicLong();
+
+    /**
+     * Constructs a pool that keeps at most the default number of bytes
+     */
+    public BufferPool() {
+        this(DEFAULT_MAX_RETAINED_BYTES);
+    }
+
+    /**
+     * Constructs a pool that does not track its loans
+     *
+     * @param maxRetainedBytes The maximum number of bytes kept by the pool
+     */
+    public BufferPool(long maxRetainedBytes) {
+        this(maxRetainedBytes, false);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param maxRetainedBytes The maximum number of bytes kept by the pool
+     * @param isTrackingLoans  True to reject releases of arrays that are not lent out
+     */
+    @SuppressWarnings("unchecked")
+    public BufferPool(long maxRetainedBytes, boolean isTrackingLoans) {
+        if (maxRetainedBytes < 0) {
+            throw new IllegalArgumentException("The maximum retained bytes cannot be negative");
+        }
+        this.mMaxRetainedBytes = maxRetainedBytes;
+        final int sizeClassCount = getSizeClass(MAX_POOLED_LENGTH) + 1;
+        this.mFreeBuffers = (ArrayDeque<byte[]>[]) new ArrayDeque<?>[sizeClassCount];
+        for (int i = 0; i < this.mFreeBuffers.length; i++) {
+            this.mFreeBuffers[i] = new ArrayDeque<byte[]>();
+        }
+        this.mLoans = isTrackingLoans ? new IdentityHashMap<byte[], Boolean>() : null;
+    }
+
+    /**
+     * Returns the shared pool, creating it if it does not exist yet
+     *
+     * @return The shared pool
+     */
+    public static synchronized BufferPool getDefault() {
+        if (sDefaultPool == null) {
+            sDefaultPool = new BufferPool();
+        }
+        return sDefaultPool;
+    }
+
+    /**
+     * Borrows an array that is at least as long as the specified length.  The array may contain
+     * data from its previous use and should be returned with release() once it is no longer used.
+     *
+     * @param minLength The minimum length of the array
+     * @return The array
+     */
+    public byte[] acquire(int minLength) {
+        final byte[] buffer = this.borrow(minLength);
+        if (this.mLoans != null) {
+            synchronized (this.mLoans) {
+                this.mLoans.put(buffer, Boolean.TRUE);
+            }
+        }
+        return buffer;
+    }
+
+    /**
+     * Returns an array to the pool.  The array must not be used afterwards and must not be
+     * released again.  Unless the pool tracks its loans, arrays that were not borrowed from a
+     * pool are accepted if their length matches a size class.
+     *
+     * @param buffer The array, which may be null
+     * @throws IllegalArgumentException If the pool tracks its loans and did not lend the array
+     *                                  out, or it was already released
+     */
+    public void release(byte[] buffer) {
+        if (buffer == null) {
+            return;
+        }
+        if (this.mLoans != null) {
+            synchronized (this.mLoans) {
+                if (this.mLoans.remove(buffer) == null) {
+                    throw new IllegalArgumentException(
+                            "The buffer was not lent out by this pool or was already released");
+                }
+            }
+        }
+        final int length = buffer.length;
+        if (length < MIN_POOLED_LENGTH || length > MAX_POOLED_LENGTH
+                || (length & (length - 1)) != 0) {
+            this.mDiscardedCount.incrementAndGet();
+            return;
+        }
+        // Reserve the bytes first so concurrent releases cannot exceed the maximum
+        long retainedBytes;
+        do {
+            retainedBytes = this.mRetainedBytes.get();
+            if (retainedBytes + length > this.mMaxRetainedBytes) {
+                this.mDiscardedCount.incrementAndGet();
+                return;
+            }
+        } while (!this.mRetainedBytes.compareAndSet(retainedBytes, retainedBytes + length));
+        final ArrayDeque<byte[]> freeBuffers = this.mFreeBuffers[getSizeClass(length)];
+        synchronized (freeBuffers) {
+            freeBuffers.push(buffer);
+        }
+    }
+
+    /**
+     * Releases every array kept by the pool
+     */
+    public void clear() {
+        for (ArrayDeque<byte[]> freeBuffers : this.mFreeBuffers) {
+            synchronized (freeBuffers) {
+                byte[] buffer;
+                while ((buffer = freeBuffers.poll()) != null) {
+                    this.mRetainedBytes.addAndGet(-buffer.length);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the number of arrays currently lent out, which is only counted if the pool tracks
+     * its loans
+     *
+     * @return The lent out array count or -1 if loans are not tracked
+     */
+    public int getLoanCount() {
+        if (this.mLoans == null) {
+            return -1;
+        }
+        synchronized (this.mLoans) {
+            return this.mLoans.size();
+        }
+    }
+
+    /**
+     * Returns the number of bytes currently kept by the pool
+     *
+     * @return The retained byte count
+     */
+    public long getRetainedBytes() {
+        return this.mRetainedBytes.get();
+    }
+
+    /**
+     * Returns the number of arrays that had to be allocated because the pool had none to reuse
+     *
+     * @return The allocated array count
+     */
+    public long getAllocatedCount() {
+        return this.mAllocatedCount.get();
+    }
+
+    /**
+     * Returns the number of bytes that had to be allocated because the pool had none to reuse
+     *
+     * @return The allocated byte count
+     */
+    public long getAllocatedBytes() {
+        return this.mAllocatedBytes.get();
+    }
+
+    /**
+     * Returns the number of arrays that were served from the pool
+     *
+     * @return The reused array count
+     */
+    public long getReusedCount() {
+        return this.mReusedCount.get();
+    }
+
+    /**
+     * Returns the number of returned arrays that were not kept because the pool was full or
+     * their length did not match a size class
+     *
+     * @return The discarded array count
+     */
+    public long getDiscardedCount() {
+        return this.mDiscardedCount.get();
+    }
+
+    /**
+     * Takes an array that is at least as long as the specified length from the pool or allocates
+     * one
+     *
+     * @param minLength The minimum length of the array
+     * @return The array
+     */
+    private byte[] borrow(int minLength) {
+        if (minLength < 0) {
+            throw new IllegalArgumentException("The length cannot be negative");
+        }
+        if (minLength > MAX_POOLED_LENGTH) {
+            return this.allocate(minLength);
+        }
+        final int sizeClass = getSizeClass(minLength);
+        final ArrayDeque<byte[]> freeBuffers = this.mFreeBuffers[sizeClass];
+        final byte[] buffer;
+        synchronized (freeBuffers) {
+            buffer = freeBuffers.poll();
+        }
+        if (buffer == null) {
+            return this.allocate(MIN_POOLED_LENGTH << sizeClass);
+        }
+        this.mRetainedBytes.addAndGet(-buffer.length);
+        this.mReusedCount.incrementAndGet();
+        return buffer;
+    }
+
+    /**
+     * Allocates a new array and counts it
+     *
+     * @param length The length of the array
+     * @return The array
+     */
+    private byte[] allocate(int length) {
+        this.mAllocatedCount.incrementAndGet();
+        this.mAllocatedBytes.addAndGet(length);
+        return new byte[length];
+    }
+
+    /**
+     * Returns the index of the smallest size class that fits the length
+     *
+     * @param length The length, which must not exceed the largest size class
+     * @return The size class index
+     */
+    private static int getSizeClass(int length) {
+        if (length <= MIN_POOLED_LENGTH) {
+            return 0;
+        }
+        return 32 - Integer.numberOfLeadingZeros(length - 1) - MIN_POOLED_SHIFT;
+    }
+
+}
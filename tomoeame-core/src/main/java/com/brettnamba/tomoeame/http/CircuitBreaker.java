@@ -0,0 +1,317 @@
+package com.brettnamba.tomoeame.http;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Circuit breaker that stops requests from being sent to a host that is failing.
+ *
+ * While closed, the outcomes of the most recent calls are kept in a sliding window.  A call
+ * fails if it ends with an exception or a server error, or if it takes longer than the slow call
+ * threshold.  Once enough calls were made and the share of failures reaches the threshold, the
+ * breaker opens and rejects every call without touching the network.  After the open duration it
+ * becomes half-open and lets a few trial calls through: if they all succeed it closes again,
+ * otherwise it opens for another period.
+ *
+ * @author Brett Namba (https://github.com/bretten)
+ */
+public class CircuitBreaker {
+
+    /**
+     * The default number of recent calls whose outcomes are kept
+     */
+    public static final int DEFAULT_WINDOW_SIZE = 20;
+
+    /**
+     * The default number of calls that must be made before the breaker can open
+     */
+    public static final int DEFAULT_MINIMUM_CALLS = 10;
+
+    /**
+     * The default share of failed calls at which the breaker opens
+     */
+    public static final float DEFAULT_FAILURE_RATE_THRESHOLD = 0.5f;
+
+    /**
+     * The default duration after which a call is counted as failed for being slow
+     */
+    public static final long DEFAULT_SLOW_CALL_MILLIS = 10 * 1000;
+
+    /**
+     * The default duration calls are rejected for once the breaker opens
+     */
+    public static final long DEFAULT_OPEN_MILLIS = 30 * 1000;
+
+    /**
+     * The default number of trial calls let through while half-open
+     */
+    public static final int DEFAULT_HALF_OPEN_CALLS = 3;
+
+    /**
+     * The states of the breaker
+     */
+    public enum State {
+
+        /**
+         * Calls are let through and their outcomes are recorded
+         */
+        CLOSED,
+
+        /**
+         * Calls are rejected
+         */
+        OPEN,
+
+        /**
+         * A limited number of trial calls are let through to decide whether to close
+         */
+        HALF_OPEN
+
+    }
+
+    /**
+     * The number of recent calls whose outcomes are kept
+     */
+    private final int mWindowSize;
+
+    /**
+     * The number of calls that must be made before the breaker can open
+     */
+    private final int mMinimumCalls;
+
+    /**
+     * The share of failed calls at which the breaker opens
+     */
+    private final float mFailureRateThreshold;
+
+    /**
+     * The duration after which a call is counted as failed for being slow
+     */
+    private final long mSlowCallMillis;
+
+    /**
+     * The duration calls are rejected for once the breaker opens
+     */
+    private final long mOpenMillis;
+
+    /**
+     * The number of trial calls let through while half-open
+     */
+    private final int mHalfOpenCalls;
+
+    /**
+     * Ring buffer of the outcomes of the most recent calls, where true is a failure
+     */
+    private final boolean[] mOutcomes;
+
+    /**
+     * The index the next outcome is written to
+     */
+    private int mOutcomeIndex;
+
+    /**
+     * The number of outcomes in the window
+     */
+    private int mOutcomeCount;
+
+    /**
+     * The number of failures in the window
+     */
+    private int mFailureCount;
+
+    /**
+     * The current state, which is read without locking so open breakers reject calls quickly
+     */
+    private volatile State mState = State.CLOSED;
+
+    /**
+     * The System.nanoTime() at which an open breaker becomes half-open
+     */
+    private volatile long mOpenUntilNanos;
+
+    /**
+     * The number of trial calls that can still be let through while half-open
+     */
+    private int mHalfOpenPermits;
+
+    /**
+     * The number of trial calls that succeeded while half-open
+     */
+    private int mHalfOpenSuccesses;
+
+    /**
+     * The number of calls that were rejected
+     */
+    private final AtomicLong mRejectedCount = new AtomicLong();
+
+    /**
+     * Constructs a breaker with the default settings
+     */
+    public CircuitBreaker() {
+        this(DEFAULT_WINDOW_SIZE, DEFAULT_MINIMUM_CALLS, DEFAULT_FAILURE_RATE_THRESHOLD,
+                DEFAULT_SLOW_CALL_MILLIS, DEFAULT_OPEN_MILLIS, DEFAULT_HALF_OPEN_CALLS);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param windowSize           The number of recent calls whose outcomes are kept
+     * @param minimumCalls         The number of calls that must be made before it can open
+     * @param failureRateThreshold The share of failed calls, from 0 to 1, at which it opens
+     * @param slowCallMillis       The duration after which a call is counted as failed
+     * @param openMillis           The duration calls are rejected for once it opens
+     * @param halfOpenCalls        The number of trial calls let through while half-open
+     */
+    public CircuitBreaker(int windowSize, int minimumCalls, float failureRateThreshold,
+                          long slowCallMillis, long openMillis, int halfOpenCalls) {
+        if (windowSize < 1 || minimumCalls < 1 || minimumCalls > windowSize) {
+            throw new IllegalArgumentException("The window size and minimum calls are invalid");
+        }
+        if (failureRateThreshold <= 0 || failureRateThreshold > 1) {
+            throw new IllegalArgumentException("The failure rate threshold must be in (0, 1]");
+        }
+        if (slowCallMillis <= 0 || openMillis <= 0 || halfOpenCalls < 1) {
+            throw new IllegalArgumentException("The durations and trial calls must be positive");
+        }
+        this.mWindowSize = windowSize;
+        this.mMinimumCalls = minimumCalls;
+        this.mFailureRateThreshold = failureRateThreshold;
+        this.mSlowCallMillis = slowCallMillis;
+        this.mOpenMillis = openMillis;
+        this.mHalfOpenCalls = halfOpenCalls;
+        this.mOutcomes = new boolean[windowSize];
+    }
+
+    /**
+     * Creates a closed breaker with the same settings
+     *
+     * @return The new breaker
+     */
+    CircuitBreaker newInstance() {
+        return new CircuitBreaker(this.mWindowSize, this.mMinimumCalls, this.mFailureRateThreshold,
+                this.mSlowCallMillis, this.mOpenMillis, this.mHalfOpenCalls);
+    }
+
+    /**
+     * Determines if a call may be made.  Every call that is let through must be followed by
+     * onResult() or onIgnored().
+     *
+     * @return True if the call may be made, false if it is rejected
+     */
+    public boolean tryAcquire() {
+        // Reject without locking while the breaker is open
+        if (this.mState == State.OPEN && System.nanoTime() - this.mOpenUntilNanos < 0) {
+            this.mRejectedCount.incrementAndGet();
+            return false;
+        }
+        synchronized (this) {
+            if (this.mState == State.OPEN) {
+                if (System.nanoTime() - this.mOpenUntilNanos < 0) {
+                    this.mRejectedCount.incrementAndGet();
+                    return false;
+                }
+                // The open duration passed, so let some trial calls through
+                this.mState = State.HALF_OPEN;
+                this.mHalfOpenPermits = this.mHalfOpenCalls;
+                this.mHalfOpenSuccesses = 0;
+            }
+            if (this.mState == State.HALF_OPEN) {
+                if (this.mHalfOpenPermits == 0) {
+                    this.mRejectedCount.incrementAndGet();
+                    return false;
+                }
+                this.mHalfOpenPermits--;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Records the outcome of a call that was let through
+     *
+     * @param isFailure     True if the call ended with an exception or a server error
+     * @param latencyMillis The duration of the call
+     */
+    public synchronized void onResult(boolean isFailure, long latencyMillis) {
+        final boolean isFailed = isFailure || latencyMillis >= this.mSlowCallMillis;
+        if (this.mState == State.HALF_OPEN) {
+            if (isFailed) {
+                this.open();
+            } else if (++this.mHalfOpenSuccesses >= this.mHalfOpenCalls) {
+                this.close();
+            }
+            return;
+        } else if (this.mState == State.OPEN) {
+            // The call was made before the breaker opened
+            return;
+        }
+
+        // Replace the oldest outcome in the window
+        if (this.mOutcomeCount == this.mWindowSize) {
+            if (this.mOutcomes[this.mOutcomeIndex]) {
+                this.mFailureCount--;
+            }
+        } else {
+            this.mOutcomeCount++;
+        }
+        this.mOutcomes[this.mOutcomeIndex] = isFailed;
+        if (isFailed) {
+            this.mFailureCount++;
+        }
+        this.mOutcomeIndex = (this.mOutcomeIndex + 1) % this.mWindowSize;
+
+        if (this.mOutcomeCount >= this.mMinimumCalls
+                && this.mFailureCount >= this.mFailureRateThreshold * this.mOutcomeCount) {
+            this.open();
+        }
+    }
+
+    /**
+     * Releases a call that was let through but never made, for example because it was cancelled
+     */
+    public synchronized void onIgnored() {
+        if (this.mState == State.HALF_OPEN && this.mHalfOpenPermits < this.mHalfOpenCalls) {
+            this.mHalfOpenPermits++;
+        }
+    }
+
+    /**
+     * Returns the current state
+     *
+     * @return The state
+     */
+    public State getState() {
+        if (this.mState == State.OPEN && System.nanoTime() - this.mOpenUntilNanos >= 0) {
+            return State.HALF_OPEN;
+        }
+        return this.mState;
+    }
+
+    /**
+     * Returns the number of calls that were rejected
+     *
+     * @return The rejected call count
+     */
+    public long getRejectedCount() {
+        return this.mRejectedCount.get();
+    }
+
+    /**
+     * Opens the breaker so calls are rejected for the open duration
+     */
+    private void open() {
+        this.mOpenUntilNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.mOpenMillis);
+        this.mState = State.OPEN;
+    }
+
+    /**
+     * Closes the breaker and forgets the previous outcomes
+     */
+    private void close() {
+        this.mOutcomeIndex = 0;
+        this.mOutcomeCount = 0;
+        this.mFailureCount = 0;
+        this.mState = State.CLOSED;
+    }
+
+}
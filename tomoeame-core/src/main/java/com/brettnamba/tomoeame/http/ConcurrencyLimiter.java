@@ -0,0 +1,186 @@
+package com.brettnamba.tomoeame.http;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Adaptive limit on the number of concurrent calls to a host.
+ *
+ * The limit follows additive increase, multiplicative decrease: each successful call raises it by
+ * 1 / limit, so it grows by about one per round of calls, while each call the server drops with a
+ * 429 or a server error cuts it by the backoff ratio.  Calls over the limit are rejected
+ * immediately rather than queued, so a struggling server sees less traffic right away.
+ *
+ * @author Brett Namba (https://github.com/bretten)
+ */
+public class ConcurrencyLimiter {
+
+    /**
+     * The default limit before any calls are made
+     */
+    public static final int DEFAULT_INITIAL_LIMIT = 8;
+
+    /**
+     * The default lowest limit
+     */
+    public static final int DEFAULT_MIN_LIMIT = 1;
+
+    /**
+     * The default highest limit
+     */
+    public static final int DEFAULT_MAX_LIMIT = 64;
+
+    /**
+     * The default ratio the limit is multiplied by when a call is dropped
+     */
+    public static final double DEFAULT_BACKOFF_RATIO = 0.5;
+
+    /**
+     * The limit before any calls are made
+     */
+    private final int mInitialLimit;
+
+    /**
+     * The lowest limit
+     */
+    private final int mMinLimit;
+
+    /**
+     * The highest limit
+     */
+    private final int mMaxLimit;
+
+    /**
+     * The ratio the limit is multiplied by when a call is dropped
+     */
+    private final double mBackoffRatio;
+
+    /**
+     * The current limit, which is fractional so the additive increase can accumulate
+     */
+    private double mLimit;
+
+    /**
+     * The number of calls in flight
+     */
+    private int mInFlightCount;
+
+    /**
+     * The number of calls that were rejected
+     */
+    private final AtomicLong mRejectedCount = new AtomicLong();
+
+    /**
+     * Constructs a limiter with the default settings
+     */
+    public ConcurrencyLimiter() {
+        this(DEFAULT_INITIAL_LIMIT, DEFAULT_MIN_LIMIT, DEFAULT_MAX_LIMIT, DEFAULT_BACKOFF_RATIO);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param initialLimit The limit before any calls are made
+     * @param minLimit     The lowest limit
+     * @param maxLimit     The highest limit
+     * @param backoffRatio The ratio, from 0 to 1, the limit is multiplied by when a call is dropped
+     */
+    public ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, double backoffRatio) {
+        if (minLimit < 1 || maxLimit < minLimit || initialLimit < minLimit
+                || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("The limits are invalid");
+        }
+        if (backoffRatio <= 0 || backoffRatio >= 1) {
+            throw new IllegalArgumentException("The backoff ratio must be in (0, 1)");
+        }
+        this.mInitialLimit = initialLimit;
+        this.mMinLimit = minLimit;
+        this.mMaxLimit = maxLimit;
+        this.mBackoffRatio = backoffRatio;
+        this.mLimit = initialLimit;
+    }
+
+    /**
+     * Creates a limiter with the same settings and the initial limit
+     *
+     * @return The new limiter
+     */
+    ConcurrencyLimiter newInstance() {
+        return new ConcurrencyLimiter(this.mInitialLimit, this.mMinLimit, this.mMaxLimit,
+                this.mBackoffRatio);
+    }
+
+    /**
+     * Determines if a call may be made.  Every call that is let through must be followed by
+     * onSuccess(), onDropped() or onIgnored().
+     *
+     * @return True if the call may be made, false if it is rejected
+     */
+    public synchronized boolean tryAcquire() {
+        if (this.mInFlightCount >= (int) this.mLimit) {
+            this.mRejectedCount.incrementAndGet();
+            return false;
+        }
+        this.mInFlightCount++;
+        return true;
+    }
+
+    /**
+     * Records a call that succeeded and raises the limit
+     */
+    public synchronized void onSuccess() {
+        this.release();
+        this.mLimit = Math.min(this.mMaxLimit, this.mLimit + 1 / this.mLimit);
+    }
+
+    /**
+     * Records a call the server dropped or failed and lowers the limit
+     */
+    public synchronized void onDropped() {
+        this.release();
+        this.mLimit = Math.max(this.mMinLimit, this.mLimit * this.mBackoffRatio);
+    }
+
+    /**
+     * Releases a call without changing the limit, for example because it was cancelled
+     */
+    public synchronized void onIgnored() {
+        this.release();
+    }
+
+    /**
+     * Returns the current limit
+     *
+     * @return The limit
+     */
+    public synchronized int getLimit() {
+        return (int) this.mLimit;
+    }
+
+    /**
+     * Returns the number of calls in flight
+     *
+     * @return The in flight call count
+     */
+    public synchronized int getInFlightCount() {
+        return this.mInFlightCount;
+    }
+
+    /**
+     * Returns the number of calls that were rejected
+     *
+     * @return The rejected call count
+     */
+    public long getRejectedCount() {
+        return this.mRejectedCount.get();
+    }
+
+    /**
+     * Removes a call from the in flight count
+     */
+    private void release() {
+        if (this.mInFlightCount > 0) {
+            this.mInFlightCount--;
+        }
+    }
+
+}
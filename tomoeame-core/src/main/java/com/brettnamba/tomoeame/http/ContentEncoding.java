@@ -0,0 +1,148 @@
+package com.brettnamba.tomoeame.http;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Utility class for compressing HTTP request bodies and decompressing HTTP response bodies
+ *
+ * @author Brett Namba (https://github.com/bretten)
+ */
+public final class ContentEncoding {
+
+    /**
+     * The gzip content coding
+     */
+    public static final String GZIP = "gzip";
+
+    /**
+     * The deflate content coding
+     */
+    public static final String DEFLATE = "deflate";
+
+    /**
+     * The value of the Accept-Encoding header listing the content codings that can be decoded
+     */
+    public static final String ACCEPT_ENCODING = GZIP + ", " + DEFLATE;
+
+    /**
+     * The buffer length used by the decompressing streams
+     */
+    private static final int BUFFER_LENGTH = 8192;
+
+    /**
+     * Private constructor to prevent instantiation
+     */
+    private ContentEncoding() {
+    }
+
+    /**
+     * Compresses the bytes using gzip
+     *
+     * @param bytes The bytes to compress
+     * @return The compressed bytes
+     * @throws IOException
+     */
+    public static byte[] gzip(byte[] bytes) throws IOException {
+        return gzip(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Compresses a range of bytes using gzip
+     *
+     * @param bytes  The bytes to compress
+     * @param offset The offset of the first byte to compress
+     * @param length The number of bytes to compress
+     * @return The compressed bytes
+     * @throws IOException
+     */
+    public static byte[] gzip(byte[] bytes, int offset, int length) throws IOException {
+        // Compress into a pooled array so only the exact result is allocated
+        final PooledByteArrayOutputStream outputStream =
+                new PooledByteArrayOutputStream(BufferPool.getDefault(), length / 4 + 32);
+        final GZIPOutputStream gzipOutputStream = new GZIPOutputStream(outputStream);
+        try {
+            gzipOutputStream.write(bytes, offset, length);
+            gzipOutputStream.finish();
+            return outputStream.toByteArray();
+        } finally {
+            // Also returns the pooled array
+            gzipOutputStream.close();
+        }
+    }
+
+    /**
+     * Wraps a response stream so that it is decompressed according to the Content-Encoding of
+     * the response.  Streams with no or an unknown content coding are returned as is.
+     *
+     * @param inputStream     The response stream
+     * @param contentEncoding The value of the Content-Encoding header
+     * @return The decompressed response stream
+     * @throws IOException
+     */
+    public static InputStream decode(InputStream inputStream, String contentEncoding)
+            throws IOException {
+        if (inputStream == null || contentEncoding == null) {
+            return inputStream;
+        }
+        final String coding = contentEncoding.trim();
+        if (GZIP.equalsIgnoreCase(coding) || "x-gzip".equalsIgnoreCase(coding)) {
+            return new GZIPInputStream(inputStream, BUFFER_LENGTH);
+        } else if (DEFLATE.equalsIgnoreCase(coding)) {
+            return inflate(inputStream);
+        }
+        return inputStream;
+    }
+
+    /**
+     * Determines if the content coding can be decoded by decode()
+     *
+     * @param contentEncoding The value of the Content-Encoding header
+     * @return True if the coding is supported, otherwise false
+     */
+    public static boolean isSupported(String contentEncoding) {
+        if (contentEncoding == null) {
+            return false;
+        }
+        final String coding = contentEncoding.trim();
+        return GZIP.equalsIgnoreCase(coding) || "x-gzip".equalsIgnoreCase(coding)
+                || DEFLATE.equalsIgnoreCase(coding);
+    }
+
+    /**
+     * Wraps a deflate stream.  The deflate coding is meant to be zlib wrapped, but some servers
+     * send raw deflate data, so the zlib header is checked before choosing the Inflater mode.
+     *
+     * @param inputStream The deflate compressed stream
+     * @return The decompressed stream
+     * @throws IOException
+     */
+    private static InputStream inflate(InputStream inputStream) throws IOException {
+        final BufferedInputStream bufferedInputStream = new BufferedInputStream(inputStream, 2);
+        bufferedInputStream.mark(2);
+        final int cmf = bufferedInputStream.read();
+        final int flg = bufferedInputStream.read();
+        bufferedInputStream.reset();
+        // A zlib header has compression method 8 and a checksum that is a multiple of 31
+        final boolean isZlibWrapped = cmf != -1 && flg != -1 && (cmf & 0x0F) == 8
+                && ((cmf << 8) | flg) % 31 == 0;
+        return new InflaterInputStream(bufferedInputStream, new Inflater(!isZlibWrapped),
+                BUFFER_LENGTH) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    // The Inflater was supplied, so the stream does not release it on its own
+                    this.inf.end();
+                }
+            }
+        };
+    }
+
+}
@@ -0,0 +1,380 @@
+package com.brettnamba.tomoeame.http;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs asynchronous calls on a bounded pool of threads.  At most a fixed number of calls run at
+ * once overall and per host, and any calls beyond those limits wait in a queue in the order they
+ * were enqueued.
+ *
+ * Calls that are dropped without running, because the queue was canceled, the dispatcher was
+ * shut down or the executor rejected them, are still completed: a Future is canceled and a
+ * Droppable is told it was dropped, so nothing waits forever on a call that will never run.
+ *
+ * @author Brett Namba (https://github.com/bretten)
+ */
+public class Dispatcher {
+
+    /**
+     * The default maximum number of calls that run at once
+     */
+    public static final int DEFAULT_MAX_REQUESTS = 64;
+
+    /**
+     * The default maximum number of calls to a single host that run at once
+     */
+    public static final int DEFAULT_MAX_REQUESTS_PER_HOST = 5;
+
+    /**
+     * The number of seconds an idle worker thread is kept before it is stopped
+     */
+    private static final long KEEP_ALIVE_SECONDS = 60;
+
+    /**
+     * The executor that runs the calls
+     */
+    private final ExecutorService mExecutorService;
+
+    /**
+     * The maximum number of calls that run at once
+     */
+    private final int mMaxRequests;
+
+    /**
+     * The maximum number of calls to a single host that run at once
+     */
+    private final int mMaxRequestsPerHost;
+
+    /**
+     * Calls that are waiting to run
+     */
+    private final ArrayDeque<Call> mReadyCalls = new ArrayDeque<Call>();
+
+    /**
+     * The number of calls currently running
+     */
+    private int mRunningCallCount;
+
+    /**
+     * Collection mapping the host key to the number of calls to that host currently running
+     */
+    private final Map<String, Integer> mRunningCallCountsByHost = new HashMap<String, Integer>();
+
+    /**
+     * Determines if the dispatcher was shut down and rejects new calls
+     */
+    private boolean mIsShutdown;
+
+    /**
+     * Constructs a dispatcher with the default limits
+     */
+    public Dispatcher() {
+        this(DEFAULT_MAX_REQUESTS, DEFAULT_MAX_REQUESTS_PER_HOST);
+    }
+
+    /**
+     * Constructs a dispatcher with its own pool of worker threads
+     *
+     * @param maxRequests        The maximum number of calls that run at once
+     * @param maxRequestsPerHost The maximum number of calls to a single host that run at once
+     */
+    public Dispatcher(int maxRequests, int maxRequestsPerHost) {
+        this(newWorkerExecutor(maxRequests), maxRequests, maxRequestsPerHost);
+    }
+
+    /**
+     * Constructs a dispatcher that runs calls on the specified executor.  The executor must be
+     * able to run at least maxRequests tasks at once.
+     *
+     * @param executorService    The executor that runs the calls
+     * @param maxRequests        The maximum number of calls that run at once
+     * @param maxRequestsPerHost The maximum number of calls to a single host that run at once
+     */
+    public Dispatcher(ExecutorService executorService, int maxRequests, int maxRequestsPerHost) {
+        if (executorService == null) {
+            throw new IllegalArgumentException("Executor cannot be null");
+        }
+        if (maxRequests <= 0 || maxRequestsPerHost <= 0) {
+            throw new IllegalArgumentException("Request limits must be positive");
+        }
+        this.mExecutorService = executorService;
+        this.mMaxRequests = maxRequests;
+        this.mMaxRequestsPerHost = maxRequestsPerHost;
+    }
+
+    /**
+     * Queues a call to run as soon as the overall and per-host limits allow.  If the work is a
+     * Future it is canceled, or if it is a Droppable it is told, should it be dropped before it
+     * runs.
+     *
+     * @param hostKey  The key identifying the host the call connects to
+     * @param runnable The work to run
+     * @throws RejectedExecutionException If the dispatcher was shut down
+     */
+    public void enqueue(String hostKey, Runnable runnable) {
+        if (hostKey == null || runnable == null) {
+            throw new IllegalArgumentException("Host key or runnable cannot be null");
+        }
+        synchronized (this) {
+            if (this.mIsShutdown) {
+                throw new RejectedExecutionException("The dispatcher was shut down");
+            }
+            this.mReadyCalls.add(new Call(hostKey, runnable));
+        }
+        this.promoteCalls();
+    }
+
+    /**
+     * Returns the number of calls waiting to run
+     *
+     * @return The number of queued calls
+     */
+    public synchronized int getQueuedCallCount() {
+        return this.mReadyCalls.size();
+    }
+
+    /**
+     * Returns the number of calls currently running
+     *
+     * @return The number of running calls
+     */
+    public synchronized int getRunningCallCount() {
+        return this.mRunningCallCount;
+    }
+
+    /**
+     * Returns whether the dispatcher was shut down
+     *
+     * @return True if it rejects new calls
+     */
+    public synchronized boolean isShutdown() {
+        return this.mIsShutdown;
+    }
+
+    /**
+     * Removes all calls that have not started running yet and completes each as dropped
+     */
+    public void cancelQueuedCalls() {
+        final List<Call> droppedCalls;
+        synchronized (this) {
+            droppedCalls = new ArrayList<Call>(this.mReadyCalls);
+            this.mReadyCalls.clear();
+        }
+        for (Call call : droppedCalls) {
+            call.drop();
+        }
+    }
+
+    /**
+     * Stops accepting calls, drops the queued calls and stops the worker threads once running
+     * calls have finished
+     */
+    public void shutdown() {
+        synchronized (this) {
+            this.mIsShutdown = true;
+        }
+        this.cancelQueuedCalls();
+        this.mExecutorService.shutdown();
+    }
+
+    /**
+     * Creates the executor of worker threads.  Its size is fixed to the maximum number of calls
+     * so the threads are bounded, but idle threads are still allowed to time out.
+     *
+     * @param maxThreads The maximum number of worker threads
+     * @return The executor
+     */
+    private static ExecutorService newWorkerExecutor(int maxThreads) {
+        if (maxThreads <= 0) {
+            throw new IllegalArgumentException("Request limits must be positive");
+        }
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(maxThreads, maxThreads,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new WorkerThreadFactory());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Moves as many ready calls as the limits allow to the executor.  A call the executor rejects
+     * gives its slot back and is dropped.
+     */
+    private void promoteCalls() {
+        while (true) {
+            Call call = null;
+            synchronized (this) {
+                if (this.mRunningCallCount >= this.mMaxRequests) {
+                    return;
+                }
+                final Iterator<Call> iterator = this.mReadyCalls.iterator();
+                while (iterator.hasNext()) {
+                    final Call candidate = iterator.next();
+                    if (this.getRunningCallCount(candidate.hostKey) < this.mMaxRequestsPerHost) {
+                        iterator.remove();
+                        call = candidate;
+                        break;
+                    }
+                }
+                if (call == null) {
+                    return;
+                }
+                this.mRunningCallCount++;
+                this.mRunningCallCountsByHost.put(call.hostKey,
+                        this.getRunningCallCount(call.hostKey) + 1);
+            }
+            try {
+                this.mExecutorService.execute(call);
+            } catch (RejectedExecutionException e) {
+                synchronized (this) {
+                    this.decrementRunningCallCount(call.hostKey);
+                }
+                call.drop();
+            }
+        }
+    }
+
+    /**
+     * Marks a call as finished and starts any calls that were waiting on it
+     *
+     * @param call The call that finished
+     */
+    private void finished(Call call) {
+        synchronized (this) {
+            this.decrementRunningCallCount(call.hostKey);
+        }
+        this.promoteCalls();
+    }
+
+    /**
+     * Gives back the slot of a call overall and for its host.  Must be called while holding the
+     * dispatcher's lock.
+     *
+     * @param hostKey The key identifying the host the call connects to
+     */
+    private void decrementRunningCallCount(String hostKey) {
+        this.mRunningCallCount--;
+        final int remaining = this.getRunningCallCount(hostKey) - 1;
+        if (remaining > 0) {
+            this.mRunningCallCountsByHost.put(hostKey, remaining);
+        } else {
+            this.mRunningCallCountsByHost.remove(hostKey);
+        }
+    }
+
+    /**
+     * Returns the number of running calls to the specified host.  Must be called while holding
+     * the dispatcher's lock.
+     *
+     * @param hostKey The key identifying the host
+     * @return The number of running calls to the host
+     */
+    private int getRunningCallCount(String hostKey) {
+        final Integer count = this.mRunningCallCountsByHost.get(hostKey);
+        return count != null ? count : 0;
+    }
+
+    /**
+     * Work queued on the dispatcher along with the host it connects to
+     */
+    private final class Call implements Runnable {
+
+        /**
+         * The key identifying the host the call connects to
+         */
+        final String hostKey;
+
+        /**
+         * The work to run
+         */
+        final Runnable runnable;
+
+        /**
+         * Constructor
+         *
+         * @param hostKey  The key identifying the host the call connects to
+         * @param runnable The work to run
+         */
+        Call(String hostKey, Runnable runnable) {
+            this.hostKey = hostKey;
+            this.runnable = runnable;
+        }
+
+        /**
+         * Runs the work and then notifies the dispatcher it has finished
+         */
+        @Override
+        public void run() {
+            try {
+                this.runnable.run();
+            } finally {
+                Dispatcher.this.finished(this);
+            }
+        }
+
+        /**
+         * Completes the work without running it
+         */
+        void drop() {
+            if (this.runnable instanceof Future) {
+                ((Future<?>) this.runnable).cancel(false);
+            } else if (this.runnable instanceof Droppable) {
+                ((Droppable) this.runnable).onDropped();
+            }
+        }
+
+    }
+
+    /**
+     * Work that is told when it is dropped without running, so whoever waits on it can be
+     * released
+     */
+    public interface Droppable extends Runnable {
+
+        /**
+         * Called instead of run() if the work was dropped from the queue, the dispatcher was shut
+         * down or the executor rejected it
+         */
+        void onDropped();
+
+    }
+
+    /**
+     * Creates daemon worker threads so pending calls do not keep the process alive
+     */
+    private static final class WorkerThreadFactory implements ThreadFactory {
+
+        /**
+         * The number of threads created so far, used to name them
+         */
+        private final AtomicInteger mThreadCount = new AtomicInteger();
+
+        /**
+         * Creates a daemon worker thread
+         *
+         * @param runnable The work the thread runs
+         * @return The new thread
+         */
+        @Override
+        public Thread newThread(Runnable runnable) {
+            final Thread thread = new Thread(runnable,
+                    "tomoeame-dispatcher-" + this.mThreadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+
+    }
+
+}
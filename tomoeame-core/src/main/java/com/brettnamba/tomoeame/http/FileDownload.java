@@ -0,0 +1,953 @@
+package com.brettnamba.tomoeame.http;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Downloads a resource straight to a file, so large bodies are never held on the heap.
+ *
+ * The resource is first probed with a Range request for its first byte.  If the server answers
+ * with a 206 Partial Content that has the total length and a validator, which is a strong ETag or
+ * else the Last-Modified date, the resource is split into segments that are downloaded in
+ * parallel over separate connections and written in place into a partial file next to the
+ * destination.  The progress of the segments is persisted to a state file as they are written, so
+ * if the process dies or the network is lost, calling download() again resumes each segment where
+ * it stopped.  Every Range request carries the validator in an If-Range header, so if the resource
+ * changed the server sends the whole new resource instead of a part.  The parts already written
+ * are then discarded and the download started over, so two versions are never stitched together.
+ *
+ * Resources from servers that ignore Range requests, or that have no validator, are downloaded in
+ * one request that cannot be resumed.  download() blocks, so like send() it must not be called on
+ * the main thread.
+ *
+ * @author Brett Namba (https://github.com/bretten)
+ */
+public class FileDownload {
+
+    /**
+     * The default maximum number of segments downloaded in parallel
+     */
+    public static final int DEFAULT_SEGMENT_COUNT = 4;
+
+    /**
+     * The default minimum length of a segment, so small resources are not split
+     */
+    public static final long DEFAULT_MIN_SEGMENT_LENGTH = 1024 * 1024;
+
+    /**
+     * The number of bytes downloaded between the progress being persisted
+     */
+    private static final long CHECKPOINT_INTERVAL = 1024 * 1024;
+
+    /**
+     * The number of times a segment is requested again after failing without downloading anything
+     */
+    private static final int MAX_ATTEMPTS_WITHOUT_PROGRESS = 3;
+
+    /**
+     * The length of the buffer each segment is copied through
+     */
+    private static final int BUFFER_LENGTH = 64 * 1024;
+
+    /**
+     * The suffix of the partial file the segments are written into
+     */
+    private static final String PARTIAL_SUFFIX = ".part";
+
+    /**
+     * The suffix of the file the progress is persisted in
+     */
+    private static final String STATE_SUFFIX = ".part.state";
+
+    /**
+     * The URL of the resource
+     */
+    private final String mUrl;
+
+    /**
+     * The file the resource is downloaded to
+     */
+    private final File mDestination;
+
+    /**
+     * The file the segments are written into until the download completes
+     */
+    private final File mPartialFile;
+
+    /**
+     * The file the progress of the segments is persisted in
+     */
+    private final File mStateFile;
+
+    /**
+     * Provides the authentication header value or null to use the client's Authenticator
+     */
+    private Authenticator mAuthenticator;
+
+    /**
+     * The headers sent with every request
+     */
+    private final List<Pair<String, String>> mRequestHeaders =
+            new ArrayList<Pair<String, String>>();
+
+    /**
+     * The maximum number of segments downloaded in parallel
+     */
+    private int mSegmentCount = DEFAULT_SEGMENT_COUNT;
+
+    /**
+     * The minimum length of a segment
+     */
+    private long mMinSegmentLength = DEFAULT_MIN_SEGMENT_LENGTH;
+
+    /**
+     * The length of the resource or -1 if it is unknown
+     */
+    private volatile long mLength = -1;
+
+    /**
+     * The ETag or Last-Modified date that every Range request is validated with
+     */
+    private String mValidator;
+
+    /**
+     * The segments of the resource
+     */
+    private List<Segment> mSegments = new ArrayList<Segment>();
+
+    /**
+     * The partial file while the segments are written into it
+     */
+    private FileChannel mChannel;
+
+    /**
+     * The number of bytes of the resource downloaded, including those of earlier attempts
+     */
+    private final AtomicLong mBytesDownloaded = new AtomicLong();
+
+    /**
+     * The number of bytes downloaded since the progress was last persisted
+     */
+    private final AtomicLong mBytesSinceCheckpoint = new AtomicLong();
+
+    /**
+     * Lock held while the progress is persisted
+     */
+    private final Object mStateLock = new Object();
+
+    /**
+     * The requests in flight, so they can be canceled
+     */
+    private final Set<HttpUrlConnectionRequest> mActiveRequests =
+            new HashSet<HttpUrlConnectionRequest>();
+
+    /**
+     * Determines if the download was canceled
+     */
+    private volatile boolean mIsCanceled;
+
+    /**
+     * Constructor
+     *
+     * @param url         The URL of the resource
+     * @param destination The file the resource is downloaded to.  The partial file and the state
+     *                    file are kept next to it with the suffixes .part and .part.state.
+     */
+    public FileDownload(String url, File destination) {
+        if (url == null || destination == null) {
+            throw new IllegalArgumentException("The URL and destination are required");
+        }
+        this.mUrl = url;
+        this.mDestination = destination;
+        this.mPartialFile = new File(destination.getPath() + PARTIAL_SUFFIX);
+        this.mStateFile = new File(destination.getPath() + STATE_SUFFIX);
+    }
+
+    /**
+     * Sets the Authenticator that provides the authentication header of every request
+     *
+     * @param authenticator The Authenticator or null to use the client's
+     */
+    public void setAuthenticator(Authenticator authenticator) {
+        this.mAuthenticator = authenticator;
+    }
+
+    /**
+     * Adds a header that is sent with every request
+     *
+     * @param header The header name
+     * @param value  The header value
+     */
+    public void addRequestHeader(String header, String value) {
+        this.mRequestHeaders.add(new Pair<String, String>(header, value));
+    }
+
+    /**
+     * Sets the maximum number of segments downloaded in parallel.  Each segment uses its own
+     * connection, so this should not be above the client's limits per host.
+     *
+     * @param segmentCount The number of segments
+     */
+    public void setSegmentCount(int segmentCount) {
+        if (segmentCount <= 0) {
+            throw new IllegalArgumentException("The segment count must be positive");
+        }
+        this.mSegmentCount = segmentCount;
+    }
+
+    /**
+     * Sets the minimum length of a segment, so resources shorter than two segments are downloaded
+     * in one
+     *
+     * @param minSegmentLength The length in bytes
+     */
+    public void setMinSegmentLength(long minSegmentLength) {
+        if (minSegmentLength <= 0) {
+            throw new IllegalArgumentException("The minimum segment length must be positive");
+        }
+        this.mMinSegmentLength = minSegmentLength;
+    }
+
+    /**
+     * Returns the length of the resource
+     *
+     * @return The length or -1 if it is not known yet
+     */
+    public long getLength() {
+        return this.mLength;
+    }
+
+    /**
+     * Returns the number of bytes of the resource downloaded so far, including those downloaded
+     * before the download was resumed.  This can be polled from any thread to report progress.
+     *
+     * @return The number of bytes
+     */
+    public long getBytesDownloaded() {
+        return this.mBytesDownloaded.get();
+    }
+
+    /**
+     * Downloads the resource to the destination, resuming an earlier download of it if its
+     * progress was persisted.  If the resource changed since the earlier download, it is started
+     * over once.
+     *
+     * @param client The client the requests are sent through
+     * @throws IOException If the download failed.  Its progress is kept, so calling this again
+     *                     resumes it.
+     */
+    public void download(HttpClient client) throws IOException {
+        if (client == null) {
+            throw new IllegalArgumentException("The client is required");
+        }
+        this.mIsCanceled = false;
+        boolean isRestarted = false;
+        while (true) {
+            try {
+                this.downloadOnce(client);
+                return;
+            } catch (ResourceChangedException e) {
+                this.discard();
+                if (isRestarted || this.mIsCanceled) {
+                    throw e;
+                }
+                isRestarted = true;
+            }
+        }
+    }
+
+    /**
+     * Cancels the download.  This can be called from any thread at any time.  The requests in
+     * flight are disconnected and download() throws, but the progress is kept so the download can
+     * be resumed later.
+     */
+    public void cancel() {
+        this.mIsCanceled = true;
+        this.cancelRequests();
+    }
+
+    /**
+     * Deletes the partial file and the persisted progress, so the next download starts over
+     */
+    public void discard() {
+        this.mPartialFile.delete();
+        this.mStateFile.delete();
+        this.mLength = -1;
+        this.mValidator = null;
+        this.mSegments = new ArrayList<Segment>();
+        this.mBytesDownloaded.set(0);
+    }
+
+    /**
+     * Downloads the resource, resuming the persisted progress if there is any
+     *
+     * @param client The client the requests are sent through
+     * @throws IOException
+     */
+    private void downloadOnce(HttpClient client) throws IOException {
+        if (!this.readState()) {
+            this.discard();
+            if (!this.probe(client)) {
+                return;
+            }
+        }
+        this.downloadSegments(client);
+        this.complete();
+    }
+
+    /**
+     * Requests the first byte of the resource to find its length and validator and splits it into
+     * segments.  If the resource cannot be downloaded in segments, it is downloaded whole instead.
+     *
+     * @param client The client the requests are sent through
+     * @return True if the segments were planned or false if the resource was downloaded whole
+     * @throws IOException
+     */
+    private boolean probe(HttpClient client) throws IOException {
+        final HttpUrlConnectionRequest request = this.newRequest("bytes=0-0", null);
+        this.connect(request, client);
+        final long[] contentRange;
+        final String validator;
+        try {
+            final int responseCode = request.getResponseCode();
+            if (responseCode == HttpURLConnection.HTTP_OK) {
+                // The server ignored the Range, so the whole resource is already on its way
+                this.writeWhole(request);
+                return false;
+            }
+            contentRange = parseContentRange(request.getResponseHeader("Content-Range"));
+            if (responseCode == 416 && contentRange != null && contentRange[2] == 0) {
+                // Not even the first byte exists, so the resource is empty
+                this.writeWhole(null);
+                return false;
+            }
+            if (responseCode != HttpURLConnection.HTTP_PARTIAL) {
+                throw new IOException("The server responded to the download with "
+                        + responseCode);
+            }
+            validator = getValidator(request);
+        } finally {
+            this.release(request);
+        }
+
+        if (contentRange == null || contentRange[2] < 0 || validator == null) {
+            // Parts cannot be requested or validated, so download it in one request
+            final HttpUrlConnectionRequest wholeRequest = this.newRequest(null, null);
+            this.connect(wholeRequest, client);
+            try {
+                if (wholeRequest.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                    throw new IOException("The server responded to the download with "
+                            + wholeRequest.getResponseCode());
+                }
+                this.writeWhole(wholeRequest);
+            } finally {
+                this.release(wholeRequest);
+            }
+            return false;
+        }
+
+        this.mLength = contentRange[2];
+        this.mValidator = validator;
+        this.mSegments = this.planSegments(this.mLength);
+        final RandomAccessFile file = new RandomAccessFile(this.mPartialFile, "rw");
+        try {
+            file.setLength(this.mLength);
+        } finally {
+            file.close();
+        }
+        this.writeState(this.getPositions());
+        return true;
+    }
+
+    /**
+     * Splits the resource into segments of about the same length
+     *
+     * @param length The length of the resource
+     * @return The segments
+     */
+    private List<Segment> planSegments(long length) {
+        final int count = (int) Math.max(1,
+                Math.min(this.mSegmentCount, length / this.mMinSegmentLength));
+        final long segmentLength = length / count;
+        final List<Segment> segments = new ArrayList<Segment>(count);
+        for (int i = 0; i < count; i++) {
+            final long start = i * segmentLength;
+            segments.add(new Segment(start, i == count - 1 ? length : start + segmentLength,
+                    start));
+        }
+        return segments;
+    }
+
+    /**
+     * Downloads the remaining segments in parallel, one on the calling thread and the rest on the
+     * client's Dispatcher.  The segments are written into the partial file, so it stays open until
+     * every segment has finished, even if the calling thread is interrupted.
+     *
+     * @param client The client the requests are sent through
+     * @throws IOException The first failure of a segment, preferring a ResourceChangedException
+     */
+    private void downloadSegments(final HttpClient client) throws IOException {
+        final List<Segment> remaining = new ArrayList<Segment>();
+        for (Segment segment : this.mSegments) {
+            if (segment.position < segment.end) {
+                remaining.add(segment);
+            }
+        }
+        final String hostKey = HttpClient.getHostKey(new URL(this.mUrl));
+        final IOException[] failure = new IOException[1];
+        final List<FutureTask<Void>> futures = new ArrayList<FutureTask<Void>>();
+        final List<Segment> localSegments = new ArrayList<Segment>();
+        boolean isInterrupted = false;
+        this.mChannel = new RandomAccessFile(this.mPartialFile, "rw").getChannel();
+        try {
+            try {
+                if (!remaining.isEmpty()) {
+                    localSegments.add(remaining.get(0));
+                }
+                for (int i = 1; i < remaining.size(); i++) {
+                    final Segment segment = remaining.get(i);
+                    final FutureTask<Void> future = new FutureTask<Void>(new Runnable() {
+                        @Override
+                        public void run() {
+                            FileDownload.this.downloadSegment(client, segment, failure);
+                        }
+                    }, null);
+                    try {
+                        client.getDispatcher().enqueue(hostKey, future);
+                        futures.add(future);
+                    } catch (RejectedExecutionException e) {
+                        // The Dispatcher was shut down, so download it on the calling thread
+                        localSegments.add(segment);
+                    }
+                }
+                for (Segment segment : localSegments) {
+                    this.downloadSegment(client, segment, failure);
+                }
+            } finally {
+                isInterrupted = this.awaitSegments(futures, failure);
+            }
+            this.checkpoint();
+        } finally {
+            try {
+                this.mChannel.close();
+            } catch (IOException e) {
+            }
+            this.mChannel = null;
+        }
+        if (isInterrupted) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while downloading");
+        }
+        synchronized (failure) {
+            if (failure[0] != null) {
+                throw failure[0];
+            }
+        }
+    }
+
+    /**
+     * Waits for the segments on the Dispatcher to finish.  If the calling thread is interrupted,
+     * the download is canceled but the segments are still waited for.  A segment that the
+     * Dispatcher dropped before it ran fails the download, so it can be resumed later.
+     *
+     * @param futures The segments on the Dispatcher
+     * @param failure Holds the first failure of any segment
+     * @return True if the calling thread was interrupted
+     */
+    private boolean awaitSegments(List<FutureTask<Void>> futures, IOException[] failure) {
+        boolean isInterrupted = false;
+        for (FutureTask<Void> future : futures) {
+            IOException segmentFailure = null;
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (InterruptedException e) {
+                    if (!isInterrupted) {
+                        isInterrupted = true;
+                        this.cancel();
+                    }
+                } catch (CancellationException e) {
+                    segmentFailure = new InterruptedIOException(
+                            "A segment was dropped before it was downloaded");
+                    break;
+                } catch (ExecutionException e) {
+                    segmentFailure = new IOException("A segment failed", e.getCause());
+                    break;
+                }
+            }
+            if (segmentFailure != null) {
+                synchronized (failure) {
+                    if (failure[0] == null) {
+                        failure[0] = segmentFailure;
+                    }
+                }
+            }
+        }
+        return isInterrupted;
+    }
+
+    /**
+     * Downloads a segment, requesting the rest of it again after a failure as long as the
+     * failures do not keep happening without progress
+     *
+     * @param client  The client the requests are sent through
+     * @param segment The segment
+     * @param failure Holds the first failure of any segment
+     */
+    private void downloadSegment(HttpClient client, Segment segment, IOException[] failure) {
+        int attemptsWithoutProgress = 0;
+        while (segment.position < segment.end) {
+            synchronized (failure) {
+                if (failure[0] instanceof ResourceChangedException) {
+                    return;
+                }
+            }
+            final long position = segment.position;
+            try {
+                this.downloadRange(client, segment);
+            } catch (IOException e) {
+                attemptsWithoutProgress = segment.position > position
+                        ? 1 : attemptsWithoutProgress + 1;
+                if (e instanceof ResourceChangedException || this.mIsCanceled
+                        || attemptsWithoutProgress >= MAX_ATTEMPTS_WITHOUT_PROGRESS) {
+                    synchronized (failure) {
+                        if (failure[0] == null || (e instanceof ResourceChangedException
+                                && !(failure[0] instanceof ResourceChangedException))) {
+                            failure[0] = e;
+                        }
+                    }
+                    if (e instanceof ResourceChangedException) {
+                        // The other segments are of the old resource, so stop them too
+                        this.cancelRequests();
+                    }
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Requests the rest of a segment and writes it into the partial file
+     *
+     * @param client  The client the requests are sent through
+     * @param segment The segment
+     * @throws IOException
+     */
+    private void downloadRange(HttpClient client, Segment segment) throws IOException {
+        final HttpUrlConnectionRequest request = this.newRequest(
+                "bytes=" + segment.position + "-" + (segment.end - 1), this.mValidator);
+        this.connect(request, client);
+        try {
+            final int responseCode = request.getResponseCode();
+            if (responseCode == HttpURLConnection.HTTP_OK) {
+                request.cancel();
+                throw new ResourceChangedException("The If-Range did not match "
+                        + this.mValidator);
+            }
+            if (responseCode != HttpURLConnection.HTTP_PARTIAL) {
+                request.cancel();
+                throw new IOException("The server responded to a Range request with "
+                        + responseCode);
+            }
+            final long[] contentRange =
+                    parseContentRange(request.getResponseHeader("Content-Range"));
+            final String validator = getValidator(request);
+            if (contentRange == null || contentRange[0] != segment.position
+                    || contentRange[2] != this.mLength
+                    || (validator != null && !validator.equals(this.mValidator))) {
+                request.cancel();
+                throw new ResourceChangedException("The part does not match the resource");
+            }
+
+            final InputStream in = request.openResponseBody().byteStream();
+            final BufferPool bufferPool = BufferPool.getDefault();
+            final byte[] buffer = bufferPool.acquire(BUFFER_LENGTH);
+            try {
+                long position = segment.position;
+                int read;
+                while (position < segment.end && (read = in.read(buffer, 0,
+                        (int) Math.min(buffer.length, segment.end - position))) != -1) {
+                    final ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, read);
+                    while (byteBuffer.hasRemaining()) {
+                        position += this.mChannel.write(byteBuffer, position);
+                    }
+                    segment.position = position;
+                    this.onBytesWritten(read);
+                }
+            } finally {
+                bufferPool.release(buffer);
+            }
+            if (segment.position < segment.end) {
+                throw new IOException("The connection closed before the part was complete");
+            }
+        } finally {
+            this.release(request);
+        }
+    }
+
+    /**
+     * Writes the body of a response for the whole resource into the partial file and moves it to
+     * the destination.  Its progress is not persisted since it cannot be resumed.
+     *
+     * @param request The request whose body is the resource or null if the resource is empty
+     * @throws IOException
+     */
+    private void writeWhole(HttpUrlConnectionRequest request) throws IOException {
+        this.mLength = request != null ? request.getResponseContentLength() : 0;
+        final OutputStream out = new FileOutputStream(this.mPartialFile);
+        try {
+            if (request != null) {
+                final long length = request.openResponseBody().writeTo(out);
+                this.mBytesDownloaded.set(length);
+                this.mLength = length;
+            }
+        } finally {
+            out.close();
+        }
+        this.complete();
+    }
+
+    /**
+     * Moves the partial file to the destination and deletes the persisted progress
+     *
+     * @throws IOException If the partial file could not be moved
+     */
+    private void complete() throws IOException {
+        if (this.mDestination.exists() && !this.mDestination.delete()) {
+            throw new IOException("Could not replace " + this.mDestination);
+        }
+        if (!this.mPartialFile.renameTo(this.mDestination)) {
+            throw new IOException("Could not move the download to " + this.mDestination);
+        }
+        this.mStateFile.delete();
+    }
+
+    /**
+     * Counts bytes written into the partial file and persists the progress every
+     * CHECKPOINT_INTERVAL bytes
+     *
+     * @param byteCount The number of bytes
+     * @throws IOException If the progress could not be persisted
+     */
+    private void onBytesWritten(long byteCount) throws IOException {
+        this.mBytesDownloaded.addAndGet(byteCount);
+        if (this.mBytesSinceCheckpoint.addAndGet(byteCount) >= CHECKPOINT_INTERVAL) {
+            this.mBytesSinceCheckpoint.set(0);
+            this.checkpoint();
+        }
+    }
+
+    /**
+     * Persists the progress of the segments.  The positions are read before the partial file is
+     * forced to the disk, so the persisted progress never covers bytes that could be lost.
+     *
+     * @throws IOException If the progress could not be persisted
+     */
+    private void checkpoint() throws IOException {
+        synchronized (this.mStateLock) {
+            final long[] positions = this.getPositions();
+            this.mChannel.force(false);
+            this.writeState(positions);
+        }
+    }
+
+    /**
+     * Returns the position of each segment
+     *
+     * @return The positions
+     */
+    private long[] getPositions() {
+        final long[] positions = new long[this.mSegments.size()];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = this.mSegments.get(i).position;
+        }
+        return positions;
+    }
+
+    /**
+     * Writes the progress to a temporary file and renames it over the state file, so the state
+     * file is never left half written
+     *
+     * @param positions The position of each segment
+     * @throws IOException If the progress could not be written
+     */
+    private void writeState(long[] positions) throws IOException {
+        final Properties state = new Properties();
+        state.setProperty("url", this.mUrl);
+        state.setProperty("length", String.valueOf(this.mLength));
+        state.setProperty("validator", this.mValidator);
+        state.setProperty("segments", String.valueOf(positions.length));
+        for (int i = 0; i < positions.length; i++) {
+            final Segment segment = this.mSegments.get(i);
+            state.setProperty("segment." + i, segment.start + "," + segment.end + ","
+                    + positions[i]);
+        }
+        final File temporaryFile = new File(this.mStateFile.getPath() + ".tmp");
+        final OutputStream out = new FileOutputStream(temporaryFile);
+        try {
+            state.store(out, null);
+        } finally {
+            out.close();
+        }
+        if (!temporaryFile.renameTo(this.mStateFile)
+                && !(this.mStateFile.delete() && temporaryFile.renameTo(this.mStateFile))) {
+            throw new IOException("Could not write " + this.mStateFile);
+        }
+    }
+
+    /**
+     * Reads the persisted progress of an earlier download of the same resource
+     *
+     * @return True if the progress was read or false if there is none or it cannot be used
+     */
+    private boolean readState() {
+        if (!this.mStateFile.exists() || !this.mPartialFile.exists()) {
+            return false;
+        }
+        final Properties state = new Properties();
+        try {
+            final InputStream in = new FileInputStream(this.mStateFile);
+            try {
+                state.load(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return false;
+        }
+        if (!this.mUrl.equals(state.getProperty("url"))
+                || state.getProperty("validator") == null) {
+            return false;
+        }
+        try {
+            final long length = Long.parseLong(state.getProperty("length"));
+            final int count = Integer.parseInt(state.getProperty("segments"));
+            if (length < 0 || count <= 0 || this.mPartialFile.length() != length) {
+                return false;
+            }
+            final List<Segment> segments = new ArrayList<Segment>(count);
+            long bytesDownloaded = 0;
+            for (int i = 0; i < count; i++) {
+                final String[] values = state.getProperty("segment." + i, "").split(",");
+                if (values.length != 3) {
+                    return false;
+                }
+                final Segment segment = new Segment(Long.parseLong(values[0]),
+                        Long.parseLong(values[1]), Long.parseLong(values[2]));
+                if (segment.start < 0 || segment.position < segment.start
+                        || segment.position > segment.end || segment.end > length) {
+                    return false;
+                }
+                segments.add(segment);
+                bytesDownloaded += segment.position - segment.start;
+            }
+            this.mLength = length;
+            this.mValidator = state.getProperty("validator");
+            this.mSegments = segments;
+            this.mBytesDownloaded.set(bytesDownloaded);
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Creates a request for the resource that is never cached and asks for it uncompressed, so
+     * byte ranges refer to the resource itself
+     *
+     * @param range     The value of the Range header or null to request the whole resource
+     * @param validator The value of the If-Range header or null
+     * @return The request
+     */
+    private HttpUrlConnectionRequest newRequest(String range, String validator) {
+        final HttpUrlConnectionRequest request = new RangeRequest(this.mUrl, this.mAuthenticator);
+        request.addAllRequestHeaders(this.mRequestHeaders);
+        request.addRequestHeader("Accept-Encoding", "identity");
+        if (range != null) {
+            request.addRequestHeader("Range", range);
+        }
+        if (validator != null) {
+            request.addRequestHeader("If-Range", validator);
+        }
+        return request;
+    }
+
+    /**
+     * Opens the connection of a request, tracking it so it can be canceled
+     *
+     * @param request The request
+     * @param client  The client the request is sent through
+     * @throws IOException If the download was canceled or the connection failed
+     */
+    private void connect(HttpUrlConnectionRequest request, HttpClient client) throws IOException {
+        synchronized (this.mActiveRequests) {
+            if (this.mIsCanceled) {
+                throw new InterruptedIOException("The download was canceled");
+            }
+            this.mActiveRequests.add(request);
+        }
+        request.connect(client);
+        if (request.getException() != null) {
+            this.release(request);
+            throw request.getException();
+        }
+    }
+
+    /**
+     * Disconnects the requests in flight
+     */
+    private void cancelRequests() {
+        final List<HttpUrlConnectionRequest> requests;
+        synchronized (this.mActiveRequests) {
+            requests = new ArrayList<HttpUrlConnectionRequest>(this.mActiveRequests);
+        }
+        for (HttpUrlConnectionRequest request : requests) {
+            request.cancel();
+        }
+    }
+
+    /**
+     * Closes a request and stops tracking it
+     *
+     * @param request The request
+     */
+    private void release(HttpUrlConnectionRequest request) {
+        request.close();
+        synchronized (this.mActiveRequests) {
+            this.mActiveRequests.remove(request);
+        }
+    }
+
+    /**
+     * Returns the validator of the resource, which is its ETag if it is strong or else its
+     * Last-Modified date.  Weak ETags cannot be used in an If-Range.
+     *
+     * @param request The request whose response has the headers
+     * @return The validator or null if the response has neither
+     */
+    private static String getValidator(HttpUrlConnectionRequest request) {
+        final String eTag = request.getResponseHeader("ETag");
+        if (eTag != null && !eTag.startsWith("W/")) {
+            return eTag;
+        }
+        return request.getResponseHeader("Last-Modified");
+    }
+
+    /**
+     * Parses a Content-Range header such as "bytes 0-499/1234" or "bytes *&#47;1234"
+     *
+     * @param contentRange The header value
+     * @return The first and last byte positions, which are -1 if unsatisfied, and the total
+     * length, which is -1 if unknown, or null if the header is missing or malformed
+     */
+    static long[] parseContentRange(String contentRange) {
+        if (contentRange == null || !contentRange.startsWith("bytes ")) {
+            return null;
+        }
+        final int slash = contentRange.indexOf('/');
+        if (slash < 0) {
+            return null;
+        }
+        try {
+            final String range = contentRange.substring(6, slash).trim();
+            final String total = contentRange.substring(slash + 1).trim();
+            final long[] values = {-1, -1, "*".equals(total) ? -1 : Long.parseLong(total)};
+            if (!"*".equals(range)) {
+                final int dash = range.indexOf('-');
+                if (dash < 0) {
+                    return null;
+                }
+                values[0] = Long.parseLong(range.substring(0, dash));
+                values[1] = Long.parseLong(range.substring(dash + 1));
+            }
+            return values;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * A GET request for part of a resource.  Partial responses must never be stored in or served
+     * from the response cache, which keys responses by URL alone.
+     */
+    private static final class RangeRequest extends HttpUrlGetRequest {
+
+        /**
+         * Constructor
+         *
+         * @param requestUrl    The HTTP request URL
+         * @param authenticator Provides the authentication header value or null
+         */
+        RangeRequest(String requestUrl, Authenticator authenticator) {
+            super(requestUrl, authenticator);
+        }
+
+        /**
+         * Ranges are not cached
+         *
+         * @return False
+         */
+        @Override
+        protected boolean isCacheable() {
+            return false;
+        }
+
+    }
+
+    /**
+     * A range of the resource that is downloaded over its own connection
+     */
+    private static final class Segment {
+
+        /**
+         * The index of the first byte
+         */
+        final long start;
+
+        /**
+         * The index after the last byte
+         */
+        final long end;
+
+        /**
+         * The index of the next byte to download
+         */
+        volatile long position;
+
+        /**
+         * Constructor
+         *
+         * @param start    The index of the first byte
+         * @param end      The index after the last byte
+         * @param position The index of the next byte to download
+         */
+        Segment(long start, long end, long position) {
+            this.start = start;
+            this.end = end;
+            this.position = position;
+        }
+
+    }
+
+}
@@ -0,0 +1,51 @@
+package com.brettnamba.tomoeame.http;
+
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * A file that is sent as a part of a HttpUrlMultiPartRequest.
+ *
+ * The request asks for the length and MIME type of every file before it is sent, unless chunked
+ * streaming is enabled and some file's metadata is expensive to find, such as one that has to be
+ * queried from a ContentProvider.  LocalFileUpload sends a file from the file system and, on
+ * Android, ContentUriFileUpload sends a file behind a content or file URI.
+ *
+ * @author Brett Namba (https://github.com/bretten)
+ */
+public interface FileUpload {
+
+    /**
+     * Returns the MIME type of the file
+     *
+     * @return The MIME type or null if it is unknown, in which case application/octet-stream is
+     * sent
+     */
+    String getContentType();
+
+    /**
+     * Returns the length of the file
+     *
+     * @return The length in bytes or -1 if it is unknown, in which case the request body is sent
+     * in chunks
+     */
+    long getLength();
+
+    /**
+     * Determines if the length and MIME type can be found without an expensive lookup, such as
+     * querying a ContentProvider
+     *
+     * @return True if they are cheap to find, otherwise false
+     */
+    boolean isMetadataCheap();
+
+    /**
+     * Opens the contents of the file.  A FileChannel should be returned whenever it only covers
+     * the file, since the request then reads it in large transfers sized to the file's length.
+     *
+     * @return The channel the file is read from, which is closed by the request
+     * @throws IOException If the file could not be opened
+     */
+    ReadableByteChannel open() throws IOException;
+
+}
@@ -0,0 +1,241 @@
+package com.brettnamba.tomoeame.http;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * MetricsSink that keeps a LatencyHistogram of each phase, in microseconds, and totals of the
+ * sizes, retries and failures of each endpoint.  An endpoint is identified by the request
+ * method, host and endpoint template, so requests for different resources of the same endpoint
+ * should set the same template with setEndpointTemplate(), such as "/users/{id}".  Recording does
+ * not lock, so one sink can be shared by all requests of a client.
+ *
+ * @author Brett Namba (https://github.com/bretten)
+ */
+public class HistogramMetricsSink implements MetricsSink {
+
+    /**
+     * The metrics of each endpoint by its key
+     */
+    private final ConcurrentHashMap<String, EndpointMetrics> mEndpoints =
+            new ConcurrentHashMap<String, EndpointMetrics>();
+
+    @Override
+    public void onRequestMetrics(RequestMetrics metrics) {
+        final String key = getKey(metrics.getMethod(), metrics.getHostKey(),
+                metrics.getEndpoint());
+        EndpointMetrics endpointMetrics = this.mEndpoints.get(key);
+        if (endpointMetrics == null) {
+            final EndpointMetrics newEndpointMetrics = new EndpointMetrics();
+            endpointMetrics = this.mEndpoints.putIfAbsent(key, newEndpointMetrics);
+            if (endpointMetrics == null) {
+                endpointMetrics = newEndpointMetrics;
+            }
+        }
+        endpointMetrics.record(metrics);
+    }
+
+    /**
+     * Returns the metrics of an endpoint
+     *
+     * @param method   The request method
+     * @param hostKey  The host key, such as "https://example.com:443"
+     * @param endpoint The endpoint template or path
+     * @return The metrics or null if no request was recorded for the endpoint
+     */
+    public EndpointMetrics getEndpointMetrics(String method, String hostKey, String endpoint) {
+        return this.mEndpoints.get(getKey(method, hostKey, endpoint));
+    }
+
+    /**
+     * Returns the metrics of every endpoint that was recorded
+     *
+     * @return The metrics by the key built with getKey()
+     */
+    public Map<String, EndpointMetrics> getEndpointMetrics() {
+        return Collections.unmodifiableMap(this.mEndpoints);
+    }
+
+    /**
+     * Removes the metrics of every endpoint
+     */
+    public void clear() {
+        this.mEndpoints.clear();
+    }
+
+    /**
+     * Builds the key identifying an endpoint
+     *
+     * @param method   The request method
+     * @param hostKey  The host key
+     * @param endpoint The endpoint template or path
+     * @return The key, such as "GET https://example.com:443/users/{id}"
+     */
+    public static String getKey(String method, String hostKey, String endpoint) {
+        return method + " " + hostKey + endpoint;
+    }
+
+    /**
+     * The histograms and totals of one endpoint
+     */
+    public static final class EndpointMetrics {
+
+        /**
+         * The phases, which are copied once since values() copies them on every call
+         */
+        private static final RequestMetrics.Phase[] PHASES = RequestMetrics.Phase.values();
+
+        /**
+         * The histogram of each phase in microseconds
+         */
+        private final LatencyHistogram[] mHistograms =
+                new LatencyHistogram[RequestMetrics.PHASE_COUNT];
+
+        /**
+         * The number of calls
+         */
+        private final AtomicLong mRequestCount = new AtomicLong();
+
+        /**
+         * The number of calls that failed with an exception
+         */
+        private final AtomicLong mFailureCount = new AtomicLong();
+
+        /**
+         * The number of calls served from the cache
+         */
+        private final AtomicLong mCacheHitCount = new AtomicLong();
+
+        /**
+         * The number of attempts made after the first one of each call
+         */
+        private final AtomicLong mRetryCount = new AtomicLong();
+
+        /**
+         * The number of request body bytes written
+         */
+        private final AtomicLong mBytesSent = new AtomicLong();
+
+        /**
+         * The number of response body bytes read
+         */
+        private final AtomicLong mBytesReceived = new AtomicLong();
+
+        /**
+         * Constructor
+         */
+        EndpointMetrics() {
+            for (int i = 0; i < this.mHistograms.length; i++) {
+                this.mHistograms[i] = new LatencyHistogram();
+            }
+        }
+
+        /**
+         * Returns the histogram of a phase.  Phases that did not happen in a call, such as
+         * writing the body of a GET request or any phase but the total of a cached response,
+         * are not recorded.
+         *
+         * @param phase The phase
+         * @return The histogram of the phase's duration in microseconds
+         */
+        public LatencyHistogram getHistogram(RequestMetrics.Phase phase) {
+            return this.mHistograms[phase.ordinal()];
+        }
+
+        /**
+         * Returns the number of calls
+         *
+         * @return The number of calls
+         */
+        public long getRequestCount() {
+            return this.mRequestCount.get();
+        }
+
+        /**
+         * Returns the number of calls that failed with an exception
+         *
+         * @return The number of failures
+         */
+        public long getFailureCount() {
+            return this.mFailureCount.get();
+        }
+
+        /**
+         * Returns the number of calls served from the cache
+         *
+         * @return The number of cache hits
+         */
+        public long getCacheHitCount() {
+            return this.mCacheHitCount.get();
+        }
+
+        /**
+         * Returns the number of attempts made after the first one of each call
+         *
+         * @return The number of retries
+         */
+        public long getRetryCount() {
+            return this.mRetryCount.get();
+        }
+
+        /**
+         * Returns the number of request body bytes written
+         *
+         * @return The bytes sent
+         */
+        public long getBytesSent() {
+            return this.mBytesSent.get();
+        }
+
+        /**
+         * Returns the number of response body bytes read
+         *
+         * @return The bytes received
+         */
+        public long getBytesReceived() {
+            return this.mBytesReceived.get();
+        }
+
+        @Override
+        public String toString() {
+            return "requests=" + this.getRequestCount() + " failures=" + this.getFailureCount()
+                    + " retries=" + this.getRetryCount() + " total(us): "
+                    + this.getHistogram(RequestMetrics.Phase.TOTAL) + " first_byte(us): "
+                    + this.getHistogram(RequestMetrics.Phase.FIRST_BYTE);
+        }
+
+        /**
+         * Records the metrics of a call
+         *
+         * @param metrics The metrics
+         */
+        void record(RequestMetrics metrics) {
+            this.mRequestCount.incrementAndGet();
+            if (metrics.getException() != null) {
+                this.mFailureCount.incrementAndGet();
+            }
+            if (metrics.isFromCache()) {
+                this.mCacheHitCount.incrementAndGet();
+            }
+            if (metrics.getRetryCount() > 0) {
+                this.mRetryCount.addAndGet(metrics.getRetryCount());
+            }
+            if (metrics.getBytesSent() > 0) {
+                this.mBytesSent.addAndGet(metrics.getBytesSent());
+            }
+            if (metrics.getBytesReceived() > 0) {
+                this.mBytesReceived.addAndGet(metrics.getBytesReceived());
+            }
+            for (RequestMetrics.Phase phase : PHASES) {
+                final long nanos = metrics.getPhaseNanos(phase);
+                if (nanos > 0) {
+                    this.mHistograms[phase.ordinal()].record(nanos / 1000);
+                }
+            }
+        }
+
+    }
+
+}
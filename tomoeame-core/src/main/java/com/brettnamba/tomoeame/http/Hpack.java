@@ -0,0 +1,655 @@
+package com.brettnamba.tomoeame.http;
+
+import java.io.ByteArrayOutputStream;
+import java.net.ProtocolException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * HPACK header compression (RFC 7541) for the HTTP/2 transport.
+ *
+ * Each connection has an Encoder for the headers it sends and a Decoder for the headers it
+ * receives, each with its own dynamic table.  The Encoder adds the headers it sends to its
+ * dynamic table, so a header that is repeated on every request, such as the user agent or an
+ * auth token, is sent as a one or two byte index after the first request.  Header values that
+ * must not be stored by intermediaries, such as the Authorization header, are never indexed.
+ * Strings are Huffman coded whenever that makes them shorter.
+ *
+ * @author Brett Namba (https://github.com/bretten)
+ */
+final class Hpack {
+
+    /**
+     * The size of the dynamic tables until the peer changes it
+     */
+    static final int DEFAULT_TABLE_SIZE = 4096;
+
+    /**
+     * The overhead of each dynamic table entry that is added to the length of its strings
+     */
+    private static final int ENTRY_OVERHEAD = 32;
+
+    /**
+     * The static table, where the entry at array index i has HPACK index i + 1
+     */
+    private static final String[][] STATIC_TABLE = {
+            {":authority", ""},
+            {":method", "GET"},
+            {":method", "POST"},
+            {":path", "/"},
+            {":path", "/index.html"},
+            {":scheme", "http"},
+            {":scheme", "https"},
+            {":status", "200"},
+            {":status", "204"},
+            {":status", "206"},
+            {":status", "304"},
+            {":status", "400"},
+            {":status", "404"},
+            {":status", "500"},
+            {"accept-charset", ""},
+            {"accept-encoding", "gzip, deflate"},
+            {"accept-language", ""},
+            {"accept-ranges", ""},
+            {"accept", ""},
+            {"access-control-allow-origin", ""},
+            {"age", ""},
+            {"allow", ""},
+            {"authorization", ""},
+            {"cache-control", ""},
+            {"content-disposition", ""},
+            {"content-encoding", ""},
+            {"content-language", ""},
+            {"content-length", ""},
+            {"content-location", ""},
+            {"content-range", ""},
+            {"content-type", ""},
+            {"cookie", ""},
+            {"date", ""},
+            {"etag", ""},
+            {"expect", ""},
+            {"expires", ""},
+            {"from", ""},
+            {"host", ""},
+            {"if-match", ""},
+            {"if-modified-since", ""},
+            {"if-none-match", ""},
+            {"if-range", ""},
+            {"if-unmodified-since", ""},
+            {"last-modified", ""},
+            {"link", ""},
+            {"location", ""},
+            {"max-forwards", ""},
+            {"proxy-authenticate", ""},
+            {"proxy-authorization", ""},
+            {"range", ""},
+            {"referer", ""},
+            {"refresh", ""},
+            {"retry-after", ""},
+            {"server", ""},
+            {"set-cookie", ""},
+            {"strict-transport-security", ""},
+            {"transfer-encoding", ""},
+            {"user-agent", ""},
+            {"vary", ""},
+            {"via", ""},
+            {"www-authenticate", ""}
+    };
+
+    /**
+     * Collection mapping header names to the first static table index with the name
+     */
+    private static final Map<String, Integer> STATIC_NAME_INDEXES =
+            new HashMap<String, Integer>();
+
+    /**
+     * The Huffman code of each byte value, right-aligned
+     */
+    private static final int[] HUFFMAN_CODES = {
+            0x1ff8, 0x7fffd8, 0xfffffe2, 0xfffffe3, 0xfffffe4, 0xfffffe5, 0xfffffe6, 0xfffffe7,
+            0xfffffe8, 0xffffea, 0x3ffffffc, 0xfffffe9, 0xfffffea, 0x3ffffffd, 0xfffffeb,
+            0xfffffec, 0xfffffed, 0xfffffee, 0xfffffef, 0xffffff0, 0xffffff1, 0xffffff2,
+            0x3ffffffe, 0xffffff3, 0xffffff4, 0xffffff5, 0xffffff6, 0xffffff7, 0xffffff8,
+            0xffffff9, 0xffffffa, 0xffffffb, 0x14, 0x3f8, 0x3f9, 0xffa, 0x1ff9, 0x15, 0xf8, 0x7fa,
+            0x3fa, 0x3fb, 0xf9, 0x7fb, 0xfa, 0x16, 0x17, 0x18, 0x0, 0x1, 0x2, 0x19, 0x1a, 0x1b,
+            0x1c, 0x1d, 0x1e, 0x1f, 0x5c, 0xfb, 0x7ffc, 0x20, 0xffb, 0x3fc, 0x1ffa, 0x21, 0x5d,
+            0x5e, 0x5f, 0x60, 0x61, 0x62, 0x63, 0x64, 0x65, 0x66, 0x67, 0x68, 0x69, 0x6a, 0x6b,
+            0x6c, 0x6d, 0x6e, 0x6f, 0x70, 0x71, 0x72, 0xfc, 0x73, 0xfd, 0x1ffb, 0x7fff0, 0x1ffc,
+            0x3ffc, 0x22, 0x7ffd, 0x3, 0x23, 0x4, 0x24, 0x5, 0x25, 0x26, 0x27, 0x6, 0x74, 0x75,
+            0x28, 0x29, 0x2a, 0x7, 0x2b, 0x76, 0x2c, 0x8, 0x9, 0x2d, 0x77, 0x78, 0x79, 0x7a, 0x7b,
+            0x7ffe, 0x7fc, 0x3ffd, 0x1ffd, 0xffffffc, 0xfffe6, 0x3fffd2, 0xfffe7, 0xfffe8,
+            0x3fffd3, 0x3fffd4, 0x3fffd5, 0x7fffd9, 0x3fffd6, 0x7fffda, 0x7fffdb, 0x7fffdc,
+            0x7fffdd, 0x7fffde, 0xffffeb, 0x7fffdf, 0xffffec, 0xffffed, 0x3fffd7, 0x7fffe0,
+            0xffffee, 0x7fffe1, 0x7fffe2, 0x7fffe3, 0x7fffe4, 0x1fffdc, 0x3fffd8, 0x7fffe5,
+            0x3fffd9, 0x7fffe6, 0x7fffe7, 0xffffef, 0x3fffda, 0x1fffdd, 0xfffe9, 0x3fffdb,
+            0x3fffdc, 0x7fffe8, 0x7fffe9, 0x1fffde, 0x7fffea, 0x3fffdd, 0x3fffde, 0xfffff0,
+            0x1fffdf, 0x3fffdf, 0x7fffeb, 0x7fffec, 0x1fffe0, 0x1fffe1, 0x3fffe0, 0x1fffe2,
+            0x7fffed, 0x3fffe1, 0x7fffee, 0x7fffef, 0xfffea, 0x3fffe2, 0x3fffe3, 0x3fffe4,
+            0x7ffff0, 0x3fffe5, 0x3fffe6, 0x7ffff1, 0x3ffffe0, 0x3ffffe1, 0xfffeb, 0x7fff1,
+            0x3fffe7, 0x7ffff2, 0x3fffe8, 0x1ffffec, 0x3ffffe2, 0x3ffffe3, 0x3ffffe4, 0x7ffffde,
+            0x7ffffdf, 0x3ffffe5, 0xfffff1, 0x1ffffed, 0x7fff2, 0x1fffe3, 0x3ffffe6, 0x7ffffe0,
+            0x7ffffe1, 0x3ffffe7, 0x7ffffe2, 0xfffff2, 0x1fffe4, 0x1fffe5, 0x3ffffe8, 0x3ffffe9,
+            0xffffffd, 0x7ffffe3, 0x7ffffe4, 0x7ffffe5, 0xfffec, 0xfffff3, 0xfffed, 0x1fffe6,
+            0x3fffe9, 0x1fffe7, 0x1fffe8, 0x7ffff3, 0x3fffea, 0x3fffeb, 0x1ffffee, 0x1ffffef,
+            0xfffff4, 0xfffff5, 0x3ffffea, 0x7ffff4, 0x3ffffeb, 0x7ffffe6, 0x3ffffec, 0x3ffffed,
+            0x7ffffe7, 0x7ffffe8, 0x7ffffe9, 0x7ffffea, 0x7ffffeb, 0xffffffe, 0x7ffffec, 0x7ffffed,
+            0x7ffffee, 0x7ffffef, 0x7fffff0, 0x3ffffee
+    };
+
+    /**
+     * The bit length of the Huffman code of each byte value
+     */
+    private static final byte[] HUFFMAN_CODE_LENGTHS = {
+            13, 23, 28, 28, 28, 28, 28, 28, 28, 24, 30, 28, 28, 30, 28, 28, 28, 28, 28, 28, 28, 28,
+            30, 28, 28, 28, 28, 28, 28, 28, 28, 28, 6, 10, 10, 12, 13, 6, 8, 11, 10, 10, 8, 11, 8,
+            6, 6, 6, 5, 5, 5, 6, 6, 6, 6, 6, 6, 6, 7, 8, 15, 6, 12, 10, 13, 6, 7, 7, 7, 7, 7, 7, 7,
+            7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 8, 7, 8, 13, 19, 13, 14, 6, 15, 5, 6, 5,
+            6, 5, 6, 6, 6, 5, 7, 7, 6, 6, 6, 5, 6, 7, 6, 5, 5, 6, 7, 7, 7, 7, 7, 15, 11, 14, 13,
+            28, 20, 22, 20, 20, 22, 22, 22, 23, 22, 23, 23, 23, 23, 23, 24, 23, 24, 24, 22, 23, 24,
+            23, 23, 23, 23, 21, 22, 23, 22, 23, 23, 24, 22, 21, 20, 22, 22, 23, 23, 21, 23, 22, 22,
+            24, 21, 22, 23, 23, 21, 21, 22, 21, 23, 22, 23, 23, 20, 22, 22, 22, 23, 22, 22, 23, 26,
+            26, 20, 19, 22, 23, 22, 25, 26, 26, 26, 27, 27, 26, 24, 25, 19, 21, 26, 27, 27, 26, 27,
+            24, 21, 21, 26, 26, 28, 27, 27, 27, 20, 24, 20, 21, 22, 21, 21, 23, 22, 22, 25, 25, 24,
+            24, 26, 23, 26, 27, 26, 26, 27, 27, 27, 27, 27, 28, 27, 27, 27, 27, 27, 26
+    };
+
+    /**
+     * The Huffman decoding tree, where node n has its children at indexes 2n and 2n + 1, and a
+     * child is either the index of another node or the negated symbol plus one for a leaf
+     */
+    private static final int[] HUFFMAN_TREE = new int[2 * 256];
+
+    static {
+        for (int i = STATIC_TABLE.length - 1; i >= 0; i--) {
+            STATIC_NAME_INDEXES.put(STATIC_TABLE[i][0], i + 1);
+        }
+        int nodeCount = 1;
+        for (int symbol = 0; symbol < 256; symbol++) {
+            final int code = HUFFMAN_CODES[symbol];
+            int node = 0;
+            for (int bit = HUFFMAN_CODE_LENGTHS[symbol] - 1; bit > 0; bit--) {
+                final int child = 2 * node + ((code >>> bit) & 1);
+                if (HUFFMAN_TREE[child] == 0) {
+                    HUFFMAN_TREE[child] = nodeCount++;
+                }
+                node = HUFFMAN_TREE[child];
+            }
+            HUFFMAN_TREE[2 * node + (code & 1)] = -(symbol + 1);
+        }
+    }
+
+    /**
+     * Private constructor to prevent instantiation
+     */
+    private Hpack() {
+    }
+
+    /**
+     * A header in a dynamic table
+     */
+    private static final class Entry {
+
+        /**
+         * The header name
+         */
+        final String name;
+
+        /**
+         * The header value
+         */
+        final String value;
+
+        /**
+         * The size of the entry as counted against the table size
+         */
+        final int size;
+
+        /**
+         * Constructor
+         *
+         * @param name  The header name
+         * @param value The header value
+         */
+        Entry(String name, String value) {
+            this.name = name;
+            this.value = value;
+            this.size = name.length() + value.length() + ENTRY_OVERHEAD;
+        }
+
+    }
+
+    /**
+     * A dynamic table, with the newest entry first
+     */
+    private static final class DynamicTable {
+
+        /**
+         * The entries, newest first
+         */
+        final ArrayDeque<Entry> entries = new ArrayDeque<Entry>();
+
+        /**
+         * The sum of the sizes of the entries
+         */
+        int size;
+
+        /**
+         * The maximum sum of the sizes of the entries
+         */
+        int maxSize = DEFAULT_TABLE_SIZE;
+
+        /**
+         * Adds an entry, evicting the oldest entries to make room for it
+         *
+         * @param entry The entry
+         */
+        void add(Entry entry) {
+            this.evict(this.maxSize - entry.size);
+            if (entry.size <= this.maxSize) {
+                this.entries.addFirst(entry);
+                this.size += entry.size;
+            }
+        }
+
+        /**
+         * Changes the maximum size, evicting entries that no longer fit
+         *
+         * @param maxSize The new maximum size
+         */
+        void setMaxSize(int maxSize) {
+            this.maxSize = maxSize;
+            this.evict(maxSize);
+        }
+
+        /**
+         * Evicts the oldest entries until the size is at most the limit
+         *
+         * @param limit The size limit
+         */
+        private void evict(int limit) {
+            while (this.size > limit && !this.entries.isEmpty()) {
+                this.size -= this.entries.removeLast().size;
+            }
+        }
+
+    }
+
+    /**
+     * Encodes the header blocks a connection sends.  Not thread-safe, so header blocks must be
+     * encoded and sent in the same order under the connection's write lock.
+     */
+    static final class Encoder {
+
+        /**
+         * The dynamic table
+         */
+        private final DynamicTable mTable = new DynamicTable();
+
+        /**
+         * The smallest table size the peer allowed since the last header block, or -1 if it did
+         * not change
+         */
+        private int mPendingMinSize = -1;
+
+        /**
+         * Applies the table size the peer allows, which is announced in the next header block
+         *
+         * @param maxSize The maximum table size allowed by the peer
+         */
+        void setMaxTableSize(int maxSize) {
+            final int size = Math.min(maxSize, DEFAULT_TABLE_SIZE);
+            if (size == this.mTable.maxSize && this.mPendingMinSize == -1) {
+                return;
+            }
+            this.mPendingMinSize = this.mPendingMinSize == -1 ? size
+                    : Math.min(this.mPendingMinSize, size);
+            this.mTable.setMaxSize(size);
+        }
+
+        /**
+         * Encodes a header block
+         *
+         * @param names  The lowercase header names, starting with the pseudo-headers
+         * @param values The header values, at the same indexes as their names
+         * @param out    The stream the block is written to
+         */
+        void encode(List<String> names, List<String> values, ByteArrayOutputStream out) {
+            if (this.mPendingMinSize != -1) {
+                // Announce the smallest size first if the size shrank and grew again
+                if (this.mPendingMinSize < this.mTable.maxSize) {
+                    writeInteger(out, 0x20, 5, this.mPendingMinSize);
+                }
+                writeInteger(out, 0x20, 5, this.mTable.maxSize);
+                this.mPendingMinSize = -1;
+            }
+            for (int i = 0; i < names.size(); i++) {
+                this.encodeHeader(names.get(i), values.get(i), out);
+            }
+        }
+
+        /**
+         * Encodes a header as an index if it is in a table, otherwise as a literal
+         *
+         * @param name  The lowercase header name
+         * @param value The header value
+         * @param out   The stream the header is written to
+         */
+        private void encodeHeader(String name, String value, ByteArrayOutputStream out) {
+            final Integer staticNameIndex = STATIC_NAME_INDEXES.get(name);
+            int nameIndex = staticNameIndex != null ? staticNameIndex : 0;
+            if (staticNameIndex != null) {
+                for (int i = staticNameIndex - 1; i < STATIC_TABLE.length
+                        && STATIC_TABLE[i][0].equals(name); i++) {
+                    if (STATIC_TABLE[i][1].equals(value)) {
+                        writeInteger(out, 0x80, 7, i + 1);
+                        return;
+                    }
+                }
+            }
+            final boolean isSensitive = "authorization".equals(name)
+                    || "proxy-authorization".equals(name);
+            if (!isSensitive) {
+                int index = STATIC_TABLE.length + 1;
+                for (Entry entry : this.mTable.entries) {
+                    if (entry.name.equals(name)) {
+                        if (entry.value.equals(value)) {
+                            writeInteger(out, 0x80, 7, index);
+                            return;
+                        } else if (nameIndex == 0) {
+                            nameIndex = index;
+                        }
+                    }
+                    index++;
+                }
+            }
+            if (isSensitive) {
+                // Never indexed, so intermediaries do not store the credentials either
+                writeInteger(out, 0x10, 4, nameIndex);
+            } else {
+                writeInteger(out, 0x40, 6, nameIndex);
+                this.mTable.add(new Entry(name, value));
+            }
+            if (nameIndex == 0) {
+                writeString(out, name);
+            }
+            writeString(out, value);
+        }
+
+        /**
+         * Writes an integer with an N-bit prefix
+         *
+         * @param out        The stream
+         * @param flags      The bits above the prefix in the first byte
+         * @param prefixBits The number of bits of the prefix
+         * @param value      The integer
+         */
+        private static void writeInteger(ByteArrayOutputStream out, int flags, int prefixBits,
+                                         int value) {
+            final int maxPrefix = (1 << prefixBits) - 1;
+            if (value < maxPrefix) {
+                out.write(flags | value);
+                return;
+            }
+            out.write(flags | maxPrefix);
+            value -= maxPrefix;
+            while (value >= 0x80) {
+                out.write((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            out.write(value);
+        }
+
+        /**
+         * Writes a string literal, Huffman coded if that is shorter
+         *
+         * @param out  The stream
+         * @param text The string, whose characters are written as ISO-8859-1 bytes
+         */
+        private static void writeString(ByteArrayOutputStream out, String text) {
+            final int length = text.length();
+            long huffmanBits = 0;
+            for (int i = 0; i < length; i++) {
+                huffmanBits += HUFFMAN_CODE_LENGTHS[text.charAt(i) & 0xFF];
+            }
+            final int huffmanLength = (int) ((huffmanBits + 7) >>> 3);
+            if (huffmanLength >= length) {
+                writeInteger(out, 0, 7, length);
+                for (int i = 0; i < length; i++) {
+                    out.write(text.charAt(i));
+                }
+                return;
+            }
+            writeInteger(out, 0x80, 7, huffmanLength);
+            long bits = 0;
+            int bitCount = 0;
+            for (int i = 0; i < length; i++) {
+                final int symbol = text.charAt(i) & 0xFF;
+                bits = (bits << HUFFMAN_CODE_LENGTHS[symbol]) | HUFFMAN_CODES[symbol];
+                bitCount += HUFFMAN_CODE_LENGTHS[symbol];
+                while (bitCount >= 8) {
+                    bitCount -= 8;
+                    out.write((int) (bits >>> bitCount));
+                }
+            }
+            if (bitCount > 0) {
+                // Pad with the most significant bits of the end-of-string code, which are ones
+                out.write((int) ((bits << (8 - bitCount)) | (0xFF >>> bitCount)));
+            }
+        }
+
+    }
+
+    /**
+     * Decodes the header blocks a connection receives.  Not thread-safe, so it must only be used
+     * by the connection's reader.
+     */
+    static final class Decoder {
+
+        /**
+         * The dynamic table
+         */
+        private final DynamicTable mTable = new DynamicTable();
+
+        /**
+         * The block being decoded
+         */
+        private byte[] mBlock;
+
+        /**
+         * The index of the next byte of the block
+         */
+        private int mPosition;
+
+        /**
+         * The index after the last byte of the block
+         */
+        private int mLimit;
+
+        /**
+         * Decodes a header block
+         *
+         * @param block  The array holding the block
+         * @param offset The index of the first byte of the block
+         * @param length The length of the block
+         * @param names  The list the header names are added to
+         * @param values The list the header values are added to
+         * @throws ProtocolException If the block is not valid HPACK
+         */
+        void decode(byte[] block, int offset, int length, List<String> names, List<String> values)
+                throws ProtocolException {
+            this.mBlock = block;
+            this.mPosition = offset;
+            this.mLimit = offset + length;
+            try {
+                while (this.mPosition < this.mLimit) {
+                    final int b = this.mBlock[this.mPosition] & 0xFF;
+                    if ((b & 0x80) != 0) {
+                        final Entry entry = this.getEntry(this.readInteger(7));
+                        names.add(entry.name);
+                        values.add(entry.value);
+                    } else if ((b & 0x40) != 0) {
+                        final Entry entry = this.readLiteral(6);
+                        this.mTable.add(entry);
+                        names.add(entry.name);
+                        values.add(entry.value);
+                    } else if ((b & 0x20) != 0) {
+                        final int maxSize = this.readInteger(5);
+                        if (maxSize > DEFAULT_TABLE_SIZE) {
+                            throw new ProtocolException("Invalid table size: " + maxSize);
+                        }
+                        this.mTable.setMaxSize(maxSize);
+                    } else {
+                        // Without indexing or never indexed
+                        final Entry entry = this.readLiteral(4);
+                        names.add(entry.name);
+                        values.add(entry.value);
+                    }
+                }
+            } finally {
+                this.mBlock = null;
+            }
+        }
+
+        /**
+         * Returns the entry at an index of the static or dynamic table
+         *
+         * @param index The HPACK index
+         * @return The entry
+         * @throws ProtocolException If the index is not in either table
+         */
+        private Entry getEntry(int index) throws ProtocolException {
+            if (index > 0 && index <= STATIC_TABLE.length) {
+                return new Entry(STATIC_TABLE[index - 1][0], STATIC_TABLE[index - 1][1]);
+            }
+            int dynamicIndex = index - STATIC_TABLE.length - 1;
+            if (index > 0 && dynamicIndex < this.mTable.entries.size()) {
+                final Iterator<Entry> iterator = this.mTable.entries.iterator();
+                Entry entry = iterator.next();
+                while (dynamicIndex-- > 0) {
+                    entry = iterator.next();
+                }
+                return entry;
+            }
+            throw new ProtocolException("Invalid header index: " + index);
+        }
+
+        /**
+         * Reads a literal header whose name is either an index or a string
+         *
+         * @param prefixBits The number of bits of the name index prefix
+         * @return The header
+         * @throws ProtocolException
+         */
+        private Entry readLiteral(int prefixBits) throws ProtocolException {
+            final int nameIndex = this.readInteger(prefixBits);
+            final String name = nameIndex == 0 ? this.readString()
+                    : this.getEntry(nameIndex).name;
+            return new Entry(name, this.readString());
+        }
+
+        /**
+         * Reads an integer with an N-bit prefix
+         *
+         * @param prefixBits The number of bits of the prefix
+         * @return The integer
+         * @throws ProtocolException If the integer is truncated or too large
+         */
+        private int readInteger(int prefixBits) throws ProtocolException {
+            final int maxPrefix = (1 << prefixBits) - 1;
+            int value = this.readByte() & maxPrefix;
+            if (value < maxPrefix) {
+                return value;
+            }
+            for (int shift = 0; shift < 28; shift += 7) {
+                final int b = this.readByte();
+                value += (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new ProtocolException("Header integer is too large");
+        }
+
+        /**
+         * Reads a string literal, decoding it if it is Huffman coded
+         *
+         * @return The string
+         * @throws ProtocolException If the string is truncated or badly coded
+         */
+        private String readString() throws ProtocolException {
+            if (this.mPosition >= this.mLimit) {
+                throw new ProtocolException("Header block is truncated");
+            }
+            final boolean isHuffman = (this.mBlock[this.mPosition] & 0x80) != 0;
+            final int length = this.readInteger(7);
+            if (length < 0 || length > this.mLimit - this.mPosition) {
+                throw new ProtocolException("Header string is truncated");
+            }
+            final int end = this.mPosition + length;
+            final StringBuilder builder = new StringBuilder(isHuffman ? length * 2 : length);
+            if (!isHuffman) {
+                while (this.mPosition < end) {
+                    builder.append((char) (this.mBlock[this.mPosition++] & 0xFF));
+                }
+                return builder.toString();
+            }
+            int node = 0;
+            int depth = 0;
+            while (this.mPosition < end) {
+                final int b = this.mBlock[this.mPosition++] & 0xFF;
+                for (int bit = 7; bit >= 0; bit--) {
+                    final int child = HUFFMAN_TREE[2 * node + ((b >>> bit) & 1)];
+                    if (child < 0) {
+                        builder.append((char) (-child - 1));
+                        node = 0;
+                        depth = 0;
+                    } else if (child == 0) {
+                        // Only the end-of-string code leads here
+                        throw new ProtocolException("Invalid Huffman code");
+                    } else {
+                        node = child;
+                        depth++;
+                    }
+                }
+            }
+            // The padding must be fewer than 8 bits, which are all ones
+            if (depth > 7 || (node != 0 && !isAllOnesPath(node, depth))) {
+                throw new ProtocolException("Invalid Huffman padding");
+            }
+            return builder.toString();
+        }
+
+        /**
+         * Reads the next byte of the block
+         *
+         * @return The byte
+         * @throws ProtocolException If the block ended
+         */
+        private int readByte() throws ProtocolException {
+            if (this.mPosition >= this.mLimit) {
+                throw new ProtocolException("Header block is truncated");
+            }
+            return this.mBlock[this.mPosition++] & 0xFF;
+        }
+
+        /**
+         * Determines if the path from the root to the node consists of only one bits
+         *
+         * @param node  The node
+         * @param depth The depth of the node
+         * @return True if the node is reached by following only one bits
+         */
+        private static boolean isAllOnesPath(int node, int depth) {
+            int current = 0;
+            for (int i = 0; i < depth; i++) {
+                current = HUFFMAN_TREE[2 * current + 1];
+            }
+            return current == node;
+        }
+
+    }
+
+}
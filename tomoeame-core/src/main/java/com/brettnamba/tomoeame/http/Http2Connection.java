@@ -0,0 +1,1026 @@
+package com.brettnamba.tomoeame.http;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An HTTP/2 connection used by the Http2Transport, which multiplexes the streams of many
+ * concurrent requests over one socket.
+ *
+ * Frames are read by a daemon thread that hands headers and data to their streams, answers
+ * SETTINGS and PING frames and returns the connection's receive window as data arrives.  Frames
+ * are written by the request threads under a write lock, which also covers the HPACK encoder so
+ * header blocks are encoded in the order they are sent and stream ids are sent in increasing
+ * order.  Request bodies are only written as far as the connection and stream send windows
+ * allow, and writers wait for WINDOW_UPDATE frames otherwise.
+ *
+ * Once the server sends GOAWAY or the connection fails, no new streams are started on it.
+ * Streams the server did not process fail with an IOException so they can be retried on a new
+ * connection.
+ *
+ * @author Brett Namba (https://github.com/bretten)
+ */
+final class Http2Connection implements Runnable {
+
+    /**
+     * The client connection preface
+     */
+    private static final byte[] PREFACE = {'P', 'R', 'I', ' ', '*', ' ', 'H', 'T', 'T', 'P', '/',
+            '2', '.', '0', '\r', '\n', '\r', '\n', 'S', 'M', '\r', '\n', '\r', '\n'};
+
+    /**
+     * The length of a frame header
+     */
+    private static final int FRAME_HEADER_LENGTH = 9;
+
+    /**
+     * Frame types
+     */
+    static final int TYPE_DATA = 0x0;
+    static final int TYPE_HEADERS = 0x1;
+    static final int TYPE_PRIORITY = 0x2;
+    static final int TYPE_RST_STREAM = 0x3;
+    static final int TYPE_SETTINGS = 0x4;
+    static final int TYPE_PUSH_PROMISE = 0x5;
+    static final int TYPE_PING = 0x6;
+    static final int TYPE_GOAWAY = 0x7;
+    static final int TYPE_WINDOW_UPDATE = 0x8;
+    static final int TYPE_CONTINUATION = 0x9;
+
+    /**
+     * Frame flags
+     */
+    static final int FLAG_END_STREAM = 0x1;
+    static final int FLAG_ACK = 0x1;
+    static final int FLAG_END_HEADERS = 0x4;
+    static final int FLAG_PADDED = 0x8;
+    static final int FLAG_PRIORITY = 0x20;
+
+    /**
+     * Setting identifiers
+     */
+    static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+    static final int SETTINGS_ENABLE_PUSH = 0x2;
+    static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+    static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+    static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+
+    /**
+     * Error codes
+     */
+    static final int ERROR_NO_ERROR = 0x0;
+    static final int ERROR_PROTOCOL_ERROR = 0x1;
+    static final int ERROR_FLOW_CONTROL_ERROR = 0x3;
+    static final int ERROR_FRAME_SIZE_ERROR = 0x6;
+    static final int ERROR_REFUSED_STREAM = 0x7;
+    static final int ERROR_CANCEL = 0x8;
+    static final int ERROR_COMPRESSION_ERROR = 0x9;
+
+    /**
+     * The window size both sides start with
+     */
+    static final int DEFAULT_WINDOW_SIZE = 65535;
+
+    /**
+     * The frame size both sides start with, which is also the largest frame this side accepts
+     */
+    static final int DEFAULT_MAX_FRAME_SIZE = 16384;
+
+    /**
+     * The receive window of each stream, advertised in the initial SETTINGS
+     */
+    static final int STREAM_WINDOW_SIZE = 256 * 1024;
+
+    /**
+     * The receive window of the connection
+     */
+    private static final int CONNECTION_WINDOW_SIZE = 1024 * 1024;
+
+    /**
+     * The largest stream id
+     */
+    private static final int MAX_STREAM_ID = Integer.MAX_VALUE;
+
+    /**
+     * The largest header block that is accepted across HEADERS and CONTINUATION frames
+     */
+    private static final int MAX_HEADER_BLOCK_LENGTH = 256 * 1024;
+
+    /**
+     * The host key of the connection
+     */
+    private final String mHostKey;
+
+    /**
+     * The socket
+     */
+    private final Socket mSocket;
+
+    /**
+     * The stream frames are read from, only used by the reader thread
+     */
+    private final InputStream mInput;
+
+    /**
+     * The stream frames are written to, guarded by the write lock
+     */
+    private final OutputStream mOutput;
+
+    /**
+     * Serializes the writing of frames and the encoding of header blocks
+     */
+    private final Object mWriteLock = new Object();
+
+    /**
+     * The HPACK encoder, guarded by the write lock
+     */
+    private final Hpack.Encoder mEncoder = new Hpack.Encoder();
+
+    /**
+     * The buffer header blocks are encoded into, guarded by the write lock
+     */
+    private final ByteArrayOutputStream mHeaderBlock = new ByteArrayOutputStream(256);
+
+    /**
+     * The HPACK decoder, only used by the reader thread
+     */
+    private final Hpack.Decoder mDecoder = new Hpack.Decoder();
+
+    /**
+     * The buffer the payloads of frames other than DATA are read into, only used by the reader
+     * thread
+     */
+    private final byte[] mFrameBuffer = new byte[DEFAULT_MAX_FRAME_SIZE];
+
+    /**
+     * The number of received DATA bytes that were not returned to the server's connection
+     * window yet, only used by the reader thread
+     */
+    private int mUnacknowledgedBytes;
+
+    /**
+     * Collection mapping stream ids to the open streams
+     */
+    private final Map<Integer, Http2Stream> mStreams = new HashMap<Integer, Http2Stream>();
+
+    /**
+     * The id of the next stream
+     */
+    private int mNextStreamId = 1;
+
+    /**
+     * The number of streams that are open or reserved to be opened
+     */
+    private int mReservedCount;
+
+    /**
+     * The maximum number of concurrent streams the server allows
+     */
+    private int mMaxConcurrentStreams = Integer.MAX_VALUE;
+
+    /**
+     * The send window of new streams
+     */
+    private int mInitialSendWindow = DEFAULT_WINDOW_SIZE;
+
+    /**
+     * The largest frame the server accepts
+     */
+    private int mMaxFrameSize = DEFAULT_MAX_FRAME_SIZE;
+
+    /**
+     * The connection send window
+     */
+    private long mSendWindow = DEFAULT_WINDOW_SIZE;
+
+    /**
+     * Determines if new streams can no longer be started
+     */
+    private boolean mIsShutdown;
+
+    /**
+     * The failure that ended the connection or null
+     */
+    private IOException mFailure;
+
+    /**
+     * The time in nanoseconds at which the last stream ended
+     */
+    private long mIdleSinceNanos = System.nanoTime();
+
+    /**
+     * Constructor
+     *
+     * @param hostKey The host key of the connection
+     * @param socket  The connected socket
+     * @throws IOException
+     */
+    private Http2Connection(String hostKey, Socket socket) throws IOException {
+        this.mHostKey = hostKey;
+        this.mSocket = socket;
+        this.mInput = new BufferedInputStream(socket.getInputStream(),
+                DEFAULT_MAX_FRAME_SIZE + FRAME_HEADER_LENGTH);
+        this.mOutput = new BufferedOutputStream(socket.getOutputStream(),
+                DEFAULT_MAX_FRAME_SIZE + FRAME_HEADER_LENGTH);
+    }
+
+    /**
+     * Connects to the host, sends the connection preface and starts reading frames
+     *
+     * @param hostKey              The host key of the connection
+     * @param host                 The host name
+     * @param port                 The port
+     * @param connectTimeoutMillis The connect timeout or 0 to wait indefinitely
+     * @return The connection
+     * @throws IOException If the socket could not be connected
+     */
+    static Http2Connection open(String hostKey, String host, int port, int connectTimeoutMillis)
+            throws IOException {
+        final Socket socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.connect(new InetSocketAddress(host, port), connectTimeoutMillis);
+            final Http2Connection connection = new Http2Connection(hostKey, socket);
+            connection.writePreface();
+            final Thread thread = new Thread(connection, "tomoeame-h2-" + hostKey);
+            thread.setDaemon(true);
+            thread.start();
+            return connection;
+        } catch (IOException | RuntimeException e) {
+            try {
+                socket.close();
+            } catch (IOException closeException) {
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the host key of the connection
+     *
+     * @return The host key
+     */
+    String getHostKey() {
+        return this.mHostKey;
+    }
+
+    /**
+     * Determines if new streams can be started on the connection
+     *
+     * @return True if the connection did not shut down
+     */
+    synchronized boolean isUsable() {
+        return !this.mIsShutdown;
+    }
+
+    /**
+     * Returns the number of streams that are open or waiting to be opened
+     *
+     * @return The number of streams
+     */
+    synchronized int getStreamCount() {
+        return this.mReservedCount;
+    }
+
+    /**
+     * Returns the time at which the connection became idle
+     *
+     * @return The time in nanoseconds or Long.MAX_VALUE while streams are open
+     */
+    synchronized long getIdleSinceNanos() {
+        return this.mReservedCount == 0 ? this.mIdleSinceNanos : Long.MAX_VALUE;
+    }
+
+    /**
+     * Starts a stream by sending its request headers.  Waits while the server's limit of
+     * concurrent streams is reached.
+     *
+     * @param names         The lowercase header names, starting with the pseudo-headers
+     * @param values        The header values
+     * @param hasBody       True if a request body follows the headers
+     * @param timeoutMillis The maximum time to wait for a free stream or 0 to wait indefinitely
+     * @return The stream or null if the connection shut down before the headers were sent
+     * @throws IOException If the headers could not be written or the wait timed out
+     */
+    Http2Stream newStream(List<String> names, List<String> values, boolean hasBody,
+                          int timeoutMillis) throws IOException {
+        this.reserveStream(timeoutMillis);
+        boolean isStarted = false;
+        try {
+            synchronized (this.mWriteLock) {
+                final Http2Stream stream;
+                synchronized (this) {
+                    if (this.mIsShutdown) {
+                        return null;
+                    }
+                    stream = new Http2Stream(this, this.mNextStreamId, this.mInitialSendWindow,
+                            !hasBody);
+                    this.mStreams.put(stream.getId(), stream);
+                    if (this.mNextStreamId >= MAX_STREAM_ID - 1) {
+                        // Stream ids are exhausted, so the next request opens a new connection
+                        this.mIsShutdown = true;
+                    } else {
+                        this.mNextStreamId += 2;
+                    }
+                }
+                isStarted = true;
+                this.mHeaderBlock.reset();
+                this.mEncoder.encode(names, values, this.mHeaderBlock);
+                this.writeHeaderBlock(stream.getId(), hasBody ? 0 : FLAG_END_STREAM);
+                return stream;
+            }
+        } finally {
+            if (!isStarted) {
+                this.releaseStream();
+            }
+        }
+    }
+
+    /**
+     * Writes bytes of a stream's request body in DATA frames, waiting for the send windows to
+     * allow them
+     *
+     * @param stream    The stream
+     * @param buffer    The bytes
+     * @param offset    The index of the first byte
+     * @param length    The number of bytes
+     * @param endStream True to end the request body with the last frame
+     * @throws IOException If the stream or connection failed
+     */
+    void writeData(Http2Stream stream, byte[] buffer, int offset, int length, boolean endStream)
+            throws IOException {
+        do {
+            int frameLength;
+            synchronized (this) {
+                while (true) {
+                    stream.checkWritable();
+                    if (this.mFailure != null) {
+                        throw new IOException("The connection failed", this.mFailure);
+                    }
+                    frameLength = (int) Math.min(Math.min(length, this.mMaxFrameSize),
+                            Math.min(this.mSendWindow, stream.mSendWindow));
+                    if (frameLength > 0 || length == 0) {
+                        break;
+                    }
+                    try {
+                        this.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted waiting for window");
+                    }
+                }
+                this.mSendWindow -= frameLength;
+                stream.mSendWindow -= frameLength;
+            }
+            final boolean isLast = frameLength == length;
+            synchronized (this.mWriteLock) {
+                this.writeFrame(TYPE_DATA, isLast && endStream ? FLAG_END_STREAM : 0,
+                        stream.getId(), buffer, offset, frameLength);
+            }
+            offset += frameLength;
+            length -= frameLength;
+        } while (length > 0);
+    }
+
+    /**
+     * Returns bytes a stream consumed to the server's send window of the stream
+     *
+     * @param streamId  The stream id
+     * @param increment The number of bytes
+     * @throws IOException
+     */
+    void writeWindowUpdate(int streamId, int increment) throws IOException {
+        final byte[] payload = new byte[4];
+        writeInt(payload, 0, increment);
+        synchronized (this.mWriteLock) {
+            this.writeFrame(TYPE_WINDOW_UPDATE, 0, streamId, payload, 0, payload.length);
+        }
+    }
+
+    /**
+     * Resets a stream, swallowing the failure since the stream is given up either way
+     *
+     * @param streamId  The stream id
+     * @param errorCode The error code
+     */
+    void writeRstStream(int streamId, int errorCode) {
+        final byte[] payload = new byte[4];
+        writeInt(payload, 0, errorCode);
+        try {
+            synchronized (this.mWriteLock) {
+                this.writeFrame(TYPE_RST_STREAM, 0, streamId, payload, 0, payload.length);
+            }
+        } catch (IOException e) {
+            // The connection failed and fails its streams on its own
+        }
+    }
+
+    /**
+     * Removes a stream that ended, freeing its slot for a new stream
+     *
+     * @param stream The stream
+     */
+    synchronized void removeStream(Http2Stream stream) {
+        if (this.mStreams.remove(stream.getId()) != null) {
+            this.releaseStream();
+        }
+        this.notifyAll();
+    }
+
+    /**
+     * Sends GOAWAY, closes the socket and fails the open streams
+     */
+    void close() {
+        synchronized (this) {
+            if (this.mFailure != null) {
+                return;
+            }
+        }
+        final byte[] payload = new byte[8];
+        try {
+            synchronized (this.mWriteLock) {
+                this.writeFrame(TYPE_GOAWAY, 0, 0, payload, 0, payload.length);
+            }
+        } catch (IOException e) {
+        }
+        this.fail(new IOException("The connection was closed"));
+    }
+
+    /**
+     * Reads frames until the connection fails or the server closes it
+     */
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                this.readFrame();
+            }
+        } catch (IOException e) {
+            this.fail(e);
+        } catch (RuntimeException e) {
+            this.fail(new IOException("Failed to read a frame", e));
+        }
+    }
+
+    /**
+     * Waits for a free stream slot and reserves it
+     *
+     * @param timeoutMillis The maximum time to wait or 0 to wait indefinitely
+     * @throws IOException If the wait timed out or was interrupted
+     */
+    private synchronized void reserveStream(int timeoutMillis) throws IOException {
+        final long deadlineNanos = System.nanoTime()
+                + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (!this.mIsShutdown && this.mReservedCount >= this.mMaxConcurrentStreams) {
+            long waitMillis = 0;
+            if (timeoutMillis > 0) {
+                waitMillis = TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+                if (waitMillis <= 0) {
+                    throw new SocketTimeoutException("Timed out waiting for a free stream");
+                }
+            }
+            try {
+                this.wait(waitMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for a stream");
+            }
+        }
+        this.mReservedCount++;
+    }
+
+    /**
+     * Frees a reserved stream slot
+     */
+    private synchronized void releaseStream() {
+        if (--this.mReservedCount == 0) {
+            this.mIdleSinceNanos = System.nanoTime();
+        }
+        this.notifyAll();
+    }
+
+    /**
+     * Sends the connection preface, the client settings and the larger connection window
+     *
+     * @throws IOException
+     */
+    private void writePreface() throws IOException {
+        final byte[] settings = new byte[12];
+        writeSetting(settings, 0, SETTINGS_ENABLE_PUSH, 0);
+        writeSetting(settings, 6, SETTINGS_INITIAL_WINDOW_SIZE, STREAM_WINDOW_SIZE);
+        final byte[] windowUpdate = new byte[4];
+        writeInt(windowUpdate, 0, CONNECTION_WINDOW_SIZE - DEFAULT_WINDOW_SIZE);
+        synchronized (this.mWriteLock) {
+            this.writeBytes(PREFACE, 0, PREFACE.length);
+            this.writeFrameHeader(settings.length, TYPE_SETTINGS, 0, 0);
+            this.writeBytes(settings, 0, settings.length);
+            this.writeFrame(TYPE_WINDOW_UPDATE, 0, 0, windowUpdate, 0, windowUpdate.length);
+        }
+    }
+
+    /**
+     * Writes the encoded header block in a HEADERS frame and as many CONTINUATION frames as the
+     * server's frame size requires.  Must be called under the write lock.
+     *
+     * @param streamId The stream id
+     * @param flags    The flags of the HEADERS frame besides END_HEADERS
+     * @throws IOException
+     */
+    private void writeHeaderBlock(int streamId, int flags) throws IOException {
+        final byte[] block = this.mHeaderBlock.toByteArray();
+        final int maxFrameSize;
+        synchronized (this) {
+            maxFrameSize = this.mMaxFrameSize;
+        }
+        int offset = 0;
+        int type = TYPE_HEADERS;
+        do {
+            final int length = Math.min(block.length - offset, maxFrameSize);
+            final boolean isLast = offset + length == block.length;
+            this.writeFrameHeader(length, type, isLast ? flags | FLAG_END_HEADERS : flags,
+                    streamId);
+            this.writeBytes(block, offset, length);
+            offset += length;
+            type = TYPE_CONTINUATION;
+            flags = 0;
+        } while (offset < block.length);
+        this.flush();
+    }
+
+    /**
+     * Writes and flushes a frame.  Must be called under the write lock.
+     *
+     * @param type     The frame type
+     * @param flags    The flags
+     * @param streamId The stream id
+     * @param payload  The payload
+     * @param offset   The index of the first byte of the payload
+     * @param length   The length of the payload
+     * @throws IOException
+     */
+    private void writeFrame(int type, int flags, int streamId, byte[] payload, int offset,
+                            int length) throws IOException {
+        this.writeFrameHeader(length, type, flags, streamId);
+        this.writeBytes(payload, offset, length);
+        this.flush();
+    }
+
+    /**
+     * Writes a frame header.  Must be called under the write lock.
+     *
+     * @param length   The length of the payload
+     * @param type     The frame type
+     * @param flags    The flags
+     * @param streamId The stream id
+     * @throws IOException
+     */
+    private void writeFrameHeader(int length, int type, int flags, int streamId)
+            throws IOException {
+        final byte[] header = new byte[FRAME_HEADER_LENGTH];
+        header[0] = (byte) (length >>> 16);
+        header[1] = (byte) (length >>> 8);
+        header[2] = (byte) length;
+        header[3] = (byte) type;
+        header[4] = (byte) flags;
+        writeInt(header, 5, streamId);
+        this.writeBytes(header, 0, header.length);
+    }
+
+    /**
+     * Writes bytes, failing the connection if the socket failed.  Must be called under the
+     * write lock.
+     *
+     * @param bytes  The bytes
+     * @param offset The index of the first byte
+     * @param length The number of bytes
+     * @throws IOException
+     */
+    private void writeBytes(byte[] bytes, int offset, int length) throws IOException {
+        try {
+            this.mOutput.write(bytes, offset, length);
+        } catch (IOException e) {
+            this.fail(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Flushes the written frames, failing the connection if the socket failed
+     *
+     * @throws IOException
+     */
+    private void flush() throws IOException {
+        try {
+            this.mOutput.flush();
+        } catch (IOException e) {
+            this.fail(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Reads and handles one frame
+     *
+     * @throws IOException If the connection failed or the server broke the protocol
+     */
+    private void readFrame() throws IOException {
+        final byte[] header = this.mFrameBuffer;
+        readFully(this.mInput, header, 0, FRAME_HEADER_LENGTH);
+        final int length = (header[0] & 0xFF) << 16 | (header[1] & 0xFF) << 8
+                | (header[2] & 0xFF);
+        final int type = header[3] & 0xFF;
+        final int flags = header[4] & 0xFF;
+        final int streamId = readInt(header, 5) & MAX_STREAM_ID;
+        if (length > DEFAULT_MAX_FRAME_SIZE) {
+            throw this.connectionError(ERROR_FRAME_SIZE_ERROR, "Frame too large: " + length);
+        }
+        if (type == TYPE_DATA) {
+            this.readData(length, flags, streamId);
+            return;
+        }
+        readFully(this.mInput, this.mFrameBuffer, 0, length);
+        switch (type) {
+            case TYPE_HEADERS:
+                this.readHeaders(length, flags, streamId);
+                break;
+            case TYPE_RST_STREAM:
+                if (length != 4) {
+                    throw this.connectionError(ERROR_FRAME_SIZE_ERROR, "Bad RST_STREAM");
+                }
+                final Http2Stream reset = this.getStream(streamId);
+                if (reset != null) {
+                    reset.receiveReset(readInt(this.mFrameBuffer, 0));
+                }
+                break;
+            case TYPE_SETTINGS:
+                if ((flags & FLAG_ACK) == 0) {
+                    this.readSettings(length);
+                }
+                break;
+            case TYPE_PUSH_PROMISE:
+                throw this.connectionError(ERROR_PROTOCOL_ERROR, "Server push is disabled");
+            case TYPE_PING:
+                if ((flags & FLAG_ACK) == 0) {
+                    synchronized (this.mWriteLock) {
+                        this.writeFrame(TYPE_PING, FLAG_ACK, 0, this.mFrameBuffer, 0, length);
+                    }
+                }
+                break;
+            case TYPE_GOAWAY:
+                this.readGoAway(length);
+                break;
+            case TYPE_WINDOW_UPDATE:
+                this.readWindowUpdate(length, streamId);
+                break;
+            case TYPE_CONTINUATION:
+                throw this.connectionError(ERROR_PROTOCOL_ERROR, "Unexpected CONTINUATION");
+            default:
+                // PRIORITY and unknown frames are ignored
+                break;
+        }
+    }
+
+    /**
+     * Reads a DATA frame into a pooled array and hands it to its stream
+     *
+     * @param length   The length of the payload
+     * @param flags    The flags
+     * @param streamId The stream id
+     * @throws IOException
+     */
+    private void readData(int length, int flags, int streamId) throws IOException {
+        final BufferPool bufferPool = BufferPool.getDefault();
+        final byte[] payload = bufferPool.acquire(length);
+        boolean isHandedOff = false;
+        try {
+            readFully(this.mInput, payload, 0, length);
+            int offset = 0;
+            int dataLength = length;
+            if ((flags & FLAG_PADDED) != 0) {
+                final int padLength = length > 0 ? payload[0] & 0xFF : length;
+                offset = 1;
+                dataLength = length - 1 - padLength;
+                if (dataLength < 0) {
+                    throw this.connectionError(ERROR_PROTOCOL_ERROR, "Bad padding");
+                }
+            }
+
+            // The connection window is returned as soon as data arrives, since each stream's
+            // window already bounds how much of it is buffered
+            this.mUnacknowledgedBytes += length;
+            if (this.mUnacknowledgedBytes >= CONNECTION_WINDOW_SIZE / 2) {
+                this.writeWindowUpdate(0, this.mUnacknowledgedBytes);
+                this.mUnacknowledgedBytes = 0;
+            }
+
+            final Http2Stream stream = this.getStream(streamId);
+            if (stream != null) {
+                isHandedOff = stream.receiveData(payload, offset, dataLength, length - dataLength,
+                        (flags & FLAG_END_STREAM) != 0);
+            }
+        } finally {
+            if (!isHandedOff) {
+                bufferPool.release(payload);
+            }
+        }
+    }
+
+    /**
+     * Reads a HEADERS frame and its CONTINUATION frames and hands the headers to their stream.
+     * Every header block is decoded, even for streams that ended, to keep the HPACK table in
+     * sync with the server's.
+     *
+     * @param length   The length of the payload
+     * @param flags    The flags
+     * @param streamId The stream id
+     * @throws IOException
+     */
+    private void readHeaders(int length, int flags, int streamId) throws IOException {
+        int offset = 0;
+        int padLength = 0;
+        if ((flags & FLAG_PADDED) != 0) {
+            padLength = length > 0 ? this.mFrameBuffer[0] & 0xFF : 0;
+            offset++;
+        }
+        if ((flags & FLAG_PRIORITY) != 0) {
+            offset += 5;
+        }
+        if (offset + padLength > length) {
+            throw this.connectionError(ERROR_PROTOCOL_ERROR, "Bad HEADERS frame");
+        }
+        final ByteArrayOutputStream block = new ByteArrayOutputStream(length);
+        block.write(this.mFrameBuffer, offset, length - offset - padLength);
+        int fragmentFlags = flags;
+        while ((fragmentFlags & FLAG_END_HEADERS) == 0) {
+            final byte[] header = this.mFrameBuffer;
+            readFully(this.mInput, header, 0, FRAME_HEADER_LENGTH);
+            final int fragmentLength = (header[0] & 0xFF) << 16 | (header[1] & 0xFF) << 8
+                    | (header[2] & 0xFF);
+            if ((header[3] & 0xFF) != TYPE_CONTINUATION
+                    || (readInt(header, 5) & MAX_STREAM_ID) != streamId) {
+                throw this.connectionError(ERROR_PROTOCOL_ERROR, "Expected CONTINUATION");
+            }
+            if (fragmentLength > DEFAULT_MAX_FRAME_SIZE
+                    || block.size() + fragmentLength > MAX_HEADER_BLOCK_LENGTH) {
+                throw this.connectionError(ERROR_FRAME_SIZE_ERROR, "Header block too large");
+            }
+            fragmentFlags = header[4] & 0xFF;
+            readFully(this.mInput, this.mFrameBuffer, 0, fragmentLength);
+            block.write(this.mFrameBuffer, 0, fragmentLength);
+        }
+
+        final List<String> names = new ArrayList<String>();
+        final List<String> values = new ArrayList<String>();
+        try {
+            final byte[] bytes = block.toByteArray();
+            this.mDecoder.decode(bytes, 0, bytes.length, names, values);
+        } catch (ProtocolException e) {
+            throw this.connectionError(ERROR_COMPRESSION_ERROR, e.getMessage());
+        }
+        final Http2Stream stream = this.getStream(streamId);
+        if (stream != null) {
+            stream.receiveHeaders(names, values, (flags & FLAG_END_STREAM) != 0);
+        }
+    }
+
+    /**
+     * Applies the server's settings and acknowledges them
+     *
+     * @param length The length of the payload
+     * @throws IOException
+     */
+    private void readSettings(int length) throws IOException {
+        if (length % 6 != 0) {
+            throw this.connectionError(ERROR_FRAME_SIZE_ERROR, "Bad SETTINGS frame");
+        }
+        int headerTableSize = -1;
+        synchronized (this) {
+            for (int offset = 0; offset < length; offset += 6) {
+                final int id = (this.mFrameBuffer[offset] & 0xFF) << 8
+                        | (this.mFrameBuffer[offset + 1] & 0xFF);
+                final int value = readInt(this.mFrameBuffer, offset + 2);
+                switch (id) {
+                    case SETTINGS_HEADER_TABLE_SIZE:
+                        headerTableSize = value;
+                        break;
+                    case SETTINGS_MAX_CONCURRENT_STREAMS:
+                        this.mMaxConcurrentStreams = value < 0 ? Integer.MAX_VALUE : value;
+                        break;
+                    case SETTINGS_INITIAL_WINDOW_SIZE:
+                        if (value < 0) {
+                            throw this.connectionError(ERROR_FLOW_CONTROL_ERROR,
+                                    "Window too large");
+                        }
+                        // Open streams adjust their send windows by the difference
+                        final int delta = value - this.mInitialSendWindow;
+                        for (Http2Stream stream : this.mStreams.values()) {
+                            stream.mSendWindow += delta;
+                        }
+                        this.mInitialSendWindow = value;
+                        break;
+                    case SETTINGS_MAX_FRAME_SIZE:
+                        if (value < DEFAULT_MAX_FRAME_SIZE || value > 0xFFFFFF) {
+                            throw this.connectionError(ERROR_PROTOCOL_ERROR,
+                                    "Bad frame size: " + value);
+                        }
+                        this.mMaxFrameSize = value;
+                        break;
+                    default:
+                        break;
+                }
+            }
+            this.notifyAll();
+        }
+        synchronized (this.mWriteLock) {
+            if (headerTableSize >= 0) {
+                this.mEncoder.setMaxTableSize(headerTableSize);
+            }
+            this.writeFrame(TYPE_SETTINGS, FLAG_ACK, 0, this.mFrameBuffer, 0, 0);
+        }
+    }
+
+    /**
+     * Shuts the connection down, failing the streams the server did not process
+     *
+     * @param length The length of the payload
+     * @throws IOException
+     */
+    private void readGoAway(int length) throws IOException {
+        if (length < 8) {
+            throw this.connectionError(ERROR_FRAME_SIZE_ERROR, "Bad GOAWAY frame");
+        }
+        final int lastStreamId = readInt(this.mFrameBuffer, 0) & MAX_STREAM_ID;
+        final List<Http2Stream> refused = new ArrayList<Http2Stream>();
+        synchronized (this) {
+            this.mIsShutdown = true;
+            for (Http2Stream stream : this.mStreams.values()) {
+                if (stream.getId() > lastStreamId) {
+                    refused.add(stream);
+                }
+            }
+            this.notifyAll();
+        }
+        for (Http2Stream stream : refused) {
+            stream.receiveReset(ERROR_REFUSED_STREAM);
+        }
+    }
+
+    /**
+     * Grows the connection or a stream send window
+     *
+     * @param length   The length of the payload
+     * @param streamId The stream id or 0 for the connection
+     * @throws IOException
+     */
+    private void readWindowUpdate(int length, int streamId) throws IOException {
+        if (length != 4) {
+            throw this.connectionError(ERROR_FRAME_SIZE_ERROR, "Bad WINDOW_UPDATE frame");
+        }
+        final int increment = readInt(this.mFrameBuffer, 0) & MAX_STREAM_ID;
+        synchronized (this) {
+            if (streamId == 0) {
+                this.mSendWindow += increment;
+            } else {
+                final Http2Stream stream = this.mStreams.get(streamId);
+                if (stream != null) {
+                    stream.mSendWindow += increment;
+                }
+            }
+            this.notifyAll();
+        }
+    }
+
+    /**
+     * Returns an open stream
+     *
+     * @param streamId The stream id
+     * @return The stream or null if it is not open
+     */
+    private synchronized Http2Stream getStream(int streamId) {
+        return this.mStreams.get(streamId);
+    }
+
+    /**
+     * Sends GOAWAY with an error code and creates the exception that ends the connection
+     *
+     * @param errorCode The error code
+     * @param message   The description of the error
+     * @return The exception to throw
+     */
+    private ProtocolException connectionError(int errorCode, String message) {
+        final byte[] payload = new byte[8];
+        synchronized (this) {
+            writeInt(payload, 0, this.mNextStreamId - 2 > 0 ? this.mNextStreamId - 2 : 0);
+        }
+        writeInt(payload, 4, errorCode);
+        try {
+            synchronized (this.mWriteLock) {
+                this.writeFrame(TYPE_GOAWAY, 0, 0, payload, 0, payload.length);
+            }
+        } catch (IOException e) {
+        }
+        return new ProtocolException(message);
+    }
+
+    /**
+     * Shuts the connection down, closes the socket and fails every open stream
+     *
+     * @param failure The cause
+     */
+    private void fail(IOException failure) {
+        final List<Http2Stream> streams;
+        synchronized (this) {
+            if (this.mFailure != null) {
+                return;
+            }
+            this.mIsShutdown = true;
+            this.mFailure = failure;
+            streams = new ArrayList<Http2Stream>(this.mStreams.values());
+            this.notifyAll();
+        }
+        try {
+            this.mSocket.close();
+        } catch (IOException e) {
+        }
+        for (Http2Stream stream : streams) {
+            stream.receiveFailure(failure);
+        }
+    }
+
+    /**
+     * Writes a setting into a SETTINGS payload
+     *
+     * @param payload The payload
+     * @param offset  The index of the setting
+     * @param id      The setting identifier
+     * @param value   The value
+     */
+    private static void writeSetting(byte[] payload, int offset, int id, int value) {
+        payload[offset] = (byte) (id >>> 8);
+        payload[offset + 1] = (byte) id;
+        writeInt(payload, offset + 2, value);
+    }
+
+    /**
+     * Writes a big-endian 32-bit integer
+     *
+     * @param bytes  The array
+     * @param offset The index of the first byte
+     * @param value  The value
+     */
+    private static void writeInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    /**
+     * Reads a big-endian 32-bit integer
+     *
+     * @param bytes  The array
+     * @param offset The index of the first byte
+     * @return The value
+     */
+    private static int readInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) << 24 | (bytes[offset + 1] & 0xFF) << 16
+                | (bytes[offset + 2] & 0xFF) << 8 | (bytes[offset + 3] & 0xFF);
+    }
+
+    /**
+     * Reads the specified number of bytes
+     *
+     * @param inputStream The stream
+     * @param buffer      The array the bytes are read into
+     * @param offset      The index of the first byte
+     * @param length      The number of bytes
+     * @throws IOException If the stream ended first
+     */
+    private static void readFully(InputStream inputStream, byte[] buffer, int offset, int length)
+            throws IOException {
+        while (length > 0) {
+            final int bytesRead = inputStream.read(buffer, offset, length);
+            if (bytesRead == -1) {
+                throw new EOFException("The server closed the connection");
+            }
+            offset += bytesRead;
+            length -= bytesRead;
+        }
+    }
+
+}
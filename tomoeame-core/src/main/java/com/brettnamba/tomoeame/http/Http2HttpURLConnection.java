@@ -0,0 +1,327 @@
+package com.brettnamba.tomoeame.http;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * HttpURLConnection that sends one exchange as a stream of an Http2Connection.
+ *
+ * The request headers are sent with lowercase names after the :method, :scheme, :authority and
+ * :path pseudo-headers, without the HTTP/1.1 connection headers that HTTP/2 forbids.  The body
+ * is sent in DATA frames, so the chunked streaming mode only determines how much of the body is
+ * buffered before a frame is sent.  The response's status line is reported as "HTTP/2 <code>".
+ *
+ * @author Brett Namba (https://github.com/bretten)
+ */
+final class Http2HttpURLConnection extends TransportHttpURLConnection {
+
+    /**
+     * The number of times a stream is started again on a new connection if its connection
+     * shut down before the stream was sent
+     */
+    private static final int MAX_NEW_STREAM_ATTEMPTS = 3;
+
+    /**
+     * The request headers that only apply to HTTP/1.1 connections
+     */
+    private static final String[] CONNECTION_HEADERS = {"connection", "host", "keep-alive",
+            "proxy-connection", "transfer-encoding", "upgrade"};
+
+    /**
+     * The transport the connection is acquired from
+     */
+    private final Http2Transport mTransport;
+
+    /**
+     * The connection of the current exchange
+     */
+    private Http2Connection mConnection;
+
+    /**
+     * The stream of the current exchange or null if it was not started
+     */
+    private volatile Http2Stream mStream;
+
+    /**
+     * Constructor
+     *
+     * @param url       The request URL
+     * @param transport The transport the connection is acquired from
+     */
+    Http2HttpURLConnection(URL url, Http2Transport transport) {
+        super(url);
+        this.mTransport = transport;
+    }
+
+    /**
+     * Acquires the shared connection to the host
+     *
+     * @throws IOException
+     */
+    @Override
+    protected void openExchange() throws IOException {
+        this.mStream = null;
+        this.mConnection = this.mTransport.acquire(this.url, this.getConnectTimeout());
+    }
+
+    /**
+     * Starts the stream by sending the pseudo-headers and request headers
+     *
+     * @throws IOException
+     */
+    @Override
+    protected void writeRequestHead() throws IOException {
+        final List<String> names = new ArrayList<String>(this.mRequestHeaderNames.size() + 5);
+        final List<String> values = new ArrayList<String>(this.mRequestHeaderNames.size() + 5);
+        final String file = this.url.getFile();
+        String authority = this.getRequestProperty("Host");
+        if (authority == null) {
+            authority = this.url.getPort() != -1 && this.url.getPort() != this.url.getDefaultPort()
+                    ? this.url.getHost() + ":" + this.url.getPort() : this.url.getHost();
+        }
+        names.add(":method");
+        values.add(this.method);
+        names.add(":scheme");
+        values.add(this.url.getProtocol());
+        names.add(":authority");
+        values.add(authority);
+        names.add(":path");
+        values.add(file.length() > 0 ? file : "/");
+        for (int i = 0; i < this.mRequestHeaderNames.size(); i++) {
+            final String name = this.mRequestHeaderNames.get(i).toLowerCase(Locale.US);
+            if (!isConnectionHeader(name)) {
+                final String value = this.mRequestHeaderValues.get(i);
+                names.add(name);
+                values.add(value != null ? value : "");
+            }
+        }
+        if (this.mFixedLength >= 0) {
+            names.add("content-length");
+            values.add(String.valueOf(this.mFixedLength));
+        }
+
+        final boolean hasBody = this.hasRequestBody();
+        for (int attempt = 1; ; attempt++) {
+            final Http2Stream stream = this.mConnection.newStream(names, values, hasBody,
+                    this.getConnectTimeout());
+            if (stream != null) {
+                this.mStream = stream;
+                return;
+            }
+            // The connection shut down before the stream was sent, so use a new one
+            if (attempt == MAX_NEW_STREAM_ATTEMPTS) {
+                throw new IOException("The connection to " + this.url.getHost()
+                        + " shut down before the request was sent");
+            }
+            this.mConnection = this.mTransport.acquire(this.url, this.getConnectTimeout());
+        }
+    }
+
+    /**
+     * Creates the stream the request body is written to in DATA frames
+     *
+     * @return The request body stream
+     */
+    @Override
+    protected OutputStream newRequestBody() {
+        final int bufferLength = this.mChunkLength > 0
+                ? Math.min(this.mChunkLength, Http2Connection.DEFAULT_MAX_FRAME_SIZE)
+                : DEFAULT_CHUNK_LENGTH;
+        return new BufferedOutputStream(new RequestBodyOutputStream(this.mFixedLength),
+                bufferLength);
+    }
+
+    /**
+     * Waits for the response headers of the stream
+     *
+     * @return The stream of the response body
+     * @throws IOException
+     */
+    @Override
+    protected InputStream readResponseHead() throws IOException {
+        final List<String> names = new ArrayList<String>();
+        final List<String> values = new ArrayList<String>();
+        this.mStream.awaitResponseHeaders(this.getReadTimeout(), names, values);
+        String status = null;
+        for (int i = 0; i < names.size(); i++) {
+            final String name = names.get(i);
+            if (name.startsWith(":")) {
+                if (":status".equals(name)) {
+                    status = values.get(i);
+                }
+            } else {
+                this.mResponseHeaderNames.add(name);
+                this.mResponseHeaderValues.add(values.get(i));
+            }
+        }
+        try {
+            this.responseCode = Integer.parseInt(status);
+        } catch (NumberFormatException e) {
+            throw new ProtocolException("Invalid :status: " + status);
+        }
+        this.responseMessage = "";
+        this.mStatusLine = "HTTP/2 " + status;
+        return new ResponseBodyInputStream();
+    }
+
+    /**
+     * Resets the stream unless it already ended
+     */
+    @Override
+    protected void abortExchange() {
+        final Http2Stream stream = this.mStream;
+        if (stream != null) {
+            stream.cancel();
+        }
+    }
+
+    /**
+     * Determines if a header only applies to HTTP/1.1 connections
+     *
+     * @param name The lowercase header name
+     * @return True if the header is not sent over HTTP/2
+     */
+    private static boolean isConnectionHeader(String name) {
+        for (String header : CONNECTION_HEADERS) {
+            if (header.equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Response body read from the stream, which resets the stream if it is closed early
+     */
+    private final class ResponseBodyInputStream extends InputStream {
+
+        /**
+         * Determines if the end of the body was reached
+         */
+        private boolean mIsEnded;
+
+        /**
+         * Determines if the stream was closed
+         */
+        private boolean mIsClosed;
+
+        @Override
+        public int read() throws IOException {
+            final byte[] single = new byte[1];
+            return this.read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (this.mIsClosed) {
+                throw new IOException("Stream closed");
+            }
+            if (this.mIsEnded) {
+                return -1;
+            }
+            if (length == 0) {
+                return 0;
+            }
+            final int bytesRead;
+            try {
+                bytesRead = Http2HttpURLConnection.this.mStream.read(buffer, offset, length,
+                        Http2HttpURLConnection.this.getReadTimeout());
+            } catch (IOException e) {
+                Http2HttpURLConnection.this.abortExchange();
+                throw e;
+            }
+            if (bytesRead == -1) {
+                this.mIsEnded = true;
+            }
+            return bytesRead;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!this.mIsClosed) {
+                this.mIsClosed = true;
+                if (!this.mIsEnded) {
+                    Http2HttpURLConnection.this.abortExchange();
+                }
+            }
+        }
+
+    }
+
+    /**
+     * Request body written to the stream, checking the length of a fixed length body
+     */
+    private final class RequestBodyOutputStream extends OutputStream {
+
+        /**
+         * The number of bytes left to write or -1 if the length is not fixed
+         */
+        private long mRemaining;
+
+        /**
+         * Determines if the stream was closed
+         */
+        private boolean mIsClosed;
+
+        /**
+         * Constructor
+         *
+         * @param length The length of the body or -1 if it is not fixed
+         */
+        RequestBodyOutputStream(long length) {
+            this.mRemaining = length;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            this.write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) throws IOException {
+            if (this.mIsClosed) {
+                throw new IOException("Stream closed");
+            }
+            if (this.mRemaining >= 0 && length > this.mRemaining) {
+                throw new ProtocolException("Expected " + this.mRemaining
+                        + " more bytes but received " + length);
+            }
+            try {
+                Http2HttpURLConnection.this.mStream.write(buffer, offset, length);
+            } catch (IOException e) {
+                Http2HttpURLConnection.this.abortExchange();
+                throw e;
+            }
+            if (this.mRemaining >= 0) {
+                this.mRemaining -= length;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (this.mIsClosed) {
+                return;
+            }
+            this.mIsClosed = true;
+            if (this.mRemaining > 0) {
+                Http2HttpURLConnection.this.abortExchange();
+                throw new ProtocolException("Unexpected end of the request body");
+            }
+            try {
+                Http2HttpURLConnection.this.mStream.finishOutput();
+            } catch (IOException e) {
+                Http2HttpURLConnection.this.abortExchange();
+                throw e;
+            }
+        }
+
+    }
+
+}
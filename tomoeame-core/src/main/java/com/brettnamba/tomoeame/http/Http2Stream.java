@@ -0,0 +1,468 @@
+package com.brettnamba.tomoeame.http;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ProtocolException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One request and response exchanged over an Http2Connection.
+ *
+ * The connection's reader thread hands the response headers and DATA frames to the stream,
+ * which buffers the data in pooled arrays until the request thread reads it.  As the data is
+ * read, the stream's receive window is returned to the server in WINDOW_UPDATE frames, so the
+ * server never sends more than the stream buffers.  The stream is removed from its connection
+ * once both sides ended it or it was reset.
+ *
+ * @author Brett Namba (https://github.com/bretten)
+ */
+final class Http2Stream {
+
+    /**
+     * The payload of the empty DATA frame that ends a request body
+     */
+    private static final byte[] EMPTY = new byte[0];
+
+    /**
+     * The connection of the stream
+     */
+    private final Http2Connection mConnection;
+
+    /**
+     * The stream id
+     */
+    private final int mId;
+
+    /**
+     * The send window of the stream, guarded by the connection
+     */
+    long mSendWindow;
+
+    /**
+     * The names of the response headers or null if they were not received yet
+     */
+    private List<String> mResponseHeaderNames;
+
+    /**
+     * The values of the response headers
+     */
+    private List<String> mResponseHeaderValues;
+
+    /**
+     * The received DATA frames that were not read completely
+     */
+    private final ArrayDeque<Chunk> mChunks = new ArrayDeque<Chunk>();
+
+    /**
+     * The number of bytes the server may still send before the window is returned
+     */
+    private int mReceiveWindow = Http2Connection.STREAM_WINDOW_SIZE;
+
+    /**
+     * The number of read bytes that were not returned to the receive window yet
+     */
+    private int mUnacknowledgedBytes;
+
+    /**
+     * Determines if the server ended the stream
+     */
+    private boolean mIsInputFinished;
+
+    /**
+     * Determines if the request was ended
+     */
+    private boolean mIsOutputFinished;
+
+    /**
+     * Determines if the stream was removed from its connection
+     */
+    private boolean mIsRemoved;
+
+    /**
+     * The failure that ended the stream or null
+     */
+    private IOException mFailure;
+
+    /**
+     * Constructor
+     *
+     * @param connection       The connection of the stream
+     * @param id               The stream id
+     * @param sendWindow       The initial send window
+     * @param isOutputFinished True if the request has no body, so its headers end it
+     */
+    Http2Stream(Http2Connection connection, int id, int sendWindow, boolean isOutputFinished) {
+        this.mConnection = connection;
+        this.mId = id;
+        this.mSendWindow = sendWindow;
+        this.mIsOutputFinished = isOutputFinished;
+    }
+
+    /**
+     * Returns the stream id
+     *
+     * @return The stream id
+     */
+    int getId() {
+        return this.mId;
+    }
+
+    /**
+     * Waits for the final response headers
+     *
+     * @param timeoutMillis The maximum time to wait or 0 to wait indefinitely
+     * @param names         The list the header names, including :status, are added to
+     * @param values        The list the header values are added to
+     * @throws IOException If the stream failed or the wait timed out
+     */
+    synchronized void awaitResponseHeaders(int timeoutMillis, List<String> names,
+                                           List<String> values) throws IOException {
+        final long deadlineNanos = System.nanoTime()
+                + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (this.mResponseHeaderNames == null) {
+            this.checkReadable();
+            if (this.mIsInputFinished) {
+                throw new ProtocolException("The stream ended without a response");
+            }
+            this.await(timeoutMillis, deadlineNanos);
+        }
+        names.addAll(this.mResponseHeaderNames);
+        values.addAll(this.mResponseHeaderValues);
+    }
+
+    /**
+     * Reads bytes of the response body, returning the read bytes to the server's send window
+     *
+     * @param buffer        The array the bytes are read into
+     * @param offset        The index of the first byte to read
+     * @param length        The maximum number of bytes to read, which is positive
+     * @param timeoutMillis The maximum time to wait for data or 0 to wait indefinitely
+     * @return The number of bytes read or -1 at the end of the body
+     * @throws IOException If the stream failed or the wait timed out
+     */
+    int read(byte[] buffer, int offset, int length, int timeoutMillis) throws IOException {
+        final int bytesRead;
+        int increment = 0;
+        synchronized (this) {
+            final long deadlineNanos = System.nanoTime()
+                    + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            while (this.mChunks.isEmpty() && !this.mIsInputFinished) {
+                this.checkReadable();
+                this.await(timeoutMillis, deadlineNanos);
+            }
+            if (this.mChunks.isEmpty()) {
+                this.checkReadable();
+                bytesRead = -1;
+            } else {
+                final Chunk chunk = this.mChunks.peek();
+                bytesRead = Math.min(length, chunk.mLimit - chunk.mPosition);
+                System.arraycopy(chunk.mData, chunk.mPosition, buffer, offset, bytesRead);
+                chunk.mPosition += bytesRead;
+                if (chunk.mPosition == chunk.mLimit) {
+                    this.mChunks.poll();
+                    BufferPool.getDefault().release(chunk.mData);
+                }
+                this.mUnacknowledgedBytes += bytesRead;
+                if (!this.mIsInputFinished
+                        && this.mUnacknowledgedBytes >= Http2Connection.STREAM_WINDOW_SIZE / 2) {
+                    increment = this.mUnacknowledgedBytes;
+                    this.mReceiveWindow += increment;
+                    this.mUnacknowledgedBytes = 0;
+                }
+            }
+        }
+        if (bytesRead == -1) {
+            // Free the stream's slot before the caller sees the end of the body, since the
+            // connection's reader may not have removed the stream yet
+            this.removeIfEnded();
+            return -1;
+        }
+        if (increment > 0) {
+            this.mConnection.writeWindowUpdate(this.mId, increment);
+        }
+        return bytesRead;
+    }
+
+    /**
+     * Writes bytes of the request body
+     *
+     * @param buffer The bytes
+     * @param offset The index of the first byte
+     * @param length The number of bytes
+     * @throws IOException If the stream failed
+     */
+    void write(byte[] buffer, int offset, int length) throws IOException {
+        if (length > 0) {
+            this.mConnection.writeData(this, buffer, offset, length, false);
+        }
+    }
+
+    /**
+     * Ends the request body
+     *
+     * @throws IOException If the stream failed
+     */
+    void finishOutput() throws IOException {
+        synchronized (this) {
+            if (this.mIsOutputFinished) {
+                return;
+            }
+        }
+        this.mConnection.writeData(this, EMPTY, 0, 0, true);
+        synchronized (this) {
+            this.mIsOutputFinished = true;
+        }
+        this.removeIfEnded();
+    }
+
+    /**
+     * Gives the stream up, resetting it if it did not end yet and freeing the buffered data
+     */
+    void cancel() {
+        final boolean isReset;
+        synchronized (this) {
+            isReset = !this.mIsRemoved && (!this.mIsInputFinished || !this.mIsOutputFinished)
+                    && this.mFailure == null;
+            if (this.mFailure == null) {
+                this.mFailure = new IOException("The stream was canceled");
+            }
+            this.releaseChunks();
+            this.notifyAll();
+        }
+        if (isReset) {
+            this.mConnection.writeRstStream(this.mId, Http2Connection.ERROR_CANCEL);
+        }
+        this.remove();
+    }
+
+    /**
+     * Checks that the request body can still be written.  Called with the connection locked.
+     *
+     * @throws IOException If the stream failed
+     */
+    synchronized void checkWritable() throws IOException {
+        if (this.mFailure != null) {
+            throw this.mFailure;
+        }
+        if (this.mIsOutputFinished) {
+            throw new IOException("The request body was already ended");
+        }
+    }
+
+    /**
+     * Receives a header block.  The first final header block holds the response headers;
+     * informational responses and trailers are dropped.
+     *
+     * @param names     The header names
+     * @param values    The header values
+     * @param endStream True if the server ended the stream
+     */
+    void receiveHeaders(List<String> names, List<String> values, boolean endStream) {
+        synchronized (this) {
+            if (this.mResponseHeaderNames == null) {
+                final String status = names.isEmpty() || !":status".equals(names.get(0))
+                        ? null : values.get(0);
+                if (status != null && status.startsWith("1") && !endStream) {
+                    return;
+                }
+                this.mResponseHeaderNames = names;
+                this.mResponseHeaderValues = values;
+            }
+            if (endStream) {
+                this.mIsInputFinished = true;
+            }
+            this.notifyAll();
+        }
+        if (endStream) {
+            this.removeIfEnded();
+        }
+    }
+
+    /**
+     * Receives the data of a DATA frame
+     *
+     * @param payload       The pooled array holding the frame's payload
+     * @param offset        The index of the first byte of data
+     * @param length        The number of bytes of data
+     * @param paddingLength The number of padding bytes, which count against the window
+     * @param endStream     True if the server ended the stream
+     * @return True if the stream keeps the array and releases it to the pool itself
+     */
+    boolean receiveData(byte[] payload, int offset, int length, int paddingLength,
+                        boolean endStream) {
+        boolean isKept = false;
+        boolean isFlowControlError = false;
+        synchronized (this) {
+            this.mReceiveWindow -= length + paddingLength;
+            if (this.mReceiveWindow < 0) {
+                isFlowControlError = true;
+            } else if (this.mFailure == null && length > 0) {
+                this.mChunks.add(new Chunk(payload, offset, offset + length));
+                isKept = true;
+            }
+            // Padding is never read, so it is returned with the next window update
+            this.mUnacknowledgedBytes += paddingLength;
+            if (endStream) {
+                this.mIsInputFinished = true;
+            }
+            this.notifyAll();
+        }
+        if (isFlowControlError) {
+            this.receiveFailure(new ProtocolException("The server exceeded the stream window"));
+            this.mConnection.writeRstStream(this.mId, Http2Connection.ERROR_FLOW_CONTROL_ERROR);
+        } else if (endStream) {
+            this.removeIfEnded();
+        }
+        return isKept;
+    }
+
+    /**
+     * Receives RST_STREAM, failing the stream
+     *
+     * @param errorCode The error code
+     */
+    void receiveReset(int errorCode) {
+        if (errorCode == Http2Connection.ERROR_REFUSED_STREAM) {
+            this.receiveFailure(new IOException("The server refused stream " + this.mId
+                    + " without processing it"));
+        } else if (errorCode == Http2Connection.ERROR_NO_ERROR) {
+            // The server does not need the rest of the request body after responding
+            synchronized (this) {
+                this.mIsOutputFinished = true;
+                if (!this.mIsInputFinished) {
+                    this.mFailure = new IOException("Stream " + this.mId + " was reset");
+                }
+                this.notifyAll();
+            }
+            this.remove();
+        } else {
+            this.receiveFailure(new IOException("Stream " + this.mId
+                    + " was reset with error code " + errorCode));
+        }
+    }
+
+    /**
+     * Fails the stream
+     *
+     * @param failure The cause
+     */
+    void receiveFailure(IOException failure) {
+        synchronized (this) {
+            if (this.mFailure == null) {
+                this.mFailure = failure;
+            }
+            this.releaseChunks();
+            this.notifyAll();
+        }
+        this.remove();
+    }
+
+    /**
+     * Throws the failure of the stream, if any
+     *
+     * @throws IOException
+     */
+    private void checkReadable() throws IOException {
+        if (this.mFailure != null) {
+            throw this.mFailure;
+        }
+    }
+
+    /**
+     * Waits on the stream until notified or the deadline passes
+     *
+     * @param timeoutMillis The timeout or 0 to wait indefinitely
+     * @param deadlineNanos The deadline
+     * @throws IOException If the deadline passed or the thread was interrupted
+     */
+    private void await(int timeoutMillis, long deadlineNanos) throws IOException {
+        long waitMillis = 0;
+        if (timeoutMillis > 0) {
+            waitMillis = TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+            if (waitMillis <= 0) {
+                throw new SocketTimeoutException("Read timed out");
+            }
+        }
+        try {
+            this.wait(waitMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for the response");
+        }
+    }
+
+    /**
+     * Removes the stream from its connection once both sides ended it
+     */
+    private void removeIfEnded() {
+        synchronized (this) {
+            if (!this.mIsInputFinished || !this.mIsOutputFinished) {
+                return;
+            }
+        }
+        this.remove();
+    }
+
+    /**
+     * Removes the stream from its connection
+     */
+    private void remove() {
+        synchronized (this) {
+            if (this.mIsRemoved) {
+                return;
+            }
+            this.mIsRemoved = true;
+        }
+        this.mConnection.removeStream(this);
+    }
+
+    /**
+     * Returns the buffered data to the pool.  Must be called with the stream locked.
+     */
+    private void releaseChunks() {
+        final BufferPool bufferPool = BufferPool.getDefault();
+        Chunk chunk;
+        while ((chunk = this.mChunks.poll()) != null) {
+            bufferPool.release(chunk.mData);
+        }
+    }
+
+    /**
+     * The data of a received DATA frame
+     */
+    private static final class Chunk {
+
+        /**
+         * The pooled array holding the data
+         */
+        final byte[] mData;
+
+        /**
+         * The index of the next unread byte
+         */
+        int mPosition;
+
+        /**
+         * The index after the last byte of data
+         */
+        final int mLimit;
+
+        /**
+         * Constructor
+         *
+         * @param data     The pooled array holding the data
+         * @param position The index of the first byte
+         * @param limit    The index after the last byte
+         */
+        Chunk(byte[] data, int position, int limit) {
+            this.mData = data;
+            this.mPosition = position;
+            this.mLimit = limit;
+        }
+
+    }
+
+}
@@ -0,0 +1,250 @@
+package com.brettnamba.tomoeame.http;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Transport that sends plain HTTP requests over HTTP/2, multiplexing all of the concurrent
+ * requests to a host as streams of a single connection.
+ *
+ * Connections are opened with prior knowledge (h2c), so the server must accept HTTP/2 without
+ * an upgrade on its plain HTTP port.  Request headers are compressed with HPACK and request and
+ * response bodies are flow controlled per stream and per connection.  When the server's limit
+ * of concurrent streams is reached, new requests wait for a stream to end instead of opening
+ * another connection.  A connection the server shut down with GOAWAY is replaced by a new one,
+ * and idle connections are closed once they were not used within the keep-alive duration.
+ *
+ * HTTPS URLs are opened through the fallback transport, since negotiating HTTP/2 over TLS needs
+ * ALPN, which the platform does not offer on every supported Android version.  The connection
+ * counts only cover the HTTP/2 connections, not those of the fallback transport.
+ *
+ * @author Brett Namba (https://github.com/bretten)
+ */
+public class Http2Transport implements Transport {
+
+    /**
+     * The default duration in milliseconds that an idle connection is kept alive for
+     */
+    public static final long DEFAULT_KEEP_ALIVE_DURATION_MILLIS = 5 * 60 * 1000;
+
+    /**
+     * The duration in nanoseconds that an idle connection is kept alive for
+     */
+    private final long mKeepAliveDurationNanos;
+
+    /**
+     * The transport that opens the connections this transport does not handle
+     */
+    private final Transport mFallbackTransport;
+
+    /**
+     * Collection mapping host keys to their connections
+     */
+    private final Map<String, Http2Connection> mConnections =
+            new HashMap<String, Http2Connection>();
+
+    /**
+     * Collection mapping host keys to the locks held while connecting to the host, so that
+     * concurrent requests to a new host wait for one connection instead of each opening one
+     */
+    private final Map<String, Object> mConnectLocks = new HashMap<String, Object>();
+
+    /**
+     * The number of connections that were opened
+     */
+    private final AtomicLong mOpenedCount = new AtomicLong();
+
+    /**
+     * The number of streams that were started on an existing connection
+     */
+    private final AtomicLong mMultiplexedCount = new AtomicLong();
+
+    /**
+     * Constructs a transport with the default keep-alive duration that opens HTTPS URLs through
+     * the platform
+     */
+    public Http2Transport() {
+        this(DEFAULT_KEEP_ALIVE_DURATION_MILLIS, HttpUrlConnectionTransport.getDefault());
+    }
+
+    /**
+     * Constructs a transport with the specified keep-alive duration
+     *
+     * @param keepAliveDurationMillis The duration in milliseconds an idle connection is kept
+     * @param fallbackTransport       The transport that opens HTTPS URLs
+     */
+    public Http2Transport(long keepAliveDurationMillis, Transport fallbackTransport) {
+        if (keepAliveDurationMillis < 0) {
+            throw new IllegalArgumentException("Keep-alive duration must not be negative");
+        }
+        if (fallbackTransport == null) {
+            throw new IllegalArgumentException("Fallback transport cannot be null");
+        }
+        this.mKeepAliveDurationNanos = TimeUnit.MILLISECONDS.toNanos(keepAliveDurationMillis);
+        this.mFallbackTransport = fallbackTransport;
+    }
+
+    /**
+     * Opens a connection to the URL.  Plain HTTP URLs are sent as HTTP/2 streams and other URLs
+     * are opened through the fallback transport.
+     *
+     * @param url The request URL
+     * @return The unconnected connection
+     * @throws IOException
+     */
+    @Override
+    public HttpURLConnection openConnection(URL url) throws IOException {
+        if (!"http".equalsIgnoreCase(url.getProtocol())) {
+            return this.mFallbackTransport.openConnection(url);
+        }
+        return new Http2HttpURLConnection(url, this);
+    }
+
+    /**
+     * Determines if requests to one host share a connection
+     *
+     * @return True, since requests are multiplexed over one connection per host
+     */
+    @Override
+    public boolean isMultiplexed() {
+        return true;
+    }
+
+    /**
+     * Closes all of the connections without streams in flight
+     */
+    public void evictAll() {
+        final List<Http2Connection> evicted = new ArrayList<Http2Connection>();
+        synchronized (this) {
+            for (Http2Connection connection : new ArrayList<Http2Connection>(
+                    this.mConnections.values())) {
+                if (connection.getStreamCount() == 0) {
+                    this.mConnections.remove(connection.getHostKey());
+                    evicted.add(connection);
+                }
+            }
+        }
+        for (Http2Connection connection : evicted) {
+            connection.close();
+        }
+    }
+
+    /**
+     * Returns the number of requests that were sent as a new stream of a connection that was
+     * already open
+     *
+     * @return The number of reused connections
+     */
+    @Override
+    public long getReusedConnectionCount() {
+        return this.mMultiplexedCount.get();
+    }
+
+    /**
+     * Returns the number of connections that are kept across all hosts
+     *
+     * @return The number of connections
+     */
+    public synchronized int getConnectionCount() {
+        return this.mConnections.size();
+    }
+
+    /**
+     * Returns the number of connections that were opened
+     *
+     * @return The number of opened connections
+     */
+    @Override
+    public long getOpenedConnectionCount() {
+        return this.mOpenedCount.get();
+    }
+
+    /**
+     * Returns the number of requests that were sent on a connection that already existed
+     *
+     * @return The number of multiplexed requests
+     */
+    public long getMultiplexedRequestCount() {
+        return this.mMultiplexedCount.get();
+    }
+
+    /**
+     * Returns the connection to the URL's host, opening it if there is no usable connection
+     *
+     * @param url                  The request URL
+     * @param connectTimeoutMillis The connect timeout or 0 to wait indefinitely
+     * @return The connection
+     * @throws IOException If a new connection could not be opened
+     */
+    Http2Connection acquire(URL url, int connectTimeoutMillis) throws IOException {
+        final String hostKey = HttpClient.getHostKey(url);
+        Http2Connection connection = this.getUsableConnection(hostKey);
+        if (connection != null) {
+            this.mMultiplexedCount.incrementAndGet();
+            return connection;
+        }
+
+        // Only one request connects to the host while the others wait for its connection
+        final Object connectLock;
+        synchronized (this) {
+            Object lock = this.mConnectLocks.get(hostKey);
+            if (lock == null) {
+                lock = new Object();
+                this.mConnectLocks.put(hostKey, lock);
+            }
+            connectLock = lock;
+        }
+        synchronized (connectLock) {
+            connection = this.getUsableConnection(hostKey);
+            if (connection != null) {
+                this.mMultiplexedCount.incrementAndGet();
+                return connection;
+            }
+            connection = Http2Connection.open(hostKey, url.getHost(),
+                    url.getPort() != -1 ? url.getPort() : url.getDefaultPort(),
+                    connectTimeoutMillis);
+            this.mOpenedCount.incrementAndGet();
+            synchronized (this) {
+                this.mConnections.put(hostKey, connection);
+            }
+            return connection;
+        }
+    }
+
+    /**
+     * Returns the host's connection if it can start new streams, closing it if it shut down or
+     * was idle for longer than the keep-alive duration
+     *
+     * @param hostKey The host key
+     * @return The connection or null if there is no usable connection
+     */
+    private Http2Connection getUsableConnection(String hostKey) {
+        Http2Connection stale;
+        synchronized (this) {
+            final Http2Connection connection = this.mConnections.get(hostKey);
+            if (connection == null) {
+                return null;
+            }
+            final long idleSinceNanos = connection.getIdleSinceNanos();
+            if (connection.isUsable() && (idleSinceNanos == Long.MAX_VALUE
+                    || System.nanoTime() - idleSinceNanos <= this.mKeepAliveDurationNanos)) {
+                return connection;
+            }
+            this.mConnections.remove(hostKey);
+            stale = connection;
+        }
+        // A connection that shut down closes once its streams end, so only close idle ones
+        if (stale.getStreamCount() == 0) {
+            stale.close();
+        }
+        return null;
+    }
+
+}
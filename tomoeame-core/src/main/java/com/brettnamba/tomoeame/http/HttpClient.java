@@ -0,0 +1,701 @@
+package com.brettnamba.tomoeame.http;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reusable client that HttpUrlConnectionRequests can be sent through so that they share
+ * resources such as the dispatcher's per-host limits and the transport's connections.  A client should be created once and shared
+ * for the lifetime of the app rather than created per request.
+ *
+ * @author Brett Namba (https://github.com/bretten)
+ */
+public class HttpClient {
+
+    /**
+     * The lazily created client shared by callers that do not need their own configuration
+     */
+    private static HttpClient sDefaultClient;
+
+    /**
+     * The default duration to wait for a connection to be established
+     */
+    public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 15 * 1000;
+
+    /**
+     * The default duration to wait for response data to arrive
+     */
+    public static final int DEFAULT_READ_TIMEOUT_MILLIS = 30 * 1000;
+
+    /**
+     * The default duration to wait for a write of request data to finish
+     */
+    public static final int DEFAULT_WRITE_TIMEOUT_MILLIS = 30 * 1000;
+
+    /**
+     * The duration to wait for a connection to be established
+     */
+    private volatile int mConnectTimeoutMillis = DEFAULT_CONNECT_TIMEOUT_MILLIS;
+
+    /**
+     * The duration to wait for response data to arrive
+     */
+    private volatile int mReadTimeoutMillis = DEFAULT_READ_TIMEOUT_MILLIS;
+
+    /**
+     * The duration to wait for a write of request data to finish
+     */
+    private volatile int mWriteTimeoutMillis = DEFAULT_WRITE_TIMEOUT_MILLIS;
+
+    /**
+     * The maximum duration of a whole call to send(), or 0 if there is no deadline
+     */
+    private volatile long mCallTimeoutMillis = 0;
+
+    /**
+     * Runs the requests that are sent asynchronously
+     */
+    private final Dispatcher mDispatcher;
+
+    /**
+     * The transport that opens the connections of the requests sent through this client
+     */
+    private volatile Transport mTransport = HttpUrlConnectionTransport.getDefault();
+
+    /**
+     * The disk cache that GET responses are stored in or null if responses are not cached
+     */
+    private HttpResponseCache mResponseCache;
+
+    /**
+     * Provides the authentication header values for requests that do not have their own
+     * Authenticator, or null if they are sent without one
+     */
+    private Authenticator mAuthenticator;
+
+    /**
+     * The policy failed attempts are retried with, or null if requests are not retried
+     */
+    private volatile RetryPolicy mRetryPolicy;
+
+    /**
+     * Listener that is notified after each attempt to send a request through the client
+     */
+    private volatile HttpUrlConnectionRequest.AttemptListener mAttemptListener;
+
+    /**
+     * The sink the metrics of each call are published to or null to not measure calls
+     */
+    private volatile MetricsSink mMetricsSink;
+
+    /**
+     * The breaker whose settings are used for each host's breaker, or null if there are none
+     */
+    private volatile CircuitBreaker mCircuitBreakerTemplate;
+
+    /**
+     * The limiter whose settings are used for each host's limiter, or null if there are none
+     */
+    private volatile ConcurrencyLimiter mConcurrencyLimiterTemplate;
+
+    /**
+     * Collection mapping host keys to their circuit breaker
+     */
+    private final ConcurrentHashMap<String, CircuitBreaker> mCircuitBreakers =
+            new ConcurrentHashMap<String, CircuitBreaker>();
+
+    /**
+     * Collection mapping host keys to their concurrency limiter
+     */
+    private final ConcurrentHashMap<String, ConcurrencyLimiter> mConcurrencyLimiters =
+            new ConcurrentHashMap<String, ConcurrencyLimiter>();
+
+    /**
+     * Determines if identical GET requests that are in flight at the same time share one
+     * network exchange
+     */
+    private volatile boolean mIsRequestCoalescingEnabled = true;
+
+    /**
+     * Collection mapping the coalescing key of each GET request in flight to its exchange
+     */
+    private final ConcurrentHashMap<String, InFlightCall> mInFlightCalls =
+            new ConcurrentHashMap<String, InFlightCall>();
+
+    /**
+     * The number of requests that attached to an identical request in flight instead of sending
+     * their own
+     */
+    private final AtomicLong mCoalescedRequestCount = new AtomicLong();
+
+    /**
+     * Constructs a client with a default dispatcher
+     */
+    public HttpClient() {
+        this(new Dispatcher());
+    }
+
+    /**
+     * Constructs a client with the specified dispatcher
+     *
+     * @param dispatcher Runs the requests that are sent asynchronously
+     */
+    public HttpClient(Dispatcher dispatcher) {
+        if (dispatcher == null) {
+            throw new IllegalArgumentException("Dispatcher cannot be null");
+        }
+        this.mDispatcher = dispatcher;
+    }
+
+    /**
+     * Returns the shared client, creating it if it does not exist yet
+     *
+     * @return The shared client
+     */
+    public static synchronized HttpClient getDefault() {
+        if (sDefaultClient == null) {
+            sDefaultClient = new HttpClient();
+        }
+        return sDefaultClient;
+    }
+
+    /**
+     * Returns the dispatcher that runs the requests that are sent asynchronously
+     *
+     * @return The dispatcher
+     */
+    public Dispatcher getDispatcher() {
+        return this.mDispatcher;
+    }
+
+    /**
+     * Sets the transport that opens the connections of the requests sent through this client
+     *
+     * @param transport The transport
+     */
+    public void setTransport(Transport transport) {
+        if (transport == null) {
+            throw new IllegalArgumentException("Transport cannot be null");
+        }
+        this.mTransport = transport;
+    }
+
+    /**
+     * Returns the transport that opens the connections of the requests sent through this client
+     *
+     * @return The transport, which is the platform's HttpURLConnection unless one was set
+     */
+    public Transport getTransport() {
+        return this.mTransport;
+    }
+
+    /**
+     * Returns the number of connections the client's transport opened.  The transport may be
+     * shared with other clients, in which case their connections are counted too.
+     *
+     * @return The number of opened connections or -1 if the transport cannot tell
+     */
+    public long getOpenedConnectionCount() {
+        return this.mTransport.getOpenedConnectionCount();
+    }
+
+    /**
+     * Returns the number of requests the client's transport sent over a connection that was
+     * already open.  Together with getOpenedConnectionCount(), this tells how often keep-alive
+     * saved a handshake.
+     *
+     * @return The number of reused connections or -1 if the transport cannot tell
+     */
+    public long getReusedConnectionCount() {
+        return this.mTransport.getReusedConnectionCount();
+    }
+
+    /**
+     * Sets the disk cache that GET responses are stored in.  This should be set before any
+     * requests are sent through the client.
+     *
+     * @param responseCache The response cache or null to disable caching
+     */
+    public void setResponseCache(HttpResponseCache responseCache) {
+        this.mResponseCache = responseCache;
+    }
+
+    /**
+     * Returns the disk cache that GET responses are stored in
+     *
+     * @return The response cache or null if responses are not cached
+     */
+    public HttpResponseCache getResponseCache() {
+        return this.mResponseCache;
+    }
+
+    /**
+     * Sets the Authenticator of requests that do not have their own, such as one returned by
+     * AuthTokenProvider.getAuthenticator() for the signed in Account.  This should be set before
+     * any requests are sent through the client.
+     *
+     * @param authenticator The Authenticator or null to send those requests without one
+     */
+    public void setAuthenticator(Authenticator authenticator) {
+        this.mAuthenticator = authenticator;
+    }
+
+    /**
+     * Returns the Authenticator of requests that do not have their own
+     *
+     * @return The Authenticator or null if there is none
+     */
+    public Authenticator getAuthenticator() {
+        return this.mAuthenticator;
+    }
+
+    /**
+     * Sets the duration to wait for a connection to be established for requests that do not
+     * override it
+     *
+     * @param timeoutMillis The timeout or 0 to wait indefinitely
+     */
+    public void setConnectTimeout(int timeoutMillis) {
+        if (timeoutMillis < 0) {
+            throw new IllegalArgumentException("Timeout cannot be negative");
+        }
+        this.mConnectTimeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Returns the duration to wait for a connection to be established
+     *
+     * @return The timeout or 0 if it waits indefinitely
+     */
+    public int getConnectTimeout() {
+        return this.mConnectTimeoutMillis;
+    }
+
+    /**
+     * Sets the duration to wait for response data to arrive for requests that do not override it
+     *
+     * @param timeoutMillis The timeout or 0 to wait indefinitely
+     */
+    public void setReadTimeout(int timeoutMillis) {
+        if (timeoutMillis < 0) {
+            throw new IllegalArgumentException("Timeout cannot be negative");
+        }
+        this.mReadTimeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Returns the duration to wait for response data to arrive
+     *
+     * @return The timeout or 0 if it waits indefinitely
+     */
+    public int getReadTimeout() {
+        return this.mReadTimeoutMillis;
+    }
+
+    /**
+     * Sets the duration to wait for a write of request data to finish for requests that do not
+     * override it
+     *
+     * @param timeoutMillis The timeout or 0 to wait indefinitely
+     */
+    public void setWriteTimeout(int timeoutMillis) {
+        if (timeoutMillis < 0) {
+            throw new IllegalArgumentException("Timeout cannot be negative");
+        }
+        this.mWriteTimeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Returns the duration to wait for a write of request data to finish
+     *
+     * @return The timeout or 0 if it waits indefinitely
+     */
+    public int getWriteTimeout() {
+        return this.mWriteTimeoutMillis;
+    }
+
+    /**
+     * Sets the maximum duration of a whole call to send(), including every retry, for requests
+     * that do not override it
+     *
+     * @param timeoutMillis The deadline or 0 for no deadline
+     */
+    public void setCallTimeout(long timeoutMillis) {
+        if (timeoutMillis < 0) {
+            throw new IllegalArgumentException("Timeout cannot be negative");
+        }
+        this.mCallTimeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Returns the maximum duration of a whole call to send()
+     *
+     * @return The deadline or 0 if there is none
+     */
+    public long getCallTimeout() {
+        return this.mCallTimeoutMillis;
+    }
+
+    /**
+     * Sets the policy failed attempts are retried with for requests that do not have their own
+     *
+     * @param retryPolicy The retry policy or null to not retry requests
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.mRetryPolicy = retryPolicy;
+    }
+
+    /**
+     * Returns the policy failed attempts are retried with
+     *
+     * @return The retry policy or null if requests are not retried
+     */
+    public RetryPolicy getRetryPolicy() {
+        return this.mRetryPolicy;
+    }
+
+    /**
+     * Sets the listener that is notified after each attempt to send a request that does not
+     * have its own listener
+     *
+     * @param attemptListener Object that will listen for attempts
+     */
+    public void setAttemptListener(HttpUrlConnectionRequest.AttemptListener attemptListener) {
+        this.mAttemptListener = attemptListener;
+    }
+
+    /**
+     * Returns the listener that is notified after each attempt to send a request
+     *
+     * @return The listener or null if there is none
+     */
+    public HttpUrlConnectionRequest.AttemptListener getAttemptListener() {
+        return this.mAttemptListener;
+    }
+
+    /**
+     * Sets the sink that the timings and sizes of each call are published to, for requests that
+     * do not have their own sink
+     *
+     * @param metricsSink The sink or null to stop measuring calls
+     */
+    public void setMetricsSink(MetricsSink metricsSink) {
+        this.mMetricsSink = metricsSink;
+    }
+
+    /**
+     * Returns the sink that the metrics of each call are published to
+     *
+     * @return The sink or null if there is none
+     */
+    public MetricsSink getMetricsSink() {
+        return this.mMetricsSink;
+    }
+
+    /**
+     * Enables a circuit breaker for each host.  The specified breaker is only used for its
+     * settings; each host gets its own breaker, created the first time a request is sent to it.
+     *
+     * @param circuitBreaker The breaker whose settings are used or null to disable the breakers
+     */
+    public void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+        this.mCircuitBreakerTemplate = circuitBreaker;
+        this.mCircuitBreakers.clear();
+    }
+
+    /**
+     * Returns the circuit breaker of the specified host
+     *
+     * @param hostKey The host key from getHostKey()
+     * @return The host's breaker or null if breakers are disabled
+     */
+    public CircuitBreaker getCircuitBreaker(String hostKey) {
+        final CircuitBreaker template = this.mCircuitBreakerTemplate;
+        if (template == null) {
+            return null;
+        }
+        CircuitBreaker circuitBreaker = this.mCircuitBreakers.get(hostKey);
+        if (circuitBreaker == null) {
+            final CircuitBreaker newCircuitBreaker = template.newInstance();
+            circuitBreaker = this.mCircuitBreakers.putIfAbsent(hostKey, newCircuitBreaker);
+            if (circuitBreaker == null) {
+                circuitBreaker = newCircuitBreaker;
+            }
+        }
+        return circuitBreaker;
+    }
+
+    /**
+     * Enables an adaptive concurrency limit for each host.  The specified limiter is only used
+     * for its settings; each host gets its own limiter, created the first time a request is sent
+     * to it.
+     *
+     * @param concurrencyLimiter The limiter whose settings are used or null to disable the limits
+     */
+    public void setConcurrencyLimiter(ConcurrencyLimiter concurrencyLimiter) {
+        this.mConcurrencyLimiterTemplate = concurrencyLimiter;
+        this.mConcurrencyLimiters.clear();
+    }
+
+    /**
+     * Returns the concurrency limiter of the specified host
+     *
+     * @param hostKey The host key from getHostKey()
+     * @return The host's limiter or null if limits are disabled
+     */
+    public ConcurrencyLimiter getConcurrencyLimiter(String hostKey) {
+        final ConcurrencyLimiter template = this.mConcurrencyLimiterTemplate;
+        if (template == null) {
+            return null;
+        }
+        ConcurrencyLimiter concurrencyLimiter = this.mConcurrencyLimiters.get(hostKey);
+        if (concurrencyLimiter == null) {
+            final ConcurrencyLimiter newConcurrencyLimiter = template.newInstance();
+            concurrencyLimiter =
+                    this.mConcurrencyLimiters.putIfAbsent(hostKey, newConcurrencyLimiter);
+            if (concurrencyLimiter == null) {
+                concurrencyLimiter = newConcurrencyLimiter;
+            }
+        }
+        return concurrencyLimiter;
+    }
+
+    /**
+     * Enables sharing a single network exchange between identical GET requests that are in
+     * flight at the same time.  Requests are identical if they have the same URL, query
+     * parameters, headers and cache policy.  This is enabled by default.
+     *
+     * @param enabled True to coalesce identical GET requests
+     */
+    public void setRequestCoalescingEnabled(boolean enabled) {
+        this.mIsRequestCoalescingEnabled = enabled;
+    }
+
+    /**
+     * Returns the number of requests that attached to an identical request in flight instead of
+     * sending their own
+     *
+     * @return The coalesced request count
+     */
+    public long getCoalescedRequestCount() {
+        return this.mCoalescedRequestCount.get();
+    }
+
+    /**
+     * Sends the request through this client, blocking until the response has been read.  If an
+     * identical GET request is already in flight, this waits for it and shares its response
+     * instead of sending another request.  If that request is aborted instead, this request is
+     * sent on its own.
+     *
+     * @param request The request to send
+     */
+    public void execute(HttpUrlConnectionRequest request) {
+        if (!this.mIsRequestCoalescingEnabled || !request.isCoalescable()) {
+            request.send(this);
+            return;
+        }
+
+        final String key;
+        try {
+            key = request.getCoalescingKey();
+        } catch (IOException e) {
+            // Let the request fail on its own
+            request.send(this);
+            return;
+        }
+
+        final InFlightCall call = new InFlightCall();
+        final InFlightCall inFlightCall = this.mInFlightCalls.putIfAbsent(key, call);
+        if (inFlightCall != null) {
+            // Attach to the identical request already in flight
+            if (!request.awaitSharedResponse(inFlightCall.done)) {
+                return;
+            }
+            if (inFlightCall.isShared) {
+                this.mCoalescedRequestCount.incrementAndGet();
+                request.readSharedResponse(inFlightCall.request);
+                return;
+            }
+            // The identical request was aborted, which says nothing about this one
+            this.execute(request);
+            return;
+        }
+
+        // Send the request and share it with any identical requests that attach meanwhile
+        try {
+            call.request = request;
+            request.send(this);
+            call.isShared = !request.isAborted();
+        } finally {
+            this.mInFlightCalls.remove(key, call);
+            call.done.countDown();
+        }
+    }
+
+    /**
+     * Queues the request to be sent on the dispatcher's worker threads.  The callback is
+     * invoked on the worker thread once the response has been read or the request has failed.
+     * If the call is dropped before it runs, the callback fails with an InterruptedIOException
+     * on the thread that dropped it.
+     *
+     * @param request  The request to send
+     * @param callback The callback that receives the outcome of the request
+     * @throws RejectedExecutionException If the dispatcher was shut down
+     */
+    public void enqueue(final HttpUrlConnectionRequest request, final Callback callback) {
+        if (request == null || callback == null) {
+            throw new IllegalArgumentException("Request or callback cannot be null");
+        }
+        this.mDispatcher.enqueue(this.getHostKey(request), new Dispatcher.Droppable() {
+            @Override
+            public void run() {
+                HttpClient.this.execute(request);
+                if (request.getException() != null) {
+                    callback.onFailure(request, request.getException());
+                } else {
+                    callback.onResponse(request);
+                }
+            }
+
+            @Override
+            public void onDropped() {
+                callback.onFailure(request,
+                        new InterruptedIOException("The call was dropped before it ran"));
+            }
+        });
+    }
+
+    /**
+     * Queues the request to be sent on the dispatcher's worker threads and returns a Future
+     * that completes with the request once its response has been read.  Cancelling the Future
+     * also cancels the request, and the Future is canceled if the call is dropped before it runs.
+     *
+     * @param request The request to send
+     * @return A Future that completes with the sent request
+     * @throws RejectedExecutionException If the dispatcher was shut down
+     */
+    public Future<HttpUrlConnectionRequest> submit(final HttpUrlConnectionRequest request) {
+        if (request == null) {
+            throw new IllegalArgumentException("Request cannot be null");
+        }
+        final FutureTask<HttpUrlConnectionRequest> future =
+                new FutureTask<HttpUrlConnectionRequest>(
+                        new Callable<HttpUrlConnectionRequest>() {
+                            @Override
+                            public HttpUrlConnectionRequest call() throws IOException {
+                                HttpClient.this.execute(request);
+                                if (request.getException() != null) {
+                                    throw request.getException();
+                                }
+                                return request;
+                            }
+                        }) {
+                    @Override
+                    public boolean cancel(boolean mayInterruptIfRunning) {
+                        final boolean isCancelled = super.cancel(mayInterruptIfRunning);
+                        if (isCancelled) {
+                            // Stop the upload or download if the request is already running
+                            request.cancel();
+                        }
+                        return isCancelled;
+                    }
+                };
+        this.mDispatcher.enqueue(this.getHostKey(request), future);
+        return future;
+    }
+
+    /**
+     * Determines the key of the host the request connects to so the dispatcher can apply its
+     * per-host limit.  Malformed URLs share a single key and fail once they run.
+     *
+     * @param request The request
+     * @return The host key
+     */
+    private String getHostKey(HttpUrlConnectionRequest request) {
+        try {
+            return getHostKey(new URL(request.mRequestUrl));
+        } catch (MalformedURLException e) {
+            return "";
+        }
+    }
+
+    /**
+     * Builds the key identifying a host from the URL components that determine whether a
+     * connection can be shared
+     *
+     * @param scheme The URL scheme
+     * @param host   The URL host
+     * @param port   The URL port
+     * @return The host key
+     */
+    public static String getHostKey(String scheme, String host, int port) {
+        return scheme + "://" + host + ":" + port;
+    }
+
+    /**
+     * Builds the key identifying the host of the specified URL
+     *
+     * @param url The URL
+     * @return The host key
+     */
+    public static String getHostKey(URL url) {
+        return getHostKey(url.getProtocol(), url.getHost(),
+                url.getPort() != -1 ? url.getPort() : url.getDefaultPort());
+    }
+
+    /**
+     * A GET request in flight that identical requests can attach to
+     */
+    private static final class InFlightCall {
+
+        /**
+         * Released once the request has completed
+         */
+        final CountDownLatch done = new CountDownLatch(1);
+
+        /**
+         * The request whose response is shared
+         */
+        HttpUrlConnectionRequest request;
+
+        /**
+         * Determines if the response can be shared, which it cannot if the request was aborted
+         * by its own cancel(), call timeout or an interrupt
+         */
+        boolean isShared;
+
+    }
+
+    /**
+     * Receives the outcome of a request that was sent asynchronously
+     */
+    public interface Callback {
+
+        /**
+         * Called once the response has been read.  The response may still be an HTTP error, so
+         * isSuccess() should be checked on the request.
+         *
+         * @param request The request whose response was read
+         */
+        void onResponse(HttpUrlConnectionRequest request);
+
+        /**
+         * Called if the request could not be sent or its response could not be read
+         *
+         * @param request The request that failed
+         * @param e       The cause of the failure
+         */
+        void onFailure(HttpUrlConnectionRequest request, IOException e);
+
+    }
+
+}
@@ -0,0 +1,1224 @@
+package com.brettnamba.tomoeame.http;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Disk-backed LRU cache of HTTP GET responses.
+ *
+ * Each response is stored as a metadata file holding the status code and headers and a body
+ * file holding the decoded body.  The cache keeps an append-only journal of the entries so that
+ * its index can be rebuilt when it is reopened, and evicts the least recently used entries once
+ * the total size exceeds its budget.
+ *
+ * Freshness follows the response's Cache-Control max-age, Expires or Last-Modified headers.  Stale
+ * entries that have an ETag or Last-Modified validator can be revalidated with a conditional
+ * request so a 304 response can be served from disk.
+ *
+ * @author Brett Namba (https://github.com/bretten)
+ */
+public class HttpResponseCache {
+
+    /**
+     * Determines how a single request uses the cache
+     */
+    public enum CachePolicy {
+
+        /**
+         * Serve fresh entries from the cache and revalidate stale ones
+         */
+        DEFAULT,
+
+        /**
+         * Always go to the network, but still store the response
+         */
+        FORCE_NETWORK,
+
+        /**
+         * Only serve from the cache, failing with 504 Gateway Timeout if there is no entry
+         */
+        CACHE_ONLY
+
+    }
+
+    /**
+     * The name of the journal file
+     */
+    private static final String JOURNAL_FILE = "journal";
+
+    /**
+     * The name of the temporary file the journal is rebuilt into
+     */
+    private static final String JOURNAL_FILE_TEMP = "journal.tmp";
+
+    /**
+     * The first line of the journal identifying its format
+     */
+    private static final String JOURNAL_MAGIC = "tomoeame.HttpResponseCache 1";
+
+    /**
+     * Journal line for an entry that was fully written
+     */
+    private static final String CLEAN = "CLEAN";
+
+    /**
+     * Journal line for an entry that was removed
+     */
+    private static final String REMOVE = "REMOVE";
+
+    /**
+     * Journal line for an entry that was read
+     */
+    private static final String READ = "READ";
+
+    /**
+     * The number of redundant journal lines before the journal is rebuilt
+     */
+    private static final int REDUNDANT_OP_COMPACT_THRESHOLD = 2000;
+
+    /**
+     * The extension of an entry's metadata file
+     */
+    private static final String METADATA_EXTENSION = ".0";
+
+    /**
+     * The extension of an entry's body file
+     */
+    private static final String BODY_EXTENSION = ".1";
+
+    /**
+     * The extension of files that are still being written
+     */
+    private static final String TEMP_EXTENSION = ".tmp";
+
+    /**
+     * The largest freshness lifetime derived from Last-Modified when there is no explicit one
+     */
+    private static final long MAX_HEURISTIC_FRESHNESS_MILLIS = 24 * 60 * 60 * 1000;
+
+    /**
+     * Headers that describe the encoded response on the wire and are not stored, since the body is
+     * stored decoded
+     */
+    private static final Set<String> UNSTORED_HEADERS = new HashSet<String>();
+
+    static {
+        UNSTORED_HEADERS.add("content-encoding");
+        UNSTORED_HEADERS.add("content-length");
+        UNSTORED_HEADERS.add("transfer-encoding");
+        UNSTORED_HEADERS.add("connection");
+        UNSTORED_HEADERS.add("keep-alive");
+    }
+
+    /**
+     * UTF-8 charset for reading and writing the journal and metadata
+     */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * The directory the cache files are stored in
+     */
+    private final File mDirectory;
+
+    /**
+     * The maximum total byte count of the cached responses
+     */
+    private final long mMaxSize;
+
+    /**
+     * Entries ordered from least to most recently used
+     */
+    private final LinkedHashMap<String, Entry> mEntries =
+            new LinkedHashMap<String, Entry>(0, 0.75f, true);
+
+    /**
+     * Keys of the entries that are currently being written
+     */
+    private final Set<String> mEditingKeys = new HashSet<String>();
+
+    /**
+     * The total byte count of the cached responses
+     */
+    private long mSize;
+
+    /**
+     * The writer appending to the journal
+     */
+    private Writer mJournalWriter;
+
+    /**
+     * The number of journal lines that do not describe the current state of an entry
+     */
+    private int mRedundantOpCount;
+
+    /**
+     * The number of responses served from the cache without going to the network
+     */
+    private final AtomicLong mHitCount = new AtomicLong();
+
+    /**
+     * The number of responses that had to be downloaded from the network
+     */
+    private final AtomicLong mMissCount = new AtomicLong();
+
+    /**
+     * The number of responses served from the cache after the server confirmed they had not
+     * changed
+     */
+    private final AtomicLong mRevalidationCount = new AtomicLong();
+
+    /**
+     * Opens the cache in the specified directory, rebuilding the index from the journal
+     *
+     * @param directory The directory the cache files are stored in
+     * @param maxSize   The maximum total byte count of the cached responses
+     * @throws IOException If the directory cannot be created or the journal cannot be written
+     */
+    public HttpResponseCache(File directory, long maxSize) throws IOException {
+        if (directory == null || maxSize <= 0) {
+            throw new IllegalArgumentException("Directory cannot be null and size must be > 0");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create cache directory " + directory);
+        }
+        this.mDirectory = directory;
+        this.mMaxSize = maxSize;
+        synchronized (this) {
+            this.readJournal();
+            this.deleteOrphanedFiles();
+            this.rebuildJournal();
+            this.trimToSize();
+        }
+    }
+
+    /**
+     * Builds the cache key for a request.  The Authorization header is part of the key so that
+     * responses are never shared between accounts.
+     *
+     * @param url           The full request URL including the query
+     * @param authorization The value of the Authorization header or null if there is none
+     * @return The cache key
+     */
+    public static String getKey(String url, String authorization) {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("MD5");
+            digest.update(url.getBytes(UTF_8));
+            if (authorization != null) {
+                digest.update((byte) '\n');
+                digest.update(authorization.getBytes(UTF_8));
+            }
+            final byte[] hash = digest.digest();
+            final char[] hex = new char[hash.length * 2];
+            for (int i = 0; i < hash.length; i++) {
+                hex[i * 2] = Character.forDigit((hash[i] >> 4) & 0x0F, 16);
+                hex[i * 2 + 1] = Character.forDigit(hash[i] & 0x0F, 16);
+            }
+            return new String(hex);
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Returns the entry for the key and marks it as the most recently used
+     *
+     * @param key The cache key
+     * @return The entry or null if it is not cached
+     */
+    public synchronized Entry get(String key) {
+        final Entry entry = this.mEntries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (!entry.getBodyFile().exists()) {
+            this.remove(key);
+            return null;
+        }
+        this.appendJournal(READ + " " + key);
+        this.mRedundantOpCount++;
+        return entry;
+    }
+
+    /**
+     * Stores a response by returning a stream that copies the body into the cache as it is read.
+     * The entry is committed once the body has been read to the end and discarded if the stream
+     * is closed early.  If the response cannot be cached, the original stream is returned.
+     *
+     * @param key          The cache key
+     * @param url          The full request URL
+     * @param responseCode The HTTP response code
+     * @param headers      The HTTP response headers
+     * @param body         The decoded response body stream
+     * @return A stream of the body that also writes it to the cache
+     */
+    public InputStream put(String key, String url, int responseCode,
+                           Map<String, List<String>> headers, InputStream body) {
+        if (body == null || !isCacheable(responseCode, headers)) {
+            return body;
+        }
+        synchronized (this) {
+            if (this.mEditingKeys.contains(key)) {
+                return body;
+            }
+            this.mEditingKeys.add(key);
+        }
+        try {
+            final File bodyTempFile = new File(this.mDirectory, key + BODY_EXTENSION
+                    + TEMP_EXTENSION);
+            final Entry entry = new Entry(key, url, responseCode, storedHeaders(headers),
+                    System.currentTimeMillis());
+            return new CachingInputStream(body, entry, new FileOutputStream(bodyTempFile),
+                    bodyTempFile);
+        } catch (FileNotFoundException e) {
+            this.endEdit(key);
+            return body;
+        }
+    }
+
+    /**
+     * Updates an entry with the headers of a 304 Not Modified response so that its freshness is
+     * extended, and returns the updated entry.  Only one edit of a key is written at a time, so
+     * if the key is already being stored or updated, the updated entry is returned without being
+     * stored.
+     *
+     * @param entry   The entry that was revalidated
+     * @param headers The headers of the 304 response
+     * @return The updated entry
+     */
+    public Entry update(Entry entry, Map<String, List<String>> headers) {
+        final TreeMap<String, String> mergedHeaders =
+                new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+        mergedHeaders.putAll(entry.mHeaders);
+        mergedHeaders.putAll(storedHeaders(headers));
+        final Entry updated = new Entry(entry.mKey, entry.mUrl, entry.mResponseCode,
+                mergedHeaders, System.currentTimeMillis());
+        updated.mBodyLength = entry.mBodyLength;
+        synchronized (this) {
+            if (this.mEditingKeys.contains(entry.mKey)) {
+                return updated;
+            }
+            this.mEditingKeys.add(entry.mKey);
+        }
+        try {
+            final File metadataTempFile = new File(this.mDirectory,
+                    entry.mKey + METADATA_EXTENSION + TEMP_EXTENSION);
+            try {
+                this.writeMetadata(updated, metadataTempFile);
+            } catch (IOException e) {
+                metadataTempFile.delete();
+                return entry;
+            }
+            if (!metadataTempFile.renameTo(new File(this.mDirectory,
+                    entry.mKey + METADATA_EXTENSION))) {
+                metadataTempFile.delete();
+                return entry;
+            }
+            synchronized (this) {
+                if (this.mEntries.containsKey(entry.mKey)) {
+                    this.mEntries.put(entry.mKey, updated);
+                    this.appendJournal(CLEAN + " " + updated.mKey + " " + updated.mBodyLength);
+                    this.mRedundantOpCount++;
+                }
+            }
+            return updated;
+        } finally {
+            this.endEdit(entry.mKey);
+        }
+    }
+
+    /**
+     * Removes the entry for the key
+     *
+     * @param key The cache key
+     */
+    public synchronized void remove(String key) {
+        final Entry entry = this.mEntries.remove(key);
+        if (entry != null) {
+            this.mSize -= entry.mBodyLength;
+            entry.getBodyFile().delete();
+            new File(this.mDirectory, key + METADATA_EXTENSION).delete();
+            this.appendJournal(REMOVE + " " + key);
+            this.mRedundantOpCount++;
+        }
+    }
+
+    /**
+     * Removes all entries
+     */
+    public synchronized void evictAll() {
+        for (String key : new ArrayList<String>(this.mEntries.keySet())) {
+            this.remove(key);
+        }
+        this.compactJournalIfNeeded();
+    }
+
+    /**
+     * Returns the total byte count of the cached responses
+     *
+     * @return The cache size
+     */
+    public synchronized long getSize() {
+        return this.mSize;
+    }
+
+    /**
+     * Returns the maximum total byte count of the cached responses
+     *
+     * @return The maximum cache size
+     */
+    public long getMaxSize() {
+        return this.mMaxSize;
+    }
+
+    /**
+     * Returns the number of responses served from the cache without going to the network
+     *
+     * @return The hit count
+     */
+    public long getHitCount() {
+        return this.mHitCount.get();
+    }
+
+    /**
+     * Returns the number of responses that had to be downloaded from the network
+     *
+     * @return The miss count
+     */
+    public long getMissCount() {
+        return this.mMissCount.get();
+    }
+
+    /**
+     * Returns the number of responses served from the cache after a 304 Not Modified
+     *
+     * @return The revalidation count
+     */
+    public long getRevalidationCount() {
+        return this.mRevalidationCount.get();
+    }
+
+    /**
+     * Records a response served from the cache without going to the network
+     */
+    void recordHit() {
+        this.mHitCount.incrementAndGet();
+    }
+
+    /**
+     * Records a response that had to be downloaded from the network
+     */
+    void recordMiss() {
+        this.mMissCount.incrementAndGet();
+    }
+
+    /**
+     * Records a response served from the cache after a 304 Not Modified
+     */
+    void recordRevalidation() {
+        this.mRevalidationCount.incrementAndGet();
+    }
+
+    /**
+     * Determines if a response can be stored
+     *
+     * @param responseCode The HTTP response code
+     * @param headers      The HTTP response headers
+     * @return True if the response can be stored, otherwise false
+     */
+    public static boolean isCacheable(int responseCode, Map<String, List<String>> headers) {
+        if (responseCode != 200 && responseCode != 203) {
+            return false;
+        }
+        final String cacheControl = getHeader(headers, "Cache-Control");
+        if (hasDirective(cacheControl, "no-store")) {
+            return false;
+        }
+        // Responses that vary on anything other than the fixed Accept-Encoding cannot be keyed
+        final String vary = getHeader(headers, "Vary");
+        if (vary != null) {
+            for (String field : vary.split(",")) {
+                if (!"accept-encoding".equalsIgnoreCase(field.trim())) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Determines if a Cache-Control header value contains a directive
+     *
+     * @param cacheControl The Cache-Control header value
+     * @param directive    The directive name
+     * @return True if the directive is present, otherwise false
+     */
+    private static boolean hasDirective(String cacheControl, String directive) {
+        return getDirectiveValue(cacheControl, directive) != null;
+    }
+
+    /**
+     * Gets the value of a Cache-Control directive
+     *
+     * @param cacheControl The Cache-Control header value
+     * @param directive    The directive name
+     * @return The directive value, an empty String if it has no value or null if it is not present
+     */
+    private static String getDirectiveValue(String cacheControl, String directive) {
+        if (cacheControl == null) {
+            return null;
+        }
+        for (String part : cacheControl.split(",")) {
+            final String trimmed = part.trim();
+            final int equals = trimmed.indexOf('=');
+            final String name = equals == -1 ? trimmed : trimmed.substring(0, equals).trim();
+            if (name.equalsIgnoreCase(directive)) {
+                if (equals == -1) {
+                    return "";
+                }
+                String value = trimmed.substring(equals + 1).trim();
+                if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+                    value = value.substring(1, value.length() - 1);
+                }
+                return value;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets the first value of a header
+     *
+     * @param headers The headers
+     * @param name    The case-insensitive header name
+     * @return The header value or null if it is not present
+     */
+    private static String getHeader(Map<String, List<String>> headers, String name) {
+        if (headers == null) {
+            return null;
+        }
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            if (name.equalsIgnoreCase(header.getKey()) && header.getValue() != null
+                    && !header.getValue().isEmpty()) {
+                return header.getValue().get(0);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Collects the headers that are stored with an entry
+     *
+     * @param headers The HTTP response headers
+     * @return The headers to store
+     */
+    private static Map<String, String> storedHeaders(Map<String, List<String>> headers) {
+        final TreeMap<String, String> stored =
+                new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+        if (headers == null) {
+            return stored;
+        }
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            // The null key holds the status line
+            if (header.getKey() == null || header.getValue() == null
+                    || header.getValue().isEmpty()
+                    || UNSTORED_HEADERS.contains(header.getKey().toLowerCase(Locale.US))) {
+                continue;
+            }
+            stored.put(header.getKey(), header.getValue().get(0));
+        }
+        return stored;
+    }
+
+    /**
+     * Parses an HTTP date
+     *
+     * @param value The header value
+     * @return The date in milliseconds or -1 if it could not be parsed
+     */
+    static long parseHttpDate(String value) {
+        if (value == null) {
+            return -1;
+        }
+        final SimpleDateFormat format =
+                new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        try {
+            return format.parse(value.trim()).getTime();
+        } catch (ParseException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Commits a fully written entry, replacing any previous entry for the same key
+     *
+     * @param entry        The entry that was written
+     * @param bodyTempFile The temporary file the body was written to
+     * @param bodyLength   The byte count of the body
+     */
+    private void commit(Entry entry, File bodyTempFile, long bodyLength) {
+        entry.mBodyLength = bodyLength;
+        final File metadataFile = new File(this.mDirectory, entry.mKey + METADATA_EXTENSION);
+        final File metadataTempFile = new File(this.mDirectory, entry.mKey + METADATA_EXTENSION
+                + TEMP_EXTENSION);
+        try {
+            this.writeMetadata(entry, metadataTempFile);
+        } catch (IOException e) {
+            this.abort(entry.mKey, bodyTempFile);
+            metadataTempFile.delete();
+            return;
+        }
+        synchronized (this) {
+            final Entry previous = this.mEntries.remove(entry.mKey);
+            if (previous != null) {
+                this.mSize -= previous.mBodyLength;
+            }
+            if (bodyTempFile.renameTo(entry.getBodyFile())
+                    && metadataTempFile.renameTo(metadataFile)) {
+                this.mEntries.put(entry.mKey, entry);
+                this.mSize += bodyLength;
+                this.appendJournal(CLEAN + " " + entry.mKey + " " + bodyLength);
+            } else {
+                bodyTempFile.delete();
+                metadataTempFile.delete();
+                this.appendJournal(REMOVE + " " + entry.mKey);
+            }
+            if (previous != null) {
+                this.mRedundantOpCount++;
+            }
+            this.mEditingKeys.remove(entry.mKey);
+            this.trimToSize();
+            this.compactJournalIfNeeded();
+        }
+    }
+
+    /**
+     * Discards an entry that was not fully written
+     *
+     * @param key          The cache key
+     * @param bodyTempFile The temporary file the body was being written to
+     */
+    private void abort(String key, File bodyTempFile) {
+        bodyTempFile.delete();
+        this.endEdit(key);
+    }
+
+    /**
+     * Marks the key as no longer being written
+     *
+     * @param key The cache key
+     */
+    private synchronized void endEdit(String key) {
+        this.mEditingKeys.remove(key);
+    }
+
+    /**
+     * Writes the metadata of an entry to a file
+     *
+     * @param entry The entry
+     * @param file  The file to write to
+     * @throws IOException
+     */
+    private void writeMetadata(Entry entry, File file) throws IOException {
+        final Writer writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(file), UTF_8));
+        try {
+            writer.write(entry.mUrl + "\n");
+            writer.write(entry.mResponseCode + "\n");
+            writer.write(entry.mStoredAtMillis + "\n");
+            writer.write(entry.mBodyLength + "\n");
+            writer.write(entry.mHeaders.size() + "\n");
+            for (Map.Entry<String, String> header : entry.mHeaders.entrySet()) {
+                writer.write(header.getKey() + ": " + header.getValue() + "\n");
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Reads the metadata of an entry from its file
+     *
+     * @param key The cache key
+     * @return The entry or null if the metadata could not be read
+     */
+    private Entry readMetadata(String key) {
+        final File file = new File(this.mDirectory, key + METADATA_EXTENSION);
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF_8));
+            final String url = reader.readLine();
+            final int responseCode = Integer.parseInt(reader.readLine());
+            final long storedAtMillis = Long.parseLong(reader.readLine());
+            final long bodyLength = Long.parseLong(reader.readLine());
+            final int headerCount = Integer.parseInt(reader.readLine());
+            final TreeMap<String, String> headers =
+                    new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+            for (int i = 0; i < headerCount; i++) {
+                final String line = reader.readLine();
+                final int colon = line.indexOf(':');
+                headers.put(line.substring(0, colon), line.substring(colon + 1).trim());
+            }
+            final Entry entry = new Entry(key, url, responseCode, headers, storedAtMillis);
+            entry.mBodyLength = bodyLength;
+            return entry;
+        } catch (IOException | RuntimeException e) {
+            return null;
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Rebuilds the index from the journal.  Entries whose files are missing or unreadable are
+     * dropped.
+     */
+    private void readJournal() {
+        final File journalFile = new File(this.mDirectory, JOURNAL_FILE);
+        if (!journalFile.exists()) {
+            return;
+        }
+        final LinkedHashMap<String, Boolean> liveKeys = new LinkedHashMap<String, Boolean>(
+                0, 0.75f, true);
+        int lineCount = 0;
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(journalFile), UTF_8));
+            if (!JOURNAL_MAGIC.equals(reader.readLine())) {
+                return;
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineCount++;
+                final String[] parts = line.split(" ");
+                if (parts.length < 2) {
+                    continue;
+                }
+                if (CLEAN.equals(parts[0]) || READ.equals(parts[0])) {
+                    if (CLEAN.equals(parts[0]) || liveKeys.containsKey(parts[1])) {
+                        liveKeys.put(parts[1], Boolean.TRUE);
+                    }
+                } else if (REMOVE.equals(parts[0])) {
+                    liveKeys.remove(parts[1]);
+                }
+            }
+        } catch (IOException e) {
+            // Keep whatever was read before the journal was truncated
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+        for (String key : liveKeys.keySet()) {
+            final Entry entry = this.readMetadata(key);
+            if (entry != null && entry.getBodyFile().exists()) {
+                this.mEntries.put(key, entry);
+                this.mSize += entry.mBodyLength;
+            }
+        }
+        this.mRedundantOpCount = lineCount - this.mEntries.size();
+    }
+
+    /**
+     * Deletes files in the cache directory that do not belong to an entry, such as bodies left
+     * behind when the process died while writing
+     */
+    private void deleteOrphanedFiles() {
+        final File[] files = this.mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            final String name = file.getName();
+            if (name.equals(JOURNAL_FILE) || name.equals(JOURNAL_FILE_TEMP)) {
+                continue;
+            }
+            final int dot = name.indexOf('.');
+            final String key = dot == -1 ? name : name.substring(0, dot);
+            if (name.endsWith(TEMP_EXTENSION) || !this.mEntries.containsKey(key)) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Writes a new journal containing only the live entries and swaps it in
+     */
+    private void rebuildJournal() {
+        this.closeJournal();
+        final File journalFile = new File(this.mDirectory, JOURNAL_FILE);
+        final File journalTempFile = new File(this.mDirectory, JOURNAL_FILE_TEMP);
+        Writer writer = null;
+        try {
+            writer = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(journalTempFile), UTF_8));
+            writer.write(JOURNAL_MAGIC + "\n");
+            for (Entry entry : this.mEntries.values()) {
+                writer.write(CLEAN + " " + entry.mKey + " " + entry.mBodyLength + "\n");
+            }
+            writer.close();
+            writer = null;
+            if (!journalTempFile.renameTo(journalFile)) {
+                journalFile.delete();
+                journalTempFile.renameTo(journalFile);
+            }
+            this.mRedundantOpCount = 0;
+        } catch (IOException e) {
+            journalTempFile.delete();
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+        try {
+            this.mJournalWriter = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(journalFile, true), UTF_8));
+        } catch (FileNotFoundException e) {
+            this.mJournalWriter = null;
+        }
+    }
+
+    /**
+     * Appends a line to the journal.  Failing to write the journal only costs entries on the next
+     * open, so errors are ignored.
+     *
+     * @param line The journal line
+     */
+    private void appendJournal(String line) {
+        if (this.mJournalWriter == null) {
+            return;
+        }
+        try {
+            this.mJournalWriter.write(line + "\n");
+            this.mJournalWriter.flush();
+        } catch (IOException e) {
+        }
+    }
+
+    /**
+     * Closes the journal writer
+     */
+    private void closeJournal() {
+        if (this.mJournalWriter != null) {
+            try {
+                this.mJournalWriter.close();
+            } catch (IOException e) {
+            }
+            this.mJournalWriter = null;
+        }
+    }
+
+    /**
+     * Rebuilds the journal once it holds mostly redundant lines
+     */
+    private void compactJournalIfNeeded() {
+        if (this.mRedundantOpCount >= REDUNDANT_OP_COMPACT_THRESHOLD
+                && this.mRedundantOpCount >= this.mEntries.size()) {
+            this.rebuildJournal();
+        }
+    }
+
+    /**
+     * Evicts the least recently used entries until the cache is within its size budget
+     */
+    private void trimToSize() {
+        final Iterator<Map.Entry<String, Entry>> iterator = this.mEntries.entrySet().iterator();
+        final List<String> evictedKeys = new ArrayList<String>();
+        long size = this.mSize;
+        while (size > this.mMaxSize && iterator.hasNext()) {
+            final Entry entry = iterator.next().getValue();
+            size -= entry.mBodyLength;
+            evictedKeys.add(entry.mKey);
+        }
+        for (String key : evictedKeys) {
+            this.remove(key);
+        }
+    }
+
+    /**
+     * A cached response
+     */
+    public final class Entry {
+
+        /**
+         * The cache key
+         */
+        private final String mKey;
+
+        /**
+         * The full request URL
+         */
+        private final String mUrl;
+
+        /**
+         * The HTTP response code
+         */
+        private final int mResponseCode;
+
+        /**
+         * The stored HTTP response headers
+         */
+        private final Map<String, String> mHeaders;
+
+        /**
+         * The time in milliseconds the response was stored or last revalidated
+         */
+        private final long mStoredAtMillis;
+
+        /**
+         * The byte count of the stored body
+         */
+        private long mBodyLength;
+
+        /**
+         * Constructor
+         *
+         * @param key            The cache key
+         * @param url            The full request URL
+         * @param responseCode   The HTTP response code
+         * @param headers        The stored HTTP response headers
+         * @param storedAtMillis The time in milliseconds the response was stored
+         */
+        Entry(String key, String url, int responseCode, Map<String, String> headers,
+              long storedAtMillis) {
+            this.mKey = key;
+            this.mUrl = url;
+            this.mResponseCode = responseCode;
+            this.mHeaders = headers;
+            this.mStoredAtMillis = storedAtMillis;
+        }
+
+        /**
+         * Returns the HTTP response code
+         *
+         * @return The response code
+         */
+        public int getResponseCode() {
+            return this.mResponseCode;
+        }
+
+        /**
+         * Returns the stored HTTP response headers in the same shape as
+         * HttpURLConnection.getHeaderFields(), with the Content-Length of the stored body
+         *
+         * @return The response headers
+         */
+        public Map<String, List<String>> getHeaders() {
+            final TreeMap<String, List<String>> headers =
+                    new TreeMap<String, List<String>>(String.CASE_INSENSITIVE_ORDER);
+            for (Map.Entry<String, String> header : this.mHeaders.entrySet()) {
+                headers.put(header.getKey(), Collections.singletonList(header.getValue()));
+            }
+            headers.put("Content-Length",
+                    Collections.singletonList(String.valueOf(this.mBodyLength)));
+            return headers;
+        }
+
+        /**
+         * Opens the stored body
+         *
+         * @return A stream of the stored body
+         * @throws FileNotFoundException If the entry was evicted
+         */
+        public InputStream openBody() throws FileNotFoundException {
+            return new FileInputStream(this.getBodyFile());
+        }
+
+        /**
+         * Determines if the entry can be served without revalidating it
+         *
+         * @param nowMillis The current time in milliseconds
+         * @return True if the entry is fresh, otherwise false
+         */
+        public boolean isFresh(long nowMillis) {
+            final String cacheControl = this.mHeaders.get("Cache-Control");
+            if (hasDirective(cacheControl, "no-cache")) {
+                return false;
+            }
+            return this.getAge(nowMillis) < this.getFreshnessLifetime();
+        }
+
+        /**
+         * Determines if the entry can be revalidated with a conditional request
+         *
+         * @return True if the entry has an ETag or Last-Modified validator
+         */
+        public boolean hasValidators() {
+            return this.mHeaders.containsKey("ETag") || this.mHeaders.containsKey("Last-Modified");
+        }
+
+        /**
+         * Returns the headers that make a request conditional on the entry having changed
+         *
+         * @return Collection mapping the conditional header names to their values
+         */
+        public Map<String, String> getConditionalHeaders() {
+            final Map<String, String> headers = new LinkedHashMap<String, String>();
+            final String eTag = this.mHeaders.get("ETag");
+            if (eTag != null) {
+                headers.put("If-None-Match", eTag);
+            }
+            final String lastModified = this.mHeaders.get("Last-Modified");
+            if (lastModified != null) {
+                headers.put("If-Modified-Since", lastModified);
+            }
+            return headers;
+        }
+
+        /**
+         * Determines how long in milliseconds the entry stays fresh after it was stored
+         *
+         * @return The freshness lifetime in milliseconds
+         */
+        private long getFreshnessLifetime() {
+            final String cacheControl = this.mHeaders.get("Cache-Control");
+            final String maxAge = getDirectiveValue(cacheControl, "max-age");
+            if (maxAge != null) {
+                try {
+                    return Long.parseLong(maxAge) * 1000;
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+            final long date = parseHttpDate(this.mHeaders.get("Date"));
+            final long servedAt = date != -1 ? date : this.mStoredAtMillis;
+            final long expires = parseHttpDate(this.mHeaders.get("Expires"));
+            if (expires != -1) {
+                return Math.max(0, expires - servedAt);
+            }
+            // Without explicit freshness, use a tenth of the time since it was last modified
+            final long lastModified = parseHttpDate(this.mHeaders.get("Last-Modified"));
+            if (lastModified != -1 && lastModified < servedAt) {
+                return Math.min((servedAt - lastModified) / 10, MAX_HEURISTIC_FRESHNESS_MILLIS);
+            }
+            return 0;
+        }
+
+        /**
+         * Determines the age of the entry in milliseconds
+         *
+         * @param nowMillis The current time in milliseconds
+         * @return The age in milliseconds
+         */
+        private long getAge(long nowMillis) {
+            long ageAtStorage = 0;
+            final String age = this.mHeaders.get("Age");
+            if (age != null) {
+                try {
+                    ageAtStorage = Long.parseLong(age.trim()) * 1000;
+                } catch (NumberFormatException e) {
+                }
+            }
+            return ageAtStorage + Math.max(0, nowMillis - this.mStoredAtMillis);
+        }
+
+        /**
+         * Returns the file holding the stored body
+         *
+         * @return The body file
+         */
+        private File getBodyFile() {
+            return new File(HttpResponseCache.this.mDirectory, this.mKey + BODY_EXTENSION);
+        }
+
+    }
+
+    /**
+     * Stream that copies the response body into the cache as it is read and commits the entry
+     * once the end of the body is reached
+     */
+    private final class CachingInputStream extends FilterInputStream {
+
+        /**
+         * The entry being written
+         */
+        private final Entry mEntry;
+
+        /**
+         * The stream of the temporary body file
+         */
+        private final OutputStream mCacheOutputStream;
+
+        /**
+         * The temporary body file
+         */
+        private final File mBodyTempFile;
+
+        /**
+         * The number of body bytes copied so far
+         */
+        private long mBodyLength;
+
+        /**
+         * Determines if the entry has been committed or discarded
+         */
+        private boolean mIsDone;
+
+        /**
+         * Constructor
+         *
+         * @param body              The response body stream
+         * @param entry             The entry being written
+         * @param cacheOutputStream The stream of the temporary body file
+         * @param bodyTempFile      The temporary body file
+         */
+        CachingInputStream(InputStream body, Entry entry, OutputStream cacheOutputStream,
+                           File bodyTempFile) {
+            super(body);
+            this.mEntry = entry;
+            this.mCacheOutputStream = cacheOutputStream;
+            this.mBodyTempFile = bodyTempFile;
+        }
+
+        /**
+         * Reads a single byte and copies it into the cache
+         *
+         * @return The byte or -1 at the end of the body
+         * @throws IOException
+         */
+        @Override
+        public int read() throws IOException {
+            final int b = super.read();
+            if (b == -1) {
+                this.finish(true);
+            } else {
+                this.copy(new byte[]{(byte) b}, 0, 1);
+            }
+            return b;
+        }
+
+        /**
+         * Reads bytes and copies them into the cache
+         *
+         * @param buffer The buffer to read into
+         * @param offset The offset in the buffer
+         * @param length The maximum number of bytes to read
+         * @return The number of bytes read or -1 at the end of the body
+         * @throws IOException
+         */
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            final int bytesRead;
+            try {
+                bytesRead = super.read(buffer, offset, length);
+            } catch (IOException e) {
+                this.finish(false);
+                throw e;
+            }
+            if (bytesRead == -1) {
+                this.finish(true);
+            } else {
+                this.copy(buffer, offset, bytesRead);
+            }
+            return bytesRead;
+        }
+
+        /**
+         * Skipped bytes cannot be cached, so skipping discards the entry
+         *
+         * @param n The number of bytes to skip
+         * @return The number of bytes skipped
+         * @throws IOException
+         */
+        @Override
+        public long skip(long n) throws IOException {
+            this.finish(false);
+            return super.skip(n);
+        }
+
+        /**
+         * Closes the body, discarding the entry if the end of the body was not reached
+         *
+         * @throws IOException
+         */
+        @Override
+        public void close() throws IOException {
+            this.finish(false);
+            super.close();
+        }
+
+        /**
+         * Copies bytes into the temporary body file, discarding the entry if it cannot be written
+         *
+         * @param buffer The bytes
+         * @param offset The offset of the first byte
+         * @param length The number of bytes
+         */
+        private void copy(byte[] buffer, int offset, int length) {
+            if (this.mIsDone) {
+                return;
+            }
+            try {
+                this.mCacheOutputStream.write(buffer, offset, length);
+                this.mBodyLength += length;
+            } catch (IOException e) {
+                this.finish(false);
+            }
+        }
+
+        /**
+         * Commits or discards the entry
+         *
+         * @param isComplete True if the whole body was copied
+         */
+        private void finish(boolean isComplete) {
+            if (this.mIsDone) {
+                return;
+            }
+            this.mIsDone = true;
+            boolean isWritten = isComplete;
+            try {
+                this.mCacheOutputStream.close();
+            } catch (IOException e) {
+                isWritten = false;
+            }
+            if (isWritten) {
+                HttpResponseCache.this.commit(this.mEntry, this.mBodyTempFile, this.mBodyLength);
+            } else {
+                HttpResponseCache.this.abort(this.mEntry.mKey, this.mBodyTempFile);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,2617 @@
+package com.brettnamba.tomoeame.http;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.ProtocolException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+
+/**
+ * Abstract wrapper for HttpUrlConnection that simplifies sending HTTP requests.
+ *
+ * @author Brett Namba (https://github.com/bretten)
+ */
+public abstract class HttpUrlConnectionRequest {
+
+    /**
+     * Provides the authentication header value when the request is sent or null if the request
+     * has none
+     */
+    protected Authenticator mAuthenticator;
+
+    /**
+     * The authentication header value resolved from the Authenticator when the request is sent
+     */
+    private String mAuthHeaderValue;
+
+    /**
+     * Listener that receives updates whenever part of the HTTP request body is sent
+     */
+    protected DataSentListener mListener;
+
+    /**
+     * The template whose static parts this request shares or null if it was not built from one
+     */
+    private RequestTemplate mTemplate;
+
+    /**
+     * Coalesces the updates for the DataSentListener or null if there is no listener
+     */
+    private ProgressReporter mSentProgressReporter;
+
+    /**
+     * Coalesces the updates for the DataReceivedListener or null if there is no listener
+     */
+    private ProgressReporter mReceivedProgressReporter;
+
+    /**
+     * The minimum interval between progress updates
+     */
+    private long mProgressIntervalMillis = ProgressReporter.DEFAULT_MIN_INTERVAL_MILLIS;
+
+    /**
+     * The minimum share of the total transferred between progress updates
+     */
+    private float mProgressFraction = ProgressReporter.DEFAULT_MIN_FRACTION;
+
+    /**
+     * Listener that is notified after each attempt to send the request
+     */
+    protected AttemptListener mAttemptListener;
+
+    /**
+     * The policy failed attempts are retried with, or null to use the client's policy
+     */
+    protected RetryPolicy mRetryPolicy;
+
+    /**
+     * The sink the metrics of each call are published to, or null to use the client's sink
+     */
+    private MetricsSink mMetricsSink;
+
+    /**
+     * The endpoint the metrics are grouped by, or null to use the path of the request URL
+     */
+    private String mEndpointTemplate;
+
+    /**
+     * The metrics of the call in progress or null if the call is not measured
+     */
+    private RequestMetrics mMetrics;
+
+    /**
+     * The number of attempts made by the last call to send()
+     */
+    private int mAttemptCount;
+
+    /**
+     * The duration to wait for a connection to be established, or -1 to use the client's
+     */
+    private int mConnectTimeoutMillis = -1;
+
+    /**
+     * The duration to wait for response data to arrive, or -1 to use the client's
+     */
+    private int mReadTimeoutMillis = -1;
+
+    /**
+     * The duration to wait for a write of request data to finish, or -1 to use the client's
+     */
+    private int mWriteTimeoutMillis = -1;
+
+    /**
+     * The maximum duration of a whole call to send(), or -1 to use the client's
+     */
+    private long mCallTimeoutMillis = -1;
+
+    /**
+     * Guards the sending thread and connection against the watchdog thread
+     */
+    private final Object mTimeoutLock = new Object();
+
+    /**
+     * The thread that is currently in send(), or null if it is not being sent
+     */
+    private Thread mSendingThread;
+
+    /**
+     * Determines if the call timeout of the current call to send() expired
+     */
+    private volatile boolean mIsTimedOut;
+
+    /**
+     * Determines if the request was canceled
+     */
+    private volatile boolean mIsCanceled;
+
+    /**
+     * Determines if the sending thread was interrupted to abort the request, so the interrupt
+     * must be cleared once send() finishes
+     */
+    private boolean mIsSendingThreadInterrupted;
+
+    /**
+     * Determines if the call started before send(), while waiting on an identical request
+     */
+    private boolean mIsCallStarted;
+
+    /**
+     * The time the call started while waiting on an identical request
+     */
+    private long mCallStartNanos;
+
+    /**
+     * The HTTP object that backs the request
+     */
+    protected HttpURLConnection mHttpUrlConnection;
+
+    /**
+     * The client the request is sent through or null if it is sent on its own
+     */
+    protected HttpClient mClient;
+
+    /**
+     * The transport that overrides the client's transport or null to use the client's
+     */
+    private Transport mTransport;
+
+    /**
+     * Whether the current connection is kept alive for the next request to the host once its
+     * response was read, instead of being disconnected
+     */
+    private boolean mIsKeepingAlive;
+
+    /**
+     * The circuit breaker that let the current attempt through, or null if there is none
+     */
+    private CircuitBreaker mCircuitBreaker;
+
+    /**
+     * The concurrency limiter that let the current attempt through, or null if there is none
+     */
+    private ConcurrencyLimiter mConcurrencyLimiter;
+
+    /**
+     * The System.nanoTime() at which the current attempt started its exchange with the host
+     */
+    private long mHostPermitStartNanos;
+
+    /**
+     * Whether the current attempt got past the host's limits and started
+     * its exchange with the host, so its outcome says something about the host's health
+     */
+    private boolean mIsExchangeStarted;
+
+    /**
+     * The HTTP request method
+     */
+    protected String mRequestMethod;
+
+    /**
+     * The HTTP request URL
+     */
+    protected String mRequestUrl;
+
+    /**
+     * The HTTP request URL with the query parameters appended, which is built when the request is
+     * sent so that mRequestUrl is left untouched
+     */
+    protected String mResolvedRequestUrl;
+
+    /**
+     * Collection of query parameters to append to the request URL
+     */
+    protected List<Pair<String, String>> mQueryParameters;
+
+    /**
+     * Collection of HTTP request headers to be added to the request
+     */
+    protected List<Pair<String, String>> mRequestHeaders;
+
+    /**
+     * Collection of HTTP request parameters that implementing classes will decide how to use
+     */
+    protected List<Pair<String, String>> mRequestParameters;
+
+    /**
+     * The total byte count of the request parameters and meant to be used in calculating the
+     * total content length of the request body
+     */
+    protected long mTotalRequestParameterByteCount = 0;
+
+    /**
+     * The stream used for writing the HTTP request data
+     */
+    protected OutputStream mRequestStream;
+
+    /**
+     * The HTTP response code
+     */
+    protected int mResponseCode;
+
+    /**
+     * The stream used for writing the HTTP response data
+     */
+    protected InputStream mResponseStream;
+
+    /**
+     * The HTTP response body as a String
+     */
+    protected String mResponseBodyString;
+
+    /**
+     * The HTTP response headers
+     */
+    protected Map<String, List<String>> mResponseHeaders;
+
+    /**
+     * The sink that send() streams the HTTP response body into instead of building a String, or
+     * null if the body should be read as a String
+     */
+    protected OutputStream mResponseSink;
+
+    /**
+     * The content length of the HTTP request body or -1 if it is unknown and the body is sent
+     * in chunks
+     */
+    protected long mRequestBodyLength;
+
+    /**
+     * Determines if prepareRequest() has already been called
+     */
+    private boolean mIsPrepared;
+
+    /**
+     * Determines if the request body should be compressed
+     */
+    protected boolean mIsRequestCompressionEnabled;
+
+    /**
+     * The minimum request body byte count before it is compressed
+     */
+    protected int mRequestCompressionThreshold = DEFAULT_COMPRESSION_THRESHOLD;
+
+    /**
+     * Determines if the response stream is being decompressed, in which case the response
+     * Content-Length does not describe the decoded body
+     */
+    private boolean mIsResponseDecoded;
+
+    /**
+     * Determines how this request uses the client's response cache
+     */
+    protected HttpResponseCache.CachePolicy mCachePolicy = HttpResponseCache.CachePolicy.DEFAULT;
+
+    /**
+     * Determines if the response was served from the cache
+     */
+    private boolean mIsFromCache;
+
+    /**
+     * Determines if the request was a success or not
+     */
+    private boolean mIsSuccess;
+
+    /**
+     * The error that prevented the request from completing or null if it completed
+     */
+    private IOException mException;
+
+    /**
+     * The User-Agent sent when none was set with setUserAgent()
+     */
+    protected static final String USER_AGENT = "tomoeame";
+
+    /**
+     * The User-Agent sent with every request, which a platform can set to describe itself
+     */
+    private static volatile String sUserAgent = USER_AGENT;
+
+    /**
+     * The HTTP authorization header
+     */
+    protected static final String AUTH_HEADER = "Authorization";
+
+    /**
+     * The default minimum request body byte count before it is compressed, since compressing
+     * small bodies costs more than it saves
+     */
+    public static final int DEFAULT_COMPRESSION_THRESHOLD = 1024;
+
+    /**
+     * The chunk length used when the request body length is unknown, which is larger than the
+     * platform default so that fewer chunk headers are sent
+     */
+    private static final int CHUNK_LENGTH = 8192;
+
+    /**
+     * The charset of URL encoded parameters, which are pure ASCII
+     */
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+    /**
+     * The charset authentication tokens are encoded with
+     */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Determines if HttpURLConnection.setFixedLengthStreamingMode(long) exists, which was only
+     * added in Android API 19, so bodies of 2 GB or more can be streamed with a fixed length
+     */
+    private static final boolean IS_LONG_FIXED_LENGTH_SUPPORTED = isLongFixedLengthSupported();
+
+    /**
+     * The buffer length used when draining an unread response body
+     */
+    private static final int DRAIN_BUFFER_LENGTH = 4096;
+
+    /**
+     * The maximum number of unread response bytes that will be drained to keep a connection alive
+     */
+    private static final long MAX_DRAIN_BYTE_COUNT = 64 * 1024;
+
+    /**
+     * Protected constructor to prevent parameter-less instantiation. Should only be called by
+     * other constructors
+     */
+    protected HttpUrlConnectionRequest() {
+        this.mQueryParameters = new ArrayList<Pair<String, String>>();
+        this.mRequestHeaders = new ArrayList<Pair<String, String>>();
+        this.mRequestParameters = new ArrayList<Pair<String, String>>();
+        // Add default HTTP headers
+        this.addDefaultRequestHeaders();
+    }
+
+    /**
+     * Constructs an instance that shares the static parts of a template, so that only the
+     * parameters and headers added to this request are built when it is sent
+     *
+     * @param template The template
+     */
+    protected HttpUrlConnectionRequest(RequestTemplate template) {
+        if (template == null) {
+            throw new IllegalArgumentException("Template cannot be null");
+        }
+        this.mTemplate = template;
+        this.mRequestUrl = template.getRequestUrl();
+        this.mAuthenticator = template.getAuthenticator();
+        this.mQueryParameters = new ArrayList<Pair<String, String>>();
+        // The header Pairs are immutable, so only the references are copied
+        this.mRequestHeaders = new ArrayList<Pair<String, String>>(template.getRequestHeaders());
+        this.mRequestParameters = new ArrayList<Pair<String, String>>();
+    }
+
+    /**
+     * Constructs an instance only with the request URL
+     *
+     * @param requestUrl The HTTP request URL
+     */
+    public HttpUrlConnectionRequest(String requestUrl) {
+        this();
+        this.mRequestUrl = requestUrl;
+    }
+
+    /**
+     * Constructs an instance only with the request URL and authentication header
+     *
+     * @param requestUrl    The HTTP request URL
+     * @param authenticator Provides the authentication header value when the request is sent
+     */
+    public HttpUrlConnectionRequest(String requestUrl, Authenticator authenticator) {
+        this(requestUrl);
+        this.mAuthenticator = authenticator;
+    }
+
+    /**
+     * Constructs an instance without authentication information
+     *
+     * @param requestMethod The HTTP request method
+     * @param requestUrl    The HTTP request URL
+     */
+    public HttpUrlConnectionRequest(String requestMethod, String requestUrl) {
+        this();
+        this.mRequestMethod = requestMethod;
+        this.mRequestUrl = requestUrl;
+    }
+
+    /**
+     * Constructs an instance with authentication information and adds the authentication header to
+     * the collection of request headers
+     *
+     * @param requestMethod The HTTP request method
+     * @param requestUrl    The HTTP request URL
+     * @param authToken     The authentication token
+     */
+    public HttpUrlConnectionRequest(String requestMethod, String requestUrl, String authToken) {
+        this(requestMethod, requestUrl);
+        // Add the auth header
+        this.addAuthHeader(authToken);
+    }
+
+    /**
+     * Constructs an instance with authentication information and adds the authentication header to
+     * the collection of request headers
+     *
+     * @param requestMethod The HTTP request method
+     * @param requestUrl    The HTTP request URL
+     * @param authenticator Provides the authentication header value when the request is sent
+     */
+    public HttpUrlConnectionRequest(String requestMethod, String requestUrl,
+                                    Authenticator authenticator) {
+        this(requestMethod, requestUrl);
+        this.mAuthenticator = authenticator;
+    }
+
+    /**
+     * Returns the template whose static parts this request shares
+     *
+     * @return The template or null if the request was not built from one
+     */
+    protected RequestTemplate getTemplate() {
+        return this.mTemplate;
+    }
+
+    /**
+     * Sets the DataSentListener which is used to listen for the event of writing data to the
+     * output HTTP request stream.  The listener is called on the sending thread.
+     *
+     * @param dataSentListener Object that will listen for data being sent over the wire
+     */
+    public void setListener(DataSentListener dataSentListener) {
+        this.setListener(dataSentListener, null);
+    }
+
+    /**
+     * Sets the DataSentListener which is used to listen for the event of writing data to the
+     * output HTTP request stream, calling it through the specified Executor
+     *
+     * @param dataSentListener Object that will listen for data being sent over the wire
+     * @param executor         The Executor the listener is called through, such as one posting
+     *                         to the main thread, or null to call it on the sending thread
+     */
+    public void setListener(final DataSentListener dataSentListener, Executor executor) {
+        this.mListener = dataSentListener;
+        this.mSentProgressReporter = dataSentListener == null ? null
+                : this.newProgressReporter(new ProgressReporter.Listener() {
+            @Override
+            public void onProgress(long bytes, long totalBytes) {
+                dataSentListener.onDataSent(bytes, totalBytes);
+            }
+        }, executor);
+    }
+
+    /**
+     * Sets the DataReceivedListener which is used to listen for the event of reading data from
+     * the HTTP response stream.  The listener is called on the reading thread.
+     *
+     * @param dataReceivedListener Object that will listen for data being received
+     */
+    public void setDataReceivedListener(DataReceivedListener dataReceivedListener) {
+        this.setDataReceivedListener(dataReceivedListener, null);
+    }
+
+    /**
+     * Sets the DataReceivedListener which is used to listen for the event of reading data from
+     * the HTTP response stream, calling it through the specified Executor
+     *
+     * @param dataReceivedListener Object that will listen for data being received
+     * @param executor             The Executor the listener is called through, such as one
+     *                             posting to the main thread, or null to call it on the reading
+     *                             thread
+     */
+    public void setDataReceivedListener(final DataReceivedListener dataReceivedListener,
+                                        Executor executor) {
+        this.mReceivedProgressReporter = dataReceivedListener == null ? null
+                : this.newProgressReporter(new ProgressReporter.Listener() {
+            @Override
+            public void onProgress(long bytes, long totalBytes) {
+                dataReceivedListener.onDataReceived(bytes, totalBytes);
+            }
+        }, executor);
+    }
+
+    /**
+     * Sets how far apart the updates of the DataSentListener and DataReceivedListener must be.
+     * By default they are at least one frame and 1% of the total apart.  The last update of a
+     * transfer is always delivered.
+     *
+     * @param minIntervalMillis The minimum interval between updates or 0 for no limit
+     * @param minFraction       The minimum share of the total, from 0 to 1, between updates or 0
+     *                          for no limit
+     */
+    public void setProgressThrottle(long minIntervalMillis, float minFraction) {
+        if (minIntervalMillis < 0 || minFraction < 0 || minFraction > 1) {
+            throw new IllegalArgumentException("The interval or fraction is invalid");
+        }
+        this.mProgressIntervalMillis = minIntervalMillis;
+        this.mProgressFraction = minFraction;
+        if (this.mSentProgressReporter != null) {
+            this.mSentProgressReporter.setThrottle(minIntervalMillis, minFraction);
+        }
+        if (this.mReceivedProgressReporter != null) {
+            this.mReceivedProgressReporter.setThrottle(minIntervalMillis, minFraction);
+        }
+    }
+
+    /**
+     * Sets the duration to wait for a connection to be established, overriding the client's
+     *
+     * @param timeoutMillis The timeout or 0 to wait indefinitely
+     */
+    public void setConnectTimeout(int timeoutMillis) {
+        if (timeoutMillis < 0) {
+            throw new IllegalArgumentException("Timeout cannot be negative");
+        }
+        this.mConnectTimeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Sets the duration to wait for response data to arrive, overriding the client's
+     *
+     * @param timeoutMillis The timeout or 0 to wait indefinitely
+     */
+    public void setReadTimeout(int timeoutMillis) {
+        if (timeoutMillis < 0) {
+            throw new IllegalArgumentException("Timeout cannot be negative");
+        }
+        this.mReadTimeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Sets the duration to wait for a write of request data to finish, overriding the client's
+     *
+     * @param timeoutMillis The timeout or 0 to wait indefinitely
+     */
+    public void setWriteTimeout(int timeoutMillis) {
+        if (timeoutMillis < 0) {
+            throw new IllegalArgumentException("Timeout cannot be negative");
+        }
+        this.mWriteTimeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Sets the maximum duration of a whole call to send(), including every retry and the
+     * streaming of the request body, overriding the client's
+     *
+     * @param timeoutMillis The deadline or 0 for no deadline
+     */
+    public void setCallTimeout(long timeoutMillis) {
+        if (timeoutMillis < 0) {
+            throw new IllegalArgumentException("Timeout cannot be negative");
+        }
+        this.mCallTimeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Sets the AttemptListener which is notified after each attempt to send the request
+     *
+     * @param attemptListener Object that will listen for attempts
+     */
+    public void setAttemptListener(AttemptListener attemptListener) {
+        this.mAttemptListener = attemptListener;
+    }
+
+    /**
+     * Sets the policy failed attempts are retried with, overriding the client's policy
+     *
+     * @param retryPolicy The retry policy
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.mRetryPolicy = retryPolicy;
+    }
+
+    /**
+     * Sets the transport that opens the request's connection, overriding the client's transport
+     *
+     * @param transport The transport or null to use the client's transport
+     */
+    public void setTransport(Transport transport) {
+        this.mTransport = transport;
+    }
+
+    /**
+     * Sets the sink that the timings and sizes of each call to send() are published to,
+     * overriding the client's sink
+     *
+     * @param metricsSink The sink or null to use the client's sink
+     */
+    public void setMetricsSink(MetricsSink metricsSink) {
+        this.mMetricsSink = metricsSink;
+    }
+
+    /**
+     * Sets the endpoint the request's metrics are grouped by, such as "/users/{id}", so that
+     * requests for different resources of the same endpoint share their histograms
+     *
+     * @param endpointTemplate The endpoint or null to use the path of the request URL
+     */
+    public void setEndpointTemplate(String endpointTemplate) {
+        this.mEndpointTemplate = endpointTemplate;
+    }
+
+    /**
+     * Returns the number of attempts made by the last call to send()
+     *
+     * @return The number of attempts
+     */
+    public int getAttemptCount() {
+        return this.mAttemptCount;
+    }
+
+    /**
+     * Enables gzip compression of the request body.  Bodies smaller than the compression
+     * threshold, or that do not shrink when compressed, are sent as is.
+     *
+     * @param enabled True to compress the request body
+     */
+    public void setRequestCompressionEnabled(boolean enabled) {
+        this.mIsRequestCompressionEnabled = enabled;
+    }
+
+    /**
+     * Sets the minimum request body byte count before it is compressed
+     *
+     * @param threshold The minimum byte count
+     */
+    public void setRequestCompressionThreshold(int threshold) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("Threshold cannot be negative");
+        }
+        this.mRequestCompressionThreshold = threshold;
+    }
+
+    /**
+     * Adds a query parameter
+     *
+     * @param parameter The query parameter name
+     * @param value     The query parameter value
+     */
+    public void addQueryParameter(String parameter, String value) {
+        if (parameter == null || value == null) {
+            throw new IllegalArgumentException("Parameter or value cannot be null");
+        }
+        this.mQueryParameters.add(new Pair<String, String>(parameter, value));
+    }
+
+    /**
+     * Adds a collection of query parameters
+     *
+     * @param parameters Collection of query parameters
+     */
+    public void addAllQueryParameters(List<Pair<String, String>> parameters) {
+        this.mQueryParameters.addAll(parameters);
+    }
+
+    /**
+     * Adds an HTTP request header
+     *
+     * @param header The request header
+     * @param value  The request value
+     */
+    public void addRequestHeader(String header, String value) {
+        if (header == null || value == null) {
+            throw new IllegalArgumentException("Header or value cannot be null");
+        }
+        this.mRequestHeaders.add(new Pair<String, String>(header, value));
+    }
+
+    /**
+     * Adds a collection of request headers
+     *
+     * @param headers Collection of request headers
+     */
+    public void addAllRequestHeaders(List<Pair<String, String>> headers) {
+        this.mRequestHeaders.addAll(headers);
+    }
+
+    /**
+     * Adds an HTTP request parameter
+     *
+     * @param parameter The request parameter name
+     * @param value     The request parameter value
+     */
+    public void addRequestParameter(String parameter, String value) {
+        if (parameter == null || value == null) {
+            throw new IllegalArgumentException("Parameter or value cannot be null");
+        }
+        this.mRequestParameters.add(new Pair<String, String>(parameter, value));
+    }
+
+    /**
+     * Adds a collection of request parameters
+     *
+     * @param parameters Collection of request parameters
+     */
+    public void addAllRequestParameters(List<Pair<String, String>> parameters) {
+        this.mRequestParameters.addAll(parameters);
+    }
+
+    /**
+     * Determines if the request is a success
+     *
+     * @return True if the request was successful, otherwise false
+     */
+    public boolean isSuccess() {
+        return this.mIsSuccess;
+    }
+
+    /**
+     * Determines if the response was served from the client's response cache, either because it
+     * was fresh or because the server confirmed it had not changed
+     *
+     * @return True if the response came from the cache, otherwise false
+     */
+    public boolean isFromCache() {
+        return this.mIsFromCache;
+    }
+
+    /**
+     * Sets how this request uses the client's response cache.  Only requests that support caching,
+     * such as HttpUrlGetRequest, are affected.
+     *
+     * @param cachePolicy The cache policy
+     */
+    public void setCachePolicy(HttpResponseCache.CachePolicy cachePolicy) {
+        if (cachePolicy == null) {
+            throw new IllegalArgumentException("Cache policy cannot be null");
+        }
+        this.mCachePolicy = cachePolicy;
+    }
+
+    /**
+     * Returns the error that prevented the request from being sent or its response from being
+     * read
+     *
+     * @return The error or null if the request completed
+     */
+    public IOException getException() {
+        return this.mException;
+    }
+
+    /**
+     * Returns the HTTP response code
+     *
+     * @return Returns the HTTP response code
+     */
+    public int getResponseCode() {
+        return this.mResponseCode;
+    }
+
+    /**
+     * Returns the HTTP response stream
+     *
+     * @return The HTTP response stream
+     */
+    public InputStream getResponseStream() {
+        return this.mResponseStream;
+    }
+
+    /**
+     * Returns the HTTP response body as a String.  If a response sink was set, the body was
+     * streamed into it instead and this returns null.  Large JSON bodies can be parsed without
+     * building the String by calling connect() and openResponseBody().jsonParser() instead.
+     *
+     * @return The HTTP response body string
+     */
+    public String getResponseBody() {
+        return this.mResponseBodyString;
+    }
+
+    /**
+     * Returns a byte-exact view over the HTTP response stream.  This is meant to be used after
+     * connect() so the body can be streamed or decoded on demand, and close() should be called
+     * once it has been consumed.
+     *
+     * @return The HTTP response body
+     */
+    public ResponseBody openResponseBody() {
+        final long contentLength = this.mIsResponseDecoded ? -1 : this.getResponseContentLength();
+        if (this.mReceivedProgressReporter != null) {
+            this.mReceivedProgressReporter.start(contentLength);
+        }
+        return new ResponseBody(this.mResponseStream != null
+                ? new CancelableInputStream(this.mResponseStream) : null,
+                this.getResponseHeader("Content-Type"), contentLength);
+    }
+
+    /**
+     * Sets the OutputStream that send() streams the HTTP response body into, so that large
+     * bodies are never held on the heap as a String
+     *
+     * @param sink The OutputStream the response body is written to
+     */
+    public void setResponseSink(OutputStream sink) {
+        this.mResponseSink = sink;
+    }
+
+    /**
+     * Sets the channel that send() streams the HTTP response body into, so that large bodies are
+     * never held on the heap as a String
+     *
+     * @param sink The channel the response body is written to
+     */
+    public void setResponseSink(WritableByteChannel sink) {
+        this.mResponseSink = sink != null ? Channels.newOutputStream(sink) : null;
+    }
+
+    /**
+     * Returns the first value of the specified HTTP response header
+     *
+     * @param name The case-insensitive header name
+     * @return The header value or null if the header was not in the response
+     */
+    public String getResponseHeader(String name) {
+        if (this.mResponseHeaders == null || name == null) {
+            return null;
+        }
+        for (Map.Entry<String, List<String>> header : this.mResponseHeaders.entrySet()) {
+            if (name.equalsIgnoreCase(header.getKey()) && header.getValue() != null
+                    && !header.getValue().isEmpty()) {
+                return header.getValue().get(0);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns all of the HTTP response headers
+     *
+     * @return The response headers or null if no response was received
+     */
+    public Map<String, List<String>> getResponseHeaders() {
+        return this.mResponseHeaders;
+    }
+
+    /**
+     * Returns the content length of the HTTP response body
+     *
+     * @return The content length or -1 if it is unknown
+     */
+    public long getResponseContentLength() {
+        final String contentLength = this.getResponseHeader("Content-Length");
+        if (contentLength != null) {
+            try {
+                return Long.parseLong(contentLength.trim());
+            } catch (NumberFormatException e) {
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Instantiates the HTTP request object, setups the the request properties, determines
+     * the content length of the request, sends the request, and parses the response.  Failed
+     * attempts are retried according to the RetryPolicy of the request or its client.
+     */
+    public void send() {
+        this.mException = null;
+        this.mAttemptCount = 0;
+        final MetricsSink metricsSink = this.getMetricsSink();
+        this.mMetrics = metricsSink != null ? new RequestMetrics() : null;
+        final Watchdog.Timeout callTimeout = this.startCallTimeout();
+        try {
+            this.sendAttempts();
+        } finally {
+            this.finishCallTimeout(callTimeout);
+            this.mIsCallStarted = false;
+            this.close();
+            if (this.mMetrics != null) {
+                this.publishMetrics(metricsSink);
+            }
+        }
+    }
+
+    /**
+     * Sends the request through the specified client so that its connection limits and
+     * transport are used
+     *
+     * @param client The client to send the request through
+     */
+    public void send(HttpClient client) {
+        this.mClient = client;
+        this.send();
+    }
+
+    /**
+     * Opens a connection through the specified client but unlike send(), does not automatically
+     * close the connection and streams.  close() must be called so the connection is returned to
+     * the client's pool.
+     *
+     * @param client The client to open the connection through
+     */
+    public void connect(HttpClient client) {
+        this.mClient = client;
+        this.connect();
+    }
+
+    /**
+     * Opens a connection but unlike send(), does not automatically close the connection and
+     * streams.  Like send(), the authentication header is resolved first and if it is rejected
+     * with a 401, it is invalidated and the request is sent once more with a new one.
+     */
+    public void connect() {
+        this.mException = null;
+        boolean isAuthRefreshed = false;
+        while (true) {
+            try {
+                // Resolve the auth header and build the request and connect to the resource
+                this.resolveAuthHeader();
+                this.buildRequest(null);
+
+                // Get the HTTP response code, headers and stream
+                this.readResponse();
+                this.releaseHostPermit(this.mResponseCode);
+            } catch (IOException e) {
+                this.failHostPermit();
+                this.mException = e;
+                return;
+            } catch (RuntimeException e) {
+                // HttpURLConnection can fail unchecked when cancel() disconnects it mid-connect
+                if (!this.mIsCanceled) {
+                    throw e;
+                }
+                this.ignoreHostPermit();
+                this.mException = new InterruptedIOException("The request was canceled");
+                return;
+            }
+            if (isAuthRefreshed || !this.invalidateRejectedAuthHeader()) {
+                return;
+            }
+            isAuthRefreshed = true;
+
+            // Release the connection of the rejected response before sending it again
+            this.close();
+        }
+    }
+
+    /**
+     * Cancels the request.  This can be called from any thread at any time.  The connection is
+     * disconnected, which stops an upload or download that is in progress, and send() returns
+     * promptly with an exception after releasing the pooled connection.  Once canceled, the
+     * request cannot be sent again.
+     */
+    public void cancel() {
+        synchronized (this.mTimeoutLock) {
+            this.mIsCanceled = true;
+            this.abortExchange();
+        }
+    }
+
+    /**
+     * Determines if the request was canceled
+     *
+     * @return True if it was canceled, otherwise false
+     */
+    public boolean isCanceled() {
+        return this.mIsCanceled;
+    }
+
+    /**
+     * Throws if the request was canceled.  Implementing classes should call this in loops that
+     * write the request body so they stop as soon as the request is canceled.
+     *
+     * @throws InterruptedIOException If the request was canceled
+     */
+    protected void throwIfCanceled() throws InterruptedIOException {
+        if (this.mIsCanceled) {
+            throw new InterruptedIOException("The request was canceled");
+        }
+    }
+
+    /**
+     * Closes all connections and streams
+     */
+    public void close() {
+        this.ignoreHostPermit();
+        this.closeOutputStream(this.mRequestStream);
+        this.mRequestStream = null;
+        if (this.mIsKeepingAlive) {
+            // Drain the response so the socket can be kept alive for the next request
+            final boolean isReusable = this.drainInputStream(this.mResponseStream)
+                    && this.isKeepAliveResponse();
+            this.closeInputStream(this.mResponseStream);
+            this.mIsKeepingAlive = false;
+            if (!isReusable) {
+                this.closeHttpConnection(this.mHttpUrlConnection);
+            }
+        } else {
+            this.closeInputStream(this.mResponseStream);
+            this.closeHttpConnection(this.mHttpUrlConnection);
+        }
+        this.mResponseStream = null;
+    }
+
+    /**
+     * Implementing classes should use this method to set up any case specific properties on the
+     * HTTP request object
+     *
+     * @param httpUrlConnection The HTTP request object that will be setup
+     * @throws ProtocolException
+     */
+    protected abstract void setupRequest(HttpURLConnection httpUrlConnection)
+            throws ProtocolException;
+
+    /**
+     * Implementing classes should use this method to build anything that stays the same each
+     * time the request is sent, such as request headers and the bytes of the request body.  It
+     * is called once, before setupRequest() is called for the first connection, so that the
+     * request can be sent again without recomputing its body.
+     *
+     * @throws IOException
+     */
+    protected void prepareRequest() throws IOException {
+    }
+
+    /**
+     * Determines the content length of the HTTP request body.  Implementing classes should
+     * consider the HTTP request body as a whole when calculating this.  If the length is not
+     * known up front, -1 can be returned and the body is streamed with chunked transfer-encoding.
+     *
+     * @return The content length of the HTTP request body or -1 if it is unknown
+     */
+    protected abstract long determineRequestBodyLength();
+
+    /**
+     * Writes the HTTP request stream
+     *
+     * @throws IOException
+     */
+    protected abstract void writeToRequestStream() throws IOException;
+
+    /**
+     * Determines if responses to this request can be stored in and served from the client's
+     * response cache.  Implementing classes whose requests are safe and idempotent should
+     * override this.
+     *
+     * @return True if the response can be cached, otherwise false
+     */
+    protected boolean isCacheable() {
+        return false;
+    }
+
+    /**
+     * Determines if this request can share its network exchange with identical requests in
+     * flight.  Only cacheable requests whose body is read as a String are coalesced, since the
+     * immutable String can be shared while a streamed body cannot.
+     *
+     * @return True if the request can be coalesced, otherwise false
+     */
+    boolean isCoalescable() {
+        return this.isCacheable() && this.mResponseSink == null;
+    }
+
+    /**
+     * Builds the key that identifies requests which would get the same response
+     *
+     * @return The coalescing key
+     * @throws IOException If the authentication header could not be resolved
+     */
+    String getCoalescingKey() throws IOException {
+        this.resolveAuthHeader();
+        final StringBuilder builder = new StringBuilder();
+        builder.append(this.mCachePolicy).append(' ').append(this.buildRequestUrl());
+        for (Pair<String, String> requestHeader : this.mRequestHeaders) {
+            builder.append('\n').append(requestHeader.first).append(": ")
+                    .append(requestHeader.second);
+        }
+        if (this.mAuthHeaderValue != null) {
+            builder.append('\n').append(AUTH_HEADER).append(": ").append(this.mAuthHeaderValue);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Waits for an identical request that is sent in place of this one to complete.  The wait is
+     * part of this request's call, so cancel() and the call timeout of this request end it, and
+     * the time spent waiting counts toward the call timeout if this request is sent afterwards.
+     *
+     * @param done Released once the identical request has completed
+     * @return True if it completed or false if this request was aborted or interrupted first, in
+     * which case the request has failed
+     */
+    boolean awaitSharedResponse(CountDownLatch done) {
+        this.mException = null;
+        if (!this.mIsCallStarted) {
+            this.mIsCallStarted = true;
+            this.mCallStartNanos = System.nanoTime();
+        }
+        final Watchdog.Timeout callTimeout = this.startCallTimeout();
+        try {
+            this.throwIfAborted();
+            done.await();
+            return true;
+        } catch (InterruptedIOException e) {
+            this.readSharedResponse(e);
+            return false;
+        } catch (InterruptedException e) {
+            if (!this.mIsCanceled && !this.mIsTimedOut) {
+                // Interrupted by someone else, so keep the interrupt for them
+                Thread.currentThread().interrupt();
+            }
+            this.readSharedResponse(new InterruptedIOException(
+                    "Interrupted while waiting for an identical request"));
+            return false;
+        } finally {
+            this.finishCallTimeout(callTimeout);
+        }
+    }
+
+    /**
+     * Determines if the last call was aborted by cancel(), its call timeout or an interrupt
+     * rather than failing on the network.  An aborted call says nothing about the response, so it
+     * is not shared with identical requests.
+     *
+     * @return True if the call failed because it was aborted
+     */
+    boolean isAborted() {
+        final IOException exception = this.mException;
+        return exception != null && (this.mIsCanceled || this.mIsTimedOut
+                || (exception instanceof InterruptedIOException
+                && !(exception instanceof SocketTimeoutException)));
+    }
+
+    /**
+     * Takes the response of an identical request that was sent in place of this one
+     *
+     * @param request The identical request that was sent
+     */
+    void readSharedResponse(HttpUrlConnectionRequest request) {
+        this.mIsCallStarted = false;
+        this.mResolvedRequestUrl = request.mResolvedRequestUrl;
+        this.mResponseCode = request.mResponseCode;
+        this.mResponseHeaders = request.mResponseHeaders;
+        this.mResponseBodyString = request.mResponseBodyString;
+        this.mIsSuccess = request.mIsSuccess;
+        this.mIsFromCache = request.mIsFromCache;
+        this.mException = request.mException;
+    }
+
+    /**
+     * Fails this request because the identical request it was waiting on could not be awaited
+     *
+     * @param e The cause of the failure
+     */
+    void readSharedResponse(IOException e) {
+        this.mIsCallStarted = false;
+        this.mResponseCode = 0;
+        this.mResponseHeaders = null;
+        this.mResponseBodyString = null;
+        this.mIsSuccess = false;
+        this.mException = e;
+    }
+
+    /**
+     * Sets the User-Agent sent with every request that is constructed afterwards.  The core does
+     * not know which platform it runs on, so the platform sets one that describes itself, such as
+     * AndroidUserAgent.install() on Android.
+     *
+     * @param userAgent The User-Agent
+     */
+    public static void setUserAgent(String userAgent) {
+        if (userAgent == null || userAgent.isEmpty()) {
+            throw new IllegalArgumentException("User-Agent cannot be empty");
+        }
+        sUserAgent = userAgent;
+    }
+
+    /**
+     * Returns the User-Agent sent with every request
+     *
+     * @return The User-Agent set with setUserAgent(), otherwise "tomoeame"
+     */
+    public static String getUserAgent() {
+        return sUserAgent;
+    }
+
+    /**
+     * Adds HTTP headers to the collection that will remain the same for all implementing classes
+     */
+    protected void addDefaultRequestHeaders() {
+        addDefaultRequestHeaders(this.mRequestHeaders);
+    }
+
+    /**
+     * Adds the HTTP headers that are sent with every request to the collection
+     *
+     * @param requestHeaders The collection of request headers
+     */
+    static void addDefaultRequestHeaders(List<Pair<String, String>> requestHeaders) {
+        // User agent
+        requestHeaders.add(new Pair<String, String>("User-Agent", sUserAgent));
+        // Ask for a compressed response, which is decompressed transparently
+        requestHeaders.add(new Pair<String, String>("Accept-Encoding",
+                ContentEncoding.ACCEPT_ENCODING));
+    }
+
+    /**
+     * Compresses the request body if compression is enabled and the body is large enough, and
+     * adds the Content-Encoding header if it was compressed.  Implementing classes that know
+     * their whole body up front should pass it through here before determining its length.
+     *
+     * @param body The request body
+     * @return The compressed request body or the original body if it was not compressed
+     */
+    protected byte[] compressRequestBody(byte[] body) {
+        if (!this.mIsRequestCompressionEnabled || body == null
+                || body.length < this.mRequestCompressionThreshold) {
+            return body;
+        }
+        try {
+            final byte[] compressedBody = ContentEncoding.gzip(body);
+            if (compressedBody.length >= body.length) {
+                return body;
+            }
+            this.addRequestHeader("Content-Encoding", ContentEncoding.GZIP);
+            return compressedBody;
+        } catch (IOException e) {
+            return body;
+        }
+    }
+
+    /**
+     * Adds the authentication token to the authentication header
+     *
+     * @param authToken The authentication token
+     */
+    protected void addAuthHeader(String authToken) {
+        if (authToken != null) {
+            // Add the header
+            this.addRequestHeader(AUTH_HEADER, encodeAuthHeaderValue(authToken));
+        }
+    }
+
+    /**
+     * Encodes an authentication token as the authentication header value
+     *
+     * @param authToken The authentication token
+     * @return The encoded header value
+     */
+    public static String encodeAuthHeaderValue(String authToken) {
+        return Base64Encoder.encodeUrlSafe(authToken.getBytes(UTF_8));
+    }
+
+    /**
+     * Determines if HttpURLConnection.setFixedLengthStreamingMode(long) exists on this platform
+     *
+     * @return True if it exists, otherwise false
+     */
+    private static boolean isLongFixedLengthSupported() {
+        try {
+            HttpURLConnection.class.getMethod("setFixedLengthStreamingMode", long.class);
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Resolves the authentication header value from the request's Authenticator, if it has one.
+     * This is done when the request is sent rather than when it is constructed, so constructing a
+     * request does not block on fetching a token.
+     *
+     * @throws IOException If the authentication token could not be fetched
+     */
+    private void resolveAuthHeader() throws IOException {
+        final Authenticator authenticator = this.getAuthenticator();
+        if (authenticator != null && this.mAuthHeaderValue == null) {
+            this.mAuthHeaderValue = authenticator.getAuthHeaderValue();
+        }
+    }
+
+    /**
+     * Invalidates the authentication header if the server rejected it with a 401, so the next
+     * attempt resolves a new one
+     *
+     * @return True if the header was invalidated, otherwise false
+     */
+    private boolean invalidateRejectedAuthHeader() {
+        final Authenticator authenticator = this.getAuthenticator();
+        if (this.mResponseCode != HttpURLConnection.HTTP_UNAUTHORIZED
+                || this.mAuthHeaderValue == null || authenticator == null) {
+            return false;
+        }
+        authenticator.invalidate(this.mAuthHeaderValue);
+        this.mAuthHeaderValue = null;
+        return true;
+    }
+
+    /**
+     * Returns the Authenticator of this request
+     *
+     * @return The request's Authenticator, otherwise the client's or null if neither has one
+     */
+    private Authenticator getAuthenticator() {
+        if (this.mAuthenticator != null) {
+            return this.mAuthenticator;
+        }
+        return this.mClient != null ? this.mClient.getAuthenticator() : null;
+    }
+
+    /**
+     * Sends the request until an attempt succeeds or the retry policy gives up
+     */
+    private void sendAttempts() {
+        final RetryPolicy retryPolicy = this.getRetryPolicy();
+        final long startNanos = System.nanoTime();
+        boolean isAuthRefreshed = false;
+        try {
+            while (true) {
+                this.mAttemptCount++;
+                final long attemptStartNanos = System.nanoTime();
+                IOException exception = null;
+                long delayMillis = -1;
+                boolean isReadingBody = false;
+                try {
+                    this.throwIfCanceled();
+                    final boolean isNetworkResponse = this.exchange();
+
+                    // If the token was rejected, invalidate it and retry once with a new one
+                    if (!isAuthRefreshed && this.invalidateRejectedAuthHeader()) {
+                        isAuthRefreshed = true;
+                        delayMillis = 0;
+                    } else if (retryPolicy != null && isNetworkResponse) {
+                        delayMillis = retryPolicy.getRetryDelayMillis(this.getSentRequestMethod(),
+                                this.mAttemptCount, elapsedMillis(startNanos),
+                                this.mResponseCode, this.getResponseHeader("Retry-After"), null);
+                    }
+
+                    // Only read the body of the response that will not be retried
+                    if (delayMillis < 0) {
+                        isReadingBody = true;
+                        this.readResponseBody();
+                        this.endPhase(RequestMetrics.Phase.READ_BODY);
+                    }
+                } catch (IOException e) {
+                    exception = e;
+                    if (this.mIsCanceled || this.mIsTimedOut) {
+                        // The call was aborted, so there should not be another attempt
+                        delayMillis = -1;
+                    } else if (retryPolicy != null
+                            && !(isReadingBody && this.mResponseSink != null)) {
+                        // Unless a partly written response sink would need to be rewound
+                        delayMillis = retryPolicy.getRetryDelayMillis(this.getSentRequestMethod(),
+                                this.mAttemptCount, elapsedMillis(startNanos), -1, null, e);
+                    }
+                } catch (RuntimeException e) {
+                    // HttpURLConnection can fail unchecked when it is disconnected mid-exchange
+                    if (!this.mIsCanceled && !this.mIsTimedOut) {
+                        throw e;
+                    }
+                    exception = new InterruptedIOException("The request was aborted");
+                    delayMillis = -1;
+                }
+                this.notifyAttemptListener(exception, elapsedMillis(attemptStartNanos),
+                        delayMillis);
+                if (delayMillis < 0) {
+                    this.mException = exception;
+                    return;
+                }
+
+                // Release the connection before waiting for the next attempt
+                this.close();
+                if (delayMillis > 0) {
+                    Thread.sleep(delayMillis);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            this.mException = new InterruptedIOException("Interrupted while waiting to retry");
+        }
+    }
+
+    /**
+     * Schedules the call timeout, which disconnects the connection and interrupts the sending
+     * thread once the deadline passes so the thread is freed immediately
+     *
+     * @return The scheduled timeout or null if the call has no deadline
+     */
+    private Watchdog.Timeout startCallTimeout() {
+        synchronized (this.mTimeoutLock) {
+            this.mSendingThread = Thread.currentThread();
+            this.mIsTimedOut = false;
+        }
+        long callTimeoutMillis = this.getCallTimeout();
+        if (callTimeoutMillis <= 0) {
+            return null;
+        }
+        if (this.mIsCallStarted) {
+            // The time spent waiting on an identical request counts toward the deadline
+            callTimeoutMillis = Math.max(1,
+                    callTimeoutMillis - elapsedMillis(this.mCallStartNanos));
+        }
+        return Watchdog.getDefault().schedule(callTimeoutMillis, new Runnable() {
+            @Override
+            public void run() {
+                HttpUrlConnectionRequest.this.timeOut();
+            }
+        });
+    }
+
+    /**
+     * Cancels the call timeout.  If the call was aborted, the interrupt is cleared from the
+     * sending thread and the failure is reported as a cancellation or timeout.
+     *
+     * @param callTimeout The scheduled timeout or null if the call has no deadline
+     */
+    private void finishCallTimeout(Watchdog.Timeout callTimeout) {
+        if (callTimeout != null) {
+            callTimeout.cancel();
+        }
+        final boolean isInterrupted;
+        synchronized (this.mTimeoutLock) {
+            this.mSendingThread = null;
+            isInterrupted = this.mIsSendingThreadInterrupted;
+            this.mIsSendingThreadInterrupted = false;
+        }
+        if (isInterrupted) {
+            Thread.interrupted();
+        }
+        if (this.mException != null) {
+            if (this.mIsCanceled) {
+                this.mException = new InterruptedIOException("The request was canceled");
+            } else if (this.mIsTimedOut) {
+                this.mException = new InterruptedIOException("The call timed out after "
+                        + this.getCallTimeout() + " ms");
+            }
+        }
+    }
+
+    /**
+     * Runs on the watchdog thread when the call timeout expires
+     */
+    private void timeOut() {
+        synchronized (this.mTimeoutLock) {
+            if (this.mSendingThread == null) {
+                return;
+            }
+            this.mIsTimedOut = true;
+            this.abortExchange();
+        }
+    }
+
+    /**
+     * Disconnects the connection and interrupts the sending thread.  Disconnecting unblocks
+     * socket reads and writes while the interrupt unblocks waits for pooled connections, auth
+     * tokens and retries.  Must be called while holding the timeout lock.
+     */
+    private void abortExchange() {
+        this.closeHttpConnection(this.mHttpUrlConnection);
+        if (this.mSendingThread != null && !this.mIsSendingThreadInterrupted) {
+            this.mSendingThread.interrupt();
+            this.mIsSendingThreadInterrupted = true;
+        }
+    }
+
+    /**
+     * Throws if the request was canceled or the call timeout expired
+     *
+     * @throws InterruptedIOException If the request was aborted
+     */
+    private void throwIfAborted() throws InterruptedIOException {
+        this.throwIfCanceled();
+        if (this.mIsTimedOut) {
+            throw new InterruptedIOException("The call timed out");
+        }
+    }
+
+    /**
+     * Returns the duration to wait for a connection to be established
+     *
+     * @return The request's timeout, otherwise the client's or the default timeout
+     */
+    private int getConnectTimeout() {
+        if (this.mConnectTimeoutMillis >= 0) {
+            return this.mConnectTimeoutMillis;
+        }
+        return this.mClient != null ? this.mClient.getConnectTimeout()
+                : HttpClient.DEFAULT_CONNECT_TIMEOUT_MILLIS;
+    }
+
+    /**
+     * Returns the duration to wait for response data to arrive
+     *
+     * @return The request's timeout, otherwise the client's or the default timeout
+     */
+    private int getReadTimeout() {
+        if (this.mReadTimeoutMillis >= 0) {
+            return this.mReadTimeoutMillis;
+        }
+        return this.mClient != null ? this.mClient.getReadTimeout()
+                : HttpClient.DEFAULT_READ_TIMEOUT_MILLIS;
+    }
+
+    /**
+     * Returns the duration to wait for a write of request data to finish
+     *
+     * @return The request's timeout, otherwise the client's or the default timeout
+     */
+    private int getWriteTimeout() {
+        if (this.mWriteTimeoutMillis >= 0) {
+            return this.mWriteTimeoutMillis;
+        }
+        return this.mClient != null ? this.mClient.getWriteTimeout()
+                : HttpClient.DEFAULT_WRITE_TIMEOUT_MILLIS;
+    }
+
+    /**
+     * Returns the maximum duration of a whole call to send()
+     *
+     * @return The request's deadline, otherwise the client's, or 0 if there is none
+     */
+    private long getCallTimeout() {
+        if (this.mCallTimeoutMillis >= 0) {
+            return this.mCallTimeoutMillis;
+        }
+        return this.mClient != null ? this.mClient.getCallTimeout() : 0;
+    }
+
+    /**
+     * Returns the method the request was last sent with, which is set on the connection by
+     * setupRequest()
+     *
+     * @return The HTTP request method
+     */
+    private String getSentRequestMethod() {
+        if (this.mHttpUrlConnection != null) {
+            return this.mHttpUrlConnection.getRequestMethod();
+        }
+        return this.mRequestMethod;
+    }
+
+    /**
+     * Returns the policy failed attempts are retried with
+     *
+     * @return The request's policy, otherwise the client's policy, or null if there is none
+     */
+    private RetryPolicy getRetryPolicy() {
+        if (this.mRetryPolicy != null) {
+            return this.mRetryPolicy;
+        }
+        return this.mClient != null ? this.mClient.getRetryPolicy() : null;
+    }
+
+    /**
+     * Returns the transport that opens the request's connection
+     *
+     * @return The request's transport, otherwise the client's transport, otherwise the platform's
+     */
+    private Transport getTransport() {
+        if (this.mTransport != null) {
+            return this.mTransport;
+        }
+        return this.mClient != null ? this.mClient.getTransport()
+                : HttpUrlConnectionTransport.getDefault();
+    }
+
+    /**
+     * Returns the sink the metrics of each call are published to
+     *
+     * @return The request's sink, otherwise the client's sink, or null if calls are not measured
+     */
+    private MetricsSink getMetricsSink() {
+        if (this.mMetricsSink != null) {
+            return this.mMetricsSink;
+        }
+        return this.mClient != null ? this.mClient.getMetricsSink() : null;
+    }
+
+    /**
+     * Ends a phase of the call if it is being measured
+     *
+     * @param phase The phase that ended
+     */
+    private void endPhase(RequestMetrics.Phase phase) {
+        if (this.mMetrics != null) {
+            this.mMetrics.endPhase(phase);
+        }
+    }
+
+    /**
+     * Finishes measuring the call and publishes its metrics
+     *
+     * @param metricsSink The sink the metrics are published to
+     */
+    private void publishMetrics(MetricsSink metricsSink) {
+        final RequestMetrics metrics = this.mMetrics;
+        this.mMetrics = null;
+        metrics.finish(this.getSentRequestMethod(), this.mResolvedRequestUrl,
+                this.mEndpointTemplate, this.mResponseCode, this.mAttemptCount,
+                this.mIsFromCache, this.mException);
+        metricsSink.onRequestMetrics(metrics);
+    }
+
+    /**
+     * Notifies the AttemptListener that an attempt finished
+     *
+     * @param exception      The exception the attempt failed with or null
+     * @param durationMillis The duration of the attempt
+     * @param delayMillis    The wait before the next attempt or -1 if there will be none
+     */
+    private void notifyAttemptListener(IOException exception, long durationMillis,
+                                       long delayMillis) {
+        final AttemptListener listener = this.mAttemptListener != null ? this.mAttemptListener
+                : this.mClient != null ? this.mClient.getAttemptListener() : null;
+        if (listener != null) {
+            listener.onAttempt(this, this.mAttemptCount,
+                    exception != null ? -1 : this.mResponseCode, exception, durationMillis,
+                    delayMillis);
+        }
+    }
+
+    /**
+     * Returns the milliseconds elapsed since the specified time
+     *
+     * @param startNanos The start time from System.nanoTime()
+     * @return The elapsed milliseconds
+     */
+    private static long elapsedMillis(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1000000;
+    }
+
+    /**
+     * Returns the value of the authentication header that is sent with the request
+     *
+     * @return The authentication header value or null if there is none
+     */
+    private String getAuthorization() {
+        if (this.mAuthHeaderValue != null) {
+            return this.mAuthHeaderValue;
+        }
+        String authorization = null;
+        for (Pair<String, String> requestHeader : this.mRequestHeaders) {
+            if (AUTH_HEADER.equalsIgnoreCase(requestHeader.first)) {
+                authorization = requestHeader.second;
+            }
+        }
+        return authorization;
+    }
+
+    /**
+     * URL encodes all the parameters
+     *
+     * @param parameters The collection of parameters to encode
+     * @return The full URL encoded representation of all the parameters
+     * @throws UnsupportedEncodingException
+     */
+    protected String urlEncodeParameters(List<Pair<String, String>> parameters)
+            throws UnsupportedEncodingException {
+        return urlEncodeToString(parameters);
+    }
+
+    /**
+     * URL encodes all the parameters as UTF-8 into an array of the exact encoded length
+     *
+     * @param parameters The collection of parameters to encode
+     * @return The bytes of the full URL encoded representation of all the parameters
+     */
+    protected byte[] urlEncodeParametersToBytes(List<Pair<String, String>> parameters) {
+        return urlEncodeToBytes(parameters);
+    }
+
+    /**
+     * URL encodes all the parameters as UTF-8 after parameters that were already encoded, such as
+     * the static form fields of a RequestTemplate
+     *
+     * @param encodedParameters The already encoded parameters, which may be null or empty
+     * @param parameters        The collection of parameters to encode
+     * @return The bytes of the full URL encoded representation of all the parameters, which may
+     * be the already encoded array if there are no parameters to add to it
+     */
+    protected byte[] urlEncodeParametersToBytes(byte[] encodedParameters,
+                                                List<Pair<String, String>> parameters) {
+        if (encodedParameters == null || encodedParameters.length == 0) {
+            return urlEncodeToBytes(parameters);
+        } else if (parameters == null || parameters.isEmpty()) {
+            return encodedParameters;
+        }
+        final int encodedLength = encodedParameters.length;
+        final byte[] bytes = new byte[encodedLength + 1 + getEncodedLength(parameters)];
+        System.arraycopy(encodedParameters, 0, bytes, 0, encodedLength);
+        bytes[encodedLength] = '&';
+        encodeParameters(parameters, bytes, encodedLength + 1);
+        return bytes;
+    }
+
+    /**
+     * URL encodes all the parameters into a String
+     *
+     * @param parameters The collection of parameters to encode
+     * @return The full URL encoded representation of all the parameters
+     */
+    static String urlEncodeToString(List<Pair<String, String>> parameters) {
+        if (parameters == null || parameters.isEmpty()) {
+            return "";
+        }
+        // Encode into a pooled array so the String is the only allocation
+        final int length = getEncodedLength(parameters);
+        final BufferPool bufferPool = BufferPool.getDefault();
+        final byte[] buffer = bufferPool.acquire(length);
+        try {
+            encodeParameters(parameters, buffer, 0);
+            return new String(buffer, 0, length, US_ASCII);
+        } finally {
+            bufferPool.release(buffer);
+        }
+    }
+
+    /**
+     * URL encodes all the parameters as UTF-8 into an array of the exact encoded length
+     *
+     * @param parameters The collection of parameters to encode
+     * @return The bytes of the full URL encoded representation of all the parameters
+     */
+    static byte[] urlEncodeToBytes(List<Pair<String, String>> parameters) {
+        if (parameters == null || parameters.isEmpty()) {
+            return new byte[0];
+        }
+        final byte[] bytes = new byte[getEncodedLength(parameters)];
+        encodeParameters(parameters, bytes, 0);
+        return bytes;
+    }
+
+    /**
+     * Notifies the DataSentListener the number of bytes that were just uploaded and the total
+     * number of bytes it needs to upload.  The bytes are coalesced so the listener is only
+     * called once enough progress was made.
+     *
+     * @param bytesUploaded The number of bytes just uploaded
+     * @param totalBytes    The total number of bytes for the whole request body
+     */
+    protected void notifyDataSentListener(long bytesUploaded, long totalBytes) {
+        if (this.mSentProgressReporter != null) {
+            this.mSentProgressReporter.onTransferred(bytesUploaded);
+        } else if (this.mListener != null) {
+            this.mListener.onDataSent(bytesUploaded, totalBytes);
+        }
+    }
+
+    /**
+     * Creates a ProgressReporter using this request's throttle
+     *
+     * @param listener The listener the updates are passed on to
+     * @param executor The Executor the listener is called through or null for the transferring
+     *                 thread
+     * @return The reporter
+     */
+    private ProgressReporter newProgressReporter(ProgressReporter.Listener listener,
+                                                 Executor executor) {
+        final ProgressReporter reporter = new ProgressReporter(listener, executor);
+        reporter.setThrottle(this.mProgressIntervalMillis, this.mProgressFraction);
+        return reporter;
+    }
+
+    /**
+     * Determines if this request supports a request body
+     *
+     * @return True if it supports a request body, otherwise false
+     */
+    private boolean supportsRequestBody() {
+        return this.mHttpUrlConnection.getRequestMethod().equals("POST");
+    }
+
+    /**
+     * Determines the number of bytes the parameters are URL encoded to, without encoding them
+     *
+     * @param parameters The collection of parameters
+     * @return The encoded length, including the separating ampersands
+     */
+    private static int getEncodedLength(List<Pair<String, String>> parameters) {
+        long length = parameters.size() * 2L - 1;
+        for (Pair<String, String> parameter : parameters) {
+            length += UrlEncoder.encodedLength(parameter.first)
+                    + UrlEncoder.encodedLength(parameter.second);
+        }
+        if (length > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("The encoded parameters are too large");
+        }
+        return (int) length;
+    }
+
+    /**
+     * URL encodes the parameters into the array, separating them with ampersands
+     *
+     * @param parameters The collection of parameters
+     * @param dest       The array, which must have room for the encoded length
+     * @param offset     The index of the first byte to write
+     * @return The index after the last byte written
+     */
+    private static int encodeParameters(List<Pair<String, String>> parameters, byte[] dest,
+                                        int offset) {
+        int position = offset;
+        for (Pair<String, String> parameter : parameters) {
+            // See if an ampersand needs to be added
+            if (position > offset) {
+                dest[position++] = '&';
+            }
+            position = UrlEncoder.encode(parameter.first, dest, position);
+            dest[position++] = '=';
+            position = UrlEncoder.encode(parameter.second, dest, position);
+        }
+        return position;
+    }
+
+    /**
+     * Builds the request URL with the query parameters appended
+     *
+     * @return The full request URL
+     * @throws UnsupportedEncodingException
+     */
+    private String buildRequestUrl() throws UnsupportedEncodingException {
+        return this.appendQueryParameters(this.mRequestUrl, this.mQueryParameters);
+    }
+
+    /**
+     * Appends the query parameters to the request URL
+     *
+     * @param requestUrl      The request URL
+     * @param queryParameters The query parameters to append to the request URL
+     * @return The request URL with the query parameters appended
+     * @throws UnsupportedEncodingException
+     */
+    private String appendQueryParameters(String requestUrl,
+                                         List<Pair<String, String>> queryParameters)
+            throws UnsupportedEncodingException {
+        if (requestUrl == null || queryParameters == null || queryParameters.isEmpty()) {
+            return requestUrl;
+        }
+        // Combine and encode the query parameters
+        String combinedQueryParameters = this.urlEncodeParameters(queryParameters);
+        // Append the query parameters to the request URL
+        return requestUrl + (requestUrl.indexOf('?') == -1 ? "?" : "&")
+                + combinedQueryParameters;
+    }
+
+    /**
+     * Takes each HTTP request header from the collection and sets them on the HTTP request object
+     *
+     * @param requestHeaders The HTTP request header collection
+     */
+    private void addRequestHeadersToConnection(List<Pair<String, String>> requestHeaders) {
+        for (Pair<String, String> requestHeader : requestHeaders) {
+            this.mHttpUrlConnection.setRequestProperty(requestHeader.first, requestHeader.second);
+        }
+        if (this.mAuthHeaderValue != null) {
+            this.mHttpUrlConnection.setRequestProperty(AUTH_HEADER, this.mAuthHeaderValue);
+        }
+    }
+
+    /**
+     * Builds the request by appending parameters and setting up the HTTP request object, then
+     * connects and writes the request body
+     *
+     * @param conditionalHeaders The headers that revalidate a cached response or null
+     * @throws IOException
+     */
+    private void buildRequest(Map<String, String> conditionalHeaders) throws IOException {
+        final RequestMetrics metrics = this.mMetrics;
+        if (metrics != null) {
+            metrics.startAttempt();
+        }
+        // Append the query parameters
+        this.mResolvedRequestUrl = this.buildRequestUrl();
+        // Instantiate the HttpUrlConnection
+        // Reuse the template's parsed URL when no query parameters were added to it
+        final URL url = this.mTemplate != null
+                && this.mResolvedRequestUrl == this.mTemplate.getRequestUrl()
+                ? this.mTemplate.getUrl() : new URL(this.mResolvedRequestUrl);
+        if (metrics != null) {
+            metrics.endPhase(RequestMetrics.Phase.BUILD_URL);
+            metrics.setUrl(url, this.mEndpointTemplate);
+        }
+        // Fail fast if the host is failing or overloaded
+        this.acquireHostPermit(url);
+        // Multiplexed transports end their streams on their own
+        this.mIsKeepingAlive = this.mClient != null && !this.getTransport().isMultiplexed();
+        this.startExchange();
+        final HttpURLConnection httpUrlConnection = this.getTransport().openConnection(url);
+        synchronized (this.mTimeoutLock) {
+            this.mHttpUrlConnection = httpUrlConnection;
+        }
+        this.throwIfAborted();
+        httpUrlConnection.setConnectTimeout(this.getConnectTimeout());
+        httpUrlConnection.setReadTimeout(this.getReadTimeout());
+
+        // Prepare the parts of the request that stay the same across attempts
+        if (!this.mIsPrepared) {
+            this.prepareRequest();
+            this.mIsPrepared = true;
+        }
+
+        // Setup the options on the request
+        this.setupRequest(this.mHttpUrlConnection);
+
+        // Set the request headers to the connection object
+        this.addRequestHeadersToConnection(this.mRequestHeaders);
+
+        // Make the request conditional so an unchanged cached response can be reused
+        if (conditionalHeaders != null) {
+            for (Map.Entry<String, String> header : conditionalHeaders.entrySet()) {
+                this.mHttpUrlConnection.setRequestProperty(header.getKey(), header.getValue());
+            }
+        }
+
+        // Check to see if the request method supports a request body
+        if (!this.supportsRequestBody()) {
+            this.mHttpUrlConnection.connect();
+            this.endPhase(RequestMetrics.Phase.CONNECT);
+        } else {
+            // Enable output before connecting, which not every connection does on its own
+            this.mHttpUrlConnection.setDoOutput(true);
+
+            // Determine the content length of the request body
+            this.mRequestBodyLength = this.determineRequestBodyLength();
+
+            // Set the pre-determined content length or stream in chunks if it is unknown
+            if (this.mRequestBodyLength < 0) {
+                this.mHttpUrlConnection.setChunkedStreamingMode(CHUNK_LENGTH);
+            } else if (IS_LONG_FIXED_LENGTH_SUPPORTED) {
+                this.mHttpUrlConnection.setFixedLengthStreamingMode(this.mRequestBodyLength);
+            } else {
+                this.mHttpUrlConnection
+                        .setFixedLengthStreamingMode((int) this.mRequestBodyLength);
+            }
+
+            this.mHttpUrlConnection.connect();
+            this.endPhase(RequestMetrics.Phase.CONNECT);
+
+            // Get the stream for the request, bounding each write by the write timeout
+            final int writeTimeoutMillis = this.getWriteTimeout();
+            this.mRequestStream = writeTimeoutMillis > 0
+                    ? new WriteTimeoutOutputStream(this.mHttpUrlConnection.getOutputStream(),
+                    this.mHttpUrlConnection, writeTimeoutMillis)
+                    : this.mHttpUrlConnection.getOutputStream();
+            if (metrics != null) {
+                this.mRequestStream = new CountingOutputStream(this.mRequestStream, metrics);
+            }
+
+            // Write to the request stream
+            if (this.mSentProgressReporter != null) {
+                this.mSentProgressReporter.start(this.mRequestBodyLength);
+            }
+            this.writeToRequestStream();
+            if (this.mSentProgressReporter != null) {
+                this.mSentProgressReporter.finish();
+            }
+            this.endPhase(RequestMetrics.Phase.WRITE_BODY);
+        }
+    }
+
+    /**
+     * Checks the circuit breaker and concurrency limit of the URL's host, failing fast if the
+     * request may not be sent
+     *
+     * @param url The request URL
+     * @throws RejectedRequestException If the breaker is open or the limit is reached
+     */
+    private void acquireHostPermit(URL url) throws RejectedRequestException {
+        if (this.mClient == null) {
+            return;
+        }
+        final String hostKey = HttpClient.getHostKey(url);
+        final ConcurrencyLimiter concurrencyLimiter = this.mClient.getConcurrencyLimiter(hostKey);
+        if (concurrencyLimiter != null && !concurrencyLimiter.tryAcquire()) {
+            throw new RejectedRequestException("The concurrency limit was reached for " + hostKey);
+        }
+        final CircuitBreaker circuitBreaker = this.mClient.getCircuitBreaker(hostKey);
+        if (circuitBreaker != null && !circuitBreaker.tryAcquire()) {
+            if (concurrencyLimiter != null) {
+                concurrencyLimiter.onIgnored();
+            }
+            throw new RejectedRequestException("The circuit breaker is open for " + hostKey);
+        }
+        this.mConcurrencyLimiter = concurrencyLimiter;
+        this.mCircuitBreaker = circuitBreaker;
+    }
+
+    /**
+     * Marks the start of the attempt's exchange with the host, after which its outcome is
+     * reported to the host's limits.  The time spent acquiring the host's permits is not
+     * counted towards the latency of the call.
+     */
+    private void startExchange() {
+        this.mIsExchangeStarted = true;
+        this.mHostPermitStartNanos = System.nanoTime();
+    }
+
+    /**
+     * Reports the outcome of the attempt to the host's circuit breaker and concurrency limiter.
+     * Exceptions and server errors count as failures, while 429 responses only lower the
+     * concurrency limit since the server is still healthy enough to answer.
+     *
+     * @param responseCode The response code or -1 if the attempt failed with an exception
+     */
+    private void releaseHostPermit(int responseCode) {
+        this.mIsExchangeStarted = false;
+        final boolean isFailure = responseCode == -1 || responseCode >= 500;
+        if (this.mCircuitBreaker != null) {
+            this.mCircuitBreaker.onResult(isFailure,
+                    (System.nanoTime() - this.mHostPermitStartNanos) / 1000000);
+            this.mCircuitBreaker = null;
+        }
+        if (this.mConcurrencyLimiter != null) {
+            if (isFailure || responseCode == RetryPolicy.HTTP_TOO_MANY_REQUESTS) {
+                this.mConcurrencyLimiter.onDropped();
+            } else {
+                this.mConcurrencyLimiter.onSuccess();
+            }
+            this.mConcurrencyLimiter = null;
+        }
+    }
+
+    /**
+     * Reports an attempt that failed with an exception to the host's limits.  Only a failed
+     * exchange counts against the host: an attempt that failed before it reached the host, such
+     * as one the host's limits rejected or one the caller canceled, is ignored.
+     */
+    private void failHostPermit() {
+        if (this.mIsExchangeStarted && !this.mIsCanceled) {
+            this.releaseHostPermit(-1);
+        } else {
+            this.ignoreHostPermit();
+        }
+    }
+
+    /**
+     * Releases the host's limits without reporting an outcome, if the attempt never finished
+     */
+    private void ignoreHostPermit() {
+        this.mIsExchangeStarted = false;
+        if (this.mCircuitBreaker != null) {
+            this.mCircuitBreaker.onIgnored();
+            this.mCircuitBreaker = null;
+        }
+        if (this.mConcurrencyLimiter != null) {
+            this.mConcurrencyLimiter.onIgnored();
+            this.mConcurrencyLimiter = null;
+        }
+    }
+
+    /**
+     * Determines if the server allows the connection to be kept alive after the response
+     *
+     * @return True if the connection can be kept alive, otherwise false
+     */
+    private boolean isKeepAliveResponse() {
+        return this.mHttpUrlConnection != null && this.mResponseCode > 0
+                && !"close".equalsIgnoreCase(this.mHttpUrlConnection.getHeaderField("Connection"));
+    }
+
+    /**
+     * Reads the rest of a response stream so the underlying socket can be reused
+     *
+     * @param inputStream The response stream to drain
+     * @return True if the end of the stream was reached, otherwise false
+     */
+    protected boolean drainInputStream(InputStream inputStream) {
+        if (inputStream == null) {
+            return true;
+        }
+        final BufferPool bufferPool = BufferPool.getDefault();
+        final byte[] buffer = bufferPool.acquire(DRAIN_BUFFER_LENGTH);
+        try {
+            long remaining = MAX_DRAIN_BYTE_COUNT;
+            int bytesRead;
+            while ((bytesRead = inputStream.read(buffer)) != -1) {
+                remaining -= bytesRead;
+                if (remaining < 0) {
+                    // Too much is left to be worth reading just to save a handshake
+                    return false;
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            bufferPool.release(buffer);
+        }
+    }
+
+    /**
+     * Sends the request and reads the response code and headers, serving them from the client's
+     * response cache when possible.  The body is left for readResponseBody().
+     *
+     * @return True if the response came from the network, false if it came from the cache
+     * @throws IOException
+     */
+    private boolean exchange() throws IOException {
+        // Resolve the auth header first since it is part of the cache key
+        this.resolveAuthHeader();
+
+        // Check if the response can be served from the cache
+        final HttpResponseCache cache = this.getResponseCache();
+        HttpResponseCache.Entry cacheEntry = null;
+        if (cache != null) {
+            cacheEntry = this.readCachedResponse(cache);
+            if (this.mIsFromCache
+                    || this.mCachePolicy == HttpResponseCache.CachePolicy.CACHE_ONLY) {
+                return false;
+            }
+        }
+
+        try {
+            // Build the request, making it conditional so an unchanged cached response can be
+            // reused
+            this.buildRequest(cacheEntry != null ? cacheEntry.getConditionalHeaders() : null);
+
+            // Get the HTTP response code, headers and stream
+            this.readResponse();
+            this.endPhase(RequestMetrics.Phase.FIRST_BYTE);
+        } catch (IOException e) {
+            this.failHostPermit();
+            throw e;
+        }
+        this.releaseHostPermit(this.mResponseCode);
+
+        // Serve an unchanged response from the cache or store the new one
+        if (cache != null) {
+            this.updateCachedResponse(cache, cacheEntry);
+        }
+        return true;
+    }
+
+    /**
+     * Looks up the cached response.  If it can be served without going to the network, the
+     * response is set up from it.  If only the cache may be used and nothing is cached, the
+     * response is a 504 Gateway Timeout.
+     *
+     * @param cache The response cache
+     * @return A stale cached response that can be revalidated, otherwise null
+     * @throws IOException
+     */
+    private HttpResponseCache.Entry readCachedResponse(HttpResponseCache cache)
+            throws IOException {
+        this.mIsFromCache = false;
+        if (this.mCachePolicy == HttpResponseCache.CachePolicy.FORCE_NETWORK) {
+            return null;
+        }
+        final HttpResponseCache.Entry cacheEntry = cache.get(this.getCacheKey());
+        if (cacheEntry != null
+                && (this.mCachePolicy == HttpResponseCache.CachePolicy.CACHE_ONLY
+                || cacheEntry.isFresh(System.currentTimeMillis()))) {
+            cache.recordHit();
+            this.readCachedResponse(cacheEntry);
+            return null;
+        } else if (this.mCachePolicy == HttpResponseCache.CachePolicy.CACHE_ONLY) {
+            // Nothing is cached and the network cannot be used
+            this.mResponseCode = HttpURLConnection.HTTP_GATEWAY_TIMEOUT;
+            this.mResponseHeaders = null;
+            this.mResponseStream = null;
+            this.mIsSuccess = false;
+            return null;
+        }
+        return cacheEntry != null && cacheEntry.hasValidators() ? cacheEntry : null;
+    }
+
+    /**
+     * Serves the cached response if the server confirmed it has not changed, otherwise copies the
+     * network response into the cache as it is read
+     *
+     * @param cache      The response cache
+     * @param cacheEntry The cached response that was revalidated or null if there was none
+     * @throws IOException
+     */
+    private void updateCachedResponse(HttpResponseCache cache,
+                                      HttpResponseCache.Entry cacheEntry) throws IOException {
+        if (cacheEntry != null && this.mResponseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            // The cached response is still valid, so serve it with the refreshed headers
+            cache.recordRevalidation();
+            this.closeInputStream(this.mResponseStream);
+            this.readCachedResponse(cache.update(cacheEntry, this.mResponseHeaders));
+        } else {
+            cache.recordMiss();
+            this.mResponseStream = cache.put(this.getCacheKey(), this.mResolvedRequestUrl,
+                    this.mResponseCode, this.mResponseHeaders, this.mResponseStream);
+        }
+    }
+
+    /**
+     * Reads the response body into the response sink if one was set, otherwise into a String
+     *
+     * @throws IOException
+     */
+    private void readResponseBody() throws IOException {
+        if (this.mResponseSink != null) {
+            this.openResponseBody().writeTo(this.mResponseSink);
+        } else {
+            this.mResponseBodyString = this.buildResponseBody(this.mResponseStream);
+        }
+    }
+
+    /**
+     * Returns the cache this request can be served from
+     *
+     * @return The client's response cache or null if this request is not cached
+     */
+    private HttpResponseCache getResponseCache() {
+        if (this.mClient == null || !this.isCacheable()) {
+            return null;
+        }
+        return this.mClient.getResponseCache();
+    }
+
+    /**
+     * Builds the cache key from the full request URL and the Authorization header
+     *
+     * @return The cache key
+     * @throws UnsupportedEncodingException
+     */
+    private String getCacheKey() throws UnsupportedEncodingException {
+        if (this.mResolvedRequestUrl == null) {
+            this.mResolvedRequestUrl = this.buildRequestUrl();
+        }
+        return HttpResponseCache.getKey(this.mResolvedRequestUrl, this.getAuthorization());
+    }
+
+    /**
+     * Sets up the response from a cached entry instead of the network
+     *
+     * @param cacheEntry The cached response
+     * @throws IOException
+     */
+    private void readCachedResponse(HttpResponseCache.Entry cacheEntry) throws IOException {
+        this.mIsFromCache = true;
+        this.mResponseCode = cacheEntry.getResponseCode();
+        this.mResponseHeaders = cacheEntry.getHeaders();
+        this.mResponseStream = cacheEntry.openBody();
+        this.mIsResponseDecoded = false;
+        this.mIsSuccess = this.mResponseCode >= 200 && this.mResponseCode <= 299;
+    }
+
+    /**
+     * Gets the HTTP response code and headers and the stream of the response body
+     *
+     * @throws IOException
+     */
+    private void readResponse() throws IOException {
+        // Get the HTTP response code
+        this.mResponseCode = this.mHttpUrlConnection.getResponseCode();
+        this.mResponseHeaders = Collections.unmodifiableMap(
+                this.mHttpUrlConnection.getHeaderFields());
+
+        // Check if the response code was in the success range
+        if (this.mResponseCode >= 200 && this.mResponseCode <= 299) {
+            this.mResponseStream = this.mHttpUrlConnection.getInputStream();
+            this.mIsSuccess = true;
+        } else {
+            this.mResponseStream = this.mHttpUrlConnection.getErrorStream();
+            this.mIsSuccess = false;
+        }
+
+        // Decompress the response body if the server compressed it
+        final String contentEncoding = this.getResponseHeader("Content-Encoding");
+        this.mIsResponseDecoded = this.mResponseStream != null
+                && ContentEncoding.isSupported(contentEncoding)
+                && this.mResponseCode != HttpURLConnection.HTTP_NO_CONTENT
+                && this.mResponseCode != HttpURLConnection.HTTP_NOT_MODIFIED
+                && this.getResponseContentLength() != 0;
+        if (this.mIsResponseDecoded) {
+            this.mResponseStream = ContentEncoding.decode(this.mResponseStream, contentEncoding);
+        }
+    }
+
+    /**
+     * Reads the HTTP response stream and decodes it into a String using the charset of the
+     * response's Content-Type
+     *
+     * @param stream The HTTP response stream
+     * @return The HTTP response body as a String
+     * @throws IOException
+     */
+    private String buildResponseBody(InputStream stream) throws IOException {
+        if (stream == null) {
+            return "";
+        }
+
+        return this.openResponseBody().string();
+    }
+
+    /**
+     * Closes an InputStream
+     *
+     * @param inputStream The InputStream that will be closed
+     */
+    protected void closeInputStream(InputStream inputStream) {
+        if (inputStream != null) {
+            try {
+                inputStream.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    /**
+     * Closes an OutputStream
+     *
+     * @param outputStream The OutputStream that will be closed
+     */
+    protected void closeOutputStream(OutputStream outputStream) {
+        if (outputStream != null) {
+            try {
+                outputStream.flush();
+                outputStream.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    /**
+     * Closes an HttpUrlConnection
+     *
+     * @param httpURLConnection The HttpUrlConnection that will be closed
+     */
+    protected void closeHttpConnection(HttpURLConnection httpURLConnection) {
+        if (httpURLConnection != null) {
+            httpURLConnection.disconnect();
+        }
+    }
+
+    /**
+     * Response stream that stops being read as soon as the request is canceled, even when the
+     * response is served from the cache rather than the connection
+     */
+    private final class CancelableInputStream extends FilterInputStream {
+
+        /**
+         * Constructor
+         *
+         * @param inputStream The response stream
+         */
+        CancelableInputStream(InputStream inputStream) {
+            super(inputStream);
+        }
+
+        /**
+         * Coalesces the updates for the DataReceivedListener or null if there is no listener
+         */
+        private final ProgressReporter mProgressReporter =
+                HttpUrlConnectionRequest.this.mReceivedProgressReporter;
+
+        /**
+         * The metrics the bytes read are counted in or null if the call is not measured
+         */
+        private final RequestMetrics mMetrics = HttpUrlConnectionRequest.this.mMetrics;
+
+        @Override
+        public int read() throws IOException {
+            HttpUrlConnectionRequest.this.throwIfCanceled();
+            final int b = this.in.read();
+            this.onRead(b == -1 ? -1 : 1);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            HttpUrlConnectionRequest.this.throwIfCanceled();
+            final int bytesRead = this.in.read(buffer, offset, length);
+            this.onRead(bytesRead);
+            return bytesRead;
+        }
+
+        @Override
+        public long skip(long byteCount) throws IOException {
+            HttpUrlConnectionRequest.this.throwIfCanceled();
+            final long bytesSkipped = this.in.skip(byteCount);
+            if (bytesSkipped > 0 && this.mProgressReporter != null) {
+                this.mProgressReporter.onTransferred(bytesSkipped);
+            }
+            if (bytesSkipped > 0 && this.mMetrics != null) {
+                this.mMetrics.addBytesReceived(bytesSkipped);
+            }
+            return bytesSkipped;
+        }
+
+        /**
+         * Reports the bytes that were read to the DataReceivedListener and the call's metrics
+         *
+         * @param bytesRead The number of bytes read or -1 if the end of the stream was reached
+         */
+        private void onRead(int bytesRead) {
+            if (bytesRead > 0 && this.mMetrics != null) {
+                this.mMetrics.addBytesReceived(bytesRead);
+            }
+            if (this.mProgressReporter == null) {
+                return;
+            }
+            if (bytesRead > 0) {
+                this.mProgressReporter.onTransferred(bytesRead);
+            } else if (bytesRead == -1) {
+                this.mProgressReporter.finish();
+            }
+        }
+
+    }
+
+    /**
+     * Request stream that counts the bytes written in the call's metrics
+     */
+    private static final class CountingOutputStream extends FilterOutputStream {
+
+        /**
+         * The metrics the bytes written are counted in
+         */
+        private final RequestMetrics mMetrics;
+
+        /**
+         * Constructor
+         *
+         * @param outputStream The request stream
+         * @param metrics      The metrics the bytes written are counted in
+         */
+        CountingOutputStream(OutputStream outputStream, RequestMetrics metrics) {
+            super(outputStream);
+            this.mMetrics = metrics;
+        }
+
+        @Override
+        public void write(int oneByte) throws IOException {
+            this.out.write(oneByte);
+            this.mMetrics.addBytesSent(1);
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) throws IOException {
+            this.out.write(buffer, offset, length);
+            this.mMetrics.addBytesSent(length);
+        }
+
+    }
+
+    /**
+     * Request stream that disconnects the connection if a single write takes longer than the
+     * write timeout, since HttpURLConnection has no write timeout of its own
+     */
+    private static final class WriteTimeoutOutputStream extends FilterOutputStream {
+
+        /**
+         * Disconnects the connection when a write times out
+         */
+        private final Runnable mDisconnectAction;
+
+        /**
+         * The duration to wait for a write to finish
+         */
+        private final int mTimeoutMillis;
+
+        /**
+         * Constructor
+         *
+         * @param outputStream      The request stream
+         * @param httpUrlConnection The connection the stream belongs to
+         * @param timeoutMillis     The duration to wait for a write to finish
+         */
+        WriteTimeoutOutputStream(OutputStream outputStream,
+                                 final HttpURLConnection httpUrlConnection, int timeoutMillis) {
+            super(outputStream);
+            this.mDisconnectAction = new Runnable() {
+                @Override
+                public void run() {
+                    httpUrlConnection.disconnect();
+                }
+            };
+            this.mTimeoutMillis = timeoutMillis;
+        }
+
+        @Override
+        public void write(int oneByte) throws IOException {
+            final Watchdog.Timeout timeout = this.startTimeout();
+            try {
+                this.out.write(oneByte);
+            } finally {
+                this.finishTimeout(timeout);
+            }
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) throws IOException {
+            final Watchdog.Timeout timeout = this.startTimeout();
+            try {
+                this.out.write(buffer, offset, length);
+            } finally {
+                this.finishTimeout(timeout);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            final Watchdog.Timeout timeout = this.startTimeout();
+            try {
+                this.out.flush();
+            } finally {
+                this.finishTimeout(timeout);
+            }
+        }
+
+        /**
+         * Schedules the timeout of a write
+         *
+         * @return The scheduled timeout
+         */
+        private Watchdog.Timeout startTimeout() {
+            return Watchdog.getDefault().schedule(this.mTimeoutMillis, this.mDisconnectAction);
+        }
+
+        /**
+         * Cancels the timeout of a write
+         *
+         * @param timeout The scheduled timeout
+         * @throws SocketTimeoutException If the write timed out and the connection was closed
+         */
+        private void finishTimeout(Watchdog.Timeout timeout) throws SocketTimeoutException {
+            if (!timeout.cancel()) {
+                throw new SocketTimeoutException("The write timed out");
+            }
+        }
+
+    }
+
+    /**
+     * Listener that is notified after each attempt to send a request, so the attempts and the
+     * backoff between them can be measured
+     */
+    public interface AttemptListener {
+
+        /**
+         * Called after each attempt to send the request
+         *
+         * @param request        The request
+         * @param attempt        The number of the attempt, starting at 1
+         * @param responseCode   The response code or -1 if the attempt failed with an exception
+         * @param exception      The exception the attempt failed with or null
+         * @param durationMillis The duration of the attempt
+         * @param delayMillis    The wait before the next attempt or -1 if there will be none
+         */
+        void onAttempt(HttpUrlConnectionRequest request, int attempt, int responseCode,
+                       IOException exception, long durationMillis, long delayMillis);
+
+    }
+
+    /**
+     * Listener that will be aware of whenever HTTP request data is sent over the wire
+     */
+    public interface DataSentListener {
+
+        /**
+         * Called as data is written to the HTTP request OutputStream.  Writes are coalesced, so
+         * each call covers all the bytes written since the previous call.
+         *
+         * @param bytesUploaded The number of bytes that were just written to the stream
+         * @param totalBytes    The total number of bytes for the whole HTTP request or -1 if
+         *                      it is unknown because the body is sent in chunks
+         */
+        void onDataSent(long bytesUploaded, long totalBytes);
+
+    }
+
+    /**
+     * Listener that will be aware of whenever HTTP response data is received
+     */
+    public interface DataReceivedListener {
+
+        /**
+         * Called as data is read from the HTTP response body.  Reads are coalesced, so each call
+         * covers all the bytes read since the previous call.
+         *
+         * @param bytesReceived The number of bytes that were just read
+         * @param totalBytes    The Content-Length of the response body or -1 if it is unknown,
+         *                      for example because the body is chunked or decompressed
+         */
+        void onDataReceived(long bytesReceived, long totalBytes);
+
+    }
+
+}
@@ -0,0 +1,79 @@
+package com.brettnamba.tomoeame.http;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Transport that opens connections through the platform's HttpURLConnection, which keeps its own
+ * pool of keep-alive sockets.  This is the transport used when none is set.
+ *
+ * The platform does not expose its socket pool, so this transport cannot tell whether a request
+ * opened a new socket or reused an idle one and reports its connection counts as unknown.  Use
+ * NioTransport to measure connection reuse.
+ *
+ * @author Brett Namba (https://github.com/bretten)
+ */
+public class HttpUrlConnectionTransport implements Transport {
+
+    /**
+     * The shared transport
+     */
+    private static HttpUrlConnectionTransport sDefaultTransport;
+
+    /**
+     * Returns the shared transport, creating it if it does not exist yet
+     *
+     * @return The shared transport
+     */
+    public static synchronized HttpUrlConnectionTransport getDefault() {
+        if (sDefaultTransport == null) {
+            sDefaultTransport = new HttpUrlConnectionTransport();
+        }
+        return sDefaultTransport;
+    }
+
+    /**
+     * Opens a connection to the URL through the platform
+     *
+     * @param url The request URL
+     * @return The unconnected connection
+     * @throws IOException
+     */
+    @Override
+    public HttpURLConnection openConnection(URL url) throws IOException {
+        return (HttpURLConnection) url.openConnection();
+    }
+
+    /**
+     * Determines if requests to one host share a connection
+     *
+     * @return False, since each request uses its own socket
+     */
+    @Override
+    public boolean isMultiplexed() {
+        return false;
+    }
+
+    /**
+     * Returns the number of connections the transport opened, which the platform does not report
+     *
+     * @return -1, since the count is unknown
+     */
+    @Override
+    public long getOpenedConnectionCount() {
+        return -1;
+    }
+
+    /**
+     * Returns the number of requests sent over a connection that was already open, which the
+     * platform does not report
+     *
+     * @return -1, since the count is unknown
+     */
+    @Override
+    public long getReusedConnectionCount() {
+        return -1;
+    }
+
+}
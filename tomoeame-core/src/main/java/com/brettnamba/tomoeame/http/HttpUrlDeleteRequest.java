@@ -1,9 +1,5 @@
 package com.brettnamba.tomoeame.http;
 
-import android.content.Context;
-
-import org.apache.http.client.methods.HttpDelete;
-
 import java.net.HttpURLConnection;
 import java.net.ProtocolException;
 
@@ -17,23 +13,30 @@ public class HttpUrlDeleteRequest extends HttpUrlConnectionRequest {
     /**
      * Constructs an instance only with the request URL
      *
-     * @param context    The current Context
      * @param requestUrl The HTTP request URL
      */
-    public HttpUrlDeleteRequest(Context context, String requestUrl) {
-        super(context, requestUrl);
+    public HttpUrlDeleteRequest(String requestUrl) {
+        super(requestUrl);
+    }
+
+    /**
+     * Constructs an instance that shares the static parts of a template
+     *
+     * @param template The template holding the request URL, headers and auth information
+     */
+    public HttpUrlDeleteRequest(RequestTemplate template) {
+        super(template);
     }
 
     /**
      * Constructs an instance with authentication information and adds the authentication header to
      * the collection of request headers
      *
-     * @param context    The current Context
      * @param requestUrl The HTTP request URL
      * @param authToken  The authentication token
      */
-    public HttpUrlDeleteRequest(Context context, String requestUrl, String authToken) {
-        super(context, HttpDelete.METHOD_NAME, requestUrl, authToken);
+    public HttpUrlDeleteRequest(String requestUrl, String authToken) {
+        super("DELETE", requestUrl, authToken);
     }
 
     /**
@@ -45,7 +48,7 @@ public class HttpUrlDeleteRequest extends HttpUrlConnectionRequest {
     @Override
     protected void setupRequest(HttpURLConnection httpUrlConnection) throws ProtocolException {
         // Set request method to DELETE
-        httpUrlConnection.setRequestMethod(HttpDelete.METHOD_NAME);
+        httpUrlConnection.setRequestMethod("DELETE");
     }
 
     /**
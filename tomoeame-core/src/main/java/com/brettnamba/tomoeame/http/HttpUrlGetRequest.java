@@ -1,10 +1,5 @@
 package com.brettnamba.tomoeame.http;
 
-import android.accounts.Account;
-import android.content.Context;
-
-import org.apache.http.client.methods.HttpGet;
-
 import java.net.HttpURLConnection;
 import java.net.ProtocolException;
 
@@ -18,36 +13,40 @@ public class HttpUrlGetRequest extends HttpUrlConnectionRequest {
     /**
      * Constructs an instance only with the request URL
      *
-     * @param context    The current Context
      * @param requestUrl The HTTP request URL
      */
-    public HttpUrlGetRequest(Context context, String requestUrl) {
-        super(context, requestUrl);
+    public HttpUrlGetRequest(String requestUrl) {
+        super(requestUrl);
+    }
+
+    /**
+     * Constructs an instance that shares the static parts of a template
+     *
+     * @param template The template holding the request URL, headers and auth information
+     */
+    public HttpUrlGetRequest(RequestTemplate template) {
+        super(template);
     }
 
     /**
      * Constructs an instance with authentication information and adds the authentication header to
      * the collection of request headers
      *
-     * @param context    The current Context
      * @param requestUrl The HTTP request URL
      * @param authToken  The authentication token
      */
-    public HttpUrlGetRequest(Context context, String requestUrl, String authToken) {
-        super(context, HttpGet.METHOD_NAME, requestUrl, authToken);
+    public HttpUrlGetRequest(String requestUrl, String authToken) {
+        super("GET", requestUrl, authToken);
     }
 
     /**
      * Constructs an instance only with the request URL and authentication header
      *
-     * @param context       The current Context
      * @param requestUrl    The HTTP request URL
-     * @param account       The Account that will be used to get the authentication token
-     * @param authTokenType The type of authentication token
+     * @param authenticator Provides the authentication header value when the request is sent
      */
-    public HttpUrlGetRequest(Context context, String requestUrl, Account account,
-                             String authTokenType) {
-        super(context, requestUrl, account, authTokenType);
+    public HttpUrlGetRequest(String requestUrl, Authenticator authenticator) {
+        super(requestUrl, authenticator);
     }
 
     /**
@@ -59,7 +58,17 @@ public class HttpUrlGetRequest extends HttpUrlConnectionRequest {
     @Override
     protected void setupRequest(HttpURLConnection httpUrlConnection) throws ProtocolException {
         // Set request method to GET
-        httpUrlConnection.setRequestMethod(HttpGet.METHOD_NAME);
+        httpUrlConnection.setRequestMethod("GET");
+    }
+
+    /**
+     * GET responses can be stored in the client's response cache
+     *
+     * @return True
+     */
+    @Override
+    protected boolean isCacheable() {
+        return true;
     }
 
     /**
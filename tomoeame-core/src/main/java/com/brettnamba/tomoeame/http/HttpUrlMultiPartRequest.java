@@ -0,0 +1,583 @@
+package com.brettnamba.tomoeame.http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Implementation of HttpUrlConnectionRequest that provides functionality for sending
+ * multi-part HTTP requests.
+ *
+ * @author Brett Namba (https://github.com/bretten)
+ */
+public class HttpUrlMultiPartRequest extends HttpUrlConnectionRequest {
+
+    /**
+     * The String that represents the boundary in the multi-part request
+     */
+    private String mBoundary;
+
+    /**
+     * The boundary String as bytes
+     */
+    private byte[] mBoundaryBytes;
+
+    /**
+     * The final boundary String as bytes, where the final boundary is represented as the boundary
+     * followed by two hyphens
+     */
+    private byte[] mFinalBoundaryBytes;
+
+    /**
+     * Collection bytes of all the request parameters preceded by boundaries
+     */
+    private List<byte[]> mRequestParameterBytesCollection;
+
+    /**
+     * Collection mapping the file upload parameter name to the file
+     */
+    private Map<String, FileUpload> mFileUploads;
+
+    /**
+     * Collection mapping the file upload parameter name to the boundary + content information
+     * of the file as bytes
+     */
+    private Map<String, byte[]> mFileUploadHeaderBytesCollection;
+
+    /**
+     * The total byte count that the file uploads will occupy in the HTTP request body
+     */
+    private long mTotalFileUploadByteCount = 0;
+
+    /**
+     * Determines if the request body may be sent in chunks so it can start streaming without
+     * first probing the size and MIME type of every file
+     */
+    private boolean mIsChunkedStreamingEnabled;
+
+    /**
+     * Determines if the request body length is unknown, so it is sent in chunks
+     */
+    private boolean mIsBodyLengthUnknown;
+
+    /**
+     * Newline String
+     */
+    private static final String NEW_LINE = "\r\n";
+
+    /**
+     * String of two hyphens that are meant to precede the multi-part boundaries and follow
+     * the final boundary
+     */
+    private static final String TWO_HYPHENS = "--";
+
+    /**
+     * US-ASCII charset for getting Strings as bytes
+     */
+    private static final String US_ASCII = "US-ASCII";
+
+    /**
+     * UTF-8 charset for getting Strings as bytes
+     */
+    private static final String UTF_8 = "UTF-8";
+
+    /**
+     * The MIME type of files whose type is unknown
+     */
+    private static final String OCTET_STREAM_TYPE = "application/octet-stream";
+
+    /**
+     * The smallest buffer length when writing file uploads to the HTTP request stream in parts
+     */
+    private static final int MIN_TRANSFER_LENGTH = 16 * 1024;
+
+    /**
+     * The largest buffer length when writing file uploads to the HTTP request stream in parts
+     */
+    private static final int MAX_TRANSFER_LENGTH = 256 * 1024;
+
+    /**
+     * The buffer length used for files whose length is unknown
+     */
+    private static final int UNKNOWN_LENGTH_TRANSFER_LENGTH = 64 * 1024;
+
+    /**
+     * Constructs an instance only with the request URL
+     *
+     * @param requestUrl The HTTP request URL
+     */
+    public HttpUrlMultiPartRequest(String requestUrl) {
+        super(requestUrl);
+        this.mRequestParameterBytesCollection = new ArrayList<byte[]>();
+        this.mFileUploads = new HashMap<String, FileUpload>();
+        this.mFileUploadHeaderBytesCollection = new HashMap<String, byte[]>();
+    }
+
+    /**
+     * Constructs an instance that shares the static parts of a template.  The template's request
+     * parameters are sent as the first parts of the body.
+     *
+     * @param template The template holding the request URL, headers, parameters and auth
+     *                 information
+     */
+    public HttpUrlMultiPartRequest(RequestTemplate template) {
+        super(template);
+        this.mRequestParameterBytesCollection = new ArrayList<byte[]>();
+        this.mFileUploads = new HashMap<String, FileUpload>();
+        this.mFileUploadHeaderBytesCollection = new HashMap<String, byte[]>();
+    }
+
+    /**
+     * Constructs an instance with authentication information and adds the authentication header to
+     * the collection of request headers
+     *
+     * @param requestUrl The HTTP request URL
+     * @param authToken  The authentication token
+     */
+    public HttpUrlMultiPartRequest(String requestUrl, String authToken) {
+        super("POST", requestUrl, authToken);
+        this.mRequestParameterBytesCollection = new ArrayList<byte[]>();
+        this.mFileUploads = new HashMap<String, FileUpload>();
+        this.mFileUploadHeaderBytesCollection = new HashMap<String, byte[]>();
+    }
+
+    /**
+     * Constructs an instance only with the request URL and authentication header
+     *
+     * @param requestUrl    The HTTP request URL
+     * @param authenticator Provides the authentication header value when the request is sent
+     */
+    public HttpUrlMultiPartRequest(String requestUrl, Authenticator authenticator) {
+        super(requestUrl, authenticator);
+        this.mRequestParameterBytesCollection = new ArrayList<byte[]>();
+        this.mFileUploads = new HashMap<String, FileUpload>();
+        this.mFileUploadHeaderBytesCollection = new HashMap<String, byte[]>();
+    }
+
+    /**
+     * Prepares the request by specifying the Content-Type header as a multi-part request.  Also
+     * converts all parts of the request body to bytes.
+     *
+     * @throws IOException
+     */
+    @Override
+    protected void prepareRequest() throws IOException {
+        // The parts depend on the boundary, so the template's parameters are converted here
+        final RequestTemplate template = this.getTemplate();
+        if (template != null) {
+            this.mRequestParameters.addAll(0, template.getRequestParameters());
+        }
+        // Keep the connection alive
+        this.addRequestHeader("Connection", "Keep-Alive");
+        // Generate the boundary for splitting up the request parts
+        this.mBoundary = this.generateBoundary();
+        // Set the content type as multipart form data
+        this.addRequestHeader("Content-Type", "multipart/form-data; boundary=" + this.mBoundary);
+
+        // Get the boundary string as bytes
+        this.mBoundaryBytes = this.getBoundaryAsBytes(this.mBoundary);
+        this.mFinalBoundaryBytes = this.getFinalBoundaryAsBytes(this.mBoundary);
+
+        // Convert the request parameters to bytes
+        this.convertRequestParametersToBytes();
+
+        if (this.mIsChunkedStreamingEnabled && !this.areFileSizesCheap()) {
+            // Build each file's header just before it is streamed, so no expensive lookup of
+            // sizes and MIME types has to finish before the first byte is sent
+            this.mIsBodyLengthUnknown = true;
+        } else {
+            // Convert the file upload request body headers to bytes and sum the file sizes
+            this.convertFileUploadsToBytes();
+        }
+    }
+
+    /**
+     * Sets up the request as a POST request with both input and output
+     *
+     * @param httpUrlConnection The HTTP request object that will be setup
+     * @throws ProtocolException
+     */
+    @Override
+    protected void setupRequest(HttpURLConnection httpUrlConnection) throws ProtocolException {
+        // The request method is POST for multipart requests
+        httpUrlConnection.setRequestMethod("POST");
+        // No caching
+        httpUrlConnection.setUseCaches(false);
+        // Flag that there will be input and output
+        httpUrlConnection.setDoInput(true);
+        httpUrlConnection.setDoOutput(true);
+    }
+
+    /**
+     * Determines the total content length of the request body by summing the byte counts of the
+     * HTTP request parameters, the file uploads, and all of the boundary strings separating
+     * the different parts of the HTTP request
+     *
+     * @return The total content length of the HTTP request body or -1 if it is unknown
+     */
+    @Override
+    protected long determineRequestBodyLength() {
+        if (this.mIsBodyLengthUnknown) {
+            return -1;
+        }
+
+        // Determine the byte count overhead of adding a boundary for each request parameter
+        final long requestParametersBoundaryByteCount =
+                this.mBoundaryBytes.length * this.mRequestParameterBytesCollection.size();
+
+        // Determine the byte count overhead of adding a boundary for each file upload
+        final long fileUploadBoundaryByteCount =
+                this.mBoundaryBytes.length * this.mFileUploadHeaderBytesCollection.size();
+
+        // Sum all of the byte counts to get the total size of the request body
+        return this.mTotalRequestParameterByteCount + requestParametersBoundaryByteCount
+                + this.mTotalFileUploadByteCount + fileUploadBoundaryByteCount
+                + this.mFinalBoundaryBytes.length;
+    }
+
+    /**
+     * Writes all parts of the HTTP request body to the request stream, including the request
+     * parameters, the file uploads, and the multi-part request boundaries
+     *
+     * @throws IOException
+     */
+    @Override
+    protected void writeToRequestStream() throws IOException {
+        // Write the request parameters to the request stream
+        this.writeRequestParametersToStream(this.mRequestStream,
+                this.mRequestParameterBytesCollection);
+        // Write the file uploads to the request stream
+        this.writeFileUploadsToStream(this.mRequestStream, this.mFileUploads);
+        // Write the final boundary to the stream
+        this.mRequestStream.write(this.mFinalBoundaryBytes);
+        // Notify the listener tracking the amount of data sent
+        this.notifyDataSentListener(this.mFinalBoundaryBytes.length, this.mRequestBodyLength);
+    }
+
+    /**
+     * Adds a file to be uploaded in the HTTP request and its corresponding parameter name
+     *
+     * @param parameter  The HTTP request parameter name for the file upload
+     * @param fileUpload The file to be uploaded
+     */
+    public void addFileUpload(String parameter, FileUpload fileUpload) {
+        if (parameter == null || fileUpload == null) {
+            throw new IllegalArgumentException("Parameter name or file upload cannot be null");
+        }
+        this.mFileUploads.put(parameter, fileUpload);
+    }
+
+    /**
+     * Allows the request body to be sent with chunked transfer-encoding.  The body then starts
+     * streaming immediately instead of first looking up the size and MIME type of every file,
+     * such as by querying a ContentProvider.  If the metadata of every file is cheap to find,
+     * the body is still sent with a fixed length.  Bodies with a file of unknown length are
+     * always sent in chunks.
+     *
+     * @param enabled True to allow chunked streaming
+     */
+    public void setChunkedStreamingEnabled(boolean enabled) {
+        this.mIsChunkedStreamingEnabled = enabled;
+    }
+
+    /**
+     * Determines if the size of every file upload can be found without an expensive lookup
+     *
+     * @return True if all sizes are cheap to find, otherwise false
+     */
+    private boolean areFileSizesCheap() {
+        for (FileUpload fileUpload : this.mFileUploads.values()) {
+            if (!fileUpload.isMetadataCheap()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Generates a boundary for the multi-part request
+     *
+     * @return A boundary String
+     */
+    private String generateBoundary() {
+        return String.valueOf(System.currentTimeMillis());
+    }
+
+    /**
+     * Returns the specified boundary as bytes
+     *
+     * @param boundary The boundary String to return as bytes
+     * @return The boundary String as bytes
+     * @throws UnsupportedEncodingException
+     */
+    private byte[] getBoundaryAsBytes(String boundary) throws UnsupportedEncodingException {
+        String fullBoundary = NEW_LINE + TWO_HYPHENS + boundary + NEW_LINE;
+
+        return fullBoundary.getBytes(US_ASCII);
+    }
+
+    /**
+     * Returns the final boundary as bytes which is defined to be the in the format:
+     * --[boundary]--
+     *
+     * @param boundary The boundary String
+     * @return The final boundary String as bytes
+     * @throws UnsupportedEncodingException
+     */
+    private byte[] getFinalBoundaryAsBytes(String boundary) throws UnsupportedEncodingException {
+        String fullBoundary = NEW_LINE + TWO_HYPHENS + boundary + TWO_HYPHENS + NEW_LINE;
+
+        return fullBoundary.getBytes(US_ASCII);
+    }
+
+    /**
+     * Converts all request parameters in the collection to bytes and determines the total byte
+     * count of all the request parameters
+     */
+    protected void convertRequestParametersToBytes() {
+        for (Pair<String, String> requestParameter : this.mRequestParameters) {
+            try {
+                // Get the request parameter as bytes
+                byte[] requestParameterBytes = this.getRequestParameterAsBytes(
+                        requestParameter.first, requestParameter.second);
+                // Append the byte count to the total request parameter byte count
+                this.mTotalRequestParameterByteCount += requestParameterBytes.length;
+                // Add the request parameter bytes to the collection
+                this.mRequestParameterBytesCollection.add(requestParameterBytes);
+            } catch (UnsupportedEncodingException e) {
+            }
+        }
+    }
+
+    /**
+     * Converts all file uploads headers to bytes and determines the total byte count of all
+     * the file upload headers and corresponding file sizes
+     */
+    private void convertFileUploadsToBytes() {
+        for (Map.Entry<String, FileUpload> entry : this.mFileUploads.entrySet()) {
+            try {
+                // Get the header as bytes that will be placed in the request body for the given file
+                byte[] fileUploadHeaderBytes = this.getFileUploadHeaderAsBytes(entry.getKey(),
+                        entry.getValue());
+                // Get the file size in bytes
+                final long fileSize = entry.getValue().getLength();
+                if (fileSize < 0) {
+                    // The size is not known, so the body has to be sent in chunks
+                    this.mIsBodyLengthUnknown = true;
+                }
+                // Add the byte count of the header to be used in the request body and also the
+                // size of the file itself to the total file upload byte count
+                this.mTotalFileUploadByteCount += fileUploadHeaderBytes.length + fileSize;
+                // Add the file upload header bytes to a collection along with the parameter name
+                this.mFileUploadHeaderBytesCollection.put(entry.getKey(), fileUploadHeaderBytes);
+            } catch (UnsupportedEncodingException e) {
+            }
+        }
+    }
+
+    /**
+     * Builds a String representing a request parameter name and value as it would appear in a
+     * multi-part request and then converts it to bytes
+     *
+     * @param parameter The request parameter name
+     * @param value     The request parameter value
+     * @return The request parameter and value in multi-part request form as bytes
+     * @throws UnsupportedEncodingException
+     */
+    private byte[] getRequestParameterAsBytes(String parameter, String value)
+            throws UnsupportedEncodingException {
+        final StringBuilder builder = new StringBuilder();
+
+        builder.append(String.format("Content-Disposition: form-data; name=\"%1$s\"", parameter))
+                .append(NEW_LINE).append(NEW_LINE)
+                .append(value);
+
+        return builder.toString().getBytes(UTF_8);
+    }
+
+    /**
+     * Returns the header that precedes a file's contents, building it the first time it is needed
+     * so that it is only built once even if the request is sent again
+     *
+     * @param parameter  The parameter name of the file upload
+     * @param fileUpload The file to be uploaded
+     * @return The header that will precede a file's contents in a multi-part request as bytes
+     * @throws UnsupportedEncodingException
+     */
+    private byte[] getFileUploadHeaderBytes(String parameter, FileUpload fileUpload)
+            throws UnsupportedEncodingException {
+        byte[] fileUploadHeaderBytes = this.mFileUploadHeaderBytesCollection.get(parameter);
+        if (fileUploadHeaderBytes == null) {
+            fileUploadHeaderBytes = this.getFileUploadHeaderAsBytes(parameter, fileUpload);
+            this.mFileUploadHeaderBytesCollection.put(parameter, fileUploadHeaderBytes);
+        }
+        return fileUploadHeaderBytes;
+    }
+
+    /**
+     * Builds a String representing the header that will precede a file's contents in a
+     * multi-part request and converts it to bytes
+     *
+     * @param parameter  The parameter name of the file upload
+     * @param fileUpload The file to be uploaded
+     * @return The header that will precede a file's contents in a multi-part request as bytes
+     * @throws UnsupportedEncodingException
+     */
+    private byte[] getFileUploadHeaderAsBytes(String parameter, FileUpload fileUpload)
+            throws UnsupportedEncodingException {
+        // Get the filename
+        final String filename = UUID.randomUUID().toString();
+        // Get the mime type, falling back to the default MIME type
+        String mimeType = fileUpload.getContentType();
+        if (mimeType == null) {
+            mimeType = OCTET_STREAM_TYPE;
+        }
+
+        // Build the header for the file that will be placed in the request body
+        final StringBuilder builder = new StringBuilder();
+        builder.append(
+                String.format("Content-Disposition: form-data; name=\"%1$s\"; filename=\"%2$s\"",
+                        parameter, filename))
+                .append(NEW_LINE)
+                .append(String.format("Content-Type: %1$s", mimeType))
+                .append(NEW_LINE).append(NEW_LINE);
+
+        return builder.toString().getBytes(US_ASCII);
+    }
+
+    /**
+     * Writes the collection of bytes representing the request parameters to the HTTP request
+     * stream
+     *
+     * @param outputStream                    The HTTP request stream
+     * @param requestParameterBytesCollection The collection of bytes representing the request parameters
+     * @throws IOException
+     */
+    private void writeRequestParametersToStream(OutputStream outputStream,
+                                                List<byte[]> requestParameterBytesCollection)
+            throws IOException {
+        for (byte[] requestParameterBytes : requestParameterBytesCollection) {
+            // Stop if the request was canceled
+            this.throwIfCanceled();
+            // Write the bytes representing the boundary
+            outputStream.write(this.mBoundaryBytes);
+            // Write the bytes representing the request parameter
+            outputStream.write(requestParameterBytes);
+            // Notify the listener tracking the amount of data sent
+            this.notifyDataSentListener(this.mBoundaryBytes.length
+                    + requestParameterBytes.length, this.mRequestBodyLength);
+        }
+    }
+
+    /**
+     * Writes the bytes of headers that precede files in a multi-part request as well as the
+     * corresponding file contents themselves to the HTTP request stream
+     *
+     * @param outputStream The HTTP request stream that the file bytes will be written to
+     * @param fileUploads  Collection mapping the file upload parameter names to the files
+     * @throws IOException
+     */
+    private void writeFileUploadsToStream(OutputStream outputStream,
+                                          Map<String, FileUpload> fileUploads)
+            throws IOException {
+        for (Map.Entry<String, FileUpload> entry : fileUploads.entrySet()) {
+            // Get the bytes representing the request body header for the file
+            final byte[] fileUploadHeaderBytes =
+                    this.getFileUploadHeaderBytes(entry.getKey(), entry.getValue());
+            // Write the bytes representing the boundary
+            outputStream.write(this.mBoundaryBytes);
+            // Write the bytes representing the request body header for the file
+            outputStream.write(fileUploadHeaderBytes);
+            // Notify the listener tracking the amount of data sent
+            this.notifyDataSentListener(this.mBoundaryBytes.length
+                    + fileUploadHeaderBytes.length, this.mRequestBodyLength);
+
+            // Write the bytes of the file contents
+            this.writeFileToStream(outputStream, entry.getValue());
+        }
+    }
+
+    /**
+     * Writes the contents of a file to the HTTP request stream.  Files that are opened as a
+     * FileChannel, which includes local files and most FileProvider content URIs, are read in
+     * large transfers whose size is adapted to the file's length, so a large file is copied with
+     * few reads, writes and progress notifications.  Other files, such as ones a provider streams
+     * through a pipe, are read the same way without knowing their length in advance.
+     *
+     * @param outputStream The HTTP request stream
+     * @param fileUpload   The file
+     * @throws IOException
+     */
+    private void writeFileToStream(OutputStream outputStream, FileUpload fileUpload)
+            throws IOException {
+        final ReadableByteChannel channel = fileUpload.open();
+        if (channel == null) {
+            throw new IOException("The file could not be opened");
+        }
+        // A pipe opened as a FileChannel may report a size of 0, so only positive sizes are used
+        long fileLength = -1;
+        if (channel instanceof FileChannel) {
+            try {
+                final long size = ((FileChannel) channel).size();
+                fileLength = size > 0 ? size : -1;
+            } catch (IOException e) {
+            }
+        }
+        final BufferPool bufferPool = BufferPool.getDefault();
+        final byte[] buffer = bufferPool.acquire(getTransferLength(fileLength));
+        try {
+            final ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+            while (true) {
+                // Fill the whole buffer so each write to the connection is as large as possible
+                byteBuffer.clear();
+                while (byteBuffer.hasRemaining() && channel.read(byteBuffer) != -1) {
+                    // Keep reading until the buffer is full or the file ends
+                }
+                final int bytesRead = byteBuffer.position();
+                if (bytesRead == 0) {
+                    break;
+                }
+                // Stop pushing bytes as soon as the request is canceled
+                this.throwIfCanceled();
+                outputStream.write(buffer, 0, bytesRead);
+                // Notify the listener tracking the amount of data sent
+                this.notifyDataSentListener(bytesRead, this.mRequestBodyLength);
+            }
+        } finally {
+            bufferPool.release(buffer);
+            try {
+                channel.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    /**
+     * Determines the length of the buffer a file is copied through.  The buffer is about 1/64 of
+     * the file's length, rounded up to a power of two and kept between the minimum and maximum
+     * transfer sizes, so small files do not waste memory while large files are copied in large
+     * transfers.  Powers of two match the size classes of the BufferPool.
+     *
+     * @param fileLength The length of the file or -1 if it is unknown
+     * @return The buffer length
+     */
+    private static int getTransferLength(long fileLength) {
+        int bufferLength = MIN_TRANSFER_LENGTH;
+        final long targetLength = fileLength < 0 ? UNKNOWN_LENGTH_TRANSFER_LENGTH : fileLength / 64;
+        while (bufferLength < MAX_TRANSFER_LENGTH && bufferLength < targetLength) {
+            bufferLength <<= 1;
+        }
+        return bufferLength;
+    }
+
+}
@@ -1,12 +1,6 @@
 package com.brettnamba.tomoeame.http;
 
-import android.accounts.Account;
-import android.content.Context;
-
-import org.apache.http.client.methods.HttpPost;
-
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
 import java.net.HttpURLConnection;
 import java.net.ProtocolException;
 
@@ -26,41 +20,58 @@ public class HttpUrlWwwFormRequest extends HttpUrlConnectionRequest {
     /**
      * Constructs an instance only with the request URL
      *
-     * @param context    The current Context
      * @param requestUrl The HTTP request URL
      */
-    public HttpUrlWwwFormRequest(Context context, String requestUrl) {
-        super(context, requestUrl);
+    public HttpUrlWwwFormRequest(String requestUrl) {
+        super(requestUrl);
+    }
+
+    /**
+     * Constructs an instance that shares the static parts of a template, including its already
+     * encoded request parameters
+     *
+     * @param template The template holding the request URL, headers, parameters and auth
+     *                 information
+     */
+    public HttpUrlWwwFormRequest(RequestTemplate template) {
+        super(template);
     }
 
     /**
      * Constructs an instance with authentication information and adds the authentication header to
      * the collection of request headers
      *
-     * @param context    The current Context
      * @param requestUrl The HTTP request URL
      * @param authToken  The authentication token
      */
-    public HttpUrlWwwFormRequest(Context context, String requestUrl, String authToken) {
-        super(context, HttpPost.METHOD_NAME, requestUrl, authToken);
+    public HttpUrlWwwFormRequest(String requestUrl, String authToken) {
+        super("POST", requestUrl, authToken);
     }
 
     /**
      * Constructs an instance only with the request URL and authentication header
      *
-     * @param context       The current Context
      * @param requestUrl    The HTTP request URL
-     * @param account       The Account that will be used to get the authentication token
-     * @param authTokenType The type of authentication token
+     * @param authenticator Provides the authentication header value when the request is sent
      */
-    public HttpUrlWwwFormRequest(Context context, String requestUrl, Account account,
-                                 String authTokenType) {
-        super(context, requestUrl, account, authTokenType);
+    public HttpUrlWwwFormRequest(String requestUrl, Authenticator authenticator) {
+        super(requestUrl, authenticator);
     }
 
     /**
-     * Sets up the HTTP request by specifying the Content-Type header as
-     * "application/x-www-form-urlencoded" and also converts the request parameters to bytes
+     * Prepares the HTTP request by specifying the Content-Type header as
+     * "application/x-www-form-urlencoded" and converting the request parameters to bytes
+     */
+    @Override
+    protected void prepareRequest() {
+        // Set the content type
+        this.addRequestHeader("Content-Type", "application/x-www-form-urlencoded; charset=UTF-8");
+        // Convert the request parameters to bytes
+        this.convertRequestParametersToBytes();
+    }
+
+    /**
+     * Sets up the HTTP request as a POST request
      *
      * @param httpUrlConnection The HTTP request object that will be setup
      * @throws ProtocolException
@@ -68,11 +79,7 @@ public class HttpUrlWwwFormRequest extends HttpUrlConnectionRequest {
     @Override
     protected void setupRequest(HttpURLConnection httpUrlConnection) throws ProtocolException {
         // The request method is POST for application/x-www-form-urlencoded requests
-        httpUrlConnection.setRequestMethod(HttpPost.METHOD_NAME);
-        // Set the content type
-        this.addRequestHeader("Content-Type", "application/x-www-form-urlencoded; charset=UTF-8");
-        // Convert the request parameters to bytes
-        this.convertRequestParametersToBytes();
+        httpUrlConnection.setRequestMethod("POST");
     }
 
     /**
@@ -88,33 +95,31 @@ public class HttpUrlWwwFormRequest extends HttpUrlConnectionRequest {
 
     /**
      * Writes the request parameters bytes to the HTTP request stream
+     *
+     * @throws IOException
      */
     @Override
-    protected void writeToRequestStream() {
-        try {
-            // Write to the stream
-            this.mRequestStream.write(this.mRequestParameterBytes);
-            // Notify the listener tracking the amount of data sent
-            this.notifyDataSentListener(this.mRequestParameterBytes.length,
-                    this.mRequestBodyLength);
-        } catch (IOException e) {
-        }
+    protected void writeToRequestStream() throws IOException {
+        // Write to the stream
+        this.mRequestStream.write(this.mRequestParameterBytes);
+        // Notify the listener tracking the amount of data sent
+        this.notifyDataSentListener(this.mRequestParameterBytes.length, this.mRequestBodyLength);
     }
 
     /**
      * Converts the collection of request parameters to bytes and determines the total byte count
-     * of all the request parameters
+     * of all the request parameters.  If request compression is enabled, the byte count is that
+     * of the compressed body so the content length and progress stay correct.
      */
     protected void convertRequestParametersToBytes() {
-        try {
-            // Build the request body
-            String requestBody = this.urlEncodeParameters(this.mRequestParameters);
-            // Get the bytes from the request body
-            this.mRequestParameterBytes = requestBody.getBytes();
-            // Get the total length of the bytes
-            this.mTotalRequestParameterByteCount = this.mRequestParameterBytes.length;
-        } catch (UnsupportedEncodingException e) {
-        }
+        // Encode the request body as UTF-8 after the template's encoded parameters, compressing
+        // it if enabled
+        final RequestTemplate template = this.getTemplate();
+        this.mRequestParameterBytes = this.compressRequestBody(this.urlEncodeParametersToBytes(
+                template != null ? template.getEncodedRequestParameters() : null,
+                this.mRequestParameters));
+        // Get the total length of the bytes
+        this.mTotalRequestParameterByteCount = this.mRequestParameterBytes.length;
     }
 
 }
@@ -0,0 +1,926 @@
+package com.brettnamba.tomoeame.http;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+
+/**
+ * Streaming parser that reads UTF-8 JSON as a sequence of tokens.
+ *
+ * The input is read incrementally through an array borrowed from the shared BufferPool, so a
+ * response body can be processed in constant memory no matter how large it is, without first
+ * being read into a String.  Names and strings are decoded from UTF-8 straight into a reusable
+ * char array and only become Strings when getText() is called, so names can be matched with
+ * textEquals() without allocating.  Integers are accumulated while they are scanned, and doubles
+ * are computed exactly without a String when they have at most 15 significant digits and a
+ * small exponent.
+ *
+ * A parser is used by calling next() and reading the value of the current token, for example:
+ *
+ * <pre>
+ * parser.next(); // BEGIN_ARRAY
+ * while (parser.next() == JsonPullParser.Token.BEGIN_OBJECT) {
+ *     while (parser.next() == JsonPullParser.Token.NAME) {
+ *         if (parser.textEquals("id")) {
+ *             parser.next();
+ *             ids.add(parser.getLong());
+ *         } else {
+ *             parser.skipValue();
+ *         }
+ *     }
+ * }
+ * </pre>
+ *
+ * The input must be a single JSON value as specified by RFC 8259.  A parser is not thread-safe.
+ *
+ * @author Brett Namba (https://github.com/bretten)
+ */
+public final class JsonPullParser implements Closeable {
+
+    /**
+     * The tokens of a JSON document
+     */
+    public enum Token {
+        BEGIN_OBJECT,
+        END_OBJECT,
+        BEGIN_ARRAY,
+        END_ARRAY,
+        NAME,
+        STRING,
+        NUMBER,
+        BOOLEAN,
+        NULL,
+        END_DOCUMENT
+    }
+
+    /**
+     * The length of the array the input is read through
+     */
+    private static final int BUFFER_LENGTH = 8192;
+
+    /**
+     * Scopes of the nesting stack
+     */
+    private static final int EMPTY_DOCUMENT = 0;
+    private static final int NONEMPTY_DOCUMENT = 1;
+    private static final int EMPTY_ARRAY = 2;
+    private static final int NONEMPTY_ARRAY = 3;
+    private static final int EMPTY_OBJECT = 4;
+    private static final int DANGLING_NAME = 5;
+    private static final int NONEMPTY_OBJECT = 6;
+
+    /**
+     * The largest mantissa that a double represents exactly
+     */
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+    /**
+     * The powers of ten that a double represents exactly
+     */
+    private static final double[] EXACT_POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7,
+            1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21,
+            1e22};
+
+    /**
+     * The stream the input is read from or null if the whole input is in the buffer
+     */
+    private final InputStream mInputStream;
+
+    /**
+     * The buffer holding the input, borrowed from the pool when reading from a stream
+     */
+    private byte[] mBuffer;
+
+    /**
+     * The index of the next unread byte in the buffer
+     */
+    private int mPosition;
+
+    /**
+     * The index after the last byte of input in the buffer
+     */
+    private int mLimit;
+
+    /**
+     * The offset in the input of the first byte in the buffer
+     */
+    private long mBufferOffset;
+
+    /**
+     * The nesting stack of scopes
+     */
+    private int[] mStack = new int[32];
+
+    /**
+     * The number of scopes on the stack
+     */
+    private int mStackSize;
+
+    /**
+     * The current token or null before the first call to next()
+     */
+    private Token mToken;
+
+    /**
+     * The characters of the current name, string or number
+     */
+    private char[] mText = new char[64];
+
+    /**
+     * The number of characters in the text
+     */
+    private int mTextLength;
+
+    /**
+     * The value of the current boolean
+     */
+    private boolean mBooleanValue;
+
+    /**
+     * The digits of the current number without its sign or decimal point
+     */
+    private long mMantissa;
+
+    /**
+     * The power of ten the mantissa is scaled by
+     */
+    private int mExponent;
+
+    /**
+     * Determines if the current number is negative
+     */
+    private boolean mIsNegative;
+
+    /**
+     * Determines if the mantissa and exponent hold the current number exactly
+     */
+    private boolean mIsExact;
+
+    /**
+     * Determines if the current number is an integer without a fraction or exponent
+     */
+    private boolean mIsInteger;
+
+    /**
+     * Determines if values are being skipped, so strings are not decoded
+     */
+    private boolean mIsSkipping;
+
+    /**
+     * Determines if the parser was closed
+     */
+    private boolean mIsClosed;
+
+    /**
+     * Constructs a parser that reads the stream incrementally
+     *
+     * @param inputStream The stream of UTF-8 JSON
+     */
+    public JsonPullParser(InputStream inputStream) {
+        if (inputStream == null) {
+            throw new IllegalArgumentException("Input stream cannot be null");
+        }
+        this.mInputStream = inputStream;
+        this.mBuffer = BufferPool.getDefault().acquire(BUFFER_LENGTH);
+        this.mStack[this.mStackSize++] = EMPTY_DOCUMENT;
+    }
+
+    /**
+     * Constructs a parser that reads the array in place, without copying it
+     *
+     * @param data   The array holding UTF-8 JSON
+     * @param offset The index of the first byte of JSON
+     * @param length The number of bytes of JSON
+     */
+    public JsonPullParser(byte[] data, int offset, int length) {
+        if (data == null || offset < 0 || length < 0 || offset + length > data.length) {
+            throw new IllegalArgumentException("Invalid array range");
+        }
+        this.mInputStream = null;
+        this.mBuffer = data;
+        this.mPosition = offset;
+        this.mLimit = offset + length;
+        this.mBufferOffset = -offset;
+        this.mStack[this.mStackSize++] = EMPTY_DOCUMENT;
+    }
+
+    /**
+     * Advances to the next token
+     *
+     * @return The token
+     * @throws IOException If the input could not be read or is not valid JSON
+     */
+    public Token next() throws IOException {
+        if (this.mIsClosed) {
+            throw new IllegalStateException("The parser is closed");
+        }
+        if (this.mToken == null) {
+            this.skipByteOrderMark();
+        }
+        final int scope = this.mStack[this.mStackSize - 1];
+        int c;
+        switch (scope) {
+            case EMPTY_ARRAY:
+            case NONEMPTY_ARRAY:
+                c = this.nextNonWhitespace();
+                if (c == ']') {
+                    this.mStackSize--;
+                    return this.mToken = Token.END_ARRAY;
+                }
+                if (scope == NONEMPTY_ARRAY) {
+                    if (c != ',') {
+                        throw this.syntaxError("Expected ',' or ']'");
+                    }
+                    c = this.nextNonWhitespace();
+                }
+                this.mStack[this.mStackSize - 1] = NONEMPTY_ARRAY;
+                return this.mToken = this.readValue(c);
+            case EMPTY_OBJECT:
+            case NONEMPTY_OBJECT:
+                c = this.nextNonWhitespace();
+                if (c == '}') {
+                    this.mStackSize--;
+                    return this.mToken = Token.END_OBJECT;
+                }
+                if (scope == NONEMPTY_OBJECT) {
+                    if (c != ',') {
+                        throw this.syntaxError("Expected ',' or '}'");
+                    }
+                    c = this.nextNonWhitespace();
+                }
+                if (c != '"') {
+                    throw this.syntaxError("Expected a name");
+                }
+                this.readString();
+                this.mStack[this.mStackSize - 1] = DANGLING_NAME;
+                return this.mToken = Token.NAME;
+            case DANGLING_NAME:
+                if (this.nextNonWhitespace() != ':') {
+                    throw this.syntaxError("Expected ':'");
+                }
+                this.mStack[this.mStackSize - 1] = NONEMPTY_OBJECT;
+                return this.mToken = this.readValue(this.nextNonWhitespace());
+            case EMPTY_DOCUMENT:
+                this.mStack[this.mStackSize - 1] = NONEMPTY_DOCUMENT;
+                return this.mToken = this.readValue(this.nextNonWhitespace());
+            default:
+                if (this.nextNonWhitespace() != -1) {
+                    throw this.syntaxError("Expected the end of the document");
+                }
+                return this.mToken = Token.END_DOCUMENT;
+        }
+    }
+
+    /**
+     * Returns the current token
+     *
+     * @return The token or null before the first call to next()
+     */
+    public Token getToken() {
+        return this.mToken;
+    }
+
+    /**
+     * Returns the number of objects and arrays the current token is nested in, where the
+     * BEGIN and END tokens of a container count as inside of it
+     *
+     * @return The depth
+     */
+    public int getDepth() {
+        return this.mToken == Token.END_OBJECT || this.mToken == Token.END_ARRAY
+                ? this.mStackSize : this.mStackSize - 1;
+    }
+
+    /**
+     * Skips the current value.  If the current token is a NAME, its value is skipped, and if it
+     * begins an object or array, everything up to and including its end is skipped.  Strings
+     * are not decoded while skipping.
+     *
+     * @throws IOException If the input could not be read or is not valid JSON
+     */
+    public void skipValue() throws IOException {
+        Token token = this.mToken;
+        this.mIsSkipping = true;
+        try {
+            if (token == Token.NAME) {
+                token = this.next();
+            }
+            if (token != Token.BEGIN_OBJECT && token != Token.BEGIN_ARRAY) {
+                return;
+            }
+            int depth = 1;
+            while (depth > 0) {
+                token = this.next();
+                if (token == Token.BEGIN_OBJECT || token == Token.BEGIN_ARRAY) {
+                    depth++;
+                } else if (token == Token.END_OBJECT || token == Token.END_ARRAY) {
+                    depth--;
+                }
+            }
+        } finally {
+            this.mIsSkipping = false;
+        }
+    }
+
+    /**
+     * Returns the current name, string or number as a String
+     *
+     * @return The text
+     */
+    public String getText() {
+        this.checkText();
+        return new String(this.mText, 0, this.mTextLength);
+    }
+
+    /**
+     * Returns the array holding the characters of the current name, string or number.  The
+     * array is reused and its contents change when the parser advances.
+     *
+     * @return The array, whose first getTextLength() characters are the text
+     */
+    public char[] getTextCharacters() {
+        this.checkText();
+        return this.mText;
+    }
+
+    /**
+     * Returns the number of characters of the current name, string or number
+     *
+     * @return The length of the text
+     */
+    public int getTextLength() {
+        this.checkText();
+        return this.mTextLength;
+    }
+
+    /**
+     * Determines if the current name, string or number equals the text, without creating a
+     * String
+     *
+     * @param text The text to compare with
+     * @return True if they are equal
+     */
+    public boolean textEquals(CharSequence text) {
+        this.checkText();
+        if (text.length() != this.mTextLength) {
+            return false;
+        }
+        for (int i = 0; i < this.mTextLength; i++) {
+            if (this.mText[i] != text.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the value of the current boolean
+     *
+     * @return The value
+     */
+    public boolean getBoolean() {
+        this.checkToken(Token.BOOLEAN);
+        return this.mBooleanValue;
+    }
+
+    /**
+     * Returns the value of the current number as a long
+     *
+     * @return The value
+     * @throws NumberFormatException If the number is not an integer that fits in a long
+     */
+    public long getLong() {
+        this.checkToken(Token.NUMBER);
+        if (this.mIsInteger) {
+            if (this.mIsExact) {
+                return this.mIsNegative ? -this.mMantissa : this.mMantissa;
+            }
+            // Only Long.MIN_VALUE overflows the mantissa and still fits
+            return Long.parseLong(this.getText());
+        }
+        // Accept numbers such as 1.0 or 1e18 whose decimal value is an exact integer
+        try {
+            return new BigDecimal(this.getText()).longValueExact();
+        } catch (ArithmeticException e) {
+            throw new NumberFormatException("Not a long: " + this.getText());
+        }
+    }
+
+    /**
+     * Returns the value of the current number as an int
+     *
+     * @return The value
+     * @throws NumberFormatException If the number is not an integer that fits in an int
+     */
+    public int getInt() {
+        final long value = this.getLong();
+        if (value != (int) value) {
+            throw new NumberFormatException("Not an int: " + this.getText());
+        }
+        return (int) value;
+    }
+
+    /**
+     * Returns the value of the current number as a double
+     *
+     * @return The value
+     */
+    public double getDouble() {
+        this.checkToken(Token.NUMBER);
+        if (this.mIsExact) {
+            double value;
+            if (this.mIsInteger) {
+                value = this.mMantissa;
+            } else if (this.mExponent < 0) {
+                value = this.mMantissa / EXACT_POWERS_OF_TEN[-this.mExponent];
+            } else {
+                value = this.mMantissa * EXACT_POWERS_OF_TEN[this.mExponent];
+            }
+            return this.mIsNegative ? -value : value;
+        }
+        return Double.parseDouble(new String(this.mText, 0, this.mTextLength));
+    }
+
+    /**
+     * Returns the borrowed buffer to the pool and closes the stream
+     */
+    @Override
+    public void close() {
+        if (this.mIsClosed) {
+            return;
+        }
+        this.mIsClosed = true;
+        if (this.mInputStream != null) {
+            BufferPool.getDefault().release(this.mBuffer);
+            this.mBuffer = null;
+            try {
+                this.mInputStream.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    /**
+     * Reads a value starting with the specified character
+     *
+     * @param c The first character of the value
+     * @return The token of the value
+     * @throws IOException
+     */
+    private Token readValue(int c) throws IOException {
+        switch (c) {
+            case '{':
+                this.push(EMPTY_OBJECT);
+                return Token.BEGIN_OBJECT;
+            case '[':
+                this.push(EMPTY_ARRAY);
+                return Token.BEGIN_ARRAY;
+            case '"':
+                this.readString();
+                return Token.STRING;
+            case 't':
+                this.readLiteral("rue");
+                this.mBooleanValue = true;
+                return Token.BOOLEAN;
+            case 'f':
+                this.readLiteral("alse");
+                this.mBooleanValue = false;
+                return Token.BOOLEAN;
+            case 'n':
+                this.readLiteral("ull");
+                return Token.NULL;
+            case -1:
+                throw this.syntaxError("Unexpected end of the document");
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    this.readNumber(c);
+                    return Token.NUMBER;
+                }
+                throw this.syntaxError("Unexpected character '" + (char) c + "'");
+        }
+    }
+
+    /**
+     * Pushes a scope onto the nesting stack
+     *
+     * @param scope The scope
+     */
+    private void push(int scope) {
+        if (this.mStackSize == this.mStack.length) {
+            final int[] stack = new int[this.mStackSize * 2];
+            System.arraycopy(this.mStack, 0, stack, 0, this.mStackSize);
+            this.mStack = stack;
+        }
+        this.mStack[this.mStackSize++] = scope;
+    }
+
+    /**
+     * Reads the rest of a literal
+     *
+     * @param rest The characters following the first one
+     * @throws IOException
+     */
+    private void readLiteral(String rest) throws IOException {
+        for (int i = 0; i < rest.length(); i++) {
+            if (this.readByte() != rest.charAt(i)) {
+                throw this.syntaxError("Invalid literal");
+            }
+        }
+        final int next = this.peekByte();
+        if ((next >= 'a' && next <= 'z') || (next >= '0' && next <= '9')) {
+            throw this.syntaxError("Invalid literal");
+        }
+    }
+
+    /**
+     * Reads a string after its opening quote, decoding it into the text unless values are
+     * being skipped
+     *
+     * @throws IOException
+     */
+    private void readString() throws IOException {
+        this.mTextLength = 0;
+        while (true) {
+            final byte[] buffer = this.mBuffer;
+            final int limit = this.mLimit;
+            int position = this.mPosition;
+            if (this.mIsSkipping) {
+                // Pass over a run of plain ASCII without copying it
+                while (position < limit) {
+                    final byte b = buffer[position];
+                    if (b < 0x20 || b == '"' || b == '\\') {
+                        break;
+                    }
+                    position++;
+                }
+                this.mPosition = position;
+            } else {
+                // Copy a run of plain ASCII straight from the buffer
+                int length = this.mTextLength;
+                while (position < limit) {
+                    final byte b = buffer[position];
+                    if (b < 0x20 || b == '"' || b == '\\') {
+                        break;
+                    }
+                    if (length == this.mText.length) {
+                        this.mTextLength = length;
+                        this.growText(length + 1);
+                    }
+                    this.mText[length++] = (char) b;
+                    position++;
+                }
+                this.mPosition = position;
+                this.mTextLength = length;
+            }
+
+            final int b = this.readByte();
+            if (b == '"') {
+                return;
+            } else if (b == '\\') {
+                final char c = this.readEscape();
+                if (!this.mIsSkipping) {
+                    this.appendChar(c);
+                }
+            } else if (b == -1) {
+                throw this.syntaxError("Unterminated string");
+            } else if (b < 0x20) {
+                throw this.syntaxError("Unescaped control character in string");
+            } else if (b < 0x80) {
+                if (!this.mIsSkipping) {
+                    this.appendChar((char) b);
+                }
+            } else {
+                this.readMultiByteCharacter(b);
+            }
+        }
+    }
+
+    /**
+     * Reads an escape sequence after its backslash
+     *
+     * @return The escaped character
+     * @throws IOException
+     */
+    private char readEscape() throws IOException {
+        final int b = this.readByte();
+        switch (b) {
+            case '"':
+            case '\\':
+            case '/':
+                return (char) b;
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            case 'u':
+                int value = 0;
+                for (int i = 0; i < 4; i++) {
+                    final int digit = Character.digit(this.readByte(), 16);
+                    if (digit == -1) {
+                        throw this.syntaxError("Invalid \\u escape");
+                    }
+                    value = value << 4 | digit;
+                }
+                return (char) value;
+            default:
+                throw this.syntaxError("Invalid escape sequence");
+        }
+    }
+
+    /**
+     * Decodes a UTF-8 sequence of two to four bytes into the text
+     *
+     * @param first The first byte of the sequence
+     * @throws IOException
+     */
+    private void readMultiByteCharacter(int first) throws IOException {
+        final int continuationCount;
+        int codePoint;
+        int minCodePoint;
+        if ((first & 0xE0) == 0xC0) {
+            continuationCount = 1;
+            codePoint = first & 0x1F;
+            minCodePoint = 0x80;
+        } else if ((first & 0xF0) == 0xE0) {
+            continuationCount = 2;
+            codePoint = first & 0x0F;
+            minCodePoint = 0x800;
+        } else if ((first & 0xF8) == 0xF0) {
+            continuationCount = 3;
+            codePoint = first & 0x07;
+            minCodePoint = 0x10000;
+        } else {
+            throw this.syntaxError("Malformed UTF-8");
+        }
+        for (int i = 0; i < continuationCount; i++) {
+            final int b = this.readByte();
+            if ((b & 0xC0) != 0x80) {
+                throw this.syntaxError("Malformed UTF-8");
+            }
+            codePoint = codePoint << 6 | (b & 0x3F);
+        }
+        if (codePoint < minCodePoint || codePoint > Character.MAX_CODE_POINT
+                || (codePoint >= Character.MIN_SURROGATE
+                && codePoint <= Character.MAX_SURROGATE)) {
+            throw this.syntaxError("Malformed UTF-8");
+        }
+        if (this.mIsSkipping) {
+            return;
+        }
+        if (codePoint < Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+            this.appendChar((char) codePoint);
+        } else {
+            this.appendChar(Character.highSurrogate(codePoint));
+            this.appendChar(Character.lowSurrogate(codePoint));
+        }
+    }
+
+    /**
+     * Reads a number, keeping its text and accumulating its digits into the mantissa
+     *
+     * @param first The first character of the number
+     * @throws IOException
+     */
+    private void readNumber(int first) throws IOException {
+        this.mTextLength = 0;
+        this.mMantissa = 0;
+        this.mExponent = 0;
+        this.mIsNegative = first == '-';
+        this.mIsExact = true;
+        this.mIsInteger = true;
+        int c = first;
+        if (this.mIsNegative) {
+            this.appendChar('-');
+            c = this.readByte();
+        }
+        if (c == '0') {
+            this.appendChar('0');
+            c = this.peekByte();
+            if (c >= '0' && c <= '9') {
+                throw this.syntaxError("Leading zeros are not allowed");
+            }
+        } else if (c >= '1' && c <= '9') {
+            this.appendDigit(c, false);
+            while ((c = this.peekByte()) >= '0' && c <= '9') {
+                this.mPosition++;
+                this.appendDigit(c, false);
+            }
+        } else {
+            throw this.syntaxError("Expected a digit");
+        }
+
+        if (c == '.') {
+            this.mPosition++;
+            this.appendChar('.');
+            this.mIsInteger = false;
+            c = this.readByte();
+            if (c < '0' || c > '9') {
+                throw this.syntaxError("Expected a digit after the decimal point");
+            }
+            this.appendDigit(c, true);
+            while ((c = this.peekByte()) >= '0' && c <= '9') {
+                this.mPosition++;
+                this.appendDigit(c, true);
+            }
+        }
+
+        if (c == 'e' || c == 'E') {
+            this.mPosition++;
+            this.appendChar((char) c);
+            this.mIsInteger = false;
+            c = this.readByte();
+            boolean isExponentNegative = false;
+            if (c == '+' || c == '-') {
+                this.appendChar((char) c);
+                isExponentNegative = c == '-';
+                c = this.readByte();
+            }
+            if (c < '0' || c > '9') {
+                throw this.syntaxError("Expected a digit in the exponent");
+            }
+            int exponent = 0;
+            while (true) {
+                this.appendChar((char) c);
+                if (exponent < 100000) {
+                    exponent = exponent * 10 + (c - '0');
+                }
+                c = this.peekByte();
+                if (c < '0' || c > '9') {
+                    break;
+                }
+                this.mPosition++;
+            }
+            this.mExponent += isExponentNegative ? -exponent : exponent;
+        }
+
+        if (!this.mIsInteger && (this.mMantissa > MAX_EXACT_MANTISSA
+                || this.mExponent < -22 || this.mExponent > 22)) {
+            // The value cannot be computed exactly from a double mantissa and power of ten
+            this.mIsExact = false;
+        }
+    }
+
+    /**
+     * Appends a digit of a number to its text and mantissa
+     *
+     * @param c            The digit
+     * @param isFractional True if the digit follows the decimal point
+     */
+    private void appendDigit(int c, boolean isFractional) {
+        this.appendChar((char) c);
+        if (!this.mIsExact) {
+            return;
+        }
+        final int digit = c - '0';
+        if (this.mMantissa > (Long.MAX_VALUE - digit) / 10) {
+            this.mIsExact = false;
+            return;
+        }
+        this.mMantissa = this.mMantissa * 10 + digit;
+        if (isFractional) {
+            this.mExponent--;
+        }
+    }
+
+    /**
+     * Appends a character to the text
+     *
+     * @param c The character
+     */
+    private void appendChar(char c) {
+        if (this.mTextLength == this.mText.length) {
+            this.growText(this.mTextLength + 1);
+        }
+        this.mText[this.mTextLength++] = c;
+    }
+
+    /**
+     * Grows the text array
+     *
+     * @param minLength The minimum length
+     */
+    private void growText(int minLength) {
+        final char[] text = new char[Math.max(minLength, this.mText.length * 2)];
+        System.arraycopy(this.mText, 0, text, 0, this.mTextLength);
+        this.mText = text;
+    }
+
+    /**
+     * Skips whitespace and reads the next byte
+     *
+     * @return The byte or -1 at the end of the input
+     * @throws IOException
+     */
+    private int nextNonWhitespace() throws IOException {
+        while (true) {
+            final int b = this.readByte();
+            if (b != ' ' && b != '\n' && b != '\r' && b != '\t') {
+                return b;
+            }
+        }
+    }
+
+    /**
+     * Skips a UTF-8 byte order mark at the start of the input
+     *
+     * @throws IOException
+     */
+    private void skipByteOrderMark() throws IOException {
+        if (this.peekByte() == 0xEF) {
+            this.mPosition++;
+            if (this.readByte() != 0xBB || this.readByte() != 0xBF) {
+                throw this.syntaxError("Malformed UTF-8");
+            }
+        }
+    }
+
+    /**
+     * Reads the next byte
+     *
+     * @return The byte or -1 at the end of the input
+     * @throws IOException
+     */
+    private int readByte() throws IOException {
+        if (this.mPosition == this.mLimit && !this.fill()) {
+            return -1;
+        }
+        return this.mBuffer[this.mPosition++] & 0xFF;
+    }
+
+    /**
+     * Returns the next byte without consuming it
+     *
+     * @return The byte or -1 at the end of the input
+     * @throws IOException
+     */
+    private int peekByte() throws IOException {
+        if (this.mPosition == this.mLimit && !this.fill()) {
+            return -1;
+        }
+        return this.mBuffer[this.mPosition] & 0xFF;
+    }
+
+    /**
+     * Reads more input into the consumed buffer
+     *
+     * @return True if input was read, false at the end of the input
+     * @throws IOException
+     */
+    private boolean fill() throws IOException {
+        if (this.mInputStream == null) {
+            return false;
+        }
+        this.mBufferOffset += this.mLimit;
+        this.mPosition = 0;
+        this.mLimit = 0;
+        int bytesRead;
+        do {
+            bytesRead = this.mInputStream.read(this.mBuffer, 0, this.mBuffer.length);
+        } while (bytesRead == 0);
+        if (bytesRead == -1) {
+            return false;
+        }
+        this.mLimit = bytesRead;
+        return true;
+    }
+
+    /**
+     * Checks that the current token has text
+     */
+    private void checkText() {
+        if (this.mToken != Token.NAME && this.mToken != Token.STRING
+                && this.mToken != Token.NUMBER) {
+            throw new IllegalStateException("The current token has no text: " + this.mToken);
+        }
+    }
+
+    /**
+     * Checks the type of the current token
+     *
+     * @param token The expected token
+     */
+    private void checkToken(Token token) {
+        if (this.mToken != token) {
+            throw new IllegalStateException("Expected " + token + " but was " + this.mToken);
+        }
+    }
+
+    /**
+     * Creates the exception for invalid input at the current position
+     *
+     * @param message The description of the error
+     * @return The exception to throw
+     */
+    private MalformedJsonException syntaxError(String message) {
+        return new MalformedJsonException(message + " at offset "
+                + (this.mBufferOffset + this.mPosition - 1));
+    }
+
+}
@@ -0,0 +1,185 @@
+package com.brettnamba.tomoeame.http;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of latencies in the style of an HDR histogram.
+ *
+ * Values below 32 are counted exactly.  Above that, each power of two is split into 16 linear
+ * buckets, so a percentile is reported within 1/16 of the recorded value while the whole range
+ * up to about 71 minutes in microseconds fits in 464 counters.  Recording is a few atomic
+ * increments with no allocation or locking, so any number of threads can record into the same
+ * histogram while another thread reads percentiles from it.
+ *
+ * @author Brett Namba (https://github.com/bretten)
+ */
+public class LatencyHistogram {
+
+    /**
+     * The number of bits of a value kept exactly in its bucket index
+     */
+    private static final int SUB_BUCKET_BITS = 4;
+
+    /**
+     * The number of linear buckets each power of two is split into
+     */
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * The values below this are counted exactly, one bucket per value
+     */
+    private static final int EXACT_VALUE_COUNT = SUB_BUCKET_COUNT * 2;
+
+    /**
+     * The largest value that is counted in its own bucket.  Larger values are counted in the
+     * last bucket but are still reflected in the maximum.
+     */
+    public static final long MAX_TRACKABLE_VALUE = (1L << 32) - 1;
+
+    /**
+     * The count of values in each bucket
+     */
+    private final AtomicLongArray mCounts =
+            new AtomicLongArray(getBucketIndex(MAX_TRACKABLE_VALUE) + 1);
+
+    /**
+     * The sum of all recorded values
+     */
+    private final AtomicLong mSum = new AtomicLong();
+
+    /**
+     * The largest recorded value
+     */
+    private final AtomicLong mMax = new AtomicLong();
+
+    /**
+     * Records a value
+     *
+     * @param value The value, which is treated as 0 if it is negative
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        this.mCounts.incrementAndGet(getBucketIndex(Math.min(value, MAX_TRACKABLE_VALUE)));
+        this.mSum.addAndGet(value);
+        long max = this.mMax.get();
+        while (value > max && !this.mMax.compareAndSet(max, value)) {
+            max = this.mMax.get();
+        }
+    }
+
+    /**
+     * Returns the number of recorded values
+     *
+     * @return The number of values
+     */
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < this.mCounts.length(); i++) {
+            count += this.mCounts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * Returns the largest recorded value
+     *
+     * @return The largest value or 0 if none were recorded
+     */
+    public long getMax() {
+        return this.mMax.get();
+    }
+
+    /**
+     * Returns the mean of the recorded values
+     *
+     * @return The mean or 0 if none were recorded
+     */
+    public double getMean() {
+        final long count = this.getCount();
+        return count == 0 ? 0 : (double) this.mSum.get() / count;
+    }
+
+    /**
+     * Returns the value that the specified percentage of the recorded values are at or below.
+     * Like an HDR histogram, the largest value of the bucket is returned, so the result is never
+     * lower than the true percentile and is above it by at most 1/16.
+     *
+     * @param percentile The percentile from 0 to 100
+     * @return The value at the percentile or 0 if none were recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("The percentile must be from 0 to 100");
+        }
+        final long count = this.getCount();
+        if (count == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        final int last = this.mCounts.length() - 1;
+        for (int i = 0; i < last; i++) {
+            seen += this.mCounts.get(i);
+            if (seen >= rank) {
+                return Math.min(getHighestValueInBucket(i), this.getMax());
+            }
+        }
+        return this.getMax();
+    }
+
+    /**
+     * Clears all recorded values.  Values recorded while the histogram is being cleared may be
+     * partly kept.
+     */
+    public void reset() {
+        for (int i = 0; i < this.mCounts.length(); i++) {
+            this.mCounts.set(i, 0);
+        }
+        this.mSum.set(0);
+        this.mMax.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + this.getCount() + " p50=" + this.getValueAtPercentile(50)
+                + " p90=" + this.getValueAtPercentile(90)
+                + " p99=" + this.getValueAtPercentile(99)
+                + " p999=" + this.getValueAtPercentile(99.9) + " max=" + this.getMax();
+    }
+
+    /**
+     * Returns the index of the bucket that counts the specified value
+     *
+     * @param value The value from 0 to MAX_TRACKABLE_VALUE
+     * @return The bucket index
+     */
+    static int getBucketIndex(long value) {
+        if (value < EXACT_VALUE_COUNT) {
+            return (int) value;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        final int shift = exponent - SUB_BUCKET_BITS;
+        return EXACT_VALUE_COUNT + (exponent - SUB_BUCKET_BITS - 1) * SUB_BUCKET_COUNT
+                + (int) (value >>> shift) - SUB_BUCKET_COUNT;
+    }
+
+    /**
+     * Returns the largest value that is counted in the specified bucket
+     *
+     * @param index The bucket index
+     * @return The largest value of the bucket
+     */
+    static long getHighestValueInBucket(int index) {
+        if (index < EXACT_VALUE_COUNT) {
+            return index;
+        }
+        final int offset = index - EXACT_VALUE_COUNT;
+        final int shift = offset / SUB_BUCKET_COUNT + 1;
+        final long subBucket = SUB_BUCKET_COUNT + offset % SUB_BUCKET_COUNT;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+}
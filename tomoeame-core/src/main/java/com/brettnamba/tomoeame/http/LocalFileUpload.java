@@ -0,0 +1,83 @@
+package com.brettnamba.tomoeame.http;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.net.URLConnection;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * FileUpload of a file on the file system, whose length and MIME type are cheap to find and which
+ * is read through a FileChannel.
+ *
+ * @author Brett Namba (https://github.com/bretten)
+ */
+public class LocalFileUpload implements FileUpload {
+
+    /**
+     * The file
+     */
+    private final File mFile;
+
+    /**
+     * The MIME type of the file or null if it is guessed from the file name
+     */
+    private final String mContentType;
+
+    /**
+     * Constructs an instance whose MIME type is guessed from the file name
+     *
+     * @param file The file
+     */
+    public LocalFileUpload(File file) {
+        this(file, null);
+    }
+
+    /**
+     * Constructs an instance with the specified MIME type
+     *
+     * @param file        The file
+     * @param contentType The MIME type or null to guess it from the file name
+     */
+    public LocalFileUpload(File file, String contentType) {
+        if (file == null) {
+            throw new IllegalArgumentException("File cannot be null");
+        }
+        this.mFile = file;
+        this.mContentType = contentType;
+    }
+
+    /**
+     * Returns the file
+     *
+     * @return The file
+     */
+    public File getFile() {
+        return this.mFile;
+    }
+
+    @Override
+    public String getContentType() {
+        if (this.mContentType != null) {
+            return this.mContentType;
+        }
+        return URLConnection.guessContentTypeFromName(this.mFile.getName());
+    }
+
+    @Override
+    public long getLength() {
+        return this.mFile.isFile() ? this.mFile.length() : -1;
+    }
+
+    @Override
+    public boolean isMetadataCheap() {
+        return true;
+    }
+
+    @Override
+    public ReadableByteChannel open() throws IOException {
+        // Closing the channel also closes the stream
+        return new FileInputStream(this.mFile).getChannel();
+    }
+
+}
@@ -0,0 +1,26 @@
+package com.brettnamba.tomoeame.http;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a JsonPullParser reads input that is not valid JSON
+ *
+ * @author Brett Namba (https://github.com/bretten)
+ */
+public class MalformedJsonException extends IOException {
+
+    /**
+     * The version of the serialized form
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructor
+     *
+     * @param message The description of the error and where it occurred
+     */
+    public MalformedJsonException(String message) {
+        super(message);
+    }
+
+}
@@ -0,0 +1,19 @@
+package com.brettnamba.tomoeame.http;
+
+/**
+ * Receives the metrics of each call to send().  When no sink is set on a request or its client,
+ * the request does not read the clock or count bytes at all.
+ *
+ * @author Brett Namba (https://github.com/bretten)
+ */
+public interface MetricsSink {
+
+    /**
+     * Called on the sending thread once a call to send() finishes, so it should only record the
+     * metrics and return.  It may be called by many threads at once.
+     *
+     * @param metrics The metrics of the call, which are not changed afterwards
+     */
+    void onRequestMetrics(RequestMetrics metrics);
+
+}
@@ -0,0 +1,596 @@
+package com.brettnamba.tomoeame.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * HttpURLConnection that sends one HTTP/1.1 exchange over a socket of the NioTransport.
+ *
+ * Once the response body was read to the end, the socket is handed back to the transport for
+ * the next request, so closing or disconnecting afterwards does not close the socket.
+ *
+ * @author Brett Namba (https://github.com/bretten)
+ */
+final class NioHttpURLConnection extends TransportHttpURLConnection {
+
+    /**
+     * The charset of the request and response heads
+     */
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    /**
+     * The line terminator of the heads and chunks
+     */
+    private static final byte[] CRLF = {'\r', '\n'};
+
+    /**
+     * The chunk that ends a chunked request body
+     */
+    private static final byte[] LAST_CHUNK = {'0', '\r', '\n', '\r', '\n'};
+
+    /**
+     * The transport the socket is reserved from
+     */
+    private final NioTransport mTransport;
+
+    /**
+     * The socket of the current exchange or null if none is reserved
+     */
+    private volatile NioSocketConnection mConnection;
+
+    /**
+     * Determines if the current exchange handed its socket back to the transport
+     */
+    private volatile AtomicBoolean mIsExchangeFinished;
+
+    /**
+     * The sequence number of the request on its socket or -1 if it was not written yet
+     */
+    private volatile long mSequence = -1;
+
+    /**
+     * Determines if the server allows the socket to be kept alive after the response
+     */
+    private boolean mIsKeepAlive;
+
+    /**
+     * Constructor
+     *
+     * @param url       The request URL
+     * @param transport The transport the socket is reserved from
+     */
+    NioHttpURLConnection(URL url, NioTransport transport) {
+        super(url);
+        this.mTransport = transport;
+    }
+
+    /**
+     * Reserves a socket, pipelining the request if it is idempotent and pipelining is enabled
+     *
+     * @throws IOException
+     */
+    @Override
+    protected void openExchange() throws IOException {
+        this.mIsExchangeFinished = new AtomicBoolean();
+        this.mSequence = -1;
+        this.mConnection = this.mTransport.acquire(this.url, this.getConnectTimeout(),
+                this.isIdempotent());
+    }
+
+    /**
+     * Writes the request line and headers, adding the Host and body framing headers if they
+     * were not set
+     *
+     * @throws IOException
+     */
+    @Override
+    protected void writeRequestHead() throws IOException {
+        final String file = this.url.getFile();
+        final StringBuilder head = new StringBuilder(256);
+        head.append(this.method).append(' ').append(file.length() > 0 ? file : "/")
+                .append(" HTTP/1.1\r\n");
+        if (this.getRequestProperty("Host") == null) {
+            head.append("Host: ").append(this.url.getHost());
+            if (this.url.getPort() != -1 && this.url.getPort() != this.url.getDefaultPort()) {
+                head.append(':').append(this.url.getPort());
+            }
+            head.append("\r\n");
+        }
+        for (int i = 0; i < this.mRequestHeaderNames.size(); i++) {
+            final String value = this.mRequestHeaderValues.get(i);
+            head.append(this.mRequestHeaderNames.get(i)).append(": ")
+                    .append(value != null ? value : "").append("\r\n");
+        }
+        if (this.mChunkLength > 0) {
+            head.append("Transfer-Encoding: chunked\r\n");
+        } else if (this.mFixedLength >= 0) {
+            head.append("Content-Length: ").append(this.mFixedLength).append("\r\n");
+        } else if ("POST".equals(this.method) || "PUT".equals(this.method)) {
+            head.append("Content-Length: 0\r\n");
+        }
+        head.append("\r\n");
+        this.mSequence = this.mConnection.writeRequest(
+                ByteBuffer.wrap(head.toString().getBytes(ISO_8859_1)));
+    }
+
+    /**
+     * Creates the stream the request body is written with, in chunks or with a Content-Length
+     *
+     * @return The request body stream
+     */
+    @Override
+    protected OutputStream newRequestBody() {
+        return this.mChunkLength > 0 ? new ChunkedOutputStream(this.mChunkLength)
+                : new FixedLengthOutputStream(this.mFixedLength);
+    }
+
+    /**
+     * Waits for the turn of the exchange on its socket and reads the status line and headers
+     *
+     * @return The stream of the response body
+     * @throws IOException
+     */
+    @Override
+    protected InputStream readResponseHead() throws IOException {
+        final NioSocketConnection connection = this.mConnection;
+        final int readTimeoutMillis = this.getReadTimeout();
+        connection.awaitReadTurn(this.mSequence, readTimeoutMillis);
+        int code;
+        do {
+            // Skip informational responses such as 100 Continue
+            this.mResponseHeaderNames.clear();
+            this.mResponseHeaderValues.clear();
+            this.mStatusLine = connection.readLine(readTimeoutMillis);
+            code = this.parseStatusLine(this.mStatusLine);
+            String line;
+            while ((line = connection.readLine(readTimeoutMillis)).length() > 0) {
+                final int colon = line.indexOf(':');
+                if (colon <= 0) {
+                    throw new ProtocolException("Invalid header: " + line);
+                }
+                this.mResponseHeaderNames.add(line.substring(0, colon).trim());
+                this.mResponseHeaderValues.add(line.substring(colon + 1).trim());
+            }
+        } while (code >= 100 && code < 200 && code != 101);
+        this.responseCode = code;
+        return this.newResponseBody();
+    }
+
+    /**
+     * Parses the status line, setting the response message
+     *
+     * @param statusLine The status line
+     * @return The status code
+     * @throws ProtocolException If the status line is invalid
+     */
+    private int parseStatusLine(String statusLine) throws ProtocolException {
+        if (!statusLine.startsWith("HTTP/1.") || statusLine.length() < 12
+                || statusLine.charAt(8) != ' ') {
+            throw new ProtocolException("Unexpected status line: " + statusLine);
+        }
+        final int code;
+        try {
+            code = Integer.parseInt(statusLine.substring(9, 12));
+        } catch (NumberFormatException e) {
+            throw new ProtocolException("Unexpected status line: " + statusLine);
+        }
+        this.responseMessage = statusLine.length() > 13 ? statusLine.substring(13) : "";
+        return code;
+    }
+
+    /**
+     * Creates the stream of the response body based on its framing headers
+     *
+     * @return The response body stream
+     * @throws IOException
+     */
+    private InputStream newResponseBody() throws IOException {
+        final String connection = this.getResponseHeaderValue("Connection");
+        if (this.mStatusLine.charAt(7) == '0') {
+            this.mIsKeepAlive = "keep-alive".equalsIgnoreCase(connection);
+        } else {
+            this.mIsKeepAlive = !"close".equalsIgnoreCase(connection);
+        }
+        if ("HEAD".equals(this.method) || this.responseCode == HTTP_NO_CONTENT
+                || this.responseCode == HTTP_NOT_MODIFIED) {
+            return new FixedLengthInputStream(0);
+        }
+        final String transferEncoding = this.getResponseHeaderValue("Transfer-Encoding");
+        if (transferEncoding != null && transferEncoding.toLowerCase().contains("chunked")) {
+            return new ChunkedInputStream();
+        }
+        final String contentLength = this.getResponseHeaderValue("Content-Length");
+        if (contentLength != null) {
+            try {
+                return new FixedLengthInputStream(Long.parseLong(contentLength));
+            } catch (NumberFormatException e) {
+                throw new ProtocolException("Invalid Content-Length: " + contentLength);
+            }
+        }
+        // The body ends when the server closes the socket
+        this.mIsKeepAlive = false;
+        return new UntilCloseInputStream();
+    }
+
+    /**
+     * Hands the socket back to the transport after the response body was read to the end
+     */
+    private void finishExchange() {
+        final AtomicBoolean isFinished = this.mIsExchangeFinished;
+        if (isFinished != null && isFinished.compareAndSet(false, true)) {
+            this.mTransport.release(this.mConnection, true, true, this.mIsKeepAlive);
+        }
+    }
+
+    /**
+     * Closes the socket of an exchange that did not read its response to the end, failing the
+     * exchanges pipelined behind it
+     */
+    @Override
+    protected void abortExchange() {
+        final AtomicBoolean isFinished = this.mIsExchangeFinished;
+        final NioSocketConnection connection = this.mConnection;
+        if (isFinished != null && connection != null && isFinished.compareAndSet(false, true)) {
+            connection.abort();
+            this.mTransport.release(connection, this.mSequence >= 0, false, false);
+        }
+    }
+
+    /**
+     * Writes bytes of the request body, aborting the exchange if the write fails
+     *
+     * @param buffers The bytes to write
+     * @throws IOException
+     */
+    private void writeBody(ByteBuffer... buffers) throws IOException {
+        try {
+            this.mConnection.write(buffers);
+        } catch (IOException e) {
+            this.abortExchange();
+            throw e;
+        }
+    }
+
+    /**
+     * Base stream of a response body, which hands the socket back once the body ends and
+     * aborts the exchange if the body is closed early or fails
+     */
+    private abstract class ResponseBodyInputStream extends InputStream {
+
+        /**
+         * Determines if the end of the body was reached
+         */
+        private boolean mIsEnded;
+
+        /**
+         * Determines if the stream was closed
+         */
+        private boolean mIsClosed;
+
+        @Override
+        public int read() throws IOException {
+            final byte[] single = new byte[1];
+            return this.read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (this.mIsClosed) {
+                throw new IOException("Stream closed");
+            }
+            if (this.mIsEnded) {
+                return -1;
+            }
+            if (length == 0) {
+                return 0;
+            }
+            try {
+                final int bytesRead = this.readBody(buffer, offset, length);
+                if (bytesRead == -1) {
+                    this.end();
+                }
+                return bytesRead;
+            } catch (IOException | RuntimeException e) {
+                NioHttpURLConnection.this.abortExchange();
+                throw e;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!this.mIsClosed) {
+                this.mIsClosed = true;
+                if (!this.mIsEnded) {
+                    NioHttpURLConnection.this.abortExchange();
+                }
+            }
+        }
+
+        /**
+         * Marks the end of the body and hands the socket back
+         */
+        protected void end() {
+            this.mIsEnded = true;
+            NioHttpURLConnection.this.finishExchange();
+        }
+
+        /**
+         * Reads bytes of the body from the socket
+         *
+         * @param buffer The array the bytes are read into
+         * @param offset The index of the first byte to read
+         * @param length The maximum number of bytes to read, which is positive
+         * @return The number of bytes read or -1 at the end of the body
+         * @throws IOException
+         */
+        protected abstract int readBody(byte[] buffer, int offset, int length)
+                throws IOException;
+
+        /**
+         * Reads bytes from the socket, failing if the server closed it before the body ended
+         *
+         * @param buffer The array the bytes are read into
+         * @param offset The index of the first byte to read
+         * @param length The maximum number of bytes to read
+         * @return The number of bytes read
+         * @throws IOException
+         */
+        protected int readFully(byte[] buffer, int offset, int length) throws IOException {
+            final int bytesRead = NioHttpURLConnection.this.mConnection.read(buffer, offset,
+                    length, NioHttpURLConnection.this.getReadTimeout());
+            if (bytesRead == -1) {
+                throw new ProtocolException("Unexpected end of the response body");
+            }
+            return bytesRead;
+        }
+
+    }
+
+    /**
+     * Body framed by a Content-Length
+     */
+    private final class FixedLengthInputStream extends ResponseBodyInputStream {
+
+        /**
+         * The number of bytes left in the body
+         */
+        private long mRemaining;
+
+        /**
+         * Constructor
+         *
+         * @param length The length of the body
+         */
+        FixedLengthInputStream(long length) {
+            this.mRemaining = length;
+            if (length == 0) {
+                this.end();
+            }
+        }
+
+        @Override
+        protected int readBody(byte[] buffer, int offset, int length) throws IOException {
+            if (this.mRemaining == 0) {
+                return -1;
+            }
+            final int bytesRead = this.readFully(buffer, offset,
+                    (int) Math.min(length, this.mRemaining));
+            this.mRemaining -= bytesRead;
+            if (this.mRemaining == 0) {
+                this.end();
+            }
+            return bytesRead;
+        }
+
+    }
+
+    /**
+     * Body framed by chunked transfer encoding
+     */
+    private final class ChunkedInputStream extends ResponseBodyInputStream {
+
+        /**
+         * The number of bytes left in the current chunk or -1 if the next chunk size is read
+         * next
+         */
+        private long mChunkRemaining = -1;
+
+        @Override
+        protected int readBody(byte[] buffer, int offset, int length) throws IOException {
+            if (this.mChunkRemaining <= 0) {
+                final NioSocketConnection connection = NioHttpURLConnection.this.mConnection;
+                final int readTimeoutMillis = NioHttpURLConnection.this.getReadTimeout();
+                if (this.mChunkRemaining == 0) {
+                    // The CRLF after the previous chunk's data
+                    connection.readLine(readTimeoutMillis);
+                }
+                final String sizeLine = connection.readLine(readTimeoutMillis);
+                final int extension = sizeLine.indexOf(';');
+                try {
+                    this.mChunkRemaining = Long.parseLong((extension != -1
+                            ? sizeLine.substring(0, extension) : sizeLine).trim(), 16);
+                } catch (NumberFormatException e) {
+                    throw new ProtocolException("Invalid chunk size: " + sizeLine);
+                }
+                if (this.mChunkRemaining == 0) {
+                    // Skip the trailers that end with an empty line
+                    while (connection.readLine(readTimeoutMillis).length() > 0) {
+                        // Trailers are not exposed
+                    }
+                    this.end();
+                    return -1;
+                }
+            }
+            final int bytesRead = this.readFully(buffer, offset,
+                    (int) Math.min(length, this.mChunkRemaining));
+            this.mChunkRemaining -= bytesRead;
+            return bytesRead;
+        }
+
+    }
+
+    /**
+     * Body that ends when the server closes the socket
+     */
+    private final class UntilCloseInputStream extends ResponseBodyInputStream {
+
+        @Override
+        protected int readBody(byte[] buffer, int offset, int length) throws IOException {
+            return NioHttpURLConnection.this.mConnection.read(buffer, offset, length,
+                    NioHttpURLConnection.this.getReadTimeout());
+        }
+
+    }
+
+    /**
+     * Request body sent with a Content-Length
+     */
+    private final class FixedLengthOutputStream extends OutputStream {
+
+        /**
+         * The number of bytes left to write
+         */
+        private long mRemaining;
+
+        /**
+         * Determines if the stream was closed
+         */
+        private boolean mIsClosed;
+
+        /**
+         * Constructor
+         *
+         * @param length The length of the body
+         */
+        FixedLengthOutputStream(long length) {
+            this.mRemaining = length;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            this.write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) throws IOException {
+            if (this.mIsClosed) {
+                throw new IOException("Stream closed");
+            }
+            if (length > this.mRemaining) {
+                throw new ProtocolException("Expected " + this.mRemaining
+                        + " more bytes but received " + length);
+            }
+            NioHttpURLConnection.this.writeBody(ByteBuffer.wrap(buffer, offset, length));
+            this.mRemaining -= length;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (this.mIsClosed) {
+                return;
+            }
+            this.mIsClosed = true;
+            if (this.mRemaining > 0) {
+                NioHttpURLConnection.this.abortExchange();
+                throw new ProtocolException("Unexpected end of the request body");
+            }
+        }
+
+    }
+
+    /**
+     * Request body sent with chunked transfer encoding
+     */
+    private final class ChunkedOutputStream extends OutputStream {
+
+        /**
+         * The data of the current chunk
+         */
+        private final byte[] mBuffer;
+
+        /**
+         * The number of bytes in the current chunk
+         */
+        private int mCount;
+
+        /**
+         * Determines if the stream was closed
+         */
+        private boolean mIsClosed;
+
+        /**
+         * Constructor
+         *
+         * @param chunkLength The maximum length of a buffered chunk
+         */
+        ChunkedOutputStream(int chunkLength) {
+            this.mBuffer = BufferPool.getDefault().acquire(chunkLength);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            this.write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) throws IOException {
+            if (this.mIsClosed) {
+                throw new IOException("Stream closed");
+            }
+            if (this.mCount + length > this.mBuffer.length) {
+                this.flush();
+            }
+            if (length >= this.mBuffer.length) {
+                // Large writes are sent as their own chunk instead of being copied
+                this.writeChunk(buffer, offset, length);
+                return;
+            }
+            System.arraycopy(buffer, offset, this.mBuffer, this.mCount, length);
+            this.mCount += length;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (this.mCount > 0) {
+                this.writeChunk(this.mBuffer, 0, this.mCount);
+                this.mCount = 0;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (this.mIsClosed) {
+                return;
+            }
+            try {
+                this.flush();
+                NioHttpURLConnection.this.writeBody(ByteBuffer.wrap(LAST_CHUNK));
+            } finally {
+                this.mIsClosed = true;
+                BufferPool.getDefault().release(this.mBuffer);
+            }
+        }
+
+        /**
+         * Writes a chunk with its size line
+         *
+         * @param buffer The chunk data
+         * @param offset The index of the first byte
+         * @param length The length of the chunk
+         * @throws IOException
+         */
+        private void writeChunk(byte[] buffer, int offset, int length) throws IOException {
+            final byte[] sizeLine = (Integer.toHexString(length) + "\r\n").getBytes(ISO_8859_1);
+            NioHttpURLConnection.this.writeBody(ByteBuffer.wrap(sizeLine),
+                    ByteBuffer.wrap(buffer, offset, length), ByteBuffer.wrap(CRLF));
+        }
+
+    }
+
+}
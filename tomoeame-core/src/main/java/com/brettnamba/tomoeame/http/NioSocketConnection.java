@@ -0,0 +1,421 @@
+package com.brettnamba.tomoeame.http;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SocketChannel;
+
+/**
+ * A keep-alive socket used by the NioTransport.
+ *
+ * The channel is in blocking mode, so reads and writes can happen on different threads at the
+ * same time, which is what lets a pipelined request be written while an earlier response is
+ * still being read.  Read timeouts are enforced by the Watchdog, which closes the channel if a
+ * read does not finish in time.
+ *
+ * Pipelined exchanges take a sequence number when they write their request and read their
+ * responses in the same order: each exchange waits for its read turn, and the turn passes to
+ * the next exchange once the response was consumed.  If an exchange ends without consuming its
+ * response, the connection is broken and every exchange queued behind it fails.
+ *
+ * @author Brett Namba (https://github.com/bretten)
+ */
+final class NioSocketConnection {
+
+    /**
+     * The size of the buffer responses are read into
+     */
+    private static final int READ_BUFFER_LENGTH = 16 * 1024;
+
+    /**
+     * The longest status or header line that is accepted
+     */
+    private static final int MAX_LINE_LENGTH = 64 * 1024;
+
+    /**
+     * The host key of the connection
+     */
+    private final String mHostKey;
+
+    /**
+     * The socket channel
+     */
+    private final SocketChannel mChannel;
+
+    /**
+     * The buffer holding the bytes that were read but not consumed, between its position and
+     * limit
+     */
+    private final ByteBuffer mReadBuffer;
+
+    /**
+     * Serializes the writing of requests
+     */
+    private final Object mWriteLock = new Object();
+
+    /**
+     * Closes the channel when a read times out
+     */
+    private final Runnable mCloseAction;
+
+    /**
+     * Determines if the last read ended because it timed out
+     */
+    private volatile boolean mIsTimedOut;
+
+    /**
+     * The sequence number the next written request gets
+     */
+    private long mNextSequence;
+
+    /**
+     * The sequence number of the exchange whose response is read next
+     */
+    private long mReadTurn;
+
+    /**
+     * The number of exchanges that reserved the connection and have not finished
+     */
+    private int mInFlightCount;
+
+    /**
+     * Determines if the connection can no longer be used
+     */
+    private boolean mIsBroken;
+
+    /**
+     * The System.nanoTime() at which the connection became idle
+     */
+    private long mIdleSinceNanos;
+
+    /**
+     * Constructor
+     *
+     * @param hostKey The host key of the connection
+     * @param channel The connected channel
+     */
+    private NioSocketConnection(String hostKey, final SocketChannel channel) {
+        this.mHostKey = hostKey;
+        this.mChannel = channel;
+        this.mReadBuffer = ByteBuffer.allocate(READ_BUFFER_LENGTH);
+        this.mReadBuffer.flip();
+        this.mCloseAction = new Runnable() {
+            @Override
+            public void run() {
+                NioSocketConnection.this.mIsTimedOut = true;
+                NioSocketConnection.this.closeChannel();
+            }
+        };
+    }
+
+    /**
+     * Opens a connection to the host
+     *
+     * @param hostKey              The host key of the connection
+     * @param host                 The host name
+     * @param port                 The port
+     * @param connectTimeoutMillis The connect timeout or 0 to wait indefinitely
+     * @return The connection
+     * @throws IOException If the connection could not be made
+     */
+    static NioSocketConnection open(String hostKey, String host, int port,
+                                    int connectTimeoutMillis) throws IOException {
+        final SocketChannel channel = SocketChannel.open();
+        try {
+            channel.socket().setTcpNoDelay(true);
+            channel.socket().connect(new InetSocketAddress(host, port), connectTimeoutMillis);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        return new NioSocketConnection(hostKey, channel);
+    }
+
+    /**
+     * Returns the host key of the connection
+     *
+     * @return The host key
+     */
+    String getHostKey() {
+        return this.mHostKey;
+    }
+
+    /**
+     * Reserves the connection for an exchange
+     *
+     * @param maxInFlight The number of exchanges that may be in flight on the connection
+     * @return True if it was reserved, false if it is broken or busy
+     */
+    synchronized boolean tryReserve(int maxInFlight) {
+        if (this.mIsBroken || this.mInFlightCount >= maxInFlight) {
+            return false;
+        }
+        this.mInFlightCount++;
+        return true;
+    }
+
+    /**
+     * Writes a request and assigns it the sequence its response will be read in
+     *
+     * @param buffers The bytes of the request
+     * @return The sequence number of the exchange
+     * @throws IOException
+     */
+    long writeRequest(ByteBuffer... buffers) throws IOException {
+        synchronized (this.mWriteLock) {
+            final long sequence;
+            synchronized (this) {
+                if (this.mIsBroken) {
+                    throw new SocketException("The connection was closed");
+                }
+                sequence = this.mNextSequence++;
+            }
+            try {
+                this.write(buffers);
+            } catch (IOException e) {
+                this.markBroken();
+                throw e;
+            }
+            return sequence;
+        }
+    }
+
+    /**
+     * Writes bytes of a request body.  Only used by exchanges that are not pipelined.
+     *
+     * @param buffers The bytes to write
+     * @throws IOException
+     */
+    void write(ByteBuffer... buffers) throws IOException {
+        try {
+            long remaining = 0;
+            for (ByteBuffer buffer : buffers) {
+                remaining += buffer.remaining();
+            }
+            while (remaining > 0) {
+                remaining -= this.mChannel.write(buffers);
+            }
+        } catch (ClosedChannelException e) {
+            throw new SocketException("Socket closed");
+        }
+    }
+
+    /**
+     * Waits until it is the exchange's turn to read its response
+     *
+     * @param sequence      The sequence number of the exchange
+     * @param timeoutMillis The read timeout or 0 to wait indefinitely
+     * @throws IOException If the connection broke or the wait timed out
+     */
+    synchronized void awaitReadTurn(long sequence, int timeoutMillis) throws IOException {
+        final long deadlineNanos = System.nanoTime() + timeoutMillis * 1000000L;
+        while (this.mReadTurn != sequence) {
+            if (this.mIsBroken) {
+                throw new SocketException("The pipelined connection was closed");
+            }
+            try {
+                if (timeoutMillis <= 0) {
+                    this.wait();
+                } else {
+                    final long remainingNanos = deadlineNanos - System.nanoTime();
+                    if (remainingNanos <= 0) {
+                        throw new SocketTimeoutException("Read timed out");
+                    }
+                    this.wait(remainingNanos / 1000000L, (int) (remainingNanos % 1000000L));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new java.io.InterruptedIOException("Interrupted while waiting");
+            }
+        }
+        if (this.mIsBroken) {
+            throw new SocketException("The pipelined connection was closed");
+        }
+    }
+
+    /**
+     * Ends an exchange, passing the read turn to the next one
+     *
+     * @param wasWritten True if the exchange wrote its request
+     * @param isConsumed True if its response was completely read
+     * @param isReusable True if the server allows the connection to be kept alive
+     * @return The number of exchanges still in flight
+     */
+    synchronized int finishExchange(boolean wasWritten, boolean isConsumed, boolean isReusable) {
+        this.mInFlightCount--;
+        if (wasWritten) {
+            if (!isConsumed || !isReusable) {
+                this.markBroken();
+            }
+            this.mReadTurn++;
+            this.notifyAll();
+        }
+        if (this.mInFlightCount == 0) {
+            this.mIdleSinceNanos = System.nanoTime();
+        }
+        return this.mInFlightCount;
+    }
+
+    /**
+     * Determines if the connection can no longer be used
+     *
+     * @return True if it is broken
+     */
+    synchronized boolean isBroken() {
+        return this.mIsBroken;
+    }
+
+    /**
+     * Returns the System.nanoTime() at which the connection became idle
+     *
+     * @return The time it became idle
+     */
+    synchronized long getIdleSinceNanos() {
+        return this.mIdleSinceNanos;
+    }
+
+    /**
+     * Determines if an idle connection was closed by the server or sent unexpected data
+     *
+     * @return True if it should not be reused
+     */
+    boolean isStale() {
+        if (!this.mChannel.isOpen() || this.mReadBuffer.hasRemaining()) {
+            return true;
+        }
+        try {
+            this.mChannel.configureBlocking(false);
+            try {
+                this.mReadBuffer.compact();
+                final int bytesRead = this.mChannel.read(this.mReadBuffer);
+                this.mReadBuffer.flip();
+                return bytesRead != 0;
+            } finally {
+                this.mChannel.configureBlocking(true);
+            }
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Reads bytes of a response, waiting at most the read timeout for them to arrive
+     *
+     * @param buffer        The array the bytes are read into
+     * @param offset        The index of the first byte to read
+     * @param length        The maximum number of bytes to read
+     * @param timeoutMillis The read timeout or 0 to wait indefinitely
+     * @return The number of bytes read or -1 if the server closed the connection
+     * @throws IOException
+     */
+    int read(byte[] buffer, int offset, int length, int timeoutMillis) throws IOException {
+        if (!this.mReadBuffer.hasRemaining() && this.fill(timeoutMillis) == -1) {
+            return -1;
+        }
+        final int bytesRead = Math.min(length, this.mReadBuffer.remaining());
+        this.mReadBuffer.get(buffer, offset, bytesRead);
+        return bytesRead;
+    }
+
+    /**
+     * Reads a line ending with CRLF or LF, decoded as ISO-8859-1
+     *
+     * @param timeoutMillis The read timeout or 0 to wait indefinitely
+     * @return The line without its terminator
+     * @throws IOException If the connection ended or the line is too long
+     */
+    String readLine(int timeoutMillis) throws IOException {
+        final StringBuilder builder = new StringBuilder(64);
+        while (true) {
+            if (!this.mReadBuffer.hasRemaining() && this.fill(timeoutMillis) == -1) {
+                throw new EOFException("The connection ended in the middle of a line");
+            }
+            final byte b = this.mReadBuffer.get();
+            if (b == '\n') {
+                final int length = builder.length();
+                if (length > 0 && builder.charAt(length - 1) == '\r') {
+                    builder.setLength(length - 1);
+                }
+                return builder.toString();
+            }
+            if (builder.length() >= MAX_LINE_LENGTH) {
+                throw new ProtocolException("The line is too long");
+            }
+            builder.append((char) (b & 0xFF));
+        }
+    }
+
+    /**
+     * Breaks the connection and closes it so every thread using it fails immediately
+     */
+    void abort() {
+        this.markBroken();
+        this.closeChannel();
+    }
+
+    /**
+     * Closes the connection
+     */
+    void close() {
+        synchronized (this) {
+            this.mIsBroken = true;
+        }
+        this.closeChannel();
+    }
+
+    /**
+     * Reads more bytes from the channel into the empty read buffer
+     *
+     * @param timeoutMillis The read timeout or 0 to wait indefinitely
+     * @return The number of bytes read or -1 if the server closed the connection
+     * @throws IOException
+     */
+    private int fill(int timeoutMillis) throws IOException {
+        this.mReadBuffer.clear();
+        final Watchdog.Timeout timeout = timeoutMillis > 0
+                ? Watchdog.getDefault().schedule(timeoutMillis, this.mCloseAction) : null;
+        int bytesRead;
+        try {
+            bytesRead = this.mChannel.read(this.mReadBuffer);
+        } catch (IOException e) {
+            if (timeout != null && !timeout.cancel() && this.mIsTimedOut) {
+                throw new SocketTimeoutException("Read timed out");
+            }
+            this.markBroken();
+            if (e instanceof ClosedChannelException) {
+                throw new SocketException("Socket closed");
+            }
+            throw e;
+        } finally {
+            this.mReadBuffer.flip();
+        }
+        if (timeout != null && !timeout.cancel() && this.mIsTimedOut) {
+            throw new SocketTimeoutException("Read timed out");
+        }
+        return bytesRead;
+    }
+
+    /**
+     * Marks the connection as broken and wakes the exchanges waiting for their turn
+     */
+    private synchronized void markBroken() {
+        this.mIsBroken = true;
+        this.notifyAll();
+    }
+
+    /**
+     * Closes the channel, ignoring failures
+     */
+    private void closeChannel() {
+        try {
+            this.mChannel.close();
+        } catch (IOException e) {
+        }
+    }
+
+}
@@ -0,0 +1,350 @@
+package com.brettnamba.tomoeame.http;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Transport that sends plain HTTP requests over its own pool of NIO SocketChannels.
+ *
+ * Sockets are kept alive per host and reused, and idle sockets that the server closed or that
+ * have not been reused within the keep-alive duration are closed instead of reused.  When
+ * pipelining is enabled, GET and HEAD requests without a body are written onto a socket that is
+ * still waiting for earlier responses, up to the maximum pipeline depth, so a burst of requests
+ * to one host shares a single socket and does not wait a round trip per request.  If a pipelined
+ * response fails or the server closes the socket after it, the requests queued behind it fail
+ * with an IOException so they can be retried.
+ *
+ * HTTPS URLs are opened through the fallback transport.  Redirects between plain HTTP URLs are
+ * followed for GET and HEAD requests, and response bodies are never transparently decompressed.
+ *
+ * @author Brett Namba (https://github.com/bretten)
+ */
+public class NioTransport implements Transport {
+
+    /**
+     * The default maximum number of idle sockets that are kept per host
+     */
+    public static final int DEFAULT_MAX_IDLE_CONNECTIONS_PER_HOST = 5;
+
+    /**
+     * The default duration in milliseconds that an idle socket is kept alive for
+     */
+    public static final long DEFAULT_KEEP_ALIVE_DURATION_MILLIS = 5 * 60 * 1000;
+
+    /**
+     * The default maximum number of requests in flight on one pipelined socket
+     */
+    public static final int DEFAULT_MAX_PIPELINE_DEPTH = 8;
+
+    /**
+     * The maximum number of idle sockets that are kept per host
+     */
+    private final int mMaxIdleConnectionsPerHost;
+
+    /**
+     * The duration in nanoseconds that an idle socket is kept alive for
+     */
+    private final long mKeepAliveDurationNanos;
+
+    /**
+     * The transport that opens the connections this transport does not handle
+     */
+    private final Transport mFallbackTransport;
+
+    /**
+     * Determines if idempotent requests are pipelined
+     */
+    private volatile boolean mIsPipeliningEnabled;
+
+    /**
+     * The maximum number of requests in flight on one pipelined socket
+     */
+    private volatile int mMaxPipelineDepth = DEFAULT_MAX_PIPELINE_DEPTH;
+
+    /**
+     * Collection mapping host keys to their idle sockets, ordered from most to least recently
+     * used
+     */
+    private final Map<String, ArrayDeque<NioSocketConnection>> mIdleConnections =
+            new HashMap<String, ArrayDeque<NioSocketConnection>>();
+
+    /**
+     * Collection mapping host keys to the socket that pipelined requests to the host are
+     * written onto
+     */
+    private final Map<String, NioSocketConnection> mPipelinedConnections =
+            new HashMap<String, NioSocketConnection>();
+
+    /**
+     * The number of sockets that were opened
+     */
+    private final AtomicLong mOpenedCount = new AtomicLong();
+
+    /**
+     * The number of times an idle socket was reused
+     */
+    private final AtomicLong mReusedCount = new AtomicLong();
+
+    /**
+     * The number of requests that were written onto a socket that was still busy
+     */
+    private final AtomicLong mPipelinedCount = new AtomicLong();
+
+    /**
+     * Constructs a transport with the default limits that opens HTTPS URLs through the platform
+     */
+    public NioTransport() {
+        this(DEFAULT_MAX_IDLE_CONNECTIONS_PER_HOST, DEFAULT_KEEP_ALIVE_DURATION_MILLIS,
+                HttpUrlConnectionTransport.getDefault());
+    }
+
+    /**
+     * Constructs a transport with the specified limits
+     *
+     * @param maxIdleConnectionsPerHost The maximum number of idle sockets kept per host
+     * @param keepAliveDurationMillis   The duration in milliseconds an idle socket is kept
+     * @param fallbackTransport         The transport that opens HTTPS URLs
+     */
+    public NioTransport(int maxIdleConnectionsPerHost, long keepAliveDurationMillis,
+                        Transport fallbackTransport) {
+        if (maxIdleConnectionsPerHost < 0 || keepAliveDurationMillis < 0) {
+            throw new IllegalArgumentException("Limits must not be negative");
+        }
+        if (fallbackTransport == null) {
+            throw new IllegalArgumentException("Fallback transport cannot be null");
+        }
+        this.mMaxIdleConnectionsPerHost = maxIdleConnectionsPerHost;
+        this.mKeepAliveDurationNanos = TimeUnit.MILLISECONDS.toNanos(keepAliveDurationMillis);
+        this.mFallbackTransport = fallbackTransport;
+    }
+
+    /**
+     * Enables or disables pipelining of GET and HEAD requests.  Only enable it for servers that
+     * are known to handle pipelined requests correctly.
+     *
+     * @param isPipeliningEnabled True to pipeline idempotent requests
+     */
+    public void setPipeliningEnabled(boolean isPipeliningEnabled) {
+        this.mIsPipeliningEnabled = isPipeliningEnabled;
+    }
+
+    /**
+     * Determines if GET and HEAD requests are pipelined
+     *
+     * @return True if pipelining is enabled
+     */
+    public boolean isPipeliningEnabled() {
+        return this.mIsPipeliningEnabled;
+    }
+
+    /**
+     * Sets the maximum number of requests in flight on one pipelined socket
+     *
+     * @param maxPipelineDepth The maximum pipeline depth
+     */
+    public void setMaxPipelineDepth(int maxPipelineDepth) {
+        if (maxPipelineDepth <= 0) {
+            throw new IllegalArgumentException("Pipeline depth must be positive");
+        }
+        this.mMaxPipelineDepth = maxPipelineDepth;
+    }
+
+    /**
+     * Opens a connection to the URL.  Plain HTTP URLs are sent over this transport's sockets and
+     * other URLs are opened through the fallback transport.
+     *
+     * @param url The request URL
+     * @return The unconnected connection
+     * @throws IOException
+     */
+    @Override
+    public HttpURLConnection openConnection(URL url) throws IOException {
+        if (!"http".equalsIgnoreCase(url.getProtocol())) {
+            return this.mFallbackTransport.openConnection(url);
+        }
+        return new NioHttpURLConnection(url, this);
+    }
+
+    /**
+     * Determines if requests to one host share a connection
+     *
+     * @return False, since pipelined requests still hold a socket each until they are answered
+     */
+    @Override
+    public boolean isMultiplexed() {
+        return false;
+    }
+
+    /**
+     * Closes all of the idle sockets
+     */
+    public void evictAll() {
+        final List<NioSocketConnection> evicted = new ArrayList<NioSocketConnection>();
+        synchronized (this) {
+            for (ArrayDeque<NioSocketConnection> idle : this.mIdleConnections.values()) {
+                evicted.addAll(idle);
+            }
+            this.mIdleConnections.clear();
+        }
+        for (NioSocketConnection connection : evicted) {
+            connection.close();
+        }
+    }
+
+    /**
+     * Returns the number of idle sockets across all hosts
+     *
+     * @return The number of idle sockets
+     */
+    public synchronized int getIdleConnectionCount() {
+        int count = 0;
+        for (ArrayDeque<NioSocketConnection> idle : this.mIdleConnections.values()) {
+            count += idle.size();
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of sockets that were opened
+     *
+     * @return The number of opened sockets
+     */
+    @Override
+    public long getOpenedConnectionCount() {
+        return this.mOpenedCount.get();
+    }
+
+    /**
+     * Returns the number of times an idle socket was reused
+     *
+     * @return The number of reused sockets
+     */
+    @Override
+    public long getReusedConnectionCount() {
+        return this.mReusedCount.get();
+    }
+
+    /**
+     * Returns the number of requests that were written onto a socket that was still busy
+     *
+     * @return The number of pipelined requests
+     */
+    public long getPipelinedRequestCount() {
+        return this.mPipelinedCount.get();
+    }
+
+    /**
+     * Reserves a socket to the URL's host, reusing a pipelined or idle socket if possible and
+     * otherwise opening a new one
+     *
+     * @param url                  The request URL
+     * @param connectTimeoutMillis The connect timeout or 0 to wait indefinitely
+     * @param isPipelinable        True if the request may be pipelined
+     * @return The reserved socket
+     * @throws IOException If a new socket could not be opened
+     */
+    NioSocketConnection acquire(URL url, int connectTimeoutMillis, boolean isPipelinable)
+            throws IOException {
+        final String hostKey = HttpClient.getHostKey(url);
+        final boolean isPipelined = isPipelinable && this.mIsPipeliningEnabled;
+        final List<NioSocketConnection> stale = new ArrayList<NioSocketConnection>(0);
+        NioSocketConnection connection = null;
+        synchronized (this) {
+            if (isPipelined) {
+                final NioSocketConnection pipelined = this.mPipelinedConnections.get(hostKey);
+                if (pipelined != null && pipelined.tryReserve(this.mMaxPipelineDepth)) {
+                    this.mPipelinedCount.incrementAndGet();
+                    return pipelined;
+                }
+            }
+            final ArrayDeque<NioSocketConnection> idle = this.mIdleConnections.get(hostKey);
+            final long nowNanos = System.nanoTime();
+            while (idle != null && !idle.isEmpty()) {
+                final NioSocketConnection candidate = idle.pollFirst();
+                if (nowNanos - candidate.getIdleSinceNanos() <= this.mKeepAliveDurationNanos
+                        && !candidate.isStale() && candidate.tryReserve(1)) {
+                    connection = candidate;
+                    break;
+                }
+                stale.add(candidate);
+            }
+            if (connection != null) {
+                this.mReusedCount.incrementAndGet();
+                if (isPipelined) {
+                    this.mPipelinedConnections.put(hostKey, connection);
+                }
+            }
+        }
+        for (NioSocketConnection candidate : stale) {
+            candidate.close();
+        }
+        if (connection != null) {
+            return connection;
+        }
+
+        // Open a new socket outside of the lock so other hosts are not blocked
+        connection = NioSocketConnection.open(hostKey, url.getHost(),
+                url.getPort() != -1 ? url.getPort() : url.getDefaultPort(), connectTimeoutMillis);
+        connection.tryReserve(1);
+        this.mOpenedCount.incrementAndGet();
+        if (isPipelined) {
+            synchronized (this) {
+                if (!this.mPipelinedConnections.containsKey(hostKey)) {
+                    this.mPipelinedConnections.put(hostKey, connection);
+                }
+            }
+        }
+        return connection;
+    }
+
+    /**
+     * Ends an exchange on a socket, returning the socket to the idle pool once no exchanges are
+     * in flight on it, or closing it if it cannot be reused
+     *
+     * @param connection The socket
+     * @param wasWritten True if the exchange wrote its request
+     * @param isConsumed True if its response was completely read
+     * @param isReusable True if the server allows the socket to be kept alive
+     */
+    void release(NioSocketConnection connection, boolean wasWritten, boolean isConsumed,
+                 boolean isReusable) {
+        final String hostKey = connection.getHostKey();
+        NioSocketConnection closed = null;
+        synchronized (this) {
+            final int inFlightCount = connection.finishExchange(wasWritten, isConsumed,
+                    isReusable);
+            final boolean isBroken = connection.isBroken();
+            if ((isBroken || inFlightCount == 0)
+                    && this.mPipelinedConnections.get(hostKey) == connection) {
+                this.mPipelinedConnections.remove(hostKey);
+            }
+            if (inFlightCount == 0) {
+                if (isBroken) {
+                    closed = connection;
+                } else {
+                    ArrayDeque<NioSocketConnection> idle = this.mIdleConnections.get(hostKey);
+                    if (idle == null) {
+                        idle = new ArrayDeque<NioSocketConnection>();
+                        this.mIdleConnections.put(hostKey, idle);
+                    }
+                    idle.addFirst(connection);
+                    if (idle.size() > this.mMaxIdleConnectionsPerHost) {
+                        closed = idle.pollLast();
+                    }
+                }
+            }
+        }
+        if (closed != null) {
+            closed.close();
+        }
+    }
+
+}
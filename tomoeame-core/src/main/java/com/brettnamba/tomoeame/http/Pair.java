@@ -0,0 +1,78 @@
+package com.brettnamba.tomoeame.http;
+
+/**
+ * Immutable pair of two values, such as a request header and its value.  It has the same fields
+ * and methods as the Pair of the Android support library, so the core does not depend on it.
+ *
+ * @param <F> The type of the first value
+ * @param <S> The type of the second value
+ * @author Brett Namba (https://github.com/bretten)
+ */
+public class Pair<F, S> {
+
+    /**
+     * The first value
+     */
+    public final F first;
+
+    /**
+     * The second value
+     */
+    public final S second;
+
+    /**
+     * Constructor
+     *
+     * @param first  The first value
+     * @param second The second value
+     */
+    public Pair(F first, S second) {
+        this.first = first;
+        this.second = second;
+    }
+
+    /**
+     * Creates a pair, inferring its types from the values
+     *
+     * @param first  The first value
+     * @param second The second value
+     * @param <A>    The type of the first value
+     * @param <B>    The type of the second value
+     * @return The pair
+     */
+    public static <A, B> Pair<A, B> create(A first, B second) {
+        return new Pair<A, B>(first, second);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof Pair)) {
+            return false;
+        }
+        final Pair<?, ?> pair = (Pair<?, ?>) o;
+        return equal(pair.first, this.first) && equal(pair.second, this.second);
+    }
+
+    @Override
+    public int hashCode() {
+        return (this.first == null ? 0 : this.first.hashCode())
+                ^ (this.second == null ? 0 : this.second.hashCode());
+    }
+
+    @Override
+    public String toString() {
+        return "Pair{" + this.first + " " + this.second + "}";
+    }
+
+    /**
+     * Compares two values that may be null
+     *
+     * @param a The first value
+     * @param b The second value
+     * @return True if both are null or they are equal, otherwise false
+     */
+    private static boolean equal(Object a, Object b) {
+        return a == b || (a != null && a.equals(b));
+    }
+
+}
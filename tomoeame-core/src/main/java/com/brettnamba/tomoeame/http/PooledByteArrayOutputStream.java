@@ -0,0 +1,127 @@
+package com.brettnamba.tomoeame.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/**
+ * ByteArrayOutputStream whose array is borrowed from a BufferPool and grown by swapping it for a
+ * larger pooled array.  The array is returned to the pool when the stream is closed, so the
+ * contents must be copied out with toByteArray() or decoded with toString() before then.
+ *
+ * @author Brett Namba (https://github.com/bretten)
+ */
+class PooledByteArrayOutputStream extends ByteArrayOutputStream {
+
+    /**
+     * The pool the array is borrowed from
+     */
+    private final BufferPool mBufferPool;
+
+    /**
+     * Constructor
+     *
+     * @param bufferPool    The pool the array is borrowed from
+     * @param initialLength The expected number of bytes
+     */
+    PooledByteArrayOutputStream(BufferPool bufferPool, int initialLength) {
+        super(0);
+        this.mBufferPool = bufferPool;
+        this.buf = bufferPool.acquire(initialLength);
+    }
+
+    /**
+     * Writes a byte
+     *
+     * @param b The byte
+     */
+    @Override
+    public synchronized void write(int b) {
+        this.ensureCapacity(this.count + 1);
+        this.buf[this.count++] = (byte) b;
+    }
+
+    /**
+     * Writes a range of bytes
+     *
+     * @param bytes  The bytes
+     * @param offset The offset of the first byte to write
+     * @param length The number of bytes to write
+     */
+    @Override
+    public synchronized void write(byte[] bytes, int offset, int length) {
+        if (offset < 0 || length < 0 || offset > bytes.length - length) {
+            throw new IndexOutOfBoundsException();
+        }
+        this.ensureCapacity(this.count + length);
+        System.arraycopy(bytes, offset, this.buf, this.count, length);
+        this.count += length;
+    }
+
+    /**
+     * Reads the rest of the stream directly into the array, without an intermediate buffer
+     *
+     * @param inputStream The stream to read
+     * @return The number of bytes read
+     * @throws IOException
+     */
+    public synchronized long readFrom(InputStream inputStream) throws IOException {
+        long total = 0;
+        while (true) {
+            if (this.count == this.buf.length) {
+                this.ensureCapacity(this.count + 1);
+            }
+            final int bytesRead = inputStream.read(this.buf, this.count,
+                    this.buf.length - this.count);
+            if (bytesRead == -1) {
+                return total;
+            }
+            this.count += bytesRead;
+            total += bytesRead;
+        }
+    }
+
+    /**
+     * Decodes the contents using the charset
+     *
+     * @param charset The charset of the contents
+     * @return The decoded contents
+     */
+    public synchronized String toString(Charset charset) {
+        return new String(this.buf, 0, this.count, charset);
+    }
+
+    /**
+     * Returns the array to the pool.  The stream cannot be used afterwards.
+     */
+    @Override
+    public synchronized void close() {
+        if (this.buf.length > 0) {
+            this.mBufferPool.release(this.buf);
+            this.buf = new byte[0];
+            this.count = 0;
+        }
+    }
+
+    /**
+     * Swaps the array for a larger one if it cannot hold the specified number of bytes
+     *
+     * @param minLength The number of bytes the array must hold
+     */
+    private void ensureCapacity(int minLength) {
+        if (minLength < 0) {
+            throw new OutOfMemoryError();
+        }
+        if (minLength <= this.buf.length) {
+            return;
+        }
+        final int doubledLength = this.buf.length << 1;
+        final byte[] buffer = this.mBufferPool.acquire(
+                doubledLength > minLength ? doubledLength : minLength);
+        System.arraycopy(this.buf, 0, buffer, 0, this.count);
+        this.mBufferPool.release(this.buf);
+        this.buf = buffer;
+    }
+
+}
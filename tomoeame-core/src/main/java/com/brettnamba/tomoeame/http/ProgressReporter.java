@@ -0,0 +1,245 @@
+package com.brettnamba.tomoeame.http;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces the progress of a transfer so a listener is not called for every buffer.
+ *
+ * The transferring thread reports each chunk with onTransferred(), which only adds to a counter
+ * and compares it with the next byte threshold.  An update is passed on once the bytes since the
+ * last update reach the minimum fraction of the total and the minimum interval has passed, and
+ * the final update of a transfer is always passed on.  When an Executor is set, such as one
+ * posting to the main thread, updates are delivered through it and updates that arrive before
+ * the previous one was delivered are merged, so a busy main thread receives one update per
+ * message instead of a backlog.
+ *
+ * @author Brett Namba (https://github.com/bretten)
+ */
+public class ProgressReporter {
+
+    /**
+     * The default minimum interval between updates, which is about one frame
+     */
+    public static final long DEFAULT_MIN_INTERVAL_MILLIS = 16;
+
+    /**
+     * The default minimum share of the total transferred between updates
+     */
+    public static final float DEFAULT_MIN_FRACTION = 0.01f;
+
+    /**
+     * The minimum number of bytes between updates when the total is unknown
+     */
+    private static final long UNKNOWN_TOTAL_STEP_BYTES = 8 * 1024;
+
+    /**
+     * The listener the updates are passed on to
+     */
+    private final Listener mListener;
+
+    /**
+     * The Executor the updates are delivered through or null to call the listener on the
+     * transferring thread
+     */
+    private final Executor mExecutor;
+
+    /**
+     * Delivers the merged updates on the Executor's thread
+     */
+    private final Runnable mDeliverRunnable;
+
+    /**
+     * The bytes that were posted but not delivered yet
+     */
+    private final AtomicLong mPendingBytes = new AtomicLong();
+
+    /**
+     * Determines if a delivery is posted and has not run yet
+     */
+    private final AtomicBoolean mIsPosted = new AtomicBoolean();
+
+    /**
+     * The total of the transfer the pending bytes belong to
+     */
+    private volatile long mPendingTotalBytes = -1;
+
+    /**
+     * The minimum interval between updates, which takes effect when a transfer starts
+     */
+    private volatile long mMinIntervalMillis = DEFAULT_MIN_INTERVAL_MILLIS;
+
+    /**
+     * The minimum share of the total between updates, which takes effect when a transfer starts
+     */
+    private volatile float mMinFraction = DEFAULT_MIN_FRACTION;
+
+    /**
+     * The minimum interval between updates of the current transfer
+     */
+    private long mMinIntervalNanos;
+
+    /**
+     * The minimum number of bytes between updates of the current transfer
+     */
+    private long mStepBytes;
+
+    /**
+     * The total number of bytes of the current transfer or -1 if it is unknown
+     */
+    private long mTotalBytes = -1;
+
+    /**
+     * The number of bytes transferred so far
+     */
+    private long mTransferredBytes;
+
+    /**
+     * The number of bytes that were passed on to the listener so far
+     */
+    private long mReportedBytes;
+
+    /**
+     * The number of transferred bytes at which the next update is considered
+     */
+    private long mNextReportBytes;
+
+    /**
+     * The System.nanoTime() of the last update
+     */
+    private long mLastReportNanos;
+
+    /**
+     * Constructor
+     *
+     * @param listener The listener the updates are passed on to
+     * @param executor The Executor the listener is called through or null to call it on the
+     *                 transferring thread
+     */
+    public ProgressReporter(Listener listener, Executor executor) {
+        if (listener == null) {
+            throw new IllegalArgumentException("Listener cannot be null");
+        }
+        this.mListener = listener;
+        this.mExecutor = executor;
+        this.mDeliverRunnable = new Runnable() {
+            @Override
+            public void run() {
+                ProgressReporter.this.deliverPending();
+            }
+        };
+    }
+
+    /**
+     * Sets how far apart updates must be.  Takes effect when the next transfer starts.
+     *
+     * @param minIntervalMillis The minimum interval between updates or 0 for no limit
+     * @param minFraction       The minimum share of the total, from 0 to 1, between updates
+     */
+    public void setThrottle(long minIntervalMillis, float minFraction) {
+        if (minIntervalMillis < 0 || minFraction < 0 || minFraction > 1) {
+            throw new IllegalArgumentException("The interval or fraction is invalid");
+        }
+        this.mMinIntervalMillis = minIntervalMillis;
+        this.mMinFraction = minFraction;
+    }
+
+    /**
+     * Starts a new transfer, forgetting the progress of the previous one
+     *
+     * @param totalBytes The total number of bytes or -1 if it is unknown
+     */
+    public void start(long totalBytes) {
+        this.mMinIntervalNanos = TimeUnit.MILLISECONDS.toNanos(this.mMinIntervalMillis);
+        this.mStepBytes = totalBytes > 0 ? (long) (totalBytes * (double) this.mMinFraction)
+                : UNKNOWN_TOTAL_STEP_BYTES;
+        this.mTotalBytes = totalBytes;
+        this.mTransferredBytes = 0;
+        this.mReportedBytes = 0;
+        this.mNextReportBytes = this.mStepBytes;
+        this.mLastReportNanos = System.nanoTime();
+    }
+
+    /**
+     * Records bytes that were just transferred.  Must be called on the transferring thread.
+     *
+     * @param bytes The number of bytes
+     */
+    public void onTransferred(long bytes) {
+        this.mTransferredBytes += bytes;
+        if (this.mTransferredBytes < this.mNextReportBytes) {
+            return;
+        }
+        // The last bytes are always reported, otherwise only once the interval passed
+        final long nowNanos = System.nanoTime();
+        if ((this.mTotalBytes < 0 || this.mTransferredBytes < this.mTotalBytes)
+                && nowNanos - this.mLastReportNanos < this.mMinIntervalNanos) {
+            // Check the clock again after another step instead of after every chunk
+            this.mNextReportBytes = this.mTransferredBytes + this.mStepBytes;
+            return;
+        }
+        this.report(nowNanos);
+    }
+
+    /**
+     * Passes on the bytes that were held back, for example when a transfer of unknown length
+     * ends.  Must be called on the transferring thread.
+     */
+    public void finish() {
+        if (this.mTransferredBytes > this.mReportedBytes) {
+            this.report(System.nanoTime());
+        }
+    }
+
+    /**
+     * Passes on the bytes transferred since the last update
+     *
+     * @param nowNanos The current System.nanoTime()
+     */
+    private void report(long nowNanos) {
+        final long bytes = this.mTransferredBytes - this.mReportedBytes;
+        this.mReportedBytes = this.mTransferredBytes;
+        this.mNextReportBytes = this.mTransferredBytes + this.mStepBytes;
+        this.mLastReportNanos = nowNanos;
+        if (this.mExecutor == null) {
+            this.mListener.onProgress(bytes, this.mTotalBytes);
+            return;
+        }
+        this.mPendingTotalBytes = this.mTotalBytes;
+        this.mPendingBytes.addAndGet(bytes);
+        // Only post if the previous update was delivered, otherwise it picks these bytes up
+        if (this.mIsPosted.compareAndSet(false, true)) {
+            this.mExecutor.execute(this.mDeliverRunnable);
+        }
+    }
+
+    /**
+     * Delivers the merged pending bytes on the Executor's thread
+     */
+    private void deliverPending() {
+        // Clear the flag first so bytes added after this point post a new delivery
+        this.mIsPosted.set(false);
+        final long bytes = this.mPendingBytes.getAndSet(0);
+        if (bytes > 0) {
+            this.mListener.onProgress(bytes, this.mPendingTotalBytes);
+        }
+    }
+
+    /**
+     * Receives the coalesced progress of a transfer
+     */
+    public interface Listener {
+
+        /**
+         * Called with the bytes transferred since the previous update
+         *
+         * @param bytes      The number of bytes transferred since the previous update
+         * @param totalBytes The total number of bytes or -1 if it is unknown
+         */
+        void onProgress(long bytes, long totalBytes);
+
+    }
+
+}
@@ -0,0 +1,27 @@
+package com.brettnamba.tomoeame.http;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a request is rejected without being sent because the host's circuit breaker is
+ * open or its concurrency limit is reached
+ *
+ * @author Brett Namba (https://github.com/bretten)
+ */
+public class RejectedRequestException extends IOException {
+
+    /**
+     * The version of the serialized form
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructor
+     *
+     * @param message The reason the request was rejected
+     */
+    public RejectedRequestException(String message) {
+        super(message);
+    }
+
+}
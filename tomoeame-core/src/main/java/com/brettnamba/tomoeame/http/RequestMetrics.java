@@ -0,0 +1,331 @@
+package com.brettnamba.tomoeame.http;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Locale;
+
+/**
+ * The timings and sizes of one call to send(), which are passed to a MetricsSink once the call
+ * finishes.
+ *
+ * The phases and byte counts are measured for the last attempt, so they show where the time went
+ * in the attempt whose response was returned, while the total covers every attempt and the waits
+ * between them.  A response served from the cache only has a total.
+ *
+ * @author Brett Namba (https://github.com/bretten)
+ */
+public final class RequestMetrics {
+
+    /**
+     * The parts of a call that are timed
+     */
+    public enum Phase {
+        /**
+         * Appending the query parameters and parsing the request URL
+         */
+        BUILD_URL,
+        /**
+         * Acquiring the host's permits and establishing the connection
+         */
+        CONNECT,
+        /**
+         * Writing the request body
+         */
+        WRITE_BODY,
+        /**
+         * Waiting for the response code and headers after the request was sent
+         */
+        FIRST_BYTE,
+        /**
+         * Reading the response body
+         */
+        READ_BODY,
+        /**
+         * The whole call, including every attempt and the waits between them
+         */
+        TOTAL
+    }
+
+    /**
+     * The number of phases
+     */
+    static final int PHASE_COUNT = Phase.values().length;
+
+    /**
+     * The duration of each phase in nanoseconds
+     */
+    private final long[] mPhaseNanos = new long[PHASE_COUNT];
+
+    /**
+     * The time the call started from System.nanoTime()
+     */
+    private final long mStartNanos;
+
+    /**
+     * The time the current phase started from System.nanoTime()
+     */
+    private long mPhaseStartNanos;
+
+    /**
+     * The HTTP request method
+     */
+    private String mMethod;
+
+    /**
+     * The key identifying the host the request was sent to
+     */
+    private String mHostKey;
+
+    /**
+     * The endpoint template or path the request was sent to
+     */
+    private String mEndpoint;
+
+    /**
+     * The number of request body bytes written
+     */
+    private long mBytesSent;
+
+    /**
+     * The number of response body bytes read
+     */
+    private long mBytesReceived;
+
+    /**
+     * The HTTP response code or -1 if no response was received
+     */
+    private int mResponseCode = -1;
+
+    /**
+     * The number of attempts made
+     */
+    private int mAttemptCount;
+
+    /**
+     * Determines if the response was served from the cache
+     */
+    private boolean mIsFromCache;
+
+    /**
+     * The exception the call failed with or null
+     */
+    private Exception mException;
+
+    /**
+     * Constructor that starts timing the call
+     */
+    RequestMetrics() {
+        this.mStartNanos = System.nanoTime();
+    }
+
+    /**
+     * Returns the duration of a phase
+     *
+     * @param phase The phase
+     * @return The duration in nanoseconds or 0 if the phase did not happen
+     */
+    public long getPhaseNanos(Phase phase) {
+        return this.mPhaseNanos[phase.ordinal()];
+    }
+
+    /**
+     * Returns the duration of the whole call
+     *
+     * @return The duration in nanoseconds
+     */
+    public long getTotalNanos() {
+        return this.mPhaseNanos[Phase.TOTAL.ordinal()];
+    }
+
+    /**
+     * Returns the HTTP request method
+     *
+     * @return The request method
+     */
+    public String getMethod() {
+        return this.mMethod;
+    }
+
+    /**
+     * Returns the key identifying the host, such as "https://example.com:443"
+     *
+     * @return The host key or null if the request URL was invalid
+     */
+    public String getHostKey() {
+        return this.mHostKey;
+    }
+
+    /**
+     * Returns the endpoint template set on the request, otherwise the path of the request URL
+     * without its query
+     *
+     * @return The endpoint or null if the request URL was invalid
+     */
+    public String getEndpoint() {
+        return this.mEndpoint;
+    }
+
+    /**
+     * Returns the number of request body bytes written, before any compression by the transport
+     *
+     * @return The bytes sent
+     */
+    public long getBytesSent() {
+        return this.mBytesSent;
+    }
+
+    /**
+     * Returns the number of response body bytes read, after the response was decompressed
+     *
+     * @return The bytes received
+     */
+    public long getBytesReceived() {
+        return this.mBytesReceived;
+    }
+
+    /**
+     * Returns the HTTP response code
+     *
+     * @return The response code or -1 if no response was received
+     */
+    public int getResponseCode() {
+        return this.mResponseCode;
+    }
+
+    /**
+     * Returns the number of attempts made
+     *
+     * @return The number of attempts
+     */
+    public int getAttemptCount() {
+        return this.mAttemptCount;
+    }
+
+    /**
+     * Returns the number of attempts made after the first one
+     *
+     * @return The number of retries
+     */
+    public int getRetryCount() {
+        return Math.max(0, this.mAttemptCount - 1);
+    }
+
+    /**
+     * Determines if the response was served from the cache
+     *
+     * @return True if it came from the cache, otherwise false
+     */
+    public boolean isFromCache() {
+        return this.mIsFromCache;
+    }
+
+    /**
+     * Returns the exception the call failed with
+     *
+     * @return The exception or null if the call completed
+     */
+    public Exception getException() {
+        return this.mException;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder();
+        builder.append(this.mMethod).append(' ').append(this.mHostKey).append(this.mEndpoint)
+                .append(" status=").append(this.mResponseCode);
+        for (Phase phase : Phase.values()) {
+            builder.append(' ').append(phase.name().toLowerCase(Locale.US)).append('=')
+                    .append(this.mPhaseNanos[phase.ordinal()] / 1000).append("us");
+        }
+        builder.append(" sent=").append(this.mBytesSent).append(" received=")
+                .append(this.mBytesReceived).append(" retries=").append(this.getRetryCount());
+        if (this.mIsFromCache) {
+            builder.append(" cached");
+        }
+        if (this.mException != null) {
+            builder.append(" error=").append(this.mException);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Starts timing a new attempt, clearing the phases of the previous one
+     */
+    void startAttempt() {
+        for (int i = 0; i < PHASE_COUNT; i++) {
+            this.mPhaseNanos[i] = 0;
+        }
+        this.mBytesSent = 0;
+        this.mBytesReceived = 0;
+        this.mPhaseStartNanos = System.nanoTime();
+    }
+
+    /**
+     * Ends a phase, which started when the previous phase ended, and starts the next one
+     *
+     * @param phase The phase that ended
+     */
+    void endPhase(Phase phase) {
+        final long nowNanos = System.nanoTime();
+        this.mPhaseNanos[phase.ordinal()] = nowNanos - this.mPhaseStartNanos;
+        this.mPhaseStartNanos = nowNanos;
+    }
+
+    /**
+     * Sets the host and endpoint of the request
+     *
+     * @param url      The request URL
+     * @param endpoint The endpoint template or null to use the path of the URL
+     */
+    void setUrl(URL url, String endpoint) {
+        this.mHostKey = HttpClient.getHostKey(url);
+        this.mEndpoint = endpoint != null ? endpoint : url.getPath();
+    }
+
+    /**
+     * Adds to the request body bytes written
+     *
+     * @param byteCount The number of bytes
+     */
+    void addBytesSent(long byteCount) {
+        this.mBytesSent += byteCount;
+    }
+
+    /**
+     * Adds to the response body bytes read
+     *
+     * @param byteCount The number of bytes
+     */
+    void addBytesReceived(long byteCount) {
+        this.mBytesReceived += byteCount;
+    }
+
+    /**
+     * Ends the call
+     *
+     * @param method       The request method
+     * @param requestUrl   The request URL, which is used if the host was not set by an attempt
+     * @param endpoint     The endpoint template or null to use the path of the URL
+     * @param responseCode The response code or -1 if no response was received
+     * @param attemptCount The number of attempts
+     * @param isFromCache  True if the response came from the cache
+     * @param exception    The exception the call failed with or null
+     */
+    void finish(String method, String requestUrl, String endpoint, int responseCode,
+                int attemptCount, boolean isFromCache, Exception exception) {
+        this.mPhaseNanos[Phase.TOTAL.ordinal()] = System.nanoTime() - this.mStartNanos;
+        this.mMethod = method;
+        if (this.mHostKey == null && requestUrl != null) {
+            try {
+                this.setUrl(new URL(requestUrl), endpoint);
+            } catch (MalformedURLException e) {
+                this.mEndpoint = endpoint;
+            }
+        }
+        this.mResponseCode = exception != null ? -1 : responseCode;
+        this.mAttemptCount = attemptCount;
+        this.mIsFromCache = isFromCache;
+        this.mException = exception;
+    }
+
+}
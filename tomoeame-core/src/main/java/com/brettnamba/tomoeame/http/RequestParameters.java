@@ -1,7 +1,5 @@
 package com.brettnamba.tomoeame.http;
 
-import android.support.v4.util.Pair;
-
 import java.util.List;
 
 /**
@@ -0,0 +1,272 @@
+package com.brettnamba.tomoeame.http;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable description of the parts of a request that stay the same every time it is sent.
+ *
+ * The base URL is parsed and the static query parameters are encoded into it once, the static
+ * headers, including the default headers and any auth token, are built once, and the static
+ * form fields are encoded once.  A request constructed from a template shares these parts, so
+ * only the parts added to it, such as a changing query parameter, are built for each call.  A
+ * template can be shared by any number of threads.
+ *
+ * @author Brett Namba (https://github.com/bretten)
+ */
+public final class RequestTemplate {
+
+    /**
+     * The base URL with the static query parameters encoded into it
+     */
+    private final String mRequestUrl;
+
+    /**
+     * The parsed request URL
+     */
+    private final URL mUrl;
+
+    /**
+     * The default and static request headers
+     */
+    private final List<Pair<String, String>> mRequestHeaders;
+
+    /**
+     * The static request parameters
+     */
+    private final List<Pair<String, String>> mRequestParameters;
+
+    /**
+     * The static request parameters URL encoded as a form body
+     */
+    private final byte[] mEncodedRequestParameters;
+
+    /**
+     * Provides the authentication header value each time a request is sent or null if there is
+     * none
+     */
+    private final Authenticator mAuthenticator;
+
+    /**
+     * Constructor
+     *
+     * @param builder The builder holding the static parts
+     * @throws MalformedURLException If the base URL cannot be parsed
+     */
+    private RequestTemplate(Builder builder) throws MalformedURLException {
+        final String baseUrl = builder.mBaseUrl;
+        if (builder.mQueryParameters.isEmpty()) {
+            this.mRequestUrl = baseUrl;
+        } else {
+            final String query = HttpUrlConnectionRequest.urlEncodeToString(
+                    builder.mQueryParameters);
+            this.mRequestUrl = baseUrl + (baseUrl.indexOf('?') == -1 ? "?" : "&") + query;
+        }
+        this.mUrl = new URL(this.mRequestUrl);
+
+        final List<Pair<String, String>> requestHeaders =
+                new ArrayList<Pair<String, String>>(builder.mRequestHeaders.size() + 3);
+        HttpUrlConnectionRequest.addDefaultRequestHeaders(requestHeaders);
+        requestHeaders.addAll(builder.mRequestHeaders);
+        if (builder.mAuthToken != null) {
+            requestHeaders.add(new Pair<String, String>(HttpUrlConnectionRequest.AUTH_HEADER,
+                    HttpUrlConnectionRequest.encodeAuthHeaderValue(builder.mAuthToken)));
+        }
+        this.mRequestHeaders = Collections.unmodifiableList(requestHeaders);
+
+        this.mRequestParameters = Collections.unmodifiableList(
+                new ArrayList<Pair<String, String>>(builder.mRequestParameters));
+        this.mEncodedRequestParameters = HttpUrlConnectionRequest.urlEncodeToBytes(
+                this.mRequestParameters);
+        this.mAuthenticator = builder.mAuthenticator;
+    }
+
+    /**
+     * Returns the base URL with the static query parameters encoded into it
+     *
+     * @return The request URL
+     */
+    public String getRequestUrl() {
+        return this.mRequestUrl;
+    }
+
+    /**
+     * Returns the default and static request headers
+     *
+     * @return The unmodifiable request headers
+     */
+    public List<Pair<String, String>> getRequestHeaders() {
+        return this.mRequestHeaders;
+    }
+
+    /**
+     * Returns the static request parameters
+     *
+     * @return The unmodifiable request parameters
+     */
+    public List<Pair<String, String>> getRequestParameters() {
+        return this.mRequestParameters;
+    }
+
+    /**
+     * Returns the Authenticator that provides the authentication header value
+     *
+     * @return The Authenticator or null if there is none
+     */
+    public Authenticator getAuthenticator() {
+        return this.mAuthenticator;
+    }
+
+    /**
+     * Returns the parsed request URL, which is shared by every request using the template
+     *
+     * @return The request URL
+     */
+    URL getUrl() {
+        return this.mUrl;
+    }
+
+    /**
+     * Returns the static request parameters URL encoded as a form body.  The array is shared and
+     * must not be modified.
+     *
+     * @return The encoded request parameters, which are empty if there are none
+     */
+    byte[] getEncodedRequestParameters() {
+        return this.mEncodedRequestParameters;
+    }
+
+    /**
+     * Collects the static parts of a RequestTemplate
+     */
+    public static final class Builder {
+
+        /**
+         * The base request URL
+         */
+        private final String mBaseUrl;
+
+        /**
+         * The static query parameters
+         */
+        private final List<Pair<String, String>> mQueryParameters =
+                new ArrayList<Pair<String, String>>();
+
+        /**
+         * The static request headers
+         */
+        private final List<Pair<String, String>> mRequestHeaders =
+                new ArrayList<Pair<String, String>>();
+
+        /**
+         * The static request parameters
+         */
+        private final List<Pair<String, String>> mRequestParameters =
+                new ArrayList<Pair<String, String>>();
+
+        /**
+         * The static auth token or null if there is none
+         */
+        private String mAuthToken;
+
+        /**
+         * Provides the authentication header value or null if there is none
+         */
+        private Authenticator mAuthenticator;
+
+        /**
+         * Constructor
+         *
+         * @param baseUrl The base request URL
+         */
+        public Builder(String baseUrl) {
+            if (baseUrl == null) {
+                throw new IllegalArgumentException("Base URL cannot be null");
+            }
+            this.mBaseUrl = baseUrl;
+        }
+
+        /**
+         * Adds a static query parameter
+         *
+         * @param parameter The query parameter name
+         * @param value     The query parameter value
+         * @return The builder
+         */
+        public Builder addQueryParameter(String parameter, String value) {
+            if (parameter == null || value == null) {
+                throw new IllegalArgumentException("Parameter or value cannot be null");
+            }
+            this.mQueryParameters.add(new Pair<String, String>(parameter, value));
+            return this;
+        }
+
+        /**
+         * Adds a static request header, such as the Content-Type
+         *
+         * @param header The request header
+         * @param value  The request value
+         * @return The builder
+         */
+        public Builder addRequestHeader(String header, String value) {
+            if (header == null || value == null) {
+                throw new IllegalArgumentException("Header or value cannot be null");
+            }
+            this.mRequestHeaders.add(new Pair<String, String>(header, value));
+            return this;
+        }
+
+        /**
+         * Adds a static request parameter, which is sent as a form field
+         *
+         * @param parameter The request parameter name
+         * @param value     The request parameter value
+         * @return The builder
+         */
+        public Builder addRequestParameter(String parameter, String value) {
+            if (parameter == null || value == null) {
+                throw new IllegalArgumentException("Parameter or value cannot be null");
+            }
+            this.mRequestParameters.add(new Pair<String, String>(parameter, value));
+            return this;
+        }
+
+        /**
+         * Sets a static auth token that is sent in the Authorization header
+         *
+         * @param authToken The auth token
+         * @return The builder
+         */
+        public Builder setAuthToken(String authToken) {
+            this.mAuthToken = authToken;
+            return this;
+        }
+
+        /**
+         * Sets the Authenticator whose authentication header value is resolved each time a
+         * request is sent
+         *
+         * @param authenticator The Authenticator
+         * @return The builder
+         */
+        public Builder setAuthenticator(Authenticator authenticator) {
+            this.mAuthenticator = authenticator;
+            return this;
+        }
+
+        /**
+         * Builds the template
+         *
+         * @return The template
+         * @throws MalformedURLException If the base URL cannot be parsed
+         */
+        public RequestTemplate build() throws MalformedURLException {
+            return new RequestTemplate(this);
+        }
+
+    }
+
+}
@@ -0,0 +1,27 @@
+package com.brettnamba.tomoeame.http;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a resource changed while it was being downloaded in parts, so the parts already
+ * downloaded cannot be combined with the rest
+ *
+ * @author Brett Namba (https://github.com/bretten)
+ */
+public class ResourceChangedException extends IOException {
+
+    /**
+     * The version of the serialized form
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructor
+     *
+     * @param message How the change was detected
+     */
+    public ResourceChangedException(String message) {
+        super(message);
+    }
+
+}
@@ -0,0 +1,341 @@
+package com.brettnamba.tomoeame.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
+
+/**
+ * Byte-exact view of an HTTP response body that is read from the response stream on demand.
+ *
+ * The body can be streamed into an OutputStream, a WritableByteChannel or a reusable ByteBuffer
+ * without ever being held on the heap as a whole, parsed as JSON token by token, or decoded using
+ * the charset of the response's Content-Type.  The arrays it is copied through are borrowed from
+ * the shared BufferPool.  The body can only be consumed once.
+ *
+ * @author Brett Namba (https://github.com/bretten)
+ */
+public class ResponseBody implements Closeable {
+
+    /**
+     * The charset used when the Content-Type does not specify one
+     */
+    public static final Charset DEFAULT_CHARSET = Charset.forName("UTF-8");
+
+    /**
+     * The buffer length used when copying the body
+     */
+    private static final int BUFFER_LENGTH = 8192;
+
+    /**
+     * The largest buffer that will be allocated up front based on the Content-Length
+     */
+    private static final int MAX_PRESIZED_LENGTH = 1024 * 1024;
+
+    /**
+     * The stream the body is read from
+     */
+    private final InputStream mInputStream;
+
+    /**
+     * The value of the Content-Type header or null if there was none
+     */
+    private final String mContentType;
+
+    /**
+     * The value of the Content-Length header or -1 if it is unknown
+     */
+    private final long mContentLength;
+
+    /**
+     * Constructor
+     *
+     * @param inputStream   The stream the body is read from, which may be null for an empty body
+     * @param contentType   The value of the Content-Type header or null if there was none
+     * @param contentLength The value of the Content-Length header or -1 if it is unknown
+     */
+    public ResponseBody(InputStream inputStream, String contentType, long contentLength) {
+        this.mInputStream = inputStream;
+        this.mContentType = contentType;
+        this.mContentLength = contentLength;
+    }
+
+    /**
+     * Returns the value of the Content-Type header
+     *
+     * @return The Content-Type or null if there was none
+     */
+    public String getContentType() {
+        return this.mContentType;
+    }
+
+    /**
+     * Returns the value of the Content-Length header
+     *
+     * @return The Content-Length or -1 if it is unknown
+     */
+    public long getContentLength() {
+        return this.mContentLength;
+    }
+
+    /**
+     * Returns the charset specified by the Content-Type or UTF-8 if none was specified
+     *
+     * @return The charset of the body
+     */
+    public Charset getCharset() {
+        return parseCharset(this.mContentType, DEFAULT_CHARSET);
+    }
+
+    /**
+     * Returns the raw stream of the body
+     *
+     * @return The body stream, which may be null for an empty body
+     */
+    public InputStream byteStream() {
+        return this.mInputStream;
+    }
+
+    /**
+     * Returns a Reader that lazily decodes the body using its charset
+     *
+     * @return A Reader over the body
+     */
+    public Reader charStream() {
+        return new InputStreamReader(this.mInputStream != null ? this.mInputStream
+                : new ByteArrayInputStream(new byte[0]), this.getCharset());
+    }
+
+    /**
+     * Returns a parser that reads the body as UTF-8 JSON incrementally, so it is never held on
+     * the heap as a whole.  Closing the parser closes the body.
+     *
+     * @return The JSON parser
+     */
+    public JsonPullParser jsonParser() {
+        return new JsonPullParser(this.mInputStream != null ? this.mInputStream
+                : new ByteArrayInputStream(new byte[0]));
+    }
+
+    /**
+     * Streams the whole body into the specified OutputStream
+     *
+     * @param outputStream The sink the body is written to
+     * @return The number of bytes written
+     * @throws IOException
+     */
+    public long writeTo(OutputStream outputStream) throws IOException {
+        if (this.mInputStream == null) {
+            return 0;
+        }
+        final BufferPool bufferPool = BufferPool.getDefault();
+        final byte[] buffer = bufferPool.acquire(BUFFER_LENGTH);
+        try {
+            long total = 0;
+            int bytesRead;
+            while ((bytesRead = this.mInputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, bytesRead);
+                total += bytesRead;
+            }
+            return total;
+        } finally {
+            bufferPool.release(buffer);
+        }
+    }
+
+    /**
+     * Streams the whole body into the specified channel
+     *
+     * @param channel The sink the body is written to
+     * @return The number of bytes written
+     * @throws IOException
+     */
+    public long writeTo(WritableByteChannel channel) throws IOException {
+        if (this.mInputStream == null) {
+            return 0;
+        }
+        final BufferPool bufferPool = BufferPool.getDefault();
+        final byte[] buffer = bufferPool.acquire(BUFFER_LENGTH);
+        try {
+            final ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+            long total = 0;
+            int bytesRead;
+            while ((bytesRead = this.mInputStream.read(buffer)) != -1) {
+                byteBuffer.clear();
+                byteBuffer.limit(bytesRead);
+                while (byteBuffer.hasRemaining()) {
+                    channel.write(byteBuffer);
+                }
+                total += bytesRead;
+            }
+            return total;
+        } finally {
+            bufferPool.release(buffer);
+        }
+    }
+
+    /**
+     * Reads as much of the body as fits into the remaining space of the specified buffer.  The
+     * buffer can be drained and passed in again to read the body in fixed-size pieces.
+     *
+     * @param byteBuffer The buffer the body is read into
+     * @return The number of bytes read or -1 if the end of the body was reached
+     * @throws IOException
+     */
+    public int read(ByteBuffer byteBuffer) throws IOException {
+        if (this.mInputStream == null) {
+            return -1;
+        }
+        if (byteBuffer.hasArray()) {
+            return this.read(byteBuffer, null);
+        }
+        // Direct buffers are filled through a pooled array
+        final BufferPool bufferPool = BufferPool.getDefault();
+        final byte[] buffer = bufferPool.acquire(BUFFER_LENGTH);
+        try {
+            return this.read(byteBuffer, buffer);
+        } finally {
+            bufferPool.release(buffer);
+        }
+    }
+
+    /**
+     * Reads the whole body into a byte array
+     *
+     * @return The body bytes
+     * @throws IOException
+     */
+    public byte[] bytes() throws IOException {
+        final PooledByteArrayOutputStream outputStream = this.readAll();
+        try {
+            return outputStream.toByteArray();
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    /**
+     * Reads the whole body and decodes it using its charset.  Unlike reading line by line, all
+     * line terminators are preserved.
+     *
+     * @return The body as a String
+     * @throws IOException
+     */
+    public String string() throws IOException {
+        final PooledByteArrayOutputStream outputStream = this.readAll();
+        try {
+            return outputStream.toString(this.getCharset());
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    /**
+     * Closes the underlying stream
+     */
+    @Override
+    public void close() {
+        if (this.mInputStream != null) {
+            try {
+                this.mInputStream.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    /**
+     * Reads as much of the body as fits into the remaining space of the specified buffer
+     *
+     * @param byteBuffer The buffer the body is read into
+     * @param buffer     The array used to fill a buffer without a backing array
+     * @return The number of bytes read or -1 if the end of the body was reached
+     * @throws IOException
+     */
+    private int read(ByteBuffer byteBuffer, byte[] buffer) throws IOException {
+        int total = 0;
+        while (byteBuffer.hasRemaining()) {
+            final int bytesRead;
+            if (buffer == null) {
+                bytesRead = this.mInputStream.read(byteBuffer.array(),
+                        byteBuffer.arrayOffset() + byteBuffer.position(), byteBuffer.remaining());
+                if (bytesRead > 0) {
+                    byteBuffer.position(byteBuffer.position() + bytesRead);
+                }
+            } else {
+                bytesRead = this.mInputStream.read(buffer, 0,
+                        Math.min(buffer.length, byteBuffer.remaining()));
+                if (bytesRead > 0) {
+                    byteBuffer.put(buffer, 0, bytesRead);
+                }
+            }
+            if (bytesRead == -1) {
+                return total > 0 ? total : -1;
+            }
+            total += bytesRead;
+        }
+        return total;
+    }
+
+    /**
+     * Reads the whole body into a pooled array sized to the Content-Length when it is known and
+     * reasonable
+     *
+     * @return The stream holding the body, which must be closed to return its array to the pool
+     * @throws IOException
+     */
+    private PooledByteArrayOutputStream readAll() throws IOException {
+        final int initialLength = this.mContentLength > 0
+                && this.mContentLength <= MAX_PRESIZED_LENGTH
+                ? (int) this.mContentLength : BUFFER_LENGTH;
+        final PooledByteArrayOutputStream outputStream =
+                new PooledByteArrayOutputStream(BufferPool.getDefault(), initialLength);
+        if (this.mInputStream == null) {
+            return outputStream;
+        }
+        try {
+            outputStream.readFrom(this.mInputStream);
+        } catch (IOException | RuntimeException e) {
+            outputStream.close();
+            throw e;
+        }
+        return outputStream;
+    }
+
+    /**
+     * Parses the charset parameter of a Content-Type header value
+     *
+     * @param contentType    The Content-Type header value
+     * @param defaultCharset The charset to use if none is specified or it is not supported
+     * @return The charset
+     */
+    public static Charset parseCharset(String contentType, Charset defaultCharset) {
+        if (contentType == null) {
+            return defaultCharset;
+        }
+        final String[] parameters = contentType.split(";");
+        for (int i = 1; i < parameters.length; i++) {
+            final String parameter = parameters[i].trim();
+            if (parameter.regionMatches(true, 0, "charset=", 0, 8)) {
+                String name = parameter.substring(8).trim();
+                if (name.length() >= 2 && name.startsWith("\"") && name.endsWith("\"")) {
+                    name = name.substring(1, name.length() - 1);
+                }
+                try {
+                    return Charset.forName(name);
+                } catch (IllegalCharsetNameException | UnsupportedCharsetException e) {
+                    return defaultCharset;
+                }
+            }
+        }
+        return defaultCharset;
+    }
+
+}
@@ -0,0 +1,277 @@
+package com.brettnamba.tomoeame.http;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.MalformedURLException;
+import java.net.ProtocolException;
+import java.net.SocketTimeoutException;
+import java.util.Random;
+
+import javax.net.ssl.SSLPeerUnverifiedException;
+
+/**
+ * Decides whether a failed HTTP request attempt should be retried and how long to wait before the
+ * next attempt.
+ *
+ * The wait grows exponentially with each attempt and uses full jitter, meaning a random duration
+ * between zero and the exponential backoff is chosen, so clients that failed at the same time do
+ * not retry at the same time.  A Retry-After header on a 429 or 503 response is honored instead.
+ * Idempotent request methods are retried by default while other methods, such as POST, are only
+ * retried when enabled.  No attempt is started once the total deadline would be exceeded.
+ *
+ * @author Brett Namba (https://github.com/bretten)
+ */
+public class RetryPolicy {
+
+    /**
+     * The default maximum number of attempts, including the first one
+     */
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+
+    /**
+     * The default backoff before the second attempt
+     */
+    public static final long DEFAULT_INITIAL_BACKOFF_MILLIS = 500;
+
+    /**
+     * The default upper bound of the exponential backoff
+     */
+    public static final long DEFAULT_MAX_BACKOFF_MILLIS = 30 * 1000;
+
+    /**
+     * The default maximum duration of all attempts and the waits between them
+     */
+    public static final long DEFAULT_DEADLINE_MILLIS = 60 * 1000;
+
+    /**
+     * The Too Many Requests response code, which HttpURLConnection has no constant for
+     */
+    public static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    /**
+     * The maximum number of attempts, including the first one
+     */
+    private final int mMaxAttempts;
+
+    /**
+     * The backoff before the second attempt
+     */
+    private final long mInitialBackoffMillis;
+
+    /**
+     * The upper bound of the exponential backoff
+     */
+    private final long mMaxBackoffMillis;
+
+    /**
+     * The maximum duration of all attempts and the waits between them
+     */
+    private final long mDeadlineMillis;
+
+    /**
+     * Determines if requests with non-idempotent methods, such as POST, are retried
+     */
+    private final boolean mIsRetryingNonIdempotentRequests;
+
+    /**
+     * The source of the jitter
+     */
+    private final Random mRandom = new Random();
+
+    /**
+     * Constructs a policy with the default settings, which does not retry non-idempotent requests
+     */
+    public RetryPolicy() {
+        this(DEFAULT_MAX_ATTEMPTS, DEFAULT_INITIAL_BACKOFF_MILLIS, DEFAULT_MAX_BACKOFF_MILLIS,
+                DEFAULT_DEADLINE_MILLIS, false);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param maxAttempts                     The maximum number of attempts, including the first
+     * @param initialBackoffMillis            The backoff before the second attempt
+     * @param maxBackoffMillis                The upper bound of the exponential backoff
+     * @param deadlineMillis                  The maximum duration of all attempts and waits
+     * @param isRetryingNonIdempotentRequests True to also retry methods such as POST
+     */
+    public RetryPolicy(int maxAttempts, long initialBackoffMillis, long maxBackoffMillis,
+                       long deadlineMillis, boolean isRetryingNonIdempotentRequests) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("The maximum attempts must be at least 1");
+        }
+        if (initialBackoffMillis < 0 || maxBackoffMillis < initialBackoffMillis) {
+            throw new IllegalArgumentException("The backoff durations are invalid");
+        }
+        if (deadlineMillis <= 0) {
+            throw new IllegalArgumentException("The deadline must be greater than 0");
+        }
+        this.mMaxAttempts = maxAttempts;
+        this.mInitialBackoffMillis = initialBackoffMillis;
+        this.mMaxBackoffMillis = maxBackoffMillis;
+        this.mDeadlineMillis = deadlineMillis;
+        this.mIsRetryingNonIdempotentRequests = isRetryingNonIdempotentRequests;
+    }
+
+    /**
+     * Determines how long to wait before retrying a request whose attempt failed with an
+     * exception or ended with the specified response code
+     *
+     * @param requestMethod The HTTP request method
+     * @param attempt       The number of the attempt that just finished, starting at 1
+     * @param elapsedMillis The time elapsed since the first attempt started
+     * @param responseCode  The response code or -1 if the attempt failed with an exception
+     * @param retryAfter    The value of the Retry-After header or null if there was none
+     * @param exception     The exception the attempt failed with or null if there was a response
+     * @return The duration to wait before the next attempt or -1 if it should not be retried
+     */
+    public long getRetryDelayMillis(String requestMethod, int attempt, long elapsedMillis,
+                                    int responseCode, String retryAfter, IOException exception) {
+        if (attempt >= this.mMaxAttempts || !this.canRetry(requestMethod)) {
+            return -1;
+        }
+        if (exception != null ? !this.isRetryable(exception)
+                : !this.isRetryable(responseCode)) {
+            return -1;
+        }
+
+        // Honor the server's request to back off, otherwise use the exponential backoff
+        long delayMillis = -1;
+        if (responseCode == HTTP_TOO_MANY_REQUESTS || responseCode == 503) {
+            delayMillis = parseRetryAfterMillis(retryAfter, System.currentTimeMillis());
+        }
+        if (delayMillis < 0) {
+            delayMillis = this.getBackoffMillis(attempt);
+        }
+
+        // Do not start an attempt that would exceed the deadline
+        return elapsedMillis + delayMillis < this.mDeadlineMillis ? delayMillis : -1;
+    }
+
+    /**
+     * Determines if requests with the specified method may be retried
+     *
+     * @param requestMethod The HTTP request method
+     * @return True if the request may be retried, otherwise false
+     */
+    public boolean canRetry(String requestMethod) {
+        return this.mIsRetryingNonIdempotentRequests || isIdempotent(requestMethod);
+    }
+
+    /**
+     * Determines if an attempt that failed with the specified exception may succeed when
+     * retried.  Rejections, interrupts, malformed requests and certificate failures are not
+     * retried.
+     *
+     * @param exception The exception the attempt failed with
+     * @return True if it is worth retrying, otherwise false
+     */
+    protected boolean isRetryable(IOException exception) {
+        if (exception instanceof RejectedRequestException) {
+            // The host's limits rejected the request, so retrying would only add load
+            return false;
+        } else if (exception instanceof InterruptedIOException) {
+            // Only timeouts are worth retrying, not interrupts
+            return exception instanceof SocketTimeoutException;
+        }
+        return !(exception instanceof MalformedURLException
+                || exception instanceof ProtocolException
+                || exception instanceof SSLPeerUnverifiedException);
+    }
+
+    /**
+     * Determines if a response with the specified code may be different when retried
+     *
+     * @param responseCode The HTTP response code
+     * @return True if it is worth retrying, otherwise false
+     */
+    protected boolean isRetryable(int responseCode) {
+        switch (responseCode) {
+            case 408:
+            case HTTP_TOO_MANY_REQUESTS:
+            case 502:
+            case 503:
+            case 504:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Chooses a random backoff between zero and the exponential backoff for the attempt
+     *
+     * @param attempt The number of the attempt that just finished, starting at 1
+     * @return The backoff duration
+     */
+    protected long getBackoffMillis(int attempt) {
+        // Double the backoff for each attempt without overflowing
+        long ceilingMillis = this.mInitialBackoffMillis;
+        for (int i = 1; i < attempt && ceilingMillis < this.mMaxBackoffMillis; i++) {
+            ceilingMillis *= 2;
+        }
+        ceilingMillis = Math.min(ceilingMillis, this.mMaxBackoffMillis);
+        if (ceilingMillis <= 0) {
+            return 0;
+        }
+        synchronized (this.mRandom) {
+            return (long) (this.mRandom.nextDouble() * (ceilingMillis + 1));
+        }
+    }
+
+    /**
+     * Returns the maximum number of attempts, including the first one
+     *
+     * @return The maximum number of attempts
+     */
+    public int getMaxAttempts() {
+        return this.mMaxAttempts;
+    }
+
+    /**
+     * Returns the maximum duration of all attempts and the waits between them
+     *
+     * @return The deadline in milliseconds
+     */
+    public long getDeadlineMillis() {
+        return this.mDeadlineMillis;
+    }
+
+    /**
+     * Determines if the request method is idempotent, meaning sending it more than once has the
+     * same effect as sending it once
+     *
+     * @param requestMethod The HTTP request method
+     * @return True if it is idempotent, otherwise false
+     */
+    public static boolean isIdempotent(String requestMethod) {
+        return "GET".equals(requestMethod) || "HEAD".equals(requestMethod)
+                || "DELETE".equals(requestMethod) || "PUT".equals(requestMethod)
+                || "OPTIONS".equals(requestMethod) || "TRACE".equals(requestMethod);
+    }
+
+    /**
+     * Parses a Retry-After header value, which is either a number of seconds or an HTTP date
+     *
+     * @param retryAfter The header value
+     * @param nowMillis  The current time in milliseconds
+     * @return The duration to wait or -1 if it could not be parsed
+     */
+    public static long parseRetryAfterMillis(String retryAfter, long nowMillis) {
+        if (retryAfter == null) {
+            return -1;
+        }
+        final String value = retryAfter.trim();
+        try {
+            final long seconds = Long.parseLong(value);
+            return seconds >= 0 ? seconds * 1000 : -1;
+        } catch (NumberFormatException e) {
+        }
+        final long date = HttpResponseCache.parseHttpDate(value);
+        if (date == -1) {
+            return -1;
+        }
+        return Math.max(0, date - nowMillis);
+    }
+
+}
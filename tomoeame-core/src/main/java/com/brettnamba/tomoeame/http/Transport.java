@@ -0,0 +1,49 @@
+package com.brettnamba.tomoeame.http;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Opens the HTTP connections that requests are sent over.
+ *
+ * HttpUrlConnectionRequest only uses the HttpURLConnection API, so a transport decides how the
+ * bytes reach the server by returning its own HttpURLConnection implementation.  A transport is
+ * shared by every request sent through a client and must be safe to use from multiple threads.
+ *
+ * @author Brett Namba (https://github.com/bretten)
+ */
+public interface Transport {
+
+    /**
+     * Opens a connection to the URL, which is not connected until the request is sent
+     *
+     * @param url The request URL
+     * @return The unconnected connection
+     * @throws IOException
+     */
+    HttpURLConnection openConnection(URL url) throws IOException;
+
+    /**
+     * Determines if concurrent requests to one host share a connection
+     *
+     * @return True if requests to a host are multiplexed over one connection
+     */
+    boolean isMultiplexed();
+
+    /**
+     * Returns the number of connections the transport opened
+     *
+     * @return The number of opened connections or -1 if the transport cannot tell
+     */
+    long getOpenedConnectionCount();
+
+    /**
+     * Returns the number of requests that were sent over a connection that was already open
+     * instead of a new one
+     *
+     * @return The number of reused connections or -1 if the transport cannot tell
+     */
+    long getReusedConnectionCount();
+
+}
@@ -0,0 +1,666 @@
+package com.brettnamba.tomoeame.http;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.ProtocolException;
+import java.net.SocketException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Base HttpURLConnection of the transports that implement HTTP themselves.
+ *
+ * Handles the parts of the HttpURLConnection contract that do not depend on the protocol: the
+ * request headers and streaming mode, the order in which the request and response are sent and
+ * read, the response headers, error streams and following redirects.  Subclasses send the
+ * request and read the response of one exchange, and are called in this order: openExchange(),
+ * writeRequestHead(), newRequestBody() if the request has a body, then readResponseHead().
+ * Following a redirect starts a new exchange with openExchange().
+ *
+ * @author Brett Namba (https://github.com/bretten)
+ */
+abstract class TransportHttpURLConnection extends HttpURLConnection {
+
+    /**
+     * The maximum number of redirects that are followed
+     */
+    private static final int MAX_REDIRECTS = 20;
+
+    /**
+     * The maximum number of bytes of a redirect's body that are read to reuse the connection
+     */
+    private static final long MAX_DISCARD_BYTE_COUNT = 64 * 1024;
+
+    /**
+     * The chunk length used when no positive chunk length is set
+     */
+    protected static final int DEFAULT_CHUNK_LENGTH = 4096;
+
+    /**
+     * Orders header names case-insensitively, with the null key of the status line first
+     */
+    private static final Comparator<String> FIELD_NAME_ORDER = new Comparator<String>() {
+        @Override
+        public int compare(String lhs, String rhs) {
+            if (lhs == rhs) {
+                return 0;
+            } else if (lhs == null) {
+                return -1;
+            } else if (rhs == null) {
+                return 1;
+            }
+            return String.CASE_INSENSITIVE_ORDER.compare(lhs, rhs);
+        }
+    };
+
+    /**
+     * The names of the request headers
+     */
+    protected final List<String> mRequestHeaderNames = new ArrayList<String>();
+
+    /**
+     * The values of the request headers, at the same indexes as their names
+     */
+    protected final List<String> mRequestHeaderValues = new ArrayList<String>();
+
+    /**
+     * The names of the response headers
+     */
+    protected final List<String> mResponseHeaderNames = new ArrayList<String>();
+
+    /**
+     * The values of the response headers, at the same indexes as their names
+     */
+    protected final List<String> mResponseHeaderValues = new ArrayList<String>();
+
+    /**
+     * The length of the request body set by setFixedLengthStreamingMode() or -1
+     */
+    protected long mFixedLength = -1;
+
+    /**
+     * The chunk length set by setChunkedStreamingMode() or -1
+     */
+    protected int mChunkLength = -1;
+
+    /**
+     * The status line of the response
+     */
+    protected String mStatusLine;
+
+    /**
+     * Determines if disconnect() was called
+     */
+    private volatile boolean mIsDisconnected;
+
+    /**
+     * Determines if the request head of the current exchange was written
+     */
+    private boolean mIsRequestHeadWritten;
+
+    /**
+     * The stream the request body is written to or null if it was not opened
+     */
+    private OutputStream mRequestBody;
+
+    /**
+     * Determines if the response head was read
+     */
+    private boolean mIsResponseRead;
+
+    /**
+     * The stream of the response body
+     */
+    private InputStream mResponseBody;
+
+    /**
+     * The response headers as returned by getHeaderFields(), created when first requested
+     */
+    private Map<String, List<String>> mHeaderFields;
+
+    /**
+     * Constructor
+     *
+     * @param url The request URL
+     */
+    protected TransportHttpURLConnection(URL url) {
+        super(url);
+    }
+
+    /**
+     * Reserves what the exchange is sent over, such as a socket or a stream
+     *
+     * @throws IOException
+     */
+    protected abstract void openExchange() throws IOException;
+
+    /**
+     * Sends the request line or pseudo-headers and the request headers
+     *
+     * @throws IOException
+     */
+    protected abstract void writeRequestHead() throws IOException;
+
+    /**
+     * Creates the stream the request body is written to
+     *
+     * @return The request body stream
+     * @throws IOException
+     */
+    protected abstract OutputStream newRequestBody() throws IOException;
+
+    /**
+     * Reads the final response head, setting the status line, response code, response message
+     * and response headers
+     *
+     * @return The stream of the response body
+     * @throws IOException
+     */
+    protected abstract InputStream readResponseHead() throws IOException;
+
+    /**
+     * Gives up the exchange, if it did not finish, so that nothing else waits on it
+     */
+    protected abstract void abortExchange();
+
+    /**
+     * Reserves what the exchange is sent over and, if the request has no body, sends the request
+     *
+     * @throws IOException
+     */
+    @Override
+    public void connect() throws IOException {
+        if (this.connected) {
+            return;
+        }
+        if (this.mIsDisconnected) {
+            throw new SocketException("The connection was disconnected");
+        }
+        this.mIsRequestHeadWritten = false;
+        this.openExchange();
+        this.connected = true;
+        if (this.mIsDisconnected) {
+            this.abortExchange();
+            throw new SocketException("The connection was disconnected");
+        }
+        if (!this.hasRequestBody()) {
+            this.sendRequestHead();
+        }
+    }
+
+    /**
+     * Aborts the exchange unless the response was already read to the end
+     */
+    @Override
+    public void disconnect() {
+        this.mIsDisconnected = true;
+        this.abortExchange();
+    }
+
+    /**
+     * Determines if the connection goes through a proxy
+     *
+     * @return False, since the transports always connect directly
+     */
+    @Override
+    public boolean usingProxy() {
+        return false;
+    }
+
+    /**
+     * Sets the length of the request body, so it is sent with a Content-Length
+     *
+     * @param contentLength The length of the request body
+     */
+    @Override
+    public void setFixedLengthStreamingMode(int contentLength) {
+        this.setFixedLengthStreamingMode((long) contentLength);
+    }
+
+    /**
+     * Sets the length of the request body, so it is sent with a Content-Length
+     *
+     * @param contentLength The length of the request body
+     */
+    @Override
+    public void setFixedLengthStreamingMode(long contentLength) {
+        if (this.connected) {
+            throw new IllegalStateException("Already connected");
+        }
+        if (contentLength < 0) {
+            throw new IllegalArgumentException("Content length cannot be negative");
+        }
+        this.mFixedLength = contentLength;
+        this.mChunkLength = -1;
+    }
+
+    /**
+     * Streams the request body in chunks of the specified length
+     *
+     * @param chunkLength The chunk length
+     */
+    @Override
+    public void setChunkedStreamingMode(int chunkLength) {
+        if (this.connected) {
+            throw new IllegalStateException("Already connected");
+        }
+        this.mChunkLength = chunkLength > 0 ? chunkLength : DEFAULT_CHUNK_LENGTH;
+        this.mFixedLength = -1;
+    }
+
+    /**
+     * Sets a request header, replacing any values it already has
+     *
+     * @param key   The header name
+     * @param value The header value
+     */
+    @Override
+    public void setRequestProperty(String key, String value) {
+        this.checkRequestProperty(key);
+        for (int i = this.mRequestHeaderNames.size() - 1; i >= 0; i--) {
+            if (key.equalsIgnoreCase(this.mRequestHeaderNames.get(i))) {
+                this.mRequestHeaderNames.remove(i);
+                this.mRequestHeaderValues.remove(i);
+            }
+        }
+        this.addRequestProperty(key, value);
+    }
+
+    /**
+     * Adds a value to a request header
+     *
+     * @param key   The header name
+     * @param value The header value
+     */
+    @Override
+    public void addRequestProperty(String key, String value) {
+        this.checkRequestProperty(key);
+        this.mRequestHeaderNames.add(key);
+        this.mRequestHeaderValues.add(value);
+    }
+
+    /**
+     * Returns the last value of a request header
+     *
+     * @param key The header name
+     * @return The value or null if the header is not set
+     */
+    @Override
+    public String getRequestProperty(String key) {
+        if (key == null) {
+            return null;
+        }
+        for (int i = this.mRequestHeaderNames.size() - 1; i >= 0; i--) {
+            if (key.equalsIgnoreCase(this.mRequestHeaderNames.get(i))) {
+                return this.mRequestHeaderValues.get(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the request headers
+     *
+     * @return The unmodifiable request headers
+     */
+    @Override
+    public Map<String, List<String>> getRequestProperties() {
+        if (this.connected) {
+            throw new IllegalStateException("Already connected");
+        }
+        return toMultimap(null, this.mRequestHeaderNames, this.mRequestHeaderValues);
+    }
+
+    /**
+     * Sends the request head and returns the stream the request body is written to
+     *
+     * @return The request body stream
+     * @throws IOException
+     */
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        if (this.mRequestBody != null) {
+            return this.mRequestBody;
+        }
+        if (this.mIsResponseRead) {
+            throw new ProtocolException("Cannot write the request body after the response");
+        }
+        if (!this.hasRequestBody()) {
+            if ("GET".equals(this.method) || "HEAD".equals(this.method)) {
+                throw new ProtocolException(this.method + " does not support a request body");
+            }
+            this.doOutput = true;
+        }
+        if (this.mFixedLength < 0 && this.mChunkLength <= 0) {
+            // Stream a body of unknown length in chunks
+            this.mChunkLength = DEFAULT_CHUNK_LENGTH;
+        }
+        this.connect();
+        this.sendRequestHead();
+        this.mRequestBody = this.newRequestBody();
+        return this.mRequestBody;
+    }
+
+    /**
+     * Returns the response code, reading the response head if it was not read yet
+     *
+     * @return The response code
+     * @throws IOException
+     */
+    @Override
+    public int getResponseCode() throws IOException {
+        this.readResponse();
+        return this.responseCode;
+    }
+
+    /**
+     * Returns the response body of a response with a success or redirect status code
+     *
+     * @return The response body stream
+     * @throws IOException If the status code is an error code
+     */
+    @Override
+    public InputStream getInputStream() throws IOException {
+        if (!this.doInput) {
+            throw new ProtocolException("Input is disabled");
+        }
+        this.readResponse();
+        if (this.responseCode == HTTP_NOT_FOUND || this.responseCode == HTTP_GONE) {
+            throw new FileNotFoundException(this.url.toString());
+        } else if (this.responseCode >= HTTP_BAD_REQUEST) {
+            throw new IOException("Server returned HTTP response code: " + this.responseCode
+                    + " for URL: " + this.url);
+        }
+        return this.mResponseBody;
+    }
+
+    /**
+     * Returns the response body of a response with an error status code
+     *
+     * @return The response body stream or null if the response was not an error
+     */
+    @Override
+    public InputStream getErrorStream() {
+        if (!this.mIsResponseRead || this.responseCode < HTTP_BAD_REQUEST) {
+            return null;
+        }
+        return this.mResponseBody;
+    }
+
+    /**
+     * Returns the last value of a response header
+     *
+     * @param name The header name
+     * @return The value or null if the header is not set or the response failed
+     */
+    @Override
+    public String getHeaderField(String name) {
+        if (!this.readResponseQuietly()) {
+            return null;
+        }
+        if (name == null) {
+            return this.mStatusLine;
+        }
+        for (int i = this.mResponseHeaderNames.size() - 1; i >= 0; i--) {
+            if (name.equalsIgnoreCase(this.mResponseHeaderNames.get(i))) {
+                return this.mResponseHeaderValues.get(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the value of the response header at the position, where 0 is the status line
+     *
+     * @param n The position
+     * @return The value or null if there is no header at the position
+     */
+    @Override
+    public String getHeaderField(int n) {
+        if (!this.readResponseQuietly() || n < 0 || n > this.mResponseHeaderValues.size()) {
+            return null;
+        }
+        return n == 0 ? this.mStatusLine : this.mResponseHeaderValues.get(n - 1);
+    }
+
+    /**
+     * Returns the name of the response header at the position, where 0 is the status line
+     *
+     * @param n The position
+     * @return The name or null if there is no header at the position
+     */
+    @Override
+    public String getHeaderFieldKey(int n) {
+        if (!this.readResponseQuietly() || n <= 0 || n > this.mResponseHeaderNames.size()) {
+            return null;
+        }
+        return this.mResponseHeaderNames.get(n - 1);
+    }
+
+    /**
+     * Returns the response headers, with the status line under the null key
+     *
+     * @return The unmodifiable response headers or an empty map if the response failed
+     */
+    @Override
+    public Map<String, List<String>> getHeaderFields() {
+        if (!this.readResponseQuietly()) {
+            return Collections.emptyMap();
+        }
+        if (this.mHeaderFields == null) {
+            this.mHeaderFields = toMultimap(this.mStatusLine, this.mResponseHeaderNames,
+                    this.mResponseHeaderValues);
+        }
+        return this.mHeaderFields;
+    }
+
+    /**
+     * Determines if the request has a body
+     *
+     * @return True if a streaming mode was set or output is enabled
+     */
+    protected boolean hasRequestBody() {
+        return this.mFixedLength >= 0 || this.mChunkLength > 0 || this.doOutput;
+    }
+
+    /**
+     * Determines if the request can be sent again without side effects
+     *
+     * @return True if it is a GET or HEAD request without a body
+     */
+    protected boolean isIdempotent() {
+        return !this.hasRequestBody() && ("GET".equals(this.method) || "HEAD".equals(this.method));
+    }
+
+    /**
+     * Returns the first value of a response header that was read
+     *
+     * @param name The header name
+     * @return The value or null if the header is not set
+     */
+    protected String getResponseHeaderValue(String name) {
+        for (int i = 0; i < this.mResponseHeaderNames.size(); i++) {
+            if (name.equalsIgnoreCase(this.mResponseHeaderNames.get(i))) {
+                return this.mResponseHeaderValues.get(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Checks that a request header can be set
+     *
+     * @param key The header name
+     */
+    private void checkRequestProperty(String key) {
+        if (this.connected) {
+            throw new IllegalStateException("Already connected");
+        }
+        if (key == null) {
+            throw new NullPointerException("key is null");
+        }
+    }
+
+    /**
+     * Sends the request head of the exchange if it was not sent yet
+     *
+     * @throws IOException
+     */
+    private void sendRequestHead() throws IOException {
+        if (!this.mIsRequestHeadWritten) {
+            this.writeRequestHead();
+            this.mIsRequestHeadWritten = true;
+        }
+    }
+
+    /**
+     * Reads the response head, if it was not read yet, following redirects
+     *
+     * @throws IOException
+     */
+    private void readResponse() throws IOException {
+        if (this.mIsResponseRead) {
+            return;
+        }
+        int redirectCount = 0;
+        while (true) {
+            this.connect();
+            try {
+                if (this.mRequestBody != null) {
+                    this.mRequestBody.close();
+                } else if (!this.mIsRequestHeadWritten) {
+                    // The request has a body that was never opened, so send it empty
+                    this.getOutputStream().close();
+                }
+                this.mResponseHeaderNames.clear();
+                this.mResponseHeaderValues.clear();
+                this.mResponseBody = this.readResponseHead();
+                this.mIsResponseRead = true;
+            } catch (IOException | RuntimeException e) {
+                this.abortExchange();
+                throw e;
+            }
+            final URL location = this.getRedirectLocation();
+            if (location == null) {
+                return;
+            }
+            if (++redirectCount > MAX_REDIRECTS) {
+                throw new ProtocolException("Too many redirects: " + redirectCount);
+            }
+            // Discard the redirect's body and send the request again to the new location
+            this.discardResponseBody();
+            this.url = location;
+            this.connected = false;
+            this.mIsResponseRead = false;
+            this.mHeaderFields = null;
+        }
+    }
+
+    /**
+     * Reads the rest of a small response body so the connection can be reused, and closes it
+     */
+    private void discardResponseBody() {
+        final BufferPool bufferPool = BufferPool.getDefault();
+        final byte[] buffer = bufferPool.acquire(BufferPool.MIN_POOLED_LENGTH);
+        try {
+            long remaining = MAX_DISCARD_BYTE_COUNT;
+            int bytesRead;
+            while (remaining >= 0 && (bytesRead = this.mResponseBody.read(buffer)) != -1) {
+                remaining -= bytesRead;
+            }
+        } catch (IOException e) {
+            // The exchange was aborted, so the connection is not reused
+        } finally {
+            bufferPool.release(buffer);
+            try {
+                this.mResponseBody.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    /**
+     * Reads the response head, swallowing the failure
+     *
+     * @return True if the response head was read
+     */
+    private boolean readResponseQuietly() {
+        try {
+            this.readResponse();
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Determines where a redirect response should be followed to
+     *
+     * @return The location or null if the response should not be followed
+     */
+    private URL getRedirectLocation() {
+        if (!this.getInstanceFollowRedirects() || !this.isIdempotent()) {
+            return null;
+        }
+        switch (this.responseCode) {
+            case HTTP_MULT_CHOICE:
+            case HTTP_MOVED_PERM:
+            case HTTP_MOVED_TEMP:
+            case HTTP_SEE_OTHER:
+            case 307:
+            case 308:
+                break;
+            default:
+                return null;
+        }
+        final String location = this.getResponseHeaderValue("Location");
+        if (location == null) {
+            return null;
+        }
+        try {
+            final URL redirect = new URL(this.url, location);
+            // Redirects to another protocol are left to the caller
+            return this.url.getProtocol().equals(redirect.getProtocol()) ? redirect : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Creates a map of the headers with lists of their values
+     *
+     * @param statusLine The status line stored under the null key or null if there is none
+     * @param names      The header names
+     * @param values     The header values
+     * @return The unmodifiable map
+     */
+    private static Map<String, List<String>> toMultimap(String statusLine, List<String> names,
+                                                        List<String> values) {
+        final Map<String, List<String>> multimap =
+                new TreeMap<String, List<String>>(FIELD_NAME_ORDER);
+        if (statusLine != null) {
+            multimap.put(null, Collections.singletonList(statusLine));
+        }
+        for (int i = 0; i < names.size(); i++) {
+            List<String> list = multimap.get(names.get(i));
+            if (list == null) {
+                list = new ArrayList<String>(1);
+                multimap.put(names.get(i), list);
+            }
+            list.add(values.get(i));
+        }
+        for (Map.Entry<String, List<String>> entry : multimap.entrySet()) {
+            entry.setValue(Collections.unmodifiableList(entry.getValue()));
+        }
+        return Collections.unmodifiableMap(multimap);
+    }
+
+}
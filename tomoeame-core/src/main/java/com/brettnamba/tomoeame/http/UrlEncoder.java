@@ -0,0 +1,164 @@
+package com.brettnamba.tomoeame.http;
+
+/**
+ * Utility class for percent-encoding text as application/x-www-form-urlencoded UTF-8.
+ *
+ * The output matches URLEncoder.encode(text, "UTF-8"), but the text is encoded straight into a
+ * byte array instead of through intermediate Strings and byte arrays.  The encoded length can be
+ * computed up front, so a query string or form body is written into a single array of the exact
+ * size without any per-field garbage.
+ *
+ * @author Brett Namba (https://github.com/bretten)
+ */
+public final class UrlEncoder {
+
+    /**
+     * The uppercase hexadecimal digits of the percent-encoded bytes
+     */
+    private static final byte[] HEX_DIGITS = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9',
+            'A', 'B', 'C', 'D', 'E', 'F'};
+
+    /**
+     * The ASCII characters that are written as is
+     */
+    private static final boolean[] UNRESERVED = new boolean[128];
+
+    static {
+        for (char c = 'a'; c <= 'z'; c++) {
+            UNRESERVED[c] = true;
+        }
+        for (char c = 'A'; c <= 'Z'; c++) {
+            UNRESERVED[c] = true;
+        }
+        for (char c = '0'; c <= '9'; c++) {
+            UNRESERVED[c] = true;
+        }
+        UNRESERVED['.'] = true;
+        UNRESERVED['-'] = true;
+        UNRESERVED['*'] = true;
+        UNRESERVED['_'] = true;
+    }
+
+    /**
+     * Private constructor to prevent instantiation
+     */
+    private UrlEncoder() {
+    }
+
+    /**
+     * Determines the number of bytes the text is encoded to, without encoding it
+     *
+     * @param text The text to encode, where null is treated as empty
+     * @return The encoded length
+     */
+    public static int encodedLength(CharSequence text) {
+        if (text == null) {
+            return 0;
+        }
+        final int length = text.length();
+        int encodedLength = 0;
+        for (int i = 0; i < length; i++) {
+            final char c = text.charAt(i);
+            if (c < 0x80) {
+                encodedLength += UNRESERVED[c] || c == ' ' ? 1 : 3;
+            } else if (c < 0x800) {
+                encodedLength += 6;
+            } else if (isSurrogatePair(text, i, length)) {
+                encodedLength += 12;
+                i++;
+            } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                // Unpaired surrogates are replaced with '?' like String.getBytes() does
+                encodedLength += 3;
+            } else {
+                encodedLength += 9;
+            }
+        }
+        return encodedLength;
+    }
+
+    /**
+     * Encodes the text into the array, which must have room for encodedLength(text) bytes
+     *
+     * @param text   The text to encode, where null is treated as empty
+     * @param dest   The array the encoded bytes are written to
+     * @param offset The index of the first byte to write
+     * @return The index after the last byte written
+     */
+    public static int encode(CharSequence text, byte[] dest, int offset) {
+        if (text == null) {
+            return offset;
+        }
+        final int length = text.length();
+        int position = offset;
+        for (int i = 0; i < length; i++) {
+            final char c = text.charAt(i);
+            if (c < 0x80) {
+                if (UNRESERVED[c]) {
+                    dest[position++] = (byte) c;
+                } else if (c == ' ') {
+                    dest[position++] = '+';
+                } else {
+                    position = percentEncode(c, dest, position);
+                }
+            } else if (c < 0x800) {
+                position = percentEncode(0xC0 | (c >> 6), dest, position);
+                position = percentEncode(0x80 | (c & 0x3F), dest, position);
+            } else if (isSurrogatePair(text, i, length)) {
+                final int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                position = percentEncode(0xF0 | (codePoint >> 18), dest, position);
+                position = percentEncode(0x80 | ((codePoint >> 12) & 0x3F), dest, position);
+                position = percentEncode(0x80 | ((codePoint >> 6) & 0x3F), dest, position);
+                position = percentEncode(0x80 | (codePoint & 0x3F), dest, position);
+            } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                // Unpaired surrogates are replaced with '?' like String.getBytes() does
+                position = percentEncode('?', dest, position);
+            } else {
+                position = percentEncode(0xE0 | (c >> 12), dest, position);
+                position = percentEncode(0x80 | ((c >> 6) & 0x3F), dest, position);
+                position = percentEncode(0x80 | (c & 0x3F), dest, position);
+            }
+        }
+        return position;
+    }
+
+    /**
+     * Encodes the text into a new array of the exact encoded length
+     *
+     * @param text The text to encode, where null is treated as empty
+     * @return The encoded bytes
+     */
+    public static byte[] encode(CharSequence text) {
+        final byte[] bytes = new byte[encodedLength(text)];
+        encode(text, bytes, 0);
+        return bytes;
+    }
+
+    /**
+     * Writes a byte as a percent sign followed by two hexadecimal digits
+     *
+     * @param b        The byte
+     * @param dest     The array the encoded byte is written to
+     * @param position The index of the percent sign
+     * @return The index after the encoded byte
+     */
+    private static int percentEncode(int b, byte[] dest, int position) {
+        dest[position] = '%';
+        dest[position + 1] = HEX_DIGITS[(b >> 4) & 0xF];
+        dest[position + 2] = HEX_DIGITS[b & 0xF];
+        return position + 3;
+    }
+
+    /**
+     * Determines if the character at the index starts a valid surrogate pair
+     *
+     * @param text   The text
+     * @param index  The index of the character
+     * @param length The length of the text
+     * @return True if it is a high surrogate followed by a low surrogate
+     */
+    private static boolean isSurrogatePair(CharSequence text, int index, int length) {
+        return Character.isHighSurrogate(text.charAt(index)) && index + 1 < length
+                && Character.isLowSurrogate(text.charAt(index + 1));
+    }
+
+}
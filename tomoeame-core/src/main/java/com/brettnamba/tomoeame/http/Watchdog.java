@@ -0,0 +1,191 @@
+package com.brettnamba.tomoeame.http;
+
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs actions when their timeouts expire unless the timeouts are cancelled first.
+ *
+ * Blocking HttpURLConnection calls cannot be interrupted, so timeouts that the connection does
+ * not support on its own, such as write timeouts and total deadlines, are enforced by an action
+ * that disconnects the connection from a single background thread.  Scheduling and cancelling a
+ * timeout only locks briefly, so timeouts can be scheduled around every write.  The thread is
+ * started when needed and stops once no timeouts were scheduled for a while.
+ *
+ * @author Brett Namba (https://github.com/bretten)
+ */
+public class Watchdog {
+
+    /**
+     * The duration the thread waits for new timeouts before it stops
+     */
+    private static final long IDLE_TIMEOUT_MILLIS = 60 * 1000;
+
+    /**
+     * The lazily created watchdog shared by all requests
+     */
+    private static Watchdog sDefaultWatchdog;
+
+    /**
+     * The scheduled timeouts ordered by their deadlines
+     */
+    private final PriorityQueue<Timeout> mTimeouts = new PriorityQueue<Timeout>(16,
+            new Comparator<Timeout>() {
+                @Override
+                public int compare(Timeout lhs, Timeout rhs) {
+                    // Compare the difference since System.nanoTime() values may overflow
+                    final long difference = lhs.mDeadlineNanos - rhs.mDeadlineNanos;
+                    return difference < 0 ? -1 : difference > 0 ? 1 : 0;
+                }
+            });
+
+    /**
+     * The thread the actions are run on, or null if it is not running
+     */
+    private Thread mThread;
+
+    /**
+     * Returns the shared watchdog, creating it if it does not exist yet
+     *
+     * @return The shared watchdog
+     */
+    public static synchronized Watchdog getDefault() {
+        if (sDefaultWatchdog == null) {
+            sDefaultWatchdog = new Watchdog();
+        }
+        return sDefaultWatchdog;
+    }
+
+    /**
+     * Schedules an action to run once the timeout expires
+     *
+     * @param timeoutMillis The duration after which the action is run
+     * @param action        The action, which should return quickly
+     * @return The timeout, which must be cancelled if the action should no longer run
+     */
+    public Timeout schedule(long timeoutMillis, Runnable action) {
+        if (timeoutMillis <= 0 || action == null) {
+            throw new IllegalArgumentException("Timeout must be positive and action not null");
+        }
+        final Timeout timeout = new Timeout(this,
+                System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis), action);
+        synchronized (this) {
+            this.mTimeouts.add(timeout);
+            if (this.mThread == null) {
+                this.mThread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Watchdog.this.runTimeouts();
+                    }
+                }, "tomoeame-watchdog");
+                this.mThread.setDaemon(true);
+                this.mThread.start();
+            } else if (this.mTimeouts.peek() == timeout) {
+                // Wake the thread since this deadline is earlier than the one it is waiting for
+                this.notify();
+            }
+        }
+        return timeout;
+    }
+
+    /**
+     * Returns the number of timeouts that are scheduled
+     *
+     * @return The scheduled timeout count
+     */
+    public synchronized int getScheduledCount() {
+        return this.mTimeouts.size();
+    }
+
+    /**
+     * Removes the timeout so its action does not run
+     *
+     * @param timeout The timeout
+     * @return True if it was removed, false if its action already ran
+     */
+    private synchronized boolean cancel(Timeout timeout) {
+        return this.mTimeouts.remove(timeout);
+    }
+
+    /**
+     * Waits for timeouts to expire and runs their actions until there are no more timeouts
+     */
+    private void runTimeouts() {
+        while (true) {
+            final Timeout expiredTimeout;
+            synchronized (this) {
+                try {
+                    final Timeout timeout = this.mTimeouts.peek();
+                    if (timeout == null) {
+                        this.wait(IDLE_TIMEOUT_MILLIS);
+                        if (this.mTimeouts.isEmpty()) {
+                            this.mThread = null;
+                            return;
+                        }
+                        continue;
+                    }
+                    final long remainingNanos = timeout.mDeadlineNanos - System.nanoTime();
+                    if (remainingNanos > 0) {
+                        TimeUnit.NANOSECONDS.timedWait(this, remainingNanos);
+                        continue;
+                    }
+                    expiredTimeout = this.mTimeouts.poll();
+                } catch (InterruptedException e) {
+                    this.mThread = null;
+                    return;
+                }
+            }
+            try {
+                expiredTimeout.mAction.run();
+            } catch (RuntimeException e) {
+                // A failing action must not stop the other timeouts
+            }
+        }
+    }
+
+    /**
+     * A scheduled action
+     */
+    public static final class Timeout {
+
+        /**
+         * The watchdog the timeout is scheduled on
+         */
+        private final Watchdog mWatchdog;
+
+        /**
+         * The System.nanoTime() at which the action runs
+         */
+        private final long mDeadlineNanos;
+
+        /**
+         * The action that runs when the timeout expires
+         */
+        private final Runnable mAction;
+
+        /**
+         * Constructor
+         *
+         * @param watchdog      The watchdog the timeout is scheduled on
+         * @param deadlineNanos The System.nanoTime() at which the action runs
+         * @param action        The action that runs when the timeout expires
+         */
+        private Timeout(Watchdog watchdog, long deadlineNanos, Runnable action) {
+            this.mWatchdog = watchdog;
+            this.mDeadlineNanos = deadlineNanos;
+            this.mAction = action;
+        }
+
+        /**
+         * Cancels the timeout so its action does not run
+         *
+         * @return True if it was cancelled, false if its action already ran or is running
+         */
+        public boolean cancel() {
+            return this.mWatchdog.cancel(this);
+        }
+
+    }
+
+}
@@ -0,0 +1,174 @@
+package com.brettnamba.tomoeame.http;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Checks that the header of an Authenticator is resolved when a request is sent or connected,
+ * and that a header rejected with a 401 is invalidated and replaced exactly once
+ */
+public class AuthenticatorTest {
+
+    /**
+     * The only header value the server accepts
+     */
+    private static final String VALID_HEADER = "Bearer token-2";
+
+    /**
+     * The server that requires VALID_HEADER
+     */
+    private TestServer mServer;
+
+    /**
+     * The client the requests are sent through
+     */
+    private HttpClient mClient;
+
+    @Before
+    public void setUp() throws IOException {
+        this.mServer = new TestServer(new TestServer.Handler() {
+            @Override
+            public boolean respond(TestServer.Request request, OutputStream out)
+                    throws IOException {
+                if (VALID_HEADER.equals(request.getHeader("Authorization"))) {
+                    TestServer.writeResponse(out, 200, "", TestServer.ascii("ok"));
+                } else {
+                    TestServer.writeResponse(out, 401, "WWW-Authenticate: Bearer\r\n",
+                            TestServer.ascii("unauthorized"));
+                }
+                return true;
+            }
+        });
+        this.mClient = new HttpClient();
+    }
+
+    @After
+    public void tearDown() {
+        this.mServer.close();
+    }
+
+    @Test
+    public void sendReplacesRejectedHeader() {
+        final TokenAuthenticator authenticator = new TokenAuthenticator("token-1", "token-2");
+        final HttpUrlGetRequest request =
+                new HttpUrlGetRequest(this.mServer.getUrl() + "/items", authenticator);
+        request.send(this.mClient);
+
+        assertNull(request.getException());
+        assertEquals(200, request.getResponseCode());
+        assertEquals("ok", request.getResponseBody());
+        assertEquals(2, this.mServer.getRequestCount());
+        assertEquals(Collections.singletonList("Bearer token-1"), authenticator.mInvalidated);
+    }
+
+    @Test
+    public void connectReplacesRejectedHeader() {
+        final TokenAuthenticator authenticator = new TokenAuthenticator("token-1", "token-2");
+        this.mClient.setAuthenticator(authenticator);
+        final HttpUrlGetRequest request = new HttpUrlGetRequest(this.mServer.getUrl() + "/items");
+        request.connect(this.mClient);
+        try {
+            assertNull(request.getException());
+            assertEquals(200, request.getResponseCode());
+            assertEquals(2, this.mServer.getRequestCount());
+            assertEquals(VALID_HEADER, this.mServer.getLastRequest().getHeader("Authorization"));
+            assertEquals(Collections.singletonList("Bearer token-1"), authenticator.mInvalidated);
+        } finally {
+            request.close();
+        }
+    }
+
+    @Test
+    public void connectSendsResolvedHeader() {
+        final TokenAuthenticator authenticator = new TokenAuthenticator("token-2");
+        final HttpUrlGetRequest request =
+                new HttpUrlGetRequest(this.mServer.getUrl() + "/items", authenticator);
+        request.connect(this.mClient);
+        try {
+            assertEquals(200, request.getResponseCode());
+            assertEquals(1, this.mServer.getRequestCount());
+            assertEquals(0, authenticator.mInvalidated.size());
+        } finally {
+            request.close();
+        }
+    }
+
+    @Test
+    public void replacesHeaderOnlyOnce() {
+        final TokenAuthenticator authenticator =
+                new TokenAuthenticator("token-1", "token-3", "token-2");
+        final HttpUrlGetRequest sentRequest =
+                new HttpUrlGetRequest(this.mServer.getUrl() + "/items", authenticator);
+        sentRequest.send(this.mClient);
+        assertEquals(401, sentRequest.getResponseCode());
+        assertEquals(2, this.mServer.getRequestCount());
+        assertEquals(1, authenticator.mInvalidated.size());
+
+        final TokenAuthenticator connectAuthenticator =
+                new TokenAuthenticator("token-1", "token-3", "token-2");
+        final HttpUrlGetRequest connectedRequest =
+                new HttpUrlGetRequest(this.mServer.getUrl() + "/items", connectAuthenticator);
+        connectedRequest.connect(this.mClient);
+        try {
+            assertEquals(401, connectedRequest.getResponseCode());
+            assertEquals(4, this.mServer.getRequestCount());
+            assertEquals(1, connectAuthenticator.mInvalidated.size());
+        } finally {
+            connectedRequest.close();
+        }
+    }
+
+    /**
+     * Hands out bearer tokens in order, moving to the next one when the current one is
+     * invalidated
+     */
+    private static final class TokenAuthenticator implements Authenticator {
+
+        /**
+         * The tokens in the order they are handed out
+         */
+        private final String[] mTokens;
+
+        /**
+         * The index of the current token
+         */
+        private int mIndex;
+
+        /**
+         * The header values that were invalidated
+         */
+        final List<String> mInvalidated = new ArrayList<String>();
+
+        /**
+         * Constructor
+         *
+         * @param tokens The tokens in the order they are handed out
+         */
+        TokenAuthenticator(String... tokens) {
+            this.mTokens = tokens;
+        }
+
+        @Override
+        public synchronized String getAuthHeaderValue() {
+            return "Bearer " + this.mTokens[Math.min(this.mIndex, this.mTokens.length - 1)];
+        }
+
+        @Override
+        public synchronized void invalidate(String headerValue) {
+            this.mInvalidated.add(headerValue);
+            this.mIndex++;
+        }
+
+    }
+
+}
@@ -0,0 +1,83 @@
+package com.brettnamba.tomoeame.http;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that the BufferPool serves arrays from the smallest size class that fits, keeps no more
+ * than its maximum, and that a pool tracking its loans rejects double and foreign releases
+ */
+public class BufferPoolTest {
+
+    @Test
+    public void reusesReleasedArrays() {
+        final BufferPool pool = new BufferPool();
+        final byte[] buffer = pool.acquire(5000);
+        assertEquals(8 * 1024, buffer.length);
+        pool.release(buffer);
+        assertEquals(8 * 1024, pool.getRetainedBytes());
+
+        assertSame(buffer, pool.acquire(8 * 1024));
+        assertEquals(0, pool.getRetainedBytes());
+        assertEquals(1, pool.getAllocatedCount());
+        assertEquals(1, pool.getReusedCount());
+    }
+
+    @Test
+    public void keepsAtMostMaxRetainedBytes() {
+        final BufferPool pool = new BufferPool(8 * 1024);
+        final byte[] first = pool.acquire(BufferPool.MIN_POOLED_LENGTH);
+        final byte[] second = pool.acquire(BufferPool.MIN_POOLED_LENGTH);
+        final byte[] third = pool.acquire(BufferPool.MIN_POOLED_LENGTH);
+        pool.release(first);
+        pool.release(second);
+        pool.release(third);
+
+        assertEquals(8 * 1024, pool.getRetainedBytes());
+        assertEquals(1, pool.getDiscardedCount());
+    }
+
+    @Test
+    public void neverPoolsLargeOrOddArrays() {
+        final BufferPool pool = new BufferPool();
+        final byte[] large = pool.acquire(BufferPool.MAX_POOLED_LENGTH + 1);
+        assertEquals(BufferPool.MAX_POOLED_LENGTH + 1, large.length);
+        pool.release(large);
+        pool.release(new byte[5000]);
+
+        assertEquals(0, pool.getRetainedBytes());
+        assertEquals(2, pool.getDiscardedCount());
+    }
+
+    @Test
+    public void rejectsDoubleReleaseWhenTrackingLoans() {
+        final BufferPool pool = new BufferPool(BufferPool.DEFAULT_MAX_RETAINED_BYTES, true);
+        final byte[] buffer = pool.acquire(BufferPool.MIN_POOLED_LENGTH);
+        assertEquals(1, pool.getLoanCount());
+        pool.release(buffer);
+        assertEquals(0, pool.getLoanCount());
+
+        try {
+            pool.release(buffer);
+            fail("A released array cannot be released again");
+        } catch (IllegalArgumentException e) {
+        }
+        assertEquals(BufferPool.MIN_POOLED_LENGTH, pool.getRetainedBytes());
+    }
+
+    @Test
+    public void rejectsForeignReleaseWhenTrackingLoans() {
+        final BufferPool pool = new BufferPool(BufferPool.DEFAULT_MAX_RETAINED_BYTES, true);
+        try {
+            pool.release(new byte[BufferPool.MIN_POOLED_LENGTH]);
+            fail("An array the pool did not lend out cannot be released to it");
+        } catch (IllegalArgumentException e) {
+        }
+        assertEquals(0, pool.getRetainedBytes());
+        assertEquals(-1, new BufferPool().getLoanCount());
+    }
+
+}
@@ -0,0 +1,130 @@
+package com.brettnamba.tomoeame.http;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that cancel() stops a request from another thread wherever it is waiting, releases the
+ * host's permits, and that a canceled request is never sent again
+ */
+public class CancelTest {
+
+    /**
+     * The number of milliseconds to wait for a thread to finish
+     */
+    private static final long JOIN_MILLIS = 5000;
+
+    /**
+     * Released to let the server finish
+     */
+    private final CountDownLatch mRelease = new CountDownLatch(1);
+
+    /**
+     * The stalling server whose responses and retry backoffs are canceled
+     */
+    private TestServer mServer;
+
+    @Before
+    public void setUp() throws IOException {
+        this.mServer = TestServer.stalling(this.mRelease);
+    }
+
+    @After
+    public void tearDown() {
+        this.mRelease.countDown();
+        this.mServer.close();
+    }
+
+    @Test
+    public void stopsStalledResponse() throws Exception {
+        final HttpClient client = new HttpClient();
+        client.setConcurrencyLimiter(new ConcurrencyLimiter(1, 1, 8, 0.5));
+        final HttpUrlGetRequest request = new HttpUrlGetRequest(this.mServer.getUrl() + "/slow");
+        final Thread thread = this.startSend(client, request);
+        while (this.mServer.getRequestCount() == 0) {
+            Thread.sleep(5);
+        }
+
+        request.cancel();
+        thread.join(JOIN_MILLIS);
+
+        assertFalse(thread.isAlive());
+        assertTrue(request.isCanceled());
+        assertTrue(request.getException() instanceof InterruptedIOException);
+        final String hostKey = HttpClient.getHostKey(new URL(this.mServer.getUrl()));
+        assertEquals(0, client.getConcurrencyLimiter(hostKey).getInFlightCount());
+    }
+
+    @Test
+    public void stopsRetryBackoff() throws Exception {
+        final HttpUrlGetRequest request =
+                new HttpUrlGetRequest(this.mServer.getUrl() + "/unavailable");
+        request.setRetryPolicy(new RetryPolicy());
+        final Thread thread = this.startSend(new HttpClient(), request);
+        while (this.mServer.getRequestCount() == 0) {
+            Thread.sleep(5);
+        }
+
+        request.cancel();
+        thread.join(JOIN_MILLIS);
+
+        assertFalse(thread.isAlive());
+        assertTrue(request.getException() instanceof InterruptedIOException);
+        assertEquals(1, this.mServer.getRequestCount());
+    }
+
+    @Test
+    public void neverSendsCanceledRequest() {
+        final HttpUrlGetRequest request = new HttpUrlGetRequest(this.mServer.getUrl() + "/items");
+        request.cancel();
+        request.send();
+
+        assertTrue(request.getException() instanceof InterruptedIOException);
+        assertEquals(0, this.mServer.getRequestCount());
+        assertFalse(Thread.interrupted());
+    }
+
+    @Test
+    public void cancelingFutureCancelsRequest() throws Exception {
+        final HttpClient client = new HttpClient();
+        final HttpUrlGetRequest request = new HttpUrlGetRequest(this.mServer.getUrl() + "/slow");
+        final Future<HttpUrlConnectionRequest> future = client.submit(request);
+        while (this.mServer.getRequestCount() == 0) {
+            Thread.sleep(5);
+        }
+
+        assertTrue(future.cancel(true));
+        assertTrue(request.isCanceled());
+        client.getDispatcher().shutdown();
+    }
+
+    /**
+     * Sends the request through the client on a new thread
+     *
+     * @param client  The client
+     * @param request The request
+     * @return The thread
+     */
+    private Thread startSend(final HttpClient client, final HttpUrlGetRequest request) {
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                request.send(client);
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+}
@@ -0,0 +1,207 @@
+package com.brettnamba.tomoeame.http;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the CircuitBreaker opens at its failure rate and closes after its trial calls, and
+ * that requests only report the outcomes of real exchanges with the host to it
+ */
+public class CircuitBreakerTest {
+
+    /**
+     * The number of milliseconds to wait for a thread to finish
+     */
+    private static final long JOIN_MILLIS = 10000;
+
+    /**
+     * Released to let the server answer requests for /slow
+     */
+    private final CountDownLatch mRelease = new CountDownLatch(1);
+
+    /**
+     * The server that answers /error with a 500, /slow once released and anything else with a
+     * 200
+     */
+    private TestServer mServer;
+
+    @Before
+    public void setUp() throws IOException {
+        this.mServer = new TestServer(new TestServer.Handler() {
+            @Override
+            public boolean respond(TestServer.Request request, OutputStream out)
+                    throws IOException {
+                if (request.getPath().startsWith("/slow")) {
+                    try {
+                        CircuitBreakerTest.this.mRelease.await();
+                    } catch (InterruptedException e) {
+                        return false;
+                    }
+                }
+                final int code = request.getPath().startsWith("/error") ? 500 : 200;
+                TestServer.writeResponse(out, code, "", TestServer.ascii("body"));
+                return true;
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        this.mRelease.countDown();
+        this.mServer.close();
+    }
+
+    @Test
+    public void opensAtFailureRate() {
+        final CircuitBreaker breaker = new CircuitBreaker(4, 4, 0.5f, 1000, 60000, 1);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(breaker.tryAcquire());
+            breaker.onResult(i == 0, 1);
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+        assertTrue(breaker.tryAcquire());
+        breaker.onResult(true, 1);
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire());
+        assertEquals(1, breaker.getRejectedCount());
+    }
+
+    @Test
+    public void countsSlowCallsAsFailures() {
+        final CircuitBreaker breaker = new CircuitBreaker(2, 2, 1f, 100, 60000, 1);
+        assertTrue(breaker.tryAcquire());
+        breaker.onResult(false, 100);
+        assertTrue(breaker.tryAcquire());
+        breaker.onResult(false, 150);
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void closesAfterTrialCalls() throws Exception {
+        final CircuitBreaker breaker = new CircuitBreaker(1, 1, 1f, 1000, 50, 2);
+        assertTrue(breaker.tryAcquire());
+        breaker.onResult(true, 1);
+        Thread.sleep(100);
+
+        // Only the trial calls are let through, and an ignored one gives its trial back
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertTrue(breaker.tryAcquire());
+        assertTrue(breaker.tryAcquire());
+        assertFalse(breaker.tryAcquire());
+        breaker.onIgnored();
+        assertTrue(breaker.tryAcquire());
+
+        breaker.onResult(false, 1);
+        breaker.onResult(false, 1);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void rejectsRequestsOnceOpen() throws Exception {
+        final HttpClient client = new HttpClient();
+        client.setCircuitBreaker(new CircuitBreaker(2, 2, 1f, 10000, 60000, 1));
+        for (int i = 0; i < 2; i++) {
+            final HttpUrlGetRequest request = this.newRequest("/error");
+            request.send(client);
+            assertEquals(500, request.getResponseCode());
+        }
+
+        final HttpUrlGetRequest rejected = this.newRequest("/items");
+        rejected.send(client);
+
+        assertTrue(rejected.getException() instanceof RejectedRequestException);
+        assertEquals(2, this.mServer.getRequestCount());
+        assertEquals(CircuitBreaker.State.OPEN, this.getBreaker(client).getState());
+    }
+
+    @Test
+    public void ignoresRequestsRejectedBeforeExchange() throws Exception {
+        final HttpClient client = new HttpClient();
+        client.setCircuitBreaker(new CircuitBreaker(1, 1, 1f, 10000, 60000, 1));
+        client.setConcurrencyLimiter(new ConcurrencyLimiter(1, 1, 8, 0.5));
+        final String hostKey = HttpClient.getHostKey(new URL(this.mServer.getUrl()));
+        final ConcurrencyLimiter limiter = client.getConcurrencyLimiter(hostKey);
+        assertTrue(limiter.tryAcquire());
+
+        final HttpUrlGetRequest request = this.newRequest("/items");
+        request.send(client);
+        limiter.onIgnored();
+
+        assertTrue(request.getException() instanceof RejectedRequestException);
+        assertEquals(0, this.mServer.getRequestCount());
+        assertEquals(CircuitBreaker.State.CLOSED, this.getBreaker(client).getState());
+        assertEquals(1, limiter.getLimit());
+        assertEquals(0, limiter.getInFlightCount());
+    }
+
+    @Test
+    public void ignoresCanceledRequests() throws Exception {
+        final HttpClient client = new HttpClient();
+        client.setCircuitBreaker(new CircuitBreaker(1, 1, 1f, 10000, 60000, 1));
+        final HttpUrlGetRequest request = this.newRequest("/slow");
+        final Thread thread = this.startSend(client, request);
+        while (this.mServer.getRequestCount() == 0) {
+            Thread.sleep(5);
+        }
+
+        request.cancel();
+        thread.join(JOIN_MILLIS);
+
+        assertTrue(request.getException() instanceof InterruptedIOException);
+        assertEquals(CircuitBreaker.State.CLOSED, this.getBreaker(client).getState());
+    }
+
+    /**
+     * Creates a GET request for the specified path of the server
+     *
+     * @param path The path
+     * @return The request
+     */
+    private HttpUrlGetRequest newRequest(String path) {
+        return new HttpUrlGetRequest(this.mServer.getUrl() + path);
+    }
+
+    /**
+     * Gets the client's breaker for the server's host
+     *
+     * @param client The client
+     * @return The breaker
+     * @throws IOException
+     */
+    private CircuitBreaker getBreaker(HttpClient client) throws IOException {
+        return client.getCircuitBreaker(HttpClient.getHostKey(new URL(this.mServer.getUrl())));
+    }
+
+    /**
+     * Sends the request through the client on a new thread
+     *
+     * @param client  The client
+     * @param request The request
+     * @return The thread
+     */
+    private Thread startSend(final HttpClient client, final HttpUrlGetRequest request) {
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                request.send(client);
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+}
@@ -0,0 +1,119 @@
+package com.brettnamba.tomoeame.http;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that the ConcurrencyLimiter raises its limit additively, lowers it multiplicatively
+ * and that requests report their outcomes to it
+ */
+public class ConcurrencyLimiterTest {
+
+    /**
+     * The server that answers /busy with a 429 and anything else with a 200
+     */
+    private TestServer mServer;
+
+    @Before
+    public void setUp() throws IOException {
+        this.mServer = new TestServer(new TestServer.Handler() {
+            @Override
+            public boolean respond(TestServer.Request request, OutputStream out)
+                    throws IOException {
+                final int code = request.getPath().startsWith("/busy") ? 429 : 200;
+                TestServer.writeResponse(out, code, "", TestServer.ascii("body"));
+                return true;
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        this.mServer.close();
+    }
+
+    @Test
+    public void rejectsCallsBeyondLimit() {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(2, 1, 4, 0.5);
+        assertTrue(limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire());
+        assertFalse(limiter.tryAcquire());
+        assertEquals(1, limiter.getRejectedCount());
+
+        limiter.onIgnored();
+        assertEquals(1, limiter.getInFlightCount());
+        assertEquals(2, limiter.getLimit());
+        assertTrue(limiter.tryAcquire());
+    }
+
+    @Test
+    public void raisesAndLowersLimit() {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(2, 1, 3, 0.5);
+
+        // Each success adds 1 / limit, so about a full limit of successes raises it by one
+        for (int i = 0; i < 2; i++) {
+            assertTrue(limiter.tryAcquire());
+            limiter.onSuccess();
+        }
+        assertEquals(2, limiter.getLimit());
+        assertTrue(limiter.tryAcquire());
+        limiter.onSuccess();
+        assertEquals(3, limiter.getLimit());
+        for (int i = 0; i < 6; i++) {
+            assertTrue(limiter.tryAcquire());
+            limiter.onSuccess();
+        }
+        assertEquals(3, limiter.getLimit());
+
+        assertTrue(limiter.tryAcquire());
+        limiter.onDropped();
+        assertEquals(1, limiter.getLimit());
+        assertTrue(limiter.tryAcquire());
+        limiter.onDropped();
+        assertEquals(1, limiter.getLimit());
+        assertEquals(0, limiter.getInFlightCount());
+    }
+
+    @Test
+    public void rejectsInvalidSettings() {
+        try {
+            new ConcurrencyLimiter(8, 1, 4, 0.5);
+            fail("The initial limit must not exceed the maximum");
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            new ConcurrencyLimiter(2, 1, 4, 1);
+            fail("The backoff ratio must be below 1");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    @Test
+    public void lowersLimitOnTooManyRequests() throws Exception {
+        final HttpClient client = new HttpClient();
+        client.setConcurrencyLimiter(new ConcurrencyLimiter(4, 1, 8, 0.5));
+        final String hostKey = HttpClient.getHostKey(new URL(this.mServer.getUrl()));
+        final ConcurrencyLimiter limiter = client.getConcurrencyLimiter(hostKey);
+
+        final HttpUrlGetRequest busy = new HttpUrlGetRequest(this.mServer.getUrl() + "/busy");
+        busy.send(client);
+        assertEquals(429, busy.getResponseCode());
+        assertEquals(2, limiter.getLimit());
+
+        final HttpUrlGetRequest ok = new HttpUrlGetRequest(this.mServer.getUrl() + "/items");
+        ok.send(client);
+        assertEquals(200, ok.getResponseCode());
+        assertEquals(0, limiter.getInFlightCount());
+    }
+
+}
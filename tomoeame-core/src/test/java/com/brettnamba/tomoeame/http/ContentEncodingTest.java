@@ -0,0 +1,130 @@
+package com.brettnamba.tomoeame.http;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that gzip and deflate responses are decoded transparently and that request bodies are
+ * only gzipped when compression is enabled and the body reaches the threshold
+ */
+public class ContentEncodingTest {
+
+    /**
+     * The text the server compresses
+     */
+    private static final String TEXT = repeat("compressible text\n", 200);
+
+    /**
+     * The server that gzips its response to /gzip and answers anything else with "ok"
+     */
+    private TestServer mServer;
+
+    @Before
+    public void setUp() throws IOException {
+        this.mServer = new TestServer(new TestServer.Handler() {
+            @Override
+            public boolean respond(TestServer.Request request, OutputStream out)
+                    throws IOException {
+                if (request.getPath().startsWith("/gzip")) {
+                    TestServer.writeResponse(out, 200, "Content-Encoding: gzip\r\n",
+                            ContentEncoding.gzip(TestServer.ascii(TEXT)));
+                } else {
+                    TestServer.writeResponse(out, 200, "", TestServer.ascii("ok"));
+                }
+                return true;
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        this.mServer.close();
+    }
+
+    @Test
+    public void decodesGzipResponse() {
+        final HttpUrlGetRequest request = new HttpUrlGetRequest(this.mServer.getUrl() + "/gzip");
+        request.send();
+
+        assertNull(request.getException());
+        assertEquals(TEXT, request.getResponseBody());
+        assertEquals(ContentEncoding.ACCEPT_ENCODING,
+                this.mServer.getLastRequest().getHeader("Accept-Encoding"));
+    }
+
+    @Test
+    public void decodesWrappedAndRawDeflate() throws IOException {
+        final byte[] text = TestServer.ascii(TEXT);
+        for (boolean isRaw : new boolean[]{false, true}) {
+            final ByteArrayOutputStream deflated = new ByteArrayOutputStream();
+            final DeflaterOutputStream out = new DeflaterOutputStream(deflated,
+                    new Deflater(Deflater.DEFAULT_COMPRESSION, isRaw));
+            out.write(text);
+            out.close();
+
+            final byte[] decoded = TestServer.readAll(ContentEncoding.decode(
+                    new ByteArrayInputStream(deflated.toByteArray()), ContentEncoding.DEFLATE));
+            assertTrue(Arrays.equals(text, decoded));
+        }
+    }
+
+    @Test
+    public void compressesLargeRequestBody() throws IOException {
+        final HttpUrlWwwFormRequest request =
+                new HttpUrlWwwFormRequest(this.mServer.getUrl() + "/form");
+        request.setRequestCompressionEnabled(true);
+        request.addRequestParameter("text", repeat("a", 2000));
+        request.send();
+
+        final TestServer.Request received = this.mServer.getLastRequest();
+        assertEquals(ContentEncoding.GZIP, received.getHeader("Content-Encoding"));
+        assertEquals(String.valueOf(received.getBody().length),
+                received.getHeader("Content-Length"));
+        final byte[] body = TestServer.readAll(
+                new GZIPInputStream(new ByteArrayInputStream(received.getBody())));
+        assertEquals("text=" + repeat("a", 2000), new String(body, "US-ASCII"));
+    }
+
+    @Test
+    public void sendsSmallRequestBodyAsIs() throws IOException {
+        final HttpUrlWwwFormRequest request =
+                new HttpUrlWwwFormRequest(this.mServer.getUrl() + "/form");
+        request.setRequestCompressionEnabled(true);
+        request.addRequestParameter("text", "short");
+        request.send();
+
+        final TestServer.Request received = this.mServer.getLastRequest();
+        assertNull(received.getHeader("Content-Encoding"));
+        assertEquals("text=short", new String(received.getBody(), "US-ASCII"));
+    }
+
+    /**
+     * Repeats text
+     *
+     * @param text  The text
+     * @param count The number of times it is repeated
+     * @return The repeated text
+     */
+    private static String repeat(String text, int count) {
+        final StringBuilder builder = new StringBuilder(text.length() * count);
+        for (int i = 0; i < count; i++) {
+            builder.append(text);
+        }
+        return builder.toString();
+    }
+
+}
@@ -0,0 +1,211 @@
+package com.brettnamba.tomoeame.http;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks the overall and per-host limits of the Dispatcher, and that every call it drops without
+ * running is still completed
+ */
+public class DispatcherTest {
+
+    /**
+     * The number of seconds to wait for calls to run
+     */
+    private static final long TIMEOUT_SECONDS = 10;
+
+    /**
+     * Released to let the blocking calls finish
+     */
+    private final CountDownLatch mRelease = new CountDownLatch(1);
+
+    @After
+    public void tearDown() {
+        this.mRelease.countDown();
+    }
+
+    @Test
+    public void limitsCallsPerHost() throws Exception {
+        final Dispatcher dispatcher = new Dispatcher(4, 2);
+        final CountDownLatch done = new CountDownLatch(5);
+        for (int i = 0; i < 4; i++) {
+            dispatcher.enqueue("a", this.newBlockingCall(done));
+        }
+        dispatcher.enqueue("b", this.newBlockingCall(done));
+
+        // Two calls to "a" wait for a slot of their host, while "b" runs alongside
+        assertEquals(3, dispatcher.getRunningCallCount());
+        assertEquals(2, dispatcher.getQueuedCallCount());
+
+        this.mRelease.countDown();
+        assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        dispatcher.shutdown();
+    }
+
+    @Test
+    public void completesCanceledCalls() throws Exception {
+        final Dispatcher dispatcher = new Dispatcher(1, 1);
+        dispatcher.enqueue("a", this.newBlockingCall(new CountDownLatch(1)));
+        final FutureTask<String> future = newFuture();
+        final CountingDroppable droppable = new CountingDroppable();
+        dispatcher.enqueue("a", future);
+        dispatcher.enqueue("a", droppable);
+
+        dispatcher.cancelQueuedCalls();
+
+        assertEquals(0, dispatcher.getQueuedCallCount());
+        assertTrue(future.isCancelled());
+        assertEquals(1, droppable.mDroppedCount.get());
+        assertEquals(0, droppable.mRunCount.get());
+        dispatcher.shutdown();
+    }
+
+    @Test
+    public void rejectsCallsAfterShutdown() throws Exception {
+        final Dispatcher dispatcher = new Dispatcher(1, 1);
+        dispatcher.enqueue("a", this.newBlockingCall(new CountDownLatch(1)));
+        final CountingDroppable queued = new CountingDroppable();
+        dispatcher.enqueue("a", queued);
+
+        dispatcher.shutdown();
+
+        assertTrue(dispatcher.isShutdown());
+        assertEquals(1, queued.mDroppedCount.get());
+        final CountingDroppable late = new CountingDroppable();
+        try {
+            dispatcher.enqueue("a", late);
+            fail("A shut down dispatcher should reject calls");
+        } catch (RejectedExecutionException e) {
+        }
+        assertEquals(0, late.mRunCount.get());
+        assertEquals(0, dispatcher.getQueuedCallCount());
+    }
+
+    @Test
+    public void givesSlotsBackWhenExecutorRejects() throws Exception {
+        final ExecutorService executorService = Executors.newSingleThreadExecutor();
+        executorService.shutdown();
+        final Dispatcher dispatcher = new Dispatcher(executorService, 2, 2);
+        final CountingDroppable first = new CountingDroppable();
+        final CountingDroppable second = new CountingDroppable();
+        final CountingDroppable third = new CountingDroppable();
+
+        dispatcher.enqueue("a", first);
+        dispatcher.enqueue("a", second);
+        dispatcher.enqueue("a", third);
+
+        // Without giving the slots back, the third call would wait forever in the queue
+        assertEquals(1, first.mDroppedCount.get());
+        assertEquals(1, second.mDroppedCount.get());
+        assertEquals(1, third.mDroppedCount.get());
+        assertEquals(0, dispatcher.getRunningCallCount());
+        assertEquals(0, dispatcher.getQueuedCallCount());
+    }
+
+    @Test
+    public void failsDroppedClientCalls() throws Exception {
+        final Dispatcher dispatcher = new Dispatcher(1, 1);
+        final HttpClient client = new HttpClient(dispatcher);
+        dispatcher.enqueue("a", this.newBlockingCall(new CountDownLatch(1)));
+        final AtomicReference<IOException> failure = new AtomicReference<IOException>();
+        final HttpUrlGetRequest request = new HttpUrlGetRequest("http://127.0.0.1:9/items");
+        client.enqueue(request, new HttpClient.Callback() {
+            @Override
+            public void onResponse(HttpUrlConnectionRequest request) {
+            }
+
+            @Override
+            public void onFailure(HttpUrlConnectionRequest request, IOException e) {
+                failure.set(e);
+            }
+        });
+        final Future<HttpUrlConnectionRequest> future =
+                client.submit(new HttpUrlGetRequest("http://127.0.0.1:9/items"));
+
+        dispatcher.cancelQueuedCalls();
+
+        assertTrue(failure.get() instanceof InterruptedIOException);
+        assertTrue(future.isCancelled());
+        dispatcher.shutdown();
+    }
+
+    /**
+     * Creates a call that blocks until the test releases it
+     *
+     * @param done Counted down once the call has finished
+     * @return The call
+     */
+    private Runnable newBlockingCall(final CountDownLatch done) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    DispatcherTest.this.mRelease.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            }
+        };
+    }
+
+    /**
+     * Creates a Future that completes with a String
+     *
+     * @return The Future
+     */
+    private static FutureTask<String> newFuture() {
+        return new FutureTask<String>(new Callable<String>() {
+            @Override
+            public String call() {
+                return "ran";
+            }
+        });
+    }
+
+    /**
+     * Counts how many times it was run and dropped
+     */
+    private static final class CountingDroppable implements Dispatcher.Droppable {
+
+        /**
+         * The number of times it was run
+         */
+        final AtomicInteger mRunCount = new AtomicInteger();
+
+        /**
+         * The number of times it was dropped
+         */
+        final AtomicInteger mDroppedCount = new AtomicInteger();
+
+        @Override
+        public void run() {
+            this.mRunCount.incrementAndGet();
+        }
+
+        @Override
+        public void onDropped() {
+            this.mDroppedCount.incrementAndGet();
+        }
+
+    }
+
+}
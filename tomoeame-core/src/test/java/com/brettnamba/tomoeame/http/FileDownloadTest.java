@@ -0,0 +1,470 @@
+package com.brettnamba.tomoeame.http;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Downloads files in parallel segments from a server that supports Range requests, checking that
+ * a download cut off by the network resumes where it stopped from a new FileDownload, and that a
+ * resource that changed in between is downloaded again instead of being stitched together
+ */
+public class FileDownloadTest {
+
+    /**
+     * The length of the resource
+     */
+    private static final int RESOURCE_LENGTH = 1024 * 1024;
+
+    /**
+     * Serves the resource
+     */
+    private RangeHandler mHandler;
+
+    /**
+     * The server the resource is downloaded from
+     */
+    private TestServer mServer;
+
+    /**
+     * The client the requests are sent through
+     */
+    private HttpClient mClient;
+
+    /**
+     * The file the resource is downloaded to
+     */
+    private File mDestination;
+
+    @Before
+    public void setUp() throws IOException {
+        this.mHandler = new RangeHandler(newContent(7), "\"v1\"");
+        this.mServer = new TestServer(this.mHandler);
+        this.mClient = new HttpClient();
+        this.mDestination = File.createTempFile("download", ".bin");
+        this.mDestination.delete();
+    }
+
+    @After
+    public void tearDown() {
+        this.mServer.close();
+        this.mDestination.delete();
+        new File(this.mDestination.getPath() + ".part").delete();
+        new File(this.mDestination.getPath() + ".part.state").delete();
+    }
+
+    @Test
+    public void parsesContentRange() {
+        assertTrue(Arrays.equals(new long[]{0, 499, 1234},
+                FileDownload.parseContentRange("bytes 0-499/1234")));
+        assertTrue(Arrays.equals(new long[]{-1, -1, 1234},
+                FileDownload.parseContentRange("bytes */1234")));
+        assertTrue(Arrays.equals(new long[]{5, 9, -1},
+                FileDownload.parseContentRange("bytes 5-9/*")));
+        assertNull(FileDownload.parseContentRange("items 0-1/2"));
+        assertNull(FileDownload.parseContentRange("bytes 0-x/2"));
+        assertNull(FileDownload.parseContentRange(null));
+    }
+
+    @Test
+    public void downloadsInParallelSegments() throws Exception {
+        final FileDownload download = this.newDownload();
+        download.download(this.mClient);
+
+        this.assertDownloaded(this.mHandler.getContent());
+        assertEquals(RESOURCE_LENGTH, download.getLength());
+        assertEquals(RESOURCE_LENGTH, download.getBytesDownloaded());
+        // The probe and then one request per segment, each validated with If-Range
+        assertEquals(5, this.mServer.getRequestCount());
+        assertEquals(4, this.mHandler.getValidatedRequestCount());
+        assertFalse(new File(this.mDestination.getPath() + ".part.state").exists());
+    }
+
+    @Test
+    public void resumesAfterNetworkLoss() throws Exception {
+        this.mHandler.setByteBudget(RESOURCE_LENGTH / 2);
+        try {
+            this.newDownload().download(this.mClient);
+            fail("The download should have failed once the network was lost");
+        } catch (IOException e) {
+        }
+        assertFalse(this.mDestination.exists());
+        assertTrue(new File(this.mDestination.getPath() + ".part.state").exists());
+
+        // A new instance stands in for the process being restarted
+        this.mHandler.setByteBudget(Long.MAX_VALUE);
+        final long bytesServed = this.mHandler.getBytesServed();
+        final FileDownload download = this.newDownload();
+        download.download(this.mClient);
+
+        this.assertDownloaded(this.mHandler.getContent());
+        final long resumedBytes = this.mHandler.getBytesServed() - bytesServed;
+        assertTrue("Resuming served " + resumedBytes + " bytes",
+                resumedBytes < RESOURCE_LENGTH * 3 / 4);
+    }
+
+    @Test
+    public void startsOverWhenResourceChanged() throws Exception {
+        this.mHandler.setByteBudget(RESOURCE_LENGTH / 2);
+        try {
+            this.newDownload().download(this.mClient);
+            fail("The download should have failed once the network was lost");
+        } catch (IOException e) {
+        }
+
+        final byte[] newContent = newContent(8);
+        this.mHandler.setContent(newContent, "\"v2\"");
+        this.mHandler.setByteBudget(Long.MAX_VALUE);
+        this.newDownload().download(this.mClient);
+
+        this.assertDownloaded(newContent);
+    }
+
+    @Test
+    public void downloadsWholeWithoutRangeSupport() throws Exception {
+        this.mHandler.setRangesSupported(false);
+        final FileDownload download = this.newDownload();
+        download.download(this.mClient);
+
+        this.assertDownloaded(this.mHandler.getContent());
+        assertEquals(1, this.mServer.getRequestCount());
+        assertFalse(new File(this.mDestination.getPath() + ".part.state").exists());
+    }
+
+    @Test
+    public void sendsAuthenticationHeader() throws Exception {
+        this.mHandler.setRequiredAuthHeader("Bearer fresh");
+        final List<String> invalidated = new ArrayList<String>();
+        final FileDownload download = this.newDownload();
+        download.setAuthenticator(new Authenticator() {
+            @Override
+            public synchronized String getAuthHeaderValue() {
+                return invalidated.isEmpty() ? "Bearer stale" : "Bearer fresh";
+            }
+
+            @Override
+            public synchronized void invalidate(String headerValue) {
+                invalidated.add(headerValue);
+            }
+        });
+        download.download(this.mClient);
+
+        this.assertDownloaded(this.mHandler.getContent());
+        // Only the probe was rejected, and the segments were sent with the fresh header
+        assertEquals(Collections.singletonList("Bearer stale"), invalidated);
+        assertEquals(6, this.mServer.getRequestCount());
+    }
+
+    @Test
+    public void sendsClientAuthenticationHeader() throws Exception {
+        this.mHandler.setRequiredAuthHeader("Bearer token");
+        this.mClient.setAuthenticator(new Authenticator() {
+            @Override
+            public String getAuthHeaderValue() {
+                return "Bearer token";
+            }
+
+            @Override
+            public void invalidate(String headerValue) {
+            }
+        });
+        this.newDownload().download(this.mClient);
+
+        this.assertDownloaded(this.mHandler.getContent());
+        assertEquals(5, this.mServer.getRequestCount());
+    }
+
+    @Test
+    public void downloadsWhenDispatcherIsShutDown() throws Exception {
+        this.mClient.getDispatcher().shutdown();
+        final FileDownload download = this.newDownload();
+        download.download(this.mClient);
+
+        // The segments the Dispatcher rejected are downloaded on the calling thread
+        this.assertDownloaded(this.mHandler.getContent());
+        assertEquals(5, this.mServer.getRequestCount());
+    }
+
+    @Test
+    public void failsWhenSegmentsAreDropped() throws Exception {
+        final Dispatcher dispatcher = new Dispatcher(1, 1);
+        this.mClient = new HttpClient(dispatcher);
+        final CountDownLatch release = new CountDownLatch(1);
+        dispatcher.enqueue("blocker", new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        final FileDownload download = this.newDownload();
+        final AtomicReference<IOException> failure = new AtomicReference<IOException>();
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    download.download(FileDownloadTest.this.mClient);
+                } catch (IOException e) {
+                    failure.set(e);
+                }
+            }
+        });
+        thread.start();
+        try {
+            // The segments wait behind the blocking call until they are dropped
+            while (dispatcher.getQueuedCallCount() < 3) {
+                Thread.sleep(10);
+            }
+            dispatcher.cancelQueuedCalls();
+            thread.join(TimeUnit.SECONDS.toMillis(10));
+        } finally {
+            release.countDown();
+        }
+
+        assertFalse("The download should not wait for dropped segments", thread.isAlive());
+        assertTrue(failure.get() instanceof InterruptedIOException);
+        assertFalse(this.mDestination.exists());
+
+        // The progress was kept, so a new download resumes it
+        final FileDownload resumed = this.newDownload();
+        resumed.download(new HttpClient());
+        this.assertDownloaded(this.mHandler.getContent());
+        assertEquals(RESOURCE_LENGTH, resumed.getBytesDownloaded());
+    }
+
+    /**
+     * Creates a download of the resource in up to 4 segments
+     *
+     * @return The download
+     */
+    private FileDownload newDownload() {
+        final FileDownload download = new FileDownload(this.mServer.getUrl() + "/resource",
+                this.mDestination);
+        download.setSegmentCount(4);
+        download.setMinSegmentLength(RESOURCE_LENGTH / 8);
+        return download;
+    }
+
+    /**
+     * Checks that the destination holds the content
+     *
+     * @param content The expected content
+     * @throws IOException
+     */
+    private void assertDownloaded(byte[] content) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final InputStream in = new FileInputStream(this.mDestination);
+        try {
+            final byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+        assertTrue(Arrays.equals(content, out.toByteArray()));
+    }
+
+    /**
+     * Creates random content for the resource
+     *
+     * @param seed The seed of the content
+     * @return The content
+     */
+    private static byte[] newContent(long seed) {
+        final byte[] content = new byte[RESOURCE_LENGTH];
+        new Random(seed).nextBytes(content);
+        return content;
+    }
+
+    /**
+     * Serves one resource with an ETag and answers Range requests whose If-Range matches with a
+     * 206.  It can stop serving once it has written a number of body bytes, closing the
+     * connection mid-body as a lost network would.
+     */
+    private static final class RangeHandler implements TestServer.Handler {
+
+        /**
+         * The content of the resource
+         */
+        private volatile byte[] mContent;
+
+        /**
+         * The ETag of the resource
+         */
+        private volatile String mETag;
+
+        /**
+         * Determines if Range requests are answered with a 206
+         */
+        private volatile boolean mIsRangesSupported = true;
+
+        /**
+         * The Authorization header requests must have or null if none is required
+         */
+        private volatile String mRequiredAuthHeader;
+
+        /**
+         * The number of body bytes that can still be written before connections are closed
+         */
+        private final AtomicLong mByteBudget = new AtomicLong(Long.MAX_VALUE);
+
+        /**
+         * The number of body bytes written
+         */
+        private final AtomicLong mBytesServed = new AtomicLong();
+
+        /**
+         * The number of requests with an If-Range header
+         */
+        private final AtomicInteger mValidatedRequestCount = new AtomicInteger();
+
+        /**
+         * Constructor
+         *
+         * @param content The content of the resource
+         * @param eTag    The ETag of the resource
+         */
+        RangeHandler(byte[] content, String eTag) {
+            this.setContent(content, eTag);
+        }
+
+        /**
+         * Replaces the resource
+         *
+         * @param content The content of the resource
+         * @param eTag    The ETag of the resource
+         */
+        void setContent(byte[] content, String eTag) {
+            this.mContent = content;
+            this.mETag = eTag;
+        }
+
+        /**
+         * Returns the content of the resource
+         *
+         * @return The content
+         */
+        byte[] getContent() {
+            return this.mContent;
+        }
+
+        /**
+         * Sets if Range requests are answered with a 206 or ignored
+         *
+         * @param isRangesSupported True if they are answered with a 206
+         */
+        void setRangesSupported(boolean isRangesSupported) {
+            this.mIsRangesSupported = isRangesSupported;
+        }
+
+        /**
+         * Sets the Authorization header requests must have, answering the others with a 401
+         *
+         * @param requiredAuthHeader The header value or null if none is required
+         */
+        void setRequiredAuthHeader(String requiredAuthHeader) {
+            this.mRequiredAuthHeader = requiredAuthHeader;
+        }
+
+        /**
+         * Sets the number of body bytes that can be written before connections are closed
+         *
+         * @param byteBudget The number of bytes
+         */
+        void setByteBudget(long byteBudget) {
+            this.mByteBudget.set(byteBudget);
+        }
+
+        /**
+         * Returns the number of body bytes written
+         *
+         * @return The number of bytes
+         */
+        long getBytesServed() {
+            return this.mBytesServed.get();
+        }
+
+        /**
+         * Returns the number of requests with an If-Range header
+         *
+         * @return The number of requests
+         */
+        int getValidatedRequestCount() {
+            return this.mValidatedRequestCount.get();
+        }
+
+        @Override
+        public boolean respond(TestServer.Request request, OutputStream out) throws IOException {
+            final String requiredAuthHeader = this.mRequiredAuthHeader;
+            if (requiredAuthHeader != null
+                    && !requiredAuthHeader.equals(request.getHeader("Authorization"))) {
+                TestServer.writeResponse(out, 401, "", TestServer.ascii("unauthorized"));
+                return true;
+            }
+            final byte[] content = this.mContent;
+            final String eTag = this.mETag;
+            final String range = request.getHeader("Range");
+            final String ifRange = request.getHeader("If-Range");
+            if (ifRange != null) {
+                this.mValidatedRequestCount.incrementAndGet();
+            }
+            final StringBuilder head = new StringBuilder();
+            int start = 0;
+            int end = content.length;
+            if (this.mIsRangesSupported && range != null && range.startsWith("bytes=")
+                    && (ifRange == null || ifRange.equals(eTag))) {
+                final int dash = range.indexOf('-');
+                start = Integer.parseInt(range.substring(6, dash));
+                end = Math.min(content.length, Integer.parseInt(range.substring(dash + 1)) + 1);
+                head.append("HTTP/1.1 206 Partial Content\r\nContent-Range: bytes ").append(start)
+                        .append('-').append(end - 1).append('/').append(content.length)
+                        .append("\r\n");
+            } else {
+                head.append("HTTP/1.1 200 OK\r\n");
+            }
+            if (this.mIsRangesSupported) {
+                head.append("ETag: ").append(eTag).append("\r\n");
+            }
+            head.append("Content-Length: ").append(end - start).append("\r\n\r\n");
+            out.write(TestServer.ascii(head.toString()));
+
+            final int length = end - start;
+            final long budget = this.mByteBudget.getAndAdd(-length);
+            final int written = (int) Math.max(0, Math.min(length, budget));
+            out.write(content, start, written);
+            this.mBytesServed.addAndGet(written);
+            return written == length;
+        }
+
+    }
+
+}
@@ -0,0 +1,238 @@
+package com.brettnamba.tomoeame.http;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.net.ProtocolException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks the HPACK encoder and decoder against the examples of RFC 7541 Appendix C, the eviction
+ * and resizing of the dynamic table, and that malformed header blocks are rejected
+ */
+public class HpackTest {
+
+    /**
+     * The headers of the request examples, one block per row
+     */
+    private static final String[][] REQUESTS = {
+            {":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com"},
+            {":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com",
+                    "cache-control", "no-cache"},
+            {":method", "GET", ":scheme", "https", ":path", "/index.html", ":authority",
+                    "www.example.com", "custom-key", "custom-value"}
+    };
+
+    /**
+     * The request examples of C.3, without Huffman coding
+     */
+    private static final String[] PLAIN_REQUEST_BLOCKS = {
+            "828684410f7777772e6578616d706c652e636f6d",
+            "828684be58086e6f2d6361636865",
+            "828785bf400a637573746f6d2d6b65790c637573746f6d2d76616c7565"
+    };
+
+    /**
+     * The request examples of C.4, with Huffman coding
+     */
+    private static final String[] HUFFMAN_REQUEST_BLOCKS = {
+            "828684418cf1e3c2e5f23a6ba0ab90f4ff",
+            "828684be5886a8eb10649cbf",
+            "828785bf408825a849e95ba97d7f8925a849e95bb8e8b4bf"
+    };
+
+    @Test
+    public void decodesPlainRequestExamples() throws Exception {
+        final Hpack.Decoder decoder = new Hpack.Decoder();
+        for (int i = 0; i < REQUESTS.length; i++) {
+            assertEquals(Arrays.asList(REQUESTS[i]), decode(decoder, PLAIN_REQUEST_BLOCKS[i]));
+        }
+    }
+
+    @Test
+    public void decodesHuffmanRequestExamples() throws Exception {
+        final Hpack.Decoder decoder = new Hpack.Decoder();
+        for (int i = 0; i < REQUESTS.length; i++) {
+            assertEquals(Arrays.asList(REQUESTS[i]), decode(decoder, HUFFMAN_REQUEST_BLOCKS[i]));
+        }
+    }
+
+    @Test
+    public void encodesHuffmanRequestExamples() {
+        // The encoder Huffman codes every literal of the examples, since that is always shorter
+        final Hpack.Encoder encoder = new Hpack.Encoder();
+        for (int i = 0; i < REQUESTS.length; i++) {
+            assertArrayEquals(hex(HUFFMAN_REQUEST_BLOCKS[i]), encode(encoder, REQUESTS[i]));
+        }
+    }
+
+    @Test
+    public void evictsOldestEntriesOfResponseExamples() throws Exception {
+        // The C.5 examples use a 256 byte table, which the first block announces
+        final Hpack.Decoder decoder = new Hpack.Decoder();
+        assertEquals(Arrays.asList(":status", "302", "cache-control", "private", "date",
+                "Mon, 21 Oct 2013 20:13:21 GMT", "location", "https://www.example.com"),
+                decode(decoder, "3fe101"
+                        + "4803333032580770726976617465611d4d6f6e2c203231204f637420323031332032"
+                        + "303a31333a323120474d546e1768747470733a2f2f7777772e6578616d706c652e63"
+                        + "6f6d"));
+
+        // Adding :status 307 evicts :status 302
+        assertEquals(Arrays.asList(":status", "307", "cache-control", "private", "date",
+                "Mon, 21 Oct 2013 20:13:21 GMT", "location", "https://www.example.com"),
+                decode(decoder, "4803333037c1c0bf"));
+        assertEquals(Arrays.asList(":status", "307", "location", "https://www.example.com"),
+                decode(decoder, "bebf"));
+
+        // The large set-cookie leaves only three entries
+        assertEquals(Arrays.asList(":status", "200", "cache-control", "private", "date",
+                "Mon, 21 Oct 2013 20:13:22 GMT", "location", "https://www.example.com",
+                "content-encoding", "gzip", "set-cookie",
+                "foo=ASDJKHQKBZXOQWEOPIUAXQWEOIU; max-age=3600; version=1"),
+                decode(decoder, "88c1611d4d6f6e2c203231204f637420323031332032303a31333a3232"
+                        + "20474d54c05a04677a69707738666f6f3d4153444a4b48514b425a584f5157454f"
+                        + "50495541585157454f49553b206d61782d6167653d333630303b2076657273696f"
+                        + "6e3d31"));
+        assertEquals(Arrays.asList("set-cookie",
+                "foo=ASDJKHQKBZXOQWEOPIUAXQWEOIU; max-age=3600; version=1", "content-encoding",
+                "gzip", "date", "Mon, 21 Oct 2013 20:13:22 GMT"), decode(decoder, "bebfc0"));
+        assertRejected(decoder, "c1");
+    }
+
+    @Test
+    public void announcesTableSizeUpdates() throws Exception {
+        final Hpack.Encoder encoder = new Hpack.Encoder();
+        final Hpack.Decoder decoder = new Hpack.Decoder();
+        final String[] headers = {"custom-key", "custom-value"};
+        decode(decoder, encode(encoder, headers));
+        assertArrayEquals(hex("be"), encode(encoder, headers));
+
+        // Shrinking to 0 and growing again is announced as both sizes, which empties the table
+        encoder.setMaxTableSize(0);
+        encoder.setMaxTableSize(Hpack.DEFAULT_TABLE_SIZE);
+        final byte[] block = encode(encoder, headers);
+        assertArrayEquals(hex("203fe11f408825a849e95ba97d7f8925a849e95bb8e8b4bf"), block);
+        assertEquals(Arrays.asList(headers), decode(decoder, block));
+        assertEquals(Arrays.asList(headers), decode(decoder, "be"));
+        assertRejected(decoder, "bf");
+
+        // A size of 0 leaves no room for any entry
+        decode(decoder, "20");
+        assertRejected(decoder, "be");
+        assertRejected(decoder, "3fe21f");
+    }
+
+    @Test
+    public void rejectsBadHuffmanPadding() throws Exception {
+        // "/" is coded as 011000, so the padding must be 11
+        assertEquals(Arrays.asList(":path", "/"), decode(new Hpack.Decoder(), "048163"));
+        assertRejected(new Hpack.Decoder(), "048160");
+        // Padding longer than 7 bits
+        assertRejected(new Hpack.Decoder(), "048263ff");
+    }
+
+    @Test
+    public void rejectsOversizedInteger() throws Exception {
+        assertEquals(Arrays.asList("custom-key", "custom-value"), decode(new Hpack.Decoder(),
+                "400a637573746f6d2d6b65790c637573746f6d2d76616c7565"));
+        assertRejected(new Hpack.Decoder(), "ffffffffff7f");
+        assertRejected(new Hpack.Decoder(), "ff");
+    }
+
+    @Test
+    public void rejectsIndexBeyondTable() throws Exception {
+        assertEquals(Arrays.asList("www-authenticate", ""), decode(new Hpack.Decoder(), "bd"));
+        assertRejected(new Hpack.Decoder(), "be");
+        assertRejected(new Hpack.Decoder(), "80");
+        assertRejected(new Hpack.Decoder(), "7e0161");
+    }
+
+    /**
+     * Encodes a header block
+     *
+     * @param encoder The encoder
+     * @param headers The header names, each followed by its value
+     * @return The block
+     */
+    private static byte[] encode(Hpack.Encoder encoder, String[] headers) {
+        final List<String> names = new ArrayList<String>();
+        final List<String> values = new ArrayList<String>();
+        for (int i = 0; i < headers.length; i += 2) {
+            names.add(headers[i]);
+            values.add(headers[i + 1]);
+        }
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encoder.encode(names, values, out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes a header block
+     *
+     * @param decoder The decoder
+     * @param block   The block in hex
+     * @return The header names, each followed by its value
+     * @throws ProtocolException If the block is not valid HPACK
+     */
+    private static List<String> decode(Hpack.Decoder decoder, String block)
+            throws ProtocolException {
+        return decode(decoder, hex(block));
+    }
+
+    /**
+     * Decodes a header block
+     *
+     * @param decoder The decoder
+     * @param block   The block
+     * @return The header names, each followed by its value
+     * @throws ProtocolException If the block is not valid HPACK
+     */
+    private static List<String> decode(Hpack.Decoder decoder, byte[] block)
+            throws ProtocolException {
+        final List<String> names = new ArrayList<String>();
+        final List<String> values = new ArrayList<String>();
+        decoder.decode(block, 0, block.length, names, values);
+        final List<String> headers = new ArrayList<String>();
+        for (int i = 0; i < names.size(); i++) {
+            headers.add(names.get(i));
+            headers.add(values.get(i));
+        }
+        return headers;
+    }
+
+    /**
+     * Checks that the decoder rejects a header block
+     *
+     * @param decoder The decoder
+     * @param block   The block in hex
+     */
+    private static void assertRejected(Hpack.Decoder decoder, String block) {
+        try {
+            decode(decoder, block);
+            fail("Expected a ProtocolException for " + block);
+        } catch (ProtocolException e) {
+            // The block is not valid HPACK
+        }
+    }
+
+    /**
+     * Parses a hex string
+     *
+     * @param hex The hex digits
+     * @return The bytes
+     */
+    private static byte[] hex(String hex) {
+        final byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        }
+        return bytes;
+    }
+
+}
@@ -0,0 +1,489 @@
+package com.brettnamba.tomoeame.http;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.Socket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Sends concurrent requests to a loopback h2c server through the Http2Transport, checking that
+ * they are multiplexed over one connection within the server's stream limit
+ */
+public class Http2TransportTest {
+
+    /**
+     * The number of concurrent calls in a fan-out
+     */
+    private static final int FAN_OUT = 50;
+
+    /**
+     * The time in milliseconds the server takes to answer a request to /slow
+     */
+    private static final long SLOW_RESPONSE_MILLIS = 50;
+
+    /**
+     * The length of each response body
+     */
+    private static final int BODY_LENGTH = 512;
+
+    /**
+     * Answers the h2c connections of the server
+     */
+    private H2cHandler mHandler;
+
+    /**
+     * The loopback server
+     */
+    private TestServer mServer;
+
+    /**
+     * The URL of the server
+     */
+    private URL mUrl;
+
+    @Before
+    public void setUp() throws IOException {
+        this.startServer(Integer.MAX_VALUE);
+    }
+
+    @After
+    public void tearDown() {
+        this.close();
+    }
+
+    @Test
+    public void multiplexesFanOutOnOneConnection() throws Exception {
+        final Http2Transport transport = new Http2Transport();
+        final long startNanos = System.nanoTime();
+        this.sendFanOut(transport, new URL(this.mUrl, "/slow"));
+        final long elapsedMillis = (System.nanoTime() - startNanos) / 1000000;
+        assertEquals(1, this.mServer.getAcceptedCount());
+        assertEquals(1, transport.getOpenedConnectionCount());
+        assertTrue("Concurrent streams: " + this.mHandler.getMaxActiveStreamCount(),
+                this.mHandler.getMaxActiveStreamCount() > 1);
+        assertTrue("Elapsed: " + elapsedMillis,
+                elapsedMillis < FAN_OUT * SLOW_RESPONSE_MILLIS / 2);
+        transport.evictAll();
+        assertEquals(0, transport.getConnectionCount());
+    }
+
+    @Test
+    public void waitsForStreamsAtTheServerLimit() throws Exception {
+        this.close();
+        this.startServer(4);
+        final Http2Transport transport = new Http2Transport();
+        // Streams may start before the server's SETTINGS arrive, so learn the limit first
+        final HttpURLConnection connection = transport.openConnection(this.mUrl);
+        assertEquals(BODY_LENGTH, TestServer.readAll(connection.getInputStream()).length);
+        this.sendFanOut(transport, new URL(this.mUrl, "/slow"));
+        assertEquals(1, this.mServer.getAcceptedCount());
+        assertTrue("Concurrent streams: " + this.mHandler.getMaxActiveStreamCount(),
+                this.mHandler.getMaxActiveStreamCount() <= 4);
+        transport.evictAll();
+    }
+
+    @Test
+    public void sendsRequestBodies() throws Exception {
+        final Http2Transport transport = new Http2Transport();
+        final byte[] body = new byte[200000];
+        for (int i = 0; i < body.length; i++) {
+            body[i] = (byte) i;
+        }
+        for (int chunkLength = 0; chunkLength <= 8192; chunkLength += 8192) {
+            final HttpURLConnection connection = transport.openConnection(this.mUrl);
+            connection.setRequestMethod("POST");
+            connection.setRequestProperty("Connection", "keep-alive");
+            if (chunkLength > 0) {
+                connection.setChunkedStreamingMode(chunkLength);
+            } else {
+                connection.setFixedLengthStreamingMode(body.length);
+            }
+            final OutputStream outputStream = connection.getOutputStream();
+            outputStream.write(body, 0, 1000);
+            outputStream.write(body, 1000, body.length - 1000);
+            outputStream.close();
+            assertEquals(200, connection.getResponseCode());
+            assertEquals("HTTP/2 200", connection.getHeaderField(0));
+            assertEquals(String.valueOf(body.length), connection.getHeaderField("Content-Length"));
+            final byte[] echo = TestServer.readAll(connection.getInputStream());
+            assertEquals(body.length, echo.length);
+            assertEquals(body[body.length - 1], echo[echo.length - 1]);
+        }
+
+        final HttpURLConnection connection = transport.openConnection(
+                new URL(this.mUrl, "/missing"));
+        assertEquals(404, connection.getResponseCode());
+        try {
+            connection.getInputStream();
+            fail("Expected a FileNotFoundException");
+        } catch (FileNotFoundException e) {
+            // Error bodies are only returned by getErrorStream()
+        }
+        assertEquals(BODY_LENGTH, TestServer.readAll(connection.getErrorStream()).length);
+        assertEquals(1, this.mServer.getAcceptedCount());
+        transport.evictAll();
+    }
+
+    /**
+     * Starts the server
+     *
+     * @param maxConcurrentStreams The maximum number of concurrent streams
+     * @throws IOException
+     */
+    private void startServer(int maxConcurrentStreams) throws IOException {
+        this.mHandler = new H2cHandler(maxConcurrentStreams);
+        this.mServer = new TestServer(this.mHandler);
+        this.mUrl = new URL(this.mServer.getUrl() + "/");
+    }
+
+    /**
+     * Stops the server
+     */
+    private void close() {
+        this.mHandler.close();
+        this.mServer.close();
+    }
+
+    /**
+     * Sends FAN_OUT GET requests at once, each from its own thread
+     *
+     * @param transport The transport the requests are sent through
+     * @param url       The request URL
+     * @throws Exception If any request failed
+     */
+    private void sendFanOut(final Transport transport, final URL url) throws Exception {
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final CountDownLatch doneLatch = new CountDownLatch(FAN_OUT);
+        final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+        for (int i = 0; i < FAN_OUT; i++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        startLatch.await();
+                        final HttpURLConnection connection = transport.openConnection(url);
+                        connection.setConnectTimeout(5000);
+                        connection.setReadTimeout(5000);
+                        assertEquals(200, connection.getResponseCode());
+                        final InputStream inputStream = connection.getInputStream();
+                        assertEquals(BODY_LENGTH, TestServer.readAll(inputStream).length);
+                        inputStream.close();
+                    } catch (Exception | AssertionError e) {
+                        failure.compareAndSet(null, new Exception(e));
+                    } finally {
+                        doneLatch.countDown();
+                    }
+                }
+            }).start();
+        }
+        startLatch.countDown();
+        doneLatch.await();
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+    }
+
+    /**
+     * Minimal h2c server that accepts connections with prior knowledge.  GET requests receive
+     * BODY_LENGTH bytes, /slow answers after SLOW_RESPONSE_MILLIS, requests with a body receive
+     * their body back and /missing receives a 404.  Request bodies are acknowledged with
+     * WINDOW_UPDATE frames as they arrive and responses ignore the client's windows, which are
+     * larger than any response sent here.
+     */
+    private static final class H2cHandler implements TestServer.ConnectionHandler {
+
+        /**
+         * The maximum number of concurrent streams announced to clients
+         */
+        private final int mMaxConcurrentStreams;
+
+        /**
+         * The number of streams waiting for their response
+         */
+        private final AtomicInteger mActiveStreamCount = new AtomicInteger();
+
+        /**
+         * The largest number of streams that waited for their response at once
+         */
+        private final AtomicInteger mMaxActiveStreamCount = new AtomicInteger();
+
+        /**
+         * Sends the delayed responses
+         */
+        private final Timer mTimer = new Timer(true);
+
+        /**
+         * The body of the GET responses
+         */
+        private final byte[] mBody = new byte[BODY_LENGTH];
+
+        /**
+         * Constructor
+         *
+         * @param maxConcurrentStreams The maximum number of concurrent streams
+         */
+        H2cHandler(int maxConcurrentStreams) {
+            this.mMaxConcurrentStreams = maxConcurrentStreams;
+        }
+
+        /**
+         * Returns the largest number of streams that waited for their response at once
+         *
+         * @return The maximum number of active streams
+         */
+        int getMaxActiveStreamCount() {
+            return this.mMaxActiveStreamCount.get();
+        }
+
+        /**
+         * Stops sending delayed responses
+         */
+        void close() {
+            this.mTimer.cancel();
+        }
+
+        /**
+         * Reads the frames of a connection until the client closes it
+         *
+         * @param socket The socket
+         * @throws IOException
+         */
+        @Override
+        public void serve(Socket socket) throws IOException {
+            final InputStream inputStream = new BufferedInputStream(socket.getInputStream());
+            final FrameWriter writer = new FrameWriter(socket.getOutputStream());
+            final Hpack.Decoder decoder = new Hpack.Decoder();
+            final Map<Integer, String> requestPaths = new HashMap<Integer, String>();
+            final Map<Integer, ByteArrayOutputStream> requestBodies =
+                    new HashMap<Integer, ByteArrayOutputStream>();
+            TestServer.readFully(inputStream, new byte[24]);
+            final byte[] settings = new byte[6];
+            settings[1] = Http2Connection.SETTINGS_MAX_CONCURRENT_STREAMS;
+            writeInt(settings, 2, this.mMaxConcurrentStreams);
+            writer.writeFrame(Http2Connection.TYPE_SETTINGS, 0, 0, settings, 0, 6);
+
+            final byte[] header = new byte[9];
+            ByteArrayOutputStream block = null;
+            while (true) {
+                TestServer.readFully(inputStream, header);
+                final int length = (header[0] & 0xFF) << 16 | (header[1] & 0xFF) << 8
+                        | (header[2] & 0xFF);
+                final int type = header[3];
+                final int flags = header[4];
+                final int streamId = readInt(header, 5);
+                final byte[] payload = new byte[length];
+                TestServer.readFully(inputStream, payload);
+                final boolean endStream = (flags & Http2Connection.FLAG_END_STREAM) != 0;
+                if (type == Http2Connection.TYPE_SETTINGS
+                        && (flags & Http2Connection.FLAG_ACK) == 0) {
+                    writer.writeFrame(Http2Connection.TYPE_SETTINGS,
+                            Http2Connection.FLAG_ACK, 0, payload, 0, 0);
+                } else if (type == Http2Connection.TYPE_HEADERS
+                        || type == Http2Connection.TYPE_CONTINUATION) {
+                    if (type == Http2Connection.TYPE_HEADERS) {
+                        block = new ByteArrayOutputStream();
+                        final int active = this.mActiveStreamCount.incrementAndGet();
+                        int max;
+                        while ((max = this.mMaxActiveStreamCount.get()) < active
+                                && !this.mMaxActiveStreamCount.compareAndSet(max, active)) {
+                        }
+                        if (endStream) {
+                            requestBodies.remove(streamId);
+                        } else {
+                            requestBodies.put(streamId, new ByteArrayOutputStream());
+                        }
+                    }
+                    block.write(payload);
+                    if ((flags & Http2Connection.FLAG_END_HEADERS) != 0) {
+                        final List<String> names = new ArrayList<String>();
+                        final List<String> values = new ArrayList<String>();
+                        final byte[] bytes = block.toByteArray();
+                        decoder.decode(bytes, 0, bytes.length, names, values);
+                        final String path = values.get(names.indexOf(":path"));
+                        requestPaths.put(streamId, path);
+                        if (!requestBodies.containsKey(streamId)) {
+                            this.respond(writer, streamId, path, null);
+                        }
+                    }
+                } else if (type == Http2Connection.TYPE_DATA) {
+                    requestBodies.get(streamId).write(payload);
+                    if (length > 0) {
+                        final byte[] increment = new byte[4];
+                        writeInt(increment, 0, length);
+                        writer.writeFrame(Http2Connection.TYPE_WINDOW_UPDATE, 0, 0,
+                                increment, 0, 4);
+                        writer.writeFrame(Http2Connection.TYPE_WINDOW_UPDATE, 0, streamId,
+                                increment, 0, 4);
+                    }
+                    if (endStream) {
+                        this.respond(writer, streamId, requestPaths.get(streamId),
+                                requestBodies.remove(streamId).toByteArray());
+                    }
+                } else if (type == Http2Connection.TYPE_GOAWAY) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Sends the response of a stream, after a delay for /slow
+         *
+         * @param writer   The writer of the connection
+         * @param streamId The stream id
+         * @param path     The request path
+         * @param body     The request body or null if there was none
+         * @throws IOException
+         */
+        private void respond(final FrameWriter writer, final int streamId, String path,
+                             byte[] body) throws IOException {
+            final String status = path.startsWith("/missing") ? "404" : "200";
+            final byte[] responseBody = body != null ? body : this.mBody;
+            if (!path.startsWith("/slow")) {
+                this.mActiveStreamCount.decrementAndGet();
+                writer.writeResponse(streamId, status, responseBody);
+                return;
+            }
+            this.mTimer.schedule(new TimerTask() {
+                @Override
+                public void run() {
+                    H2cHandler.this.mActiveStreamCount.decrementAndGet();
+                    try {
+                        writer.writeResponse(streamId, status, responseBody);
+                    } catch (IOException e) {
+                    }
+                }
+            }, SLOW_RESPONSE_MILLIS);
+        }
+
+    }
+
+    /**
+     * Writes the frames of a server connection from multiple threads
+     */
+    private static final class FrameWriter {
+
+        /**
+         * The stream frames are written to
+         */
+        private final OutputStream mOutputStream;
+
+        /**
+         * The HPACK encoder of the response headers
+         */
+        private final Hpack.Encoder mEncoder = new Hpack.Encoder();
+
+        /**
+         * Constructor
+         *
+         * @param outputStream The stream frames are written to
+         */
+        FrameWriter(OutputStream outputStream) {
+            this.mOutputStream = outputStream;
+        }
+
+        /**
+         * Writes a response's headers and its body in DATA frames
+         *
+         * @param streamId The stream id
+         * @param status   The status code
+         * @param body     The body
+         * @throws IOException
+         */
+        synchronized void writeResponse(int streamId, String status, byte[] body)
+                throws IOException {
+            final List<String> names = new ArrayList<String>();
+            final List<String> values = new ArrayList<String>();
+            names.add(":status");
+            values.add(status);
+            names.add("content-length");
+            values.add(String.valueOf(body.length));
+            final ByteArrayOutputStream block = new ByteArrayOutputStream();
+            this.mEncoder.encode(names, values, block);
+            this.writeFrame(Http2Connection.TYPE_HEADERS, Http2Connection.FLAG_END_HEADERS,
+                    streamId, block.toByteArray(), 0, block.size());
+            int offset = 0;
+            do {
+                final int length = Math.min(body.length - offset,
+                        Http2Connection.DEFAULT_MAX_FRAME_SIZE);
+                this.writeFrame(Http2Connection.TYPE_DATA, offset + length == body.length
+                        ? Http2Connection.FLAG_END_STREAM : 0, streamId, body, offset, length);
+                offset += length;
+            } while (offset < body.length);
+        }
+
+        /**
+         * Writes a frame
+         *
+         * @param type     The frame type
+         * @param flags    The flags
+         * @param streamId The stream id
+         * @param payload  The payload
+         * @param offset   The index of the first byte of the payload
+         * @param length   The length of the payload
+         * @throws IOException
+         */
+        synchronized void writeFrame(int type, int flags, int streamId, byte[] payload,
+                                     int offset, int length) throws IOException {
+            final byte[] header = new byte[9];
+            header[0] = (byte) (length >>> 16);
+            header[1] = (byte) (length >>> 8);
+            header[2] = (byte) length;
+            header[3] = (byte) type;
+            header[4] = (byte) flags;
+            writeInt(header, 5, streamId);
+            this.mOutputStream.write(header);
+            this.mOutputStream.write(payload, offset, length);
+            this.mOutputStream.flush();
+        }
+
+    }
+
+    /**
+     * Writes a big-endian 32-bit integer
+     *
+     * @param bytes  The array
+     * @param offset The index of the first byte
+     * @param value  The value
+     */
+    private static void writeInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    /**
+     * Reads a big-endian 32-bit integer
+     *
+     * @param bytes  The array
+     * @param offset The index of the first byte
+     * @return The value
+     */
+    private static int readInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) << 24 | (bytes[offset + 1] & 0xFF) << 16
+                | (bytes[offset + 2] & 0xFF) << 8 | (bytes[offset + 3] & 0xFF);
+    }
+
+}
@@ -0,0 +1,363 @@
+package com.brettnamba.tomoeame.http;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that fresh responses are served from the HttpResponseCache, that stale ones are
+ * revalidated with a conditional request, and that only one edit of a key is written at a time.
+ * Also checks which responses are stored, how their freshness is determined, that entries are
+ * kept per account, trimmed in LRU order and restored from the journal when the cache is reopened.
+ */
+public class HttpResponseCacheTest {
+
+    /**
+     * The ETag of the server's resource
+     */
+    private static final String ETAG = "\"v1\"";
+
+    /**
+     * The maximum size of the cache
+     */
+    private static final long MAX_SIZE = 1024 * 1024;
+
+    /**
+     * The length of the bodies of /large responses
+     */
+    private static final int LARGE_BODY_LENGTH = 400;
+
+    /**
+     * The directory of the cache
+     */
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    /**
+     * The server that answers /fresh with a fresh response, /stale with a stale response that it
+     * revalidates with a 304, and the other paths with the responses built by respond()
+     */
+    private TestServer mServer;
+
+    /**
+     * The cache
+     */
+    private HttpResponseCache mCache;
+
+    /**
+     * The client the requests are sent through
+     */
+    private HttpClient mClient;
+
+    @Before
+    public void setUp() throws IOException {
+        this.mServer = new TestServer(new TestServer.Handler() {
+            @Override
+            public boolean respond(TestServer.Request request, OutputStream out)
+                    throws IOException {
+                if (request.getPath().startsWith("/fresh")) {
+                    TestServer.writeResponse(out, 200, "Cache-Control: max-age=60\r\n",
+                            TestServer.ascii("fresh body"));
+                } else if (!request.getPath().startsWith("/stale")) {
+                    HttpResponseCacheTest.respond(request, out);
+                } else if (ETAG.equals(request.getHeader("If-None-Match"))) {
+                    TestServer.writeResponse(out, 304,
+                            "ETag: " + ETAG + "\r\nCache-Control: max-age=60\r\n", new byte[0]);
+                } else {
+                    TestServer.writeResponse(out, 200,
+                            "ETag: " + ETAG + "\r\nCache-Control: max-age=0\r\n",
+                            TestServer.ascii("stale body"));
+                }
+                return true;
+            }
+        });
+        this.useCache(new HttpResponseCache(this.mFolder.newFolder("cache"), MAX_SIZE));
+    }
+
+    @After
+    public void tearDown() {
+        this.mServer.close();
+    }
+
+    @Test
+    public void servesFreshResponse() {
+        assertEquals("fresh body", this.get("/fresh").getResponseBody());
+
+        final HttpUrlGetRequest cached = this.get("/fresh");
+
+        assertTrue(cached.isFromCache());
+        assertEquals("fresh body", cached.getResponseBody());
+        assertEquals(1, this.mServer.getRequestCount());
+        assertEquals(1, this.mCache.getHitCount());
+    }
+
+    @Test
+    public void revalidatesStaleResponse() {
+        assertEquals("stale body", this.get("/stale").getResponseBody());
+        assertNull(this.mServer.getLastRequest().getHeader("If-None-Match"));
+
+        final HttpUrlGetRequest revalidated = this.get("/stale");
+
+        assertEquals(200, revalidated.getResponseCode());
+        assertEquals("stale body", revalidated.getResponseBody());
+        assertEquals(ETAG, this.mServer.getLastRequest().getHeader("If-None-Match"));
+        assertEquals(2, this.mServer.getRequestCount());
+        assertEquals(1, this.mCache.getRevalidationCount());
+
+        // The 304's max-age was stored, so the entry is fresh again
+        final HttpUrlGetRequest cached = this.get("/stale");
+        assertTrue(cached.isFromCache());
+        assertEquals("stale body", cached.getResponseBody());
+        assertEquals(2, this.mServer.getRequestCount());
+    }
+
+    @Test
+    public void skipsUpdateOfKeyBeingStored() throws IOException {
+        final String url = this.mServer.getUrl() + "/items";
+        final String key = HttpResponseCache.getKey(url, null);
+        final InputStream stored = this.mCache.put(key, url, 200, headers("max-age=0"),
+                body("first"));
+        TestServer.readAll(stored);
+        stored.close();
+        final HttpResponseCache.Entry entry = this.mCache.get(key);
+        assertFalse(entry.isFresh(System.currentTimeMillis()));
+
+        // While the key is being stored, the update is returned but not written
+        final InputStream storing = this.mCache.put(key, url, 200, headers("max-age=0"),
+                body("second"));
+        final HttpResponseCache.Entry updated = this.mCache.update(entry, headers("max-age=60"));
+        assertTrue(updated.isFresh(System.currentTimeMillis()));
+        assertFalse(this.mCache.get(key).isFresh(System.currentTimeMillis()));
+        storing.close();
+
+        this.mCache.update(entry, headers("max-age=60"));
+        assertTrue(this.mCache.get(key).isFresh(System.currentTimeMillis()));
+    }
+
+    @Test
+    public void restoresEntriesFromJournalOnReopen() throws IOException {
+        assertEquals("fresh body", this.get("/fresh").getResponseBody());
+        this.get("/large/a");
+        this.get("/large/b");
+        this.mCache.remove(HttpResponseCache.getKey(this.mServer.getUrl() + "/large/b", null));
+
+        this.useCache(new HttpResponseCache(new File(this.mFolder.getRoot(), "cache"), MAX_SIZE));
+
+        assertEquals("fresh body".length() + LARGE_BODY_LENGTH, this.mCache.getSize());
+        final HttpUrlGetRequest fresh = this.get("/fresh");
+        assertTrue(fresh.isFromCache());
+        assertEquals("fresh body", fresh.getResponseBody());
+        assertTrue(this.get("/large/a").isFromCache());
+        assertFalse(this.get("/large/b").isFromCache());
+        assertEquals(4, this.mServer.getRequestCount());
+    }
+
+    @Test
+    public void trimsLeastRecentlyUsedEntries() throws IOException {
+        this.useCache(new HttpResponseCache(this.mFolder.newFolder("small"),
+                LARGE_BODY_LENGTH * 2));
+        this.get("/large/a");
+        this.get("/large/b");
+        assertTrue(this.get("/large/a").isFromCache());
+
+        // Storing c exceeds the size, so b, which was used least recently, is evicted
+        this.get("/large/c");
+
+        assertEquals(LARGE_BODY_LENGTH * 2, this.mCache.getSize());
+        assertTrue(this.get("/large/a").isFromCache());
+        assertTrue(this.get("/large/c").isFromCache());
+        assertFalse(this.get("/large/b").isFromCache());
+        assertEquals(4, this.mServer.getRequestCount());
+    }
+
+    @Test
+    public void refusesNoStoreResponses() {
+        this.get("/no-store");
+        assertFalse(this.get("/no-store").isFromCache());
+        assertEquals(0, this.mCache.getSize());
+        assertEquals(2, this.mServer.getRequestCount());
+    }
+
+    @Test
+    public void storesOnlyResponsesVaryingOnAcceptEncoding() {
+        this.get("/vary/Accept-Encoding");
+        assertTrue(this.get("/vary/Accept-Encoding").isFromCache());
+
+        this.get("/vary/Accept-Language");
+        this.get("/vary/Accept-Encoding,%20Cookie");
+        assertFalse(this.get("/vary/Accept-Language").isFromCache());
+        assertFalse(this.get("/vary/Accept-Encoding,%20Cookie").isFromCache());
+        assertEquals(5, this.mServer.getRequestCount());
+    }
+
+    @Test
+    public void usesExpiresWithoutMaxAge() {
+        this.get("/expires/60");
+        assertTrue(this.get("/expires/60").isFromCache());
+
+        this.get("/expires/-60");
+        assertFalse(this.get("/expires/-60").isFromCache());
+        assertEquals(3, this.mServer.getRequestCount());
+    }
+
+    @Test
+    public void prefersMaxAgeOverExpires() {
+        this.get("/max-age/60/expires/-60");
+        assertTrue(this.get("/max-age/60/expires/-60").isFromCache());
+
+        this.get("/max-age/0/expires/60");
+        assertFalse(this.get("/max-age/0/expires/60").isFromCache());
+        assertEquals(3, this.mServer.getRequestCount());
+    }
+
+    @Test
+    public void keepsEntriesPerAccount() {
+        final String url = this.mServer.getUrl() + "/account";
+        assertFalse(HttpResponseCache.getKey(url, "Bearer a")
+                .equals(HttpResponseCache.getKey(url, "Bearer b")));
+        assertFalse(HttpResponseCache.getKey(url, null)
+                .equals(HttpResponseCache.getKey(url, "Bearer a")));
+
+        assertEquals("Bearer a", this.get("/account", "Bearer a").getResponseBody());
+        final HttpUrlGetRequest other = this.get("/account", "Bearer b");
+        assertFalse(other.isFromCache());
+        assertEquals("Bearer b", other.getResponseBody());
+
+        final HttpUrlGetRequest cached = this.get("/account", "Bearer a");
+        assertTrue(cached.isFromCache());
+        assertEquals("Bearer a", cached.getResponseBody());
+        assertEquals(2, this.mServer.getRequestCount());
+    }
+
+    /**
+     * Answers the requests for the paths other than /fresh and /stale.  /large/* gets a body of
+     * LARGE_BODY_LENGTH bytes, /no-store is not to be stored, /vary/{fields} varies on the
+     * fields, /expires/{seconds} expires the number of seconds from now, /max-age/{seconds}/
+     * expires/{seconds} has both, and /account echoes the Authorization header.  Unless stated
+     * otherwise, the responses are fresh for a minute.
+     *
+     * @param request The request
+     * @param out     The connection's stream
+     * @throws IOException
+     */
+    private static void respond(TestServer.Request request, OutputStream out)
+            throws IOException {
+        final String path = request.getPath();
+        final String[] segments = path.split("/");
+        if (path.startsWith("/large/")) {
+            TestServer.writeResponse(out, 200, "Cache-Control: max-age=60\r\n",
+                    new byte[LARGE_BODY_LENGTH]);
+        } else if (path.equals("/no-store")) {
+            TestServer.writeResponse(out, 200, "Cache-Control: no-store, max-age=60\r\n",
+                    TestServer.ascii("secret"));
+        } else if (path.startsWith("/vary/")) {
+            TestServer.writeResponse(out, 200, "Cache-Control: max-age=60\r\nVary: "
+                    + segments[2].replace("%20", " ") + "\r\n", TestServer.ascii("varied"));
+        } else if (path.startsWith("/expires/")) {
+            TestServer.writeResponse(out, 200, expires(segments[2]), TestServer.ascii("dated"));
+        } else if (path.startsWith("/max-age/")) {
+            TestServer.writeResponse(out, 200, "Cache-Control: max-age=" + segments[2] + "\r\n"
+                    + expires(segments[4]), TestServer.ascii("dated"));
+        } else {
+            TestServer.writeResponse(out, 200, "Cache-Control: max-age=60\r\n",
+                    TestServer.ascii(request.getHeader("Authorization")));
+        }
+    }
+
+    /**
+     * Builds the Date and Expires header lines of a response that expires the specified number
+     * of seconds from now
+     *
+     * @param seconds The seconds until the response expires, negative if it already expired
+     * @return The header lines
+     */
+    private static String expires(String seconds) {
+        final SimpleDateFormat format =
+                new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        final long nowMillis = System.currentTimeMillis();
+        return "Date: " + format.format(new Date(nowMillis)) + "\r\nExpires: "
+                + format.format(new Date(nowMillis + Long.parseLong(seconds) * 1000)) + "\r\n";
+    }
+
+    /**
+     * Sends the requests of the following tests through a new client using the cache
+     *
+     * @param cache The cache
+     */
+    private void useCache(HttpResponseCache cache) {
+        this.mCache = cache;
+        this.mClient = new HttpClient();
+        this.mClient.setResponseCache(cache);
+    }
+
+    /**
+     * Sends a GET request with an Authorization header for the specified path of the server
+     *
+     * @param path          The path
+     * @param authorization The Authorization header value
+     * @return The request
+     */
+    private HttpUrlGetRequest get(String path, String authorization) {
+        final HttpUrlGetRequest request = new HttpUrlGetRequest(this.mServer.getUrl() + path);
+        request.addRequestHeader("Authorization", authorization);
+        request.send(this.mClient);
+        return request;
+    }
+
+    /**
+     * Sends a GET request for the specified path of the server
+     *
+     * @param path The path
+     * @return The request
+     */
+    private HttpUrlGetRequest get(String path) {
+        final HttpUrlGetRequest request = new HttpUrlGetRequest(this.mServer.getUrl() + path);
+        request.send(this.mClient);
+        return request;
+    }
+
+    /**
+     * Builds response headers with the specified Cache-Control
+     *
+     * @param cacheControl The Cache-Control header value
+     * @return The headers
+     */
+    private static Map<String, List<String>> headers(String cacheControl) {
+        final Map<String, List<String>> headers = new HashMap<String, List<String>>();
+        headers.put("Cache-Control", Collections.singletonList(cacheControl));
+        return headers;
+    }
+
+    /**
+     * Wraps a String in a response body stream
+     *
+     * @param body The body
+     * @return The stream
+     */
+    private static InputStream body(String body) {
+        return new ByteArrayInputStream(TestServer.ascii(body));
+    }
+
+}
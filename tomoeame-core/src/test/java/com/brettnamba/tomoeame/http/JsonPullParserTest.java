@@ -0,0 +1,354 @@
+package com.brettnamba.tomoeame.http;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that JsonPullParser reads every kind of token correctly, including across buffer
+ * boundaries, and that streaming a list endpoint through the parser reads the same values as
+ * building the response String first
+ */
+public class JsonPullParserTest {
+
+    /**
+     * The number of objects in the list
+     */
+    private static final int ITEM_COUNT = 2000;
+
+    @Test
+    public void parsesTokens() throws Exception {
+        final String json = "\ufeff {\"name\": \"caf\u00e9 \u65e5\u672c \ud83d\ude00\","
+                + " \"escaped\": \"a\\\"b\\\\c\\/d\\b\\f\\n\\r\\t\\u00e9\\ud83d\\ude00\","
+                + " \"numbers\": [0, -0, 42, -17, 9223372036854775807, -9223372036854775808,"
+                + " 12345678901234567890, 1.5, -0.25, 1e3, 2.5E-3, 1e400, 0.1],"
+                + " \"flags\": [true, false, null], \"empty\": {}, \"nested\": [[], [{}]]}";
+        final byte[] bytes = json.getBytes("UTF-8");
+        final List<String> expected = readTokens(new JsonPullParser(bytes, 0, bytes.length));
+        assertEquals(String.valueOf(expected), 41, expected.size());
+        assertEquals("NAME name", expected.get(1));
+        assertEquals("STRING caf\u00e9 \u65e5\u672c \ud83d\ude00", expected.get(2));
+        assertEquals("STRING a\"b\\c/d\b\f\n\r\t\u00e9\ud83d\ude00", expected.get(4));
+        assertEquals("END_DOCUMENT", expected.get(expected.size() - 1));
+
+        // Reading one byte at a time splits every token across buffer refills
+        final List<String> actual = readTokens(new JsonPullParser(new TrickleInputStream(bytes)));
+        assertEquals(expected, actual);
+
+        final JsonPullParser parser = new JsonPullParser(bytes, 0, bytes.length);
+        while (parser.next() != JsonPullParser.Token.NAME || !parser.textEquals("numbers")) {
+        }
+        assertEquals(JsonPullParser.Token.BEGIN_ARRAY, parser.next());
+        assertEquals(2, parser.getDepth());
+        parser.next();
+        assertEquals(0, parser.getLong());
+        parser.next();
+        assertEquals(Double.doubleToLongBits(-0.0), Double.doubleToLongBits(parser.getDouble()));
+        parser.next();
+        assertEquals(42, parser.getInt());
+        parser.next();
+        assertEquals(-17, parser.getLong());
+        parser.next();
+        assertEquals(Long.MAX_VALUE, parser.getLong());
+        parser.next();
+        assertEquals(Long.MIN_VALUE, parser.getLong());
+        parser.next();
+        assertEquals(12345678901234567890.0, parser.getDouble(), 0);
+        try {
+            parser.getLong();
+            fail("Expected a NumberFormatException");
+        } catch (NumberFormatException e) {
+            // The integer does not fit in a long
+        }
+        parser.next();
+        assertEquals(1.5, parser.getDouble(), 0);
+        parser.next();
+        assertEquals(-0.25, parser.getDouble(), 0);
+        parser.next();
+        assertEquals(1000, parser.getLong());
+        parser.next();
+        assertEquals(0.0025, parser.getDouble(), 0);
+        parser.next();
+        assertEquals(Double.POSITIVE_INFINITY, parser.getDouble(), 0);
+        parser.next();
+        assertEquals(0.1, parser.getDouble(), 0);
+        assertEquals("0.1", parser.getText());
+        assertEquals(JsonPullParser.Token.END_ARRAY, parser.next());
+        assertEquals(JsonPullParser.Token.NAME, parser.next());
+        parser.skipValue();
+        assertEquals(JsonPullParser.Token.NAME, parser.next());
+        assertTrue(parser.textEquals("empty"));
+        parser.next();
+        parser.skipValue();
+        assertEquals(JsonPullParser.Token.NAME, parser.next());
+        assertFalse(parser.textEquals("empty"));
+        parser.skipValue();
+        assertEquals(JsonPullParser.Token.END_OBJECT, parser.next());
+        assertEquals(JsonPullParser.Token.END_DOCUMENT, parser.next());
+        parser.close();
+    }
+
+    @Test
+    public void convertsExactDecimalsToLong() throws Exception {
+        final byte[] bytes = ("[1e18, 4503599627370496.0, 9007199254740993.00,"
+                + " -9.223372036854775808e18, 0.0e5, 1e19, 9223372036854775808.0, 1.5, 1e-1]")
+                .getBytes("UTF-8");
+        final JsonPullParser parser = new JsonPullParser(bytes, 0, bytes.length);
+        assertEquals(JsonPullParser.Token.BEGIN_ARRAY, parser.next());
+        final long[] expected = {1000000000000000000L, 4503599627370496L, 9007199254740993L,
+                Long.MIN_VALUE, 0};
+        for (long value : expected) {
+            parser.next();
+            assertEquals(value, parser.getLong());
+        }
+        int rejectedCount = 0;
+        while (parser.next() == JsonPullParser.Token.NUMBER) {
+            try {
+                parser.getLong();
+                fail("Expected a NumberFormatException for " + parser.getText());
+            } catch (NumberFormatException e) {
+                // The number is out of range or not an integer
+                rejectedCount++;
+            }
+        }
+        assertEquals(4, rejectedCount);
+        parser.close();
+    }
+
+    @Test
+    public void parsesDoublesLikeParseDouble() throws Exception {
+        final Random random = new Random(11);
+        for (int i = 0; i < 100000; i++) {
+            final String text;
+            switch (i % 4) {
+                case 0:
+                    text = Double.toString(random.nextDouble() * Math.pow(10,
+                            random.nextInt(40) - 20));
+                    break;
+                case 1:
+                    text = (random.nextInt(2000000) - 1000000) + "." + random.nextInt(1000000);
+                    break;
+                case 2:
+                    text = random.nextInt(100000) + "e" + (random.nextInt(60) - 30);
+                    break;
+                default:
+                    text = Double.toString(Double.longBitsToDouble(random.nextLong()));
+                    if (text.contains("N") || text.contains("I")) {
+                        continue;
+                    }
+            }
+            final byte[] bytes = text.getBytes("UTF-8");
+            final JsonPullParser parser = new JsonPullParser(bytes, 0, bytes.length);
+            assertEquals(JsonPullParser.Token.NUMBER, parser.next());
+            assertEquals(text, Double.doubleToLongBits(Double.parseDouble(text)),
+                    Double.doubleToLongBits(parser.getDouble()));
+            assertEquals(JsonPullParser.Token.END_DOCUMENT, parser.next());
+        }
+    }
+
+    @Test
+    public void rejectsMalformedJson() throws Exception {
+        final String[] documents = {"", "   ", "{", "[1,]", "[1 2]", "{\"a\" 1}", "{\"a\":}",
+                "{a:1}", "{\"a\":1,}", "[01]", "[-]", "[1.]", "[1e]", "[.5]", "[+1]", "tru",
+                "truex", "nul", "\"abc", "\"a\tb\"", "\"\\x\"", "\"\\u12g4\"", "[1] [2]",
+                "{\"a\":1}}", "'a'", "\"\u00ff\"".replace('\u00ff', '\u0000')};
+        for (String document : documents) {
+            final byte[] bytes = document.getBytes("UTF-8");
+            assertMalformed(document, bytes);
+        }
+        assertMalformed("invalid UTF-8", new byte[]{'"', (byte) 0xC3, '"'});
+        assertMalformed("overlong UTF-8", new byte[]{'"', (byte) 0xC0, (byte) 0xAF, '"'});
+        assertMalformed("UTF-8 surrogate", new byte[]{'"', (byte) 0xED, (byte) 0xA0,
+                (byte) 0x80, '"'});
+    }
+
+    @Test
+    public void readsListLikeResponseString() throws Exception {
+        final byte[] list = createList(ITEM_COUNT);
+        long expected = 0;
+        for (int i = 0; i < ITEM_COUNT; i++) {
+            expected += i;
+        }
+        assertEquals(expected, sumIdsWithParser(list));
+        assertEquals(expected, sumIdsFromString(list));
+    }
+
+    /**
+     * Sums the ids of a list by streaming it through the parser the way
+     * openResponseBody().jsonParser() would
+     *
+     * @param list The JSON list
+     * @return The sum of the ids
+     * @throws IOException
+     */
+    private static long sumIdsWithParser(byte[] list) throws IOException {
+        final JsonPullParser parser = new ResponseBody(new ByteArrayInputStream(list),
+                "application/json", list.length).jsonParser();
+        long sum = 0;
+        parser.next();
+        while (parser.next() == JsonPullParser.Token.BEGIN_OBJECT) {
+            while (parser.next() == JsonPullParser.Token.NAME) {
+                if (parser.textEquals("id")) {
+                    parser.next();
+                    sum += parser.getLong();
+                } else {
+                    parser.skipValue();
+                }
+            }
+        }
+        parser.close();
+        return sum;
+    }
+
+    /**
+     * Sums the ids of a list by building the response String the way getResponseBody() does
+     * and scanning it, which is a lower bound for parsing it with a DOM parser afterwards
+     *
+     * @param list The JSON list
+     * @return The sum of the ids
+     * @throws IOException
+     */
+    private static long sumIdsFromString(byte[] list) throws IOException {
+        final String body = new ResponseBody(new ByteArrayInputStream(list),
+                "application/json", list.length).string();
+        long sum = 0;
+        int index = 0;
+        while ((index = body.indexOf("\"id\":", index)) != -1) {
+            index += 5;
+            int end = index;
+            while (Character.isDigit(body.charAt(end))) {
+                end++;
+            }
+            sum += Long.parseLong(body.substring(index, end));
+        }
+        return sum;
+    }
+
+    /**
+     * Creates a list endpoint response of objects with several fields
+     *
+     * @param count The number of objects
+     * @return The UTF-8 JSON
+     * @throws IOException
+     */
+    private static byte[] createList(int count) throws IOException {
+        final StringBuilder builder = new StringBuilder(count * 128);
+        builder.append('[');
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append("{\"id\":").append(i).append(",\"name\":\"Item ").append(i)
+                    .append(" \u00e9t\u00e9\",\"price\":").append(i * 0.25)
+                    .append(",\"tags\":[\"a\",\"b\\n\"],\"active\":").append(i % 2 == 0)
+                    .append(",\"owner\":{\"uid\":").append(-i).append(",\"name\":null}}");
+        }
+        builder.append(']');
+        return builder.toString().getBytes("UTF-8");
+    }
+
+    /**
+     * Reads all tokens of a document as strings of the token and its text
+     *
+     * @param parser The parser
+     * @return The tokens
+     * @throws IOException
+     */
+    private static List<String> readTokens(JsonPullParser parser) throws IOException {
+        final List<String> tokens = new ArrayList<String>();
+        JsonPullParser.Token token;
+        do {
+            token = parser.next();
+            switch (token) {
+                case NAME:
+                case STRING:
+                case NUMBER:
+                    tokens.add(token + " " + parser.getText());
+                    break;
+                case BOOLEAN:
+                    tokens.add(token + " " + parser.getBoolean());
+                    break;
+                default:
+                    tokens.add(token.toString());
+                    break;
+            }
+        } while (token != JsonPullParser.Token.END_DOCUMENT);
+        parser.close();
+        return tokens;
+    }
+
+    /**
+     * Checks that parsing the document fails with a MalformedJsonException, whether it is read
+     * from an array or one byte at a time
+     *
+     * @param description The description of the document
+     * @param bytes       The document
+     * @throws IOException
+     */
+    private static void assertMalformed(String description, byte[] bytes) throws IOException {
+        final JsonPullParser[] parsers = {new JsonPullParser(bytes, 0, bytes.length),
+                new JsonPullParser(new TrickleInputStream(bytes))};
+        for (JsonPullParser parser : parsers) {
+            try {
+                while (parser.next() != JsonPullParser.Token.END_DOCUMENT) {
+                }
+                fail("Expected a MalformedJsonException for " + description);
+            } catch (MalformedJsonException e) {
+                // Expected
+            } finally {
+                parser.close();
+            }
+        }
+    }
+
+    /**
+     * Stream that returns one byte per read
+     */
+    private static final class TrickleInputStream extends InputStream {
+
+        /**
+         * The bytes of the stream
+         */
+        private final byte[] mBytes;
+
+        /**
+         * The index of the next byte
+         */
+        private int mPosition;
+
+        /**
+         * Constructor
+         *
+         * @param bytes The bytes of the stream
+         */
+        TrickleInputStream(byte[] bytes) {
+            this.mBytes = bytes;
+        }
+
+        @Override
+        public int read() {
+            return this.mPosition < this.mBytes.length ? this.mBytes[this.mPosition++] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            if (this.mPosition == this.mBytes.length) {
+                return -1;
+            }
+            buffer[offset] = this.mBytes[this.mPosition++];
+            return 1;
+        }
+
+    }
+
+}
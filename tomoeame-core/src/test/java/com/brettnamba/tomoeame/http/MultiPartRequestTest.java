@@ -0,0 +1,539 @@
+package com.brettnamba.tomoeame.http;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Sends multi-part requests with file uploads from the core module on a plain JVM, checking the
+ * framing of fixed length and chunked bodies, the encoding of the authentication header, and
+ * that files are copied through a buffer sized to their length with one progress update per
+ * buffer
+ */
+public class MultiPartRequestTest {
+
+    /**
+     * The length of the uploaded file
+     */
+    private static final int FILE_LENGTH = 256 * 1024;
+
+    /**
+     * The length of a file that is not a multiple of any buffer length
+     */
+    private static final int ODD_FILE_LENGTH = 1000003;
+
+    /**
+     * The largest number of bytes a pipe returns per read
+     */
+    private static final int PIPE_READ_LENGTH = 4096;
+
+    /**
+     * The server the requests are sent to
+     */
+    private TestServer mServer;
+
+    /**
+     * The file that is uploaded
+     */
+    private File mFile;
+
+    /**
+     * The contents of the file
+     */
+    private byte[] mContents;
+
+    @Before
+    public void setUp() throws IOException {
+        this.mServer = new TestServer(new TestServer.Handler() {
+            @Override
+            public boolean respond(TestServer.Request request, OutputStream out)
+                    throws IOException {
+                TestServer.writeResponse(out, 200, "", TestServer.ascii("ok"));
+                return true;
+            }
+        });
+        this.mContents = new byte[FILE_LENGTH];
+        new Random(7).nextBytes(this.mContents);
+        this.mFile = File.createTempFile("upload", ".txt");
+        this.mFile.deleteOnExit();
+        final FileOutputStream out = new FileOutputStream(this.mFile);
+        try {
+            out.write(this.mContents);
+        } finally {
+            out.close();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        this.mServer.close();
+        this.mFile.delete();
+    }
+
+    @Test
+    public void encodesAuthHeaderAsUrlSafeBase64() {
+        assertEquals("", Base64Encoder.encodeUrlSafe(new byte[0]));
+        assertEquals("Zg==", Base64Encoder.encodeUrlSafe(new byte[]{'f'}));
+        assertEquals("Zm8=", Base64Encoder.encodeUrlSafe(new byte[]{'f', 'o'}));
+        assertEquals("Zm9v", Base64Encoder.encodeUrlSafe(new byte[]{'f', 'o', 'o'}));
+        assertEquals("-_8=", Base64Encoder.encodeUrlSafe(new byte[]{(byte) 0xFB, (byte) 0xFF}));
+        assertEquals("dG9rZW4", HttpUrlConnectionRequest.encodeAuthHeaderValue("token")
+                .substring(0, 7));
+    }
+
+    @Test
+    public void uploadsLocalFileWithFixedLength() throws Exception {
+        final HttpUrlMultiPartRequest request = new HttpUrlMultiPartRequest(
+                this.mServer.getUrl() + "/upload", "token");
+        request.addRequestParameter("name", "value");
+        request.addFileUpload("file", new LocalFileUpload(this.mFile));
+        request.send();
+        assertNull(String.valueOf(request.getException()), request.getException());
+        assertEquals(200, request.getResponseCode());
+
+        final String head = this.mServer.getLastRequest().getHead();
+        assertTrue(head, head.contains("Content-Length: "));
+        assertTrue(head, head.contains("Authorization: "
+                + HttpUrlConnectionRequest.encodeAuthHeaderValue("token")));
+        assertTrue(head, head.contains("User-Agent: tomoeame\r\n"));
+        this.assertFraming(this.mServer.getLastRequest().getBody(), "text/plain");
+    }
+
+    @Test
+    public void streamsExpensiveFileInChunks() throws Exception {
+        final HttpUrlMultiPartRequest request = new HttpUrlMultiPartRequest(
+                this.mServer.getUrl() + "/upload", "token");
+        request.setChunkedStreamingEnabled(true);
+        request.addRequestParameter("name", "value");
+        request.addFileUpload("file", new FileUpload() {
+            @Override
+            public String getContentType() {
+                return null;
+            }
+
+            @Override
+            public long getLength() {
+                throw new AssertionError("The length must not be looked up");
+            }
+
+            @Override
+            public boolean isMetadataCheap() {
+                return false;
+            }
+
+            @Override
+            public ReadableByteChannel open() {
+                return Channels.newChannel(
+                        new ByteArrayInputStream(MultiPartRequestTest.this.mContents));
+            }
+        });
+        request.send();
+        assertNull(String.valueOf(request.getException()), request.getException());
+        assertEquals(200, request.getResponseCode());
+
+        final String head = this.mServer.getLastRequest().getHead();
+        assertTrue(head, head.toLowerCase().contains("transfer-encoding: chunked"));
+        this.assertFraming(this.mServer.getLastRequest().getBody(), "application/octet-stream");
+    }
+
+    @Test
+    public void streamsFileOfUnknownLengthInChunks() throws Exception {
+        final List<Long> totals = Collections.synchronizedList(new ArrayList<Long>());
+        final HttpUrlMultiPartRequest request = new HttpUrlMultiPartRequest(
+                this.mServer.getUrl() + "/upload", "token");
+        request.addRequestParameter("name", "value");
+        request.addFileUpload("file", this.newUpload(-1, true));
+        request.setListener(new HttpUrlConnectionRequest.DataSentListener() {
+            @Override
+            public void onDataSent(long bytesUploaded, long totalBytes) {
+                totals.add(totalBytes);
+            }
+        });
+        request.send();
+        assertNull(String.valueOf(request.getException()), request.getException());
+
+        final String head = this.mServer.getLastRequest().getHead();
+        assertTrue(head, head.toLowerCase().contains("transfer-encoding: chunked"));
+        this.assertFraming(this.mServer.getLastRequest().getBody(), "application/octet-stream");
+        assertFalse(totals.isEmpty());
+        for (Long total : totals) {
+            assertEquals(Long.valueOf(-1), total);
+        }
+    }
+
+    @Test
+    public void keepsFixedLengthWhenSizesAreCheap() throws Exception {
+        final HttpUrlMultiPartRequest request = new HttpUrlMultiPartRequest(
+                this.mServer.getUrl() + "/upload", "token");
+        request.setChunkedStreamingEnabled(true);
+        request.addRequestParameter("name", "value");
+        request.addFileUpload("file", new LocalFileUpload(this.mFile));
+        request.send();
+        assertNull(String.valueOf(request.getException()), request.getException());
+
+        final TestServer.Request received = this.mServer.getLastRequest();
+        assertNull(received.getHeader("Transfer-Encoding"));
+        assertEquals(String.valueOf(received.getBody().length),
+                received.getHeader("Content-Length"));
+        this.assertFraming(received.getBody(), "text/plain");
+    }
+
+    @Test
+    public void sendsOneFileUnderEachParameter() throws Exception {
+        final HttpUrlMultiPartRequest request = new HttpUrlMultiPartRequest(
+                this.mServer.getUrl() + "/upload", "token");
+        final FileUpload upload = new LocalFileUpload(this.mFile);
+        request.addFileUpload("first", upload);
+        request.addFileUpload("second", upload);
+        request.send();
+        assertNull(String.valueOf(request.getException()), request.getException());
+
+        final TestServer.Request received = this.mServer.getLastRequest();
+        final String text = new String(received.getBody(), "ISO-8859-1");
+        assertTrue(text.contains("name=\"first\"; filename=\""));
+        assertTrue(text.contains("name=\"second\"; filename=\""));
+        assertTrue(received.getBody().length > 2 * FILE_LENGTH);
+        assertEquals(String.valueOf(received.getBody().length),
+                received.getHeader("Content-Length"));
+    }
+
+    @Test
+    public void sizesBufferToFileLength() throws Exception {
+        // 1/64 of the file, kept between 16 KB and 256 KB
+        this.assertFileCopiedInTransfers(512 * 1024, 16 * 1024);
+        this.assertFileCopiedInTransfers(4 * 1024 * 1024, 64 * 1024);
+        this.assertFileCopiedInTransfers(20 * 1024 * 1024, 256 * 1024);
+    }
+
+    @Test
+    public void copiesFileWhoseLengthIsNotMultipleOfBuffer() throws Exception {
+        this.assertFileCopiedInTransfers(ODD_FILE_LENGTH, 16 * 1024);
+    }
+
+    @Test
+    public void fallsBackWhenPipeReportsNoSize() throws Exception {
+        final byte[] contents = newContents(ODD_FILE_LENGTH);
+        final List<Long> sent = this.sendFile(new FileUpload() {
+            @Override
+            public String getContentType() {
+                return null;
+            }
+
+            @Override
+            public long getLength() {
+                return ODD_FILE_LENGTH;
+            }
+
+            @Override
+            public boolean isMetadataCheap() {
+                return true;
+            }
+
+            @Override
+            public ReadableByteChannel open() {
+                return new PipeFileChannel(contents);
+            }
+        });
+
+        // The size of 0 is ignored, so the file is copied through the buffer of unknown lengths
+        assertTransfers(sent, ODD_FILE_LENGTH, 64 * 1024);
+        this.assertFraming(this.mServer.getLastRequest().getBody(), "application/octet-stream",
+                contents);
+    }
+
+    /**
+     * Uploads a local file of the specified length and checks that it arrived intact after being
+     * copied through a buffer of the expected length
+     *
+     * @param fileLength   The length of the file
+     * @param bufferLength The expected buffer length
+     * @throws Exception
+     */
+    private void assertFileCopiedInTransfers(int fileLength, int bufferLength) throws Exception {
+        final byte[] contents = newContents(fileLength);
+        final File file = File.createTempFile("upload", ".txt");
+        file.deleteOnExit();
+        try {
+            final FileOutputStream out = new FileOutputStream(file);
+            try {
+                out.write(contents);
+            } finally {
+                out.close();
+            }
+            final List<Long> sent = this.sendFile(new LocalFileUpload(file));
+
+            assertTransfers(sent, fileLength, bufferLength);
+            this.assertFraming(this.mServer.getLastRequest().getBody(), "text/plain", contents);
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * Sends a request with a parameter and a file, recording every progress update
+     *
+     * @param upload The file
+     * @return The byte counts of the progress updates, in order
+     */
+    private List<Long> sendFile(FileUpload upload) {
+        final List<Long> sent = Collections.synchronizedList(new ArrayList<Long>());
+        final HttpUrlMultiPartRequest request = new HttpUrlMultiPartRequest(
+                this.mServer.getUrl() + "/upload", "token");
+        request.addRequestParameter("name", "value");
+        request.addFileUpload("file", upload);
+        request.setProgressThrottle(0, 0);
+        request.setListener(new HttpUrlConnectionRequest.DataSentListener() {
+            @Override
+            public void onDataSent(long bytesUploaded, long totalBytes) {
+                sent.add(bytesUploaded);
+            }
+        });
+        request.send();
+        assertNull(String.valueOf(request.getException()), request.getException());
+        assertEquals(200, request.getResponseCode());
+        return sent;
+    }
+
+    /**
+     * Checks that the file was written in full buffers followed by the rest.  The updates of the
+     * parameter, the file's header and the final boundary surround those of the file.
+     *
+     * @param sent         The byte counts of the progress updates, in order
+     * @param fileLength   The length of the file
+     * @param bufferLength The expected buffer length
+     */
+    private static void assertTransfers(List<Long> sent, int fileLength, int bufferLength) {
+        final int transferCount = (fileLength + bufferLength - 1) / bufferLength;
+        assertEquals(transferCount + 3, sent.size());
+        for (int i = 0; i < transferCount; i++) {
+            assertEquals(Long.valueOf(Math.min(bufferLength, fileLength - i * bufferLength)),
+                    sent.get(i + 2));
+        }
+    }
+
+    /**
+     * Creates random file contents
+     *
+     * @param length The length of the contents
+     * @return The contents
+     */
+    private static byte[] newContents(int length) {
+        final byte[] contents = new byte[length];
+        new Random(length).nextBytes(contents);
+        return contents;
+    }
+
+    /**
+     * Creates an upload of the contents with a content type that is left to be guessed
+     *
+     * @param length          The length the upload reports, or -1 if it is unknown
+     * @param isMetadataCheap Whether the upload reports its metadata as cheap to find
+     * @return The upload
+     */
+    private FileUpload newUpload(final long length, final boolean isMetadataCheap) {
+        return new FileUpload() {
+            @Override
+            public String getContentType() {
+                return null;
+            }
+
+            @Override
+            public long getLength() {
+                return length;
+            }
+
+            @Override
+            public boolean isMetadataCheap() {
+                return isMetadataCheap;
+            }
+
+            @Override
+            public ReadableByteChannel open() {
+                return Channels.newChannel(
+                        new ByteArrayInputStream(MultiPartRequestTest.this.mContents));
+            }
+        };
+    }
+
+    /**
+     * Checks that the body holds the parameter and then the file between boundaries
+     *
+     * @param body        The request body the server received
+     * @param contentType The Content-Type expected in the header of the file
+     * @throws IOException
+     */
+    private void assertFraming(byte[] body, String contentType) throws IOException {
+        this.assertFraming(body, contentType, this.mContents);
+    }
+
+    /**
+     * Checks that the body holds the parameter and then the file between boundaries
+     *
+     * @param body        The request body the server received
+     * @param contentType The Content-Type expected in the header of the file
+     * @param contents    The contents of the file
+     * @throws IOException
+     */
+    private void assertFraming(byte[] body, String contentType, byte[] contents)
+            throws IOException {
+        final String text = new String(body, "ISO-8859-1");
+        assertTrue(text.startsWith("\r\n--"));
+        final String boundary = text.substring(4, text.indexOf("\r\n", 4));
+        final String parameterPart = "\r\n--" + boundary
+                + "\r\nContent-Disposition: form-data; name=\"name\"\r\n\r\nvalue";
+        assertTrue(text.startsWith(parameterPart));
+
+        final String fileHeaderEnd = "Content-Type: " + contentType + "\r\n\r\n";
+        final int contentsStart = text.indexOf(fileHeaderEnd) + fileHeaderEnd.length();
+        assertTrue(text.substring(parameterPart.length(), contentsStart)
+                .contains("Content-Disposition: form-data; name=\"file\"; filename=\""));
+
+        final String finalBoundary = "\r\n--" + boundary + "--\r\n";
+        assertTrue(text.endsWith(finalBoundary));
+        assertEquals(contentsStart + contents.length + finalBoundary.length(), body.length);
+        assertTrue(Arrays.equals(contents,
+                Arrays.copyOfRange(body, contentsStart, contentsStart + contents.length)));
+    }
+
+    /**
+     * A FileChannel over a pipe, which reports a size of 0 and returns at most PIPE_READ_LENGTH
+     * bytes per read, like the channel of a file descriptor a provider streams through a pipe
+     */
+    private static final class PipeFileChannel extends FileChannel {
+
+        /**
+         * The bytes the pipe delivers
+         */
+        private final byte[] mContents;
+
+        /**
+         * The number of bytes read so far
+         */
+        private int mPosition;
+
+        /**
+         * Constructor
+         *
+         * @param contents The bytes the pipe delivers
+         */
+        PipeFileChannel(byte[] contents) {
+            this.mContents = contents;
+        }
+
+        @Override
+        public int read(ByteBuffer byteBuffer) {
+            if (this.mPosition == this.mContents.length) {
+                return -1;
+            }
+            final int count = Math.min(Math.min(byteBuffer.remaining(), PIPE_READ_LENGTH),
+                    this.mContents.length - this.mPosition);
+            byteBuffer.put(this.mContents, this.mPosition, count);
+            this.mPosition += count;
+            return count;
+        }
+
+        @Override
+        public long size() {
+            return 0;
+        }
+
+        @Override
+        public long read(ByteBuffer[] byteBuffers, int offset, int length) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int write(ByteBuffer byteBuffer) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long write(ByteBuffer[] byteBuffers, int offset, int length) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long position() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public FileChannel position(long newPosition) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public FileChannel truncate(long size) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void force(boolean metaData) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long transferTo(long position, long count, WritableByteChannel target) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long transferFrom(ReadableByteChannel source, long position, long count) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int read(ByteBuffer byteBuffer, long position) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int write(ByteBuffer byteBuffer, long position) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public MappedByteBuffer map(MapMode mode, long position, long size) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public FileLock lock(long position, long size, boolean shared) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public FileLock tryLock(long position, long size, boolean shared) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        protected void implCloseChannel() {
+        }
+
+    }
+
+}
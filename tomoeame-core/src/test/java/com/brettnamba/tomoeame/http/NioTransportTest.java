@@ -0,0 +1,190 @@
+package com.brettnamba.tomoeame.http;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Sends bursts of GET requests and requests with bodies to a loopback server through the
+ * NioTransport, checking that sockets are reused and pipelined requests are answered in order,
+ * and that a client reports the transport's connection counts
+ */
+public class NioTransportTest {
+
+    /**
+     * The number of threads sending requests at once
+     */
+    private static final int THREAD_COUNT = 8;
+
+    /**
+     * The number of requests each thread sends per burst
+     */
+    private static final int REQUESTS_PER_THREAD = 50;
+
+    /**
+     * The length of each response body
+     */
+    private static final int BODY_LENGTH = 512;
+
+    /**
+     * The loopback server
+     */
+    private TestServer mServer;
+
+    /**
+     * The URL of the server
+     */
+    private URL mUrl;
+
+    @Before
+    public void setUp() throws IOException {
+        // GET requests receive BODY_LENGTH bytes, requests with a body receive it back and
+        // /missing receives a 404
+        this.mServer = new TestServer(new TestServer.Handler() {
+            @Override
+            public boolean respond(TestServer.Request request, OutputStream out)
+                    throws IOException {
+                final byte[] body = request.getHeader("Content-Length") != null
+                        || request.getHeader("Transfer-Encoding") != null
+                        ? request.getBody() : new byte[BODY_LENGTH];
+                TestServer.writeResponse(out, request.getPath().equals("/missing") ? 404 : 200,
+                        "", body);
+                return true;
+            }
+        });
+        this.mUrl = new URL(this.mServer.getUrl() + "/");
+    }
+
+    @After
+    public void tearDown() {
+        this.mServer.close();
+    }
+
+    @Test
+    public void reusesAndPipelinesSockets() throws Exception {
+        final NioTransport transport = new NioTransport();
+        transport.setPipeliningEnabled(true);
+        this.sendBurst(transport);
+        assertTrue("Sockets: " + this.mServer.getAcceptedCount(),
+                this.mServer.getAcceptedCount() <= THREAD_COUNT);
+        assertEquals(THREAD_COUNT * REQUESTS_PER_THREAD, transport.getOpenedConnectionCount()
+                + transport.getReusedConnectionCount() + transport.getPipelinedRequestCount());
+        transport.evictAll();
+    }
+
+    @Test
+    public void reportsConnectionCountsThroughClient() throws Exception {
+        final NioTransport transport = new NioTransport();
+        final HttpClient client = new HttpClient();
+        client.setTransport(transport);
+        for (int i = 0; i < 3; i++) {
+            final HttpUrlGetRequest request = new HttpUrlGetRequest(this.mUrl.toString());
+            request.send(client);
+            assertEquals(200, request.getResponseCode());
+        }
+        assertEquals(1, this.mServer.getAcceptedCount());
+        assertEquals(1, client.getOpenedConnectionCount());
+        assertEquals(2, client.getReusedConnectionCount());
+        transport.evictAll();
+    }
+
+    @Test
+    public void reportsUnknownCountsForPlatformTransport() {
+        final HttpClient client = new HttpClient();
+        assertEquals(-1, client.getOpenedConnectionCount());
+        assertEquals(-1, client.getReusedConnectionCount());
+    }
+
+    @Test
+    public void sendsRequestBodies() throws Exception {
+        final NioTransport transport = new NioTransport();
+        final byte[] body = new byte[100000];
+        for (int i = 0; i < body.length; i++) {
+            body[i] = (byte) i;
+        }
+        for (int chunkLength = 0; chunkLength <= 8192; chunkLength += 8192) {
+            final HttpURLConnection connection = transport.openConnection(this.mUrl);
+            connection.setRequestMethod("POST");
+            if (chunkLength > 0) {
+                connection.setChunkedStreamingMode(chunkLength);
+            } else {
+                connection.setFixedLengthStreamingMode(body.length);
+            }
+            final OutputStream outputStream = connection.getOutputStream();
+            outputStream.write(body, 0, 1000);
+            outputStream.write(body, 1000, body.length - 1000);
+            outputStream.close();
+            assertEquals(200, connection.getResponseCode());
+            assertEquals(String.valueOf(body.length), connection.getHeaderField("content-length"));
+            assertEquals(body.length, TestServer.readAll(connection.getInputStream()).length);
+        }
+        assertEquals(1, this.mServer.getAcceptedCount());
+
+        final HttpURLConnection connection = transport.openConnection(
+                new URL(this.mServer.getUrl() + "/missing"));
+        assertEquals(404, connection.getResponseCode());
+        try {
+            connection.getInputStream();
+            fail("Expected a FileNotFoundException");
+        } catch (FileNotFoundException e) {
+            // Error bodies are only returned by getErrorStream()
+        }
+        assertEquals(BODY_LENGTH, TestServer.readAll(connection.getErrorStream()).length);
+        transport.evictAll();
+    }
+
+    /**
+     * Sends REQUESTS_PER_THREAD GET requests from each of THREAD_COUNT threads at once
+     *
+     * @param transport The transport the requests are sent through
+     * @throws Exception If any request failed
+     */
+    private void sendBurst(final Transport transport) throws Exception {
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final CountDownLatch doneLatch = new CountDownLatch(THREAD_COUNT);
+        final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+        for (int i = 0; i < THREAD_COUNT; i++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        startLatch.await();
+                        for (int j = 0; j < REQUESTS_PER_THREAD; j++) {
+                            final HttpURLConnection connection = transport.openConnection(
+                                    NioTransportTest.this.mUrl);
+                            connection.setConnectTimeout(5000);
+                            connection.setReadTimeout(5000);
+                            assertEquals(200, connection.getResponseCode());
+                            final InputStream inputStream = connection.getInputStream();
+                            assertEquals(BODY_LENGTH, TestServer.readAll(inputStream).length);
+                            inputStream.close();
+                        }
+                    } catch (Exception | AssertionError e) {
+                        failure.compareAndSet(null, new Exception(e));
+                    } finally {
+                        doneLatch.countDown();
+                    }
+                }
+            }).start();
+        }
+        startLatch.countDown();
+        doneLatch.await();
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+    }
+
+}
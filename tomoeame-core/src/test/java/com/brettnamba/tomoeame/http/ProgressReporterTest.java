@@ -0,0 +1,160 @@
+package com.brettnamba.tomoeame.http;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that the ProgressReporter coalesces chunks by fraction and interval, always reports
+ * the end of a transfer and merges updates that wait on its Executor
+ */
+public class ProgressReporterTest {
+
+    @Test
+    public void coalescesByFraction() {
+        final RecordingListener listener = new RecordingListener();
+        final ProgressReporter reporter = new ProgressReporter(listener, null);
+        reporter.setThrottle(0, 0.1f);
+        reporter.start(1000);
+        for (int i = 0; i < 100; i++) {
+            reporter.onTransferred(10);
+        }
+
+        assertEquals(10, listener.mBytes.size());
+        assertEquals(Long.valueOf(100), listener.mBytes.get(0));
+        assertEquals(1000, listener.getTotal());
+        assertEquals(Long.valueOf(1000), listener.mTotalBytes.get(9));
+    }
+
+    @Test
+    public void alwaysReportsEndWithinInterval() {
+        final RecordingListener listener = new RecordingListener();
+        final ProgressReporter reporter = new ProgressReporter(listener, null);
+        reporter.setThrottle(60000, 0);
+        reporter.start(1000);
+        for (int i = 0; i < 100; i++) {
+            reporter.onTransferred(10);
+        }
+
+        assertEquals(1, listener.mBytes.size());
+        assertEquals(1000, listener.getTotal());
+    }
+
+    @Test
+    public void finishReportsRestOfUnknownTotal() {
+        final RecordingListener listener = new RecordingListener();
+        final ProgressReporter reporter = new ProgressReporter(listener, null);
+        reporter.start(-1);
+        for (int i = 0; i < 5; i++) {
+            reporter.onTransferred(100);
+        }
+        assertEquals(0, listener.mBytes.size());
+
+        reporter.finish();
+        reporter.finish();
+
+        assertEquals(1, listener.mBytes.size());
+        assertEquals(500, listener.getTotal());
+        assertEquals(Long.valueOf(-1), listener.mTotalBytes.get(0));
+    }
+
+    @Test
+    public void mergesUpdatesWaitingOnExecutor() {
+        final List<Runnable> posted = new ArrayList<Runnable>();
+        final RecordingListener listener = new RecordingListener();
+        final ProgressReporter reporter = new ProgressReporter(listener, new Executor() {
+            @Override
+            public void execute(Runnable runnable) {
+                posted.add(runnable);
+            }
+        });
+        reporter.setThrottle(0, 0);
+        reporter.start(100);
+        for (int i = 0; i < 10; i++) {
+            reporter.onTransferred(10);
+        }
+        assertEquals(1, posted.size());
+
+        posted.get(0).run();
+        assertEquals(1, listener.mBytes.size());
+        assertEquals(100, listener.getTotal());
+
+        reporter.start(100);
+        reporter.onTransferred(100);
+        assertEquals(2, posted.size());
+    }
+
+    @Test
+    public void reportsDownloadProgress() throws IOException {
+        final byte[] body = new byte[64 * 1024];
+        final TestServer server = new TestServer(new TestServer.Handler() {
+            @Override
+            public boolean respond(TestServer.Request request, OutputStream out)
+                    throws IOException {
+                TestServer.writeResponse(out, 200, "", body);
+                return true;
+            }
+        });
+        try {
+            final RecordingListener listener = new RecordingListener();
+            final HttpUrlGetRequest request = new HttpUrlGetRequest(server.getUrl() + "/file");
+            request.setDataReceivedListener(new HttpUrlConnectionRequest.DataReceivedListener() {
+                @Override
+                public void onDataReceived(long bytesReceived, long totalBytes) {
+                    listener.onProgress(bytesReceived, totalBytes);
+                }
+            });
+            request.send();
+
+            assertEquals(body.length, listener.getTotal());
+            for (Long totalBytes : listener.mTotalBytes) {
+                assertEquals(Long.valueOf(body.length), totalBytes);
+            }
+        } finally {
+            server.close();
+        }
+    }
+
+    /**
+     * Records every update it receives
+     */
+    private static final class RecordingListener implements ProgressReporter.Listener {
+
+        /**
+         * The bytes of each update
+         */
+        final List<Long> mBytes = new ArrayList<Long>();
+
+        /**
+         * The total of each update
+         */
+        final List<Long> mTotalBytes = new ArrayList<Long>();
+
+        @Override
+        public void onProgress(long bytes, long totalBytes) {
+            this.mBytes.add(bytes);
+            this.mTotalBytes.add(totalBytes);
+        }
+
+        /**
+         * Returns the sum of the bytes of every update
+         *
+         * @return The reported byte count
+         */
+        long getTotal() {
+            long total = 0;
+            for (Long bytes : this.mBytes) {
+                total += bytes;
+            }
+            return total;
+        }
+
+    }
+
+}
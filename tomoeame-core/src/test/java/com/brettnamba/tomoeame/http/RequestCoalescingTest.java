@@ -0,0 +1,228 @@
+package com.brettnamba.tomoeame.http;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that identical GET requests in flight at once share one exchange, that a follower does
+ * not copy the abort of the request it waited on, and that a follower's own cancel() and call
+ * timeout end its wait
+ */
+public class RequestCoalescingTest {
+
+    /**
+     * The number of milliseconds to wait for a thread to finish
+     */
+    private static final long JOIN_MILLIS = 10000;
+
+    /**
+     * Released to let the first request to the server be answered
+     */
+    private final CountDownLatch mRelease = new CountDownLatch(1);
+
+    /**
+     * The number of requests the server read
+     */
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+
+    /**
+     * The server whose first response waits for mRelease
+     */
+    private TestServer mServer;
+
+    /**
+     * The client the requests are sent through
+     */
+    private HttpClient mClient;
+
+    @Before
+    public void setUp() throws IOException {
+        this.mServer = new TestServer(new TestServer.Handler() {
+            @Override
+            public boolean respond(TestServer.Request request, OutputStream out)
+                    throws IOException {
+                if (RequestCoalescingTest.this.mRequestCount.incrementAndGet() == 1) {
+                    try {
+                        RequestCoalescingTest.this.mRelease.await();
+                    } catch (InterruptedException e) {
+                        return false;
+                    }
+                }
+                TestServer.writeResponse(out, 200, "", TestServer.ascii("ok"));
+                return true;
+            }
+        });
+        this.mClient = new HttpClient();
+    }
+
+    @After
+    public void tearDown() {
+        this.mRelease.countDown();
+        this.mServer.close();
+    }
+
+    @Test
+    public void sharesOneExchange() throws Exception {
+        final HttpUrlGetRequest leader = this.newRequest();
+        final HttpUrlGetRequest follower = this.newRequest();
+        final Thread leaderThread = this.startLeader(leader);
+        final Thread followerThread = this.startFollower(follower);
+
+        this.mRelease.countDown();
+        leaderThread.join(JOIN_MILLIS);
+        followerThread.join(JOIN_MILLIS);
+
+        assertEquals("ok", leader.getResponseBody());
+        assertEquals("ok", follower.getResponseBody());
+        assertNull(follower.getException());
+        assertEquals(1, this.mRequestCount.get());
+        assertEquals(1, this.mClient.getCoalescedRequestCount());
+    }
+
+    @Test
+    public void followerSendsItsOwnRequestWhenLeaderIsCanceled() throws Exception {
+        final HttpUrlGetRequest leader = this.newRequest();
+        final HttpUrlGetRequest follower = this.newRequest();
+        final Thread leaderThread = this.startLeader(leader);
+        final Thread followerThread = this.startFollower(follower);
+
+        leader.cancel();
+        leaderThread.join(JOIN_MILLIS);
+        followerThread.join(JOIN_MILLIS);
+
+        assertTrue(leader.getException() instanceof InterruptedIOException);
+        assertNull(follower.getException());
+        assertEquals(200, follower.getResponseCode());
+        assertEquals("ok", follower.getResponseBody());
+        assertEquals(2, this.mRequestCount.get());
+        assertEquals(0, this.mClient.getCoalescedRequestCount());
+    }
+
+    @Test
+    public void followerSendsItsOwnRequestWhenLeaderTimesOut() throws Exception {
+        final HttpUrlGetRequest leader = this.newRequest();
+        leader.setCallTimeout(200);
+        final HttpUrlGetRequest follower = this.newRequest();
+        final Thread leaderThread = this.startLeader(leader);
+        final Thread followerThread = this.startFollower(follower);
+
+        leaderThread.join(JOIN_MILLIS);
+        followerThread.join(JOIN_MILLIS);
+
+        assertTrue(leader.getException() instanceof InterruptedIOException);
+        assertNull(follower.getException());
+        assertEquals("ok", follower.getResponseBody());
+        assertEquals(2, this.mRequestCount.get());
+    }
+
+    @Test
+    public void followerCancelEndsItsWait() throws Exception {
+        final HttpUrlGetRequest leader = this.newRequest();
+        final HttpUrlGetRequest follower = this.newRequest();
+        final Thread leaderThread = this.startLeader(leader);
+        final Thread followerThread = this.startFollower(follower);
+
+        follower.cancel();
+        followerThread.join(JOIN_MILLIS);
+
+        assertFalse(followerThread.isAlive());
+        assertTrue(follower.getException() instanceof InterruptedIOException);
+        assertTrue(leaderThread.isAlive());
+
+        this.mRelease.countDown();
+        leaderThread.join(JOIN_MILLIS);
+        assertEquals("ok", leader.getResponseBody());
+        assertEquals(1, this.mRequestCount.get());
+    }
+
+    @Test
+    public void followerCallTimeoutEndsItsWait() throws Exception {
+        final HttpUrlGetRequest leader = this.newRequest();
+        final HttpUrlGetRequest follower = this.newRequest();
+        follower.setCallTimeout(200);
+        final Thread leaderThread = this.startLeader(leader);
+        final Thread followerThread = this.startFollower(follower);
+
+        followerThread.join(JOIN_MILLIS);
+
+        assertFalse(followerThread.isAlive());
+        assertTrue(follower.getException() instanceof InterruptedIOException);
+        assertTrue(leaderThread.isAlive());
+
+        this.mRelease.countDown();
+        leaderThread.join(JOIN_MILLIS);
+        assertEquals("ok", leader.getResponseBody());
+    }
+
+    /**
+     * Creates a GET request for the server's resource
+     *
+     * @return The request
+     */
+    private HttpUrlGetRequest newRequest() {
+        return new HttpUrlGetRequest(this.mServer.getUrl() + "/items");
+    }
+
+    /**
+     * Sends the request on a new thread and waits until the server has read it
+     *
+     * @param request The request
+     * @return The thread
+     * @throws InterruptedException
+     */
+    private Thread startLeader(HttpUrlGetRequest request) throws InterruptedException {
+        final Thread thread = this.startExecute(request);
+        while (this.mRequestCount.get() == 0) {
+            Thread.sleep(5);
+        }
+        return thread;
+    }
+
+    /**
+     * Sends the request on a new thread and waits until it waits on the request in flight
+     *
+     * @param request The request
+     * @return The thread
+     * @throws InterruptedException
+     */
+    private Thread startFollower(HttpUrlGetRequest request) throws InterruptedException {
+        final Thread thread = this.startExecute(request);
+        final long deadlineNanos = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (thread.getState() != Thread.State.WAITING && thread.isAlive()
+                && System.nanoTime() < deadlineNanos) {
+            Thread.sleep(5);
+        }
+        return thread;
+    }
+
+    /**
+     * Sends the request through the client on a new thread
+     *
+     * @param request The request
+     * @return The thread
+     */
+    private Thread startExecute(final HttpUrlGetRequest request) {
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                RequestCoalescingTest.this.mClient.execute(request);
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+}
@@ -0,0 +1,235 @@
+package com.brettnamba.tomoeame.http;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the metrics published for each call and the precision of LatencyHistogram, including
+ * under concurrent recording
+ */
+public class RequestMetricsTest {
+
+    /**
+     * The length of the response body of an item
+     */
+    private static final int ITEM_LENGTH = 1000;
+
+    /**
+     * The number of threads that record into one histogram at once
+     */
+    private static final int THREAD_COUNT = 8;
+
+    /**
+     * The number of values each thread records
+     */
+    private static final int VALUES_PER_THREAD = 100000;
+
+    /**
+     * The server the requests are sent to
+     */
+    private TestServer mServer;
+
+    /**
+     * The number of requests for "/flaky"
+     */
+    private final AtomicInteger mFlakyCount = new AtomicInteger();
+
+    @Before
+    public void setUp() throws IOException {
+        // Items have ITEM_LENGTH bytes and every other request for "/flaky" fails with a 503
+        this.mServer = new TestServer(new TestServer.Handler() {
+            @Override
+            public boolean respond(TestServer.Request request, OutputStream out)
+                    throws IOException {
+                final String path = request.getPath();
+                if (path.startsWith("/items/")) {
+                    final byte[] body = new byte[ITEM_LENGTH];
+                    Arrays.fill(body, (byte) 'x');
+                    TestServer.writeResponse(out, 200, "", body);
+                } else if (path.startsWith("/flaky")
+                        && RequestMetricsTest.this.mFlakyCount.incrementAndGet() % 2 == 1) {
+                    TestServer.writeResponse(out, 503, "Retry-After: 0\r\n",
+                            TestServer.ascii("busy"));
+                } else {
+                    TestServer.writeResponse(out, 200, "", TestServer.ascii("ok"));
+                }
+                return true;
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        this.mServer.close();
+    }
+
+    @Test
+    public void publishesPhasesSizesAndRetries() throws Exception {
+        final HistogramMetricsSink sink = new HistogramMetricsSink();
+        final HttpClient client = new HttpClient();
+        client.setMetricsSink(sink);
+        client.setRetryPolicy(new RetryPolicy(3, 1, 1, 10000, false));
+        final List<RequestMetrics> published = new ArrayList<RequestMetrics>();
+
+        for (int i = 0; i < 5; i++) {
+            final HttpUrlGetRequest request = new HttpUrlGetRequest(
+                    this.mServer.getUrl() + "/items/" + i);
+            request.setEndpointTemplate("/items/{id}");
+            request.send(client);
+            assertNull(request.getException());
+        }
+
+        final HttpUrlWwwFormRequest form = new HttpUrlWwwFormRequest(
+                this.mServer.getUrl() + "/form");
+        form.addRequestParameter("name", "value");
+        form.setMetricsSink(new MetricsSink() {
+            @Override
+            public void onRequestMetrics(RequestMetrics metrics) {
+                published.add(metrics);
+            }
+        });
+        form.send(client);
+        assertNull(String.valueOf(form.getException()), form.getException());
+
+        final HttpUrlGetRequest flaky = new HttpUrlGetRequest(
+                this.mServer.getUrl() + "/flaky?attempt=1");
+        flaky.setMetricsSink(new MetricsSink() {
+            @Override
+            public void onRequestMetrics(RequestMetrics metrics) {
+                published.add(metrics);
+            }
+        });
+        flaky.send(client);
+        assertEquals(200, flaky.getResponseCode());
+
+        final HttpUrlGetRequest refused = new HttpUrlGetRequest("http://127.0.0.1:1/");
+        refused.setRetryPolicy(new RetryPolicy(1, 0, 0, 1000, false));
+        refused.send(client);
+        assertNotNull(refused.getException());
+
+        final HistogramMetricsSink.EndpointMetrics items = sink.getEndpointMetrics("GET",
+                this.mServer.getUrl(), "/items/{id}");
+        assertNotNull(String.valueOf(sink.getEndpointMetrics().keySet()), items);
+        assertEquals(5, items.getRequestCount());
+        assertEquals(5 * ITEM_LENGTH, items.getBytesReceived());
+        assertEquals(0, items.getFailureCount());
+        for (RequestMetrics.Phase phase : new RequestMetrics.Phase[]{
+                RequestMetrics.Phase.BUILD_URL, RequestMetrics.Phase.CONNECT,
+                RequestMetrics.Phase.FIRST_BYTE, RequestMetrics.Phase.READ_BODY,
+                RequestMetrics.Phase.TOTAL}) {
+            assertEquals(phase.name(), 5, items.getHistogram(phase).getCount());
+        }
+        assertEquals(0, items.getHistogram(RequestMetrics.Phase.WRITE_BODY).getCount());
+
+        final RequestMetrics formMetrics = published.get(0);
+        assertEquals("POST", formMetrics.getMethod());
+        assertEquals("/form", formMetrics.getEndpoint());
+        assertEquals(200, formMetrics.getResponseCode());
+        assertEquals("name=value".length(), formMetrics.getBytesSent());
+        assertEquals(2, formMetrics.getBytesReceived());
+        assertTrue(formMetrics.getPhaseNanos(RequestMetrics.Phase.WRITE_BODY) > 0);
+        assertNull(sink.getEndpointMetrics("POST", this.mServer.getUrl(), "/form"));
+
+        final RequestMetrics flakyMetrics = published.get(1);
+        assertEquals("/flaky", flakyMetrics.getEndpoint());
+        assertEquals(2, flakyMetrics.getAttemptCount());
+        assertEquals(1, flakyMetrics.getRetryCount());
+        assertEquals(200, flakyMetrics.getResponseCode());
+        long phaseNanos = 0;
+        for (RequestMetrics.Phase phase : RequestMetrics.Phase.values()) {
+            if (phase != RequestMetrics.Phase.TOTAL) {
+                phaseNanos += flakyMetrics.getPhaseNanos(phase);
+            }
+        }
+        assertTrue(flakyMetrics.toString(), phaseNanos <= flakyMetrics.getTotalNanos());
+
+        final HistogramMetricsSink.EndpointMetrics refusedMetrics = sink.getEndpointMetrics(
+                "GET", "http://127.0.0.1:1", "/");
+        assertEquals(1, refusedMetrics.getFailureCount());
+        assertEquals(1, refusedMetrics.getHistogram(RequestMetrics.Phase.TOTAL).getCount());
+    }
+
+    @Test
+    public void histogramPercentilesAreWithinOneSixteenth() {
+        final Random random = new Random(21);
+        final long[] values = new long[100000];
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < values.length; i++) {
+            // Log-normal latencies around a millisecond with a long tail
+            values[i] = (long) Math.exp(7 + random.nextGaussian() * 1.5);
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+        assertEquals(values.length, histogram.getCount());
+        assertEquals(values[values.length - 1], histogram.getMax());
+        for (double percentile : new double[]{0, 1, 10, 50, 90, 99, 99.9, 99.99, 100}) {
+            final long expected = values[Math.max(0,
+                    (int) Math.ceil(percentile / 100 * values.length) - 1)];
+            final long actual = histogram.getValueAtPercentile(percentile);
+            assertTrue(percentile + ": " + actual + " < " + expected, actual >= expected);
+            assertTrue(percentile + ": " + actual + " > " + expected,
+                    actual <= expected + expected / 16);
+        }
+
+        for (long value = 0; value < 1 << 20; value++) {
+            final int index = LatencyHistogram.getBucketIndex(value);
+            assertTrue(value + " above its bucket",
+                    value <= LatencyHistogram.getHighestValueInBucket(index));
+            assertTrue(value + " below its bucket", index == 0
+                    || value > LatencyHistogram.getHighestValueInBucket(index - 1));
+        }
+        assertEquals(463, LatencyHistogram.getBucketIndex(LatencyHistogram.MAX_TRACKABLE_VALUE));
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, histogram.getValueAtPercentile(100));
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getValueAtPercentile(99));
+    }
+
+    @Test
+    public void recordsConcurrentlyWithoutLocks() throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(THREAD_COUNT);
+        for (int i = 0; i < THREAD_COUNT; i++) {
+            final int seed = i;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    final Random random = new Random(seed);
+                    try {
+                        start.await();
+                        for (int j = 0; j < VALUES_PER_THREAD; j++) {
+                            histogram.record(random.nextInt(1000000));
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+        start.countDown();
+        done.await();
+        assertEquals((long) THREAD_COUNT * VALUES_PER_THREAD, histogram.getCount());
+        final long median = histogram.getValueAtPercentile(50);
+        assertTrue(String.valueOf(median), median > 470000 && median < 530000);
+    }
+
+}
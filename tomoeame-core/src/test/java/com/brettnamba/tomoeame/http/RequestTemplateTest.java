@@ -0,0 +1,151 @@
+package com.brettnamba.tomoeame.http;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.MalformedURLException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that a RequestTemplate encodes its static parts once and that every request built from
+ * it sends them alongside its own parts without modifying the template
+ */
+public class RequestTemplateTest {
+
+    /**
+     * The server that answers every request with "ok"
+     */
+    private TestServer mServer;
+
+    @Before
+    public void setUp() throws IOException {
+        this.mServer = new TestServer(new TestServer.Handler() {
+            @Override
+            public boolean respond(TestServer.Request request, OutputStream out)
+                    throws IOException {
+                TestServer.writeResponse(out, 200, "", TestServer.ascii("ok"));
+                return true;
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        this.mServer.close();
+    }
+
+    @Test
+    public void encodesStaticQueryIntoUrl() throws MalformedURLException {
+        final RequestTemplate template = new RequestTemplate.Builder("http://example.com/items")
+                .addQueryParameter("q", "a b")
+                .addQueryParameter("lang", "en")
+                .build();
+        assertEquals("http://example.com/items?q=a+b&lang=en", template.getRequestUrl());
+
+        final RequestTemplate queried = new RequestTemplate.Builder("http://example.com/items?v=1")
+                .addQueryParameter("lang", "en")
+                .build();
+        assertEquals("http://example.com/items?v=1&lang=en", queried.getRequestUrl());
+    }
+
+    @Test
+    public void buildsUnmodifiableHeaders() throws MalformedURLException {
+        final RequestTemplate template = new RequestTemplate.Builder("http://example.com/items")
+                .addRequestHeader("X-Api-Key", "key")
+                .setAuthToken("token")
+                .build();
+        final List<Pair<String, String>> headers = template.getRequestHeaders();
+
+        final Pair<String, String> apiKey = headers.get(headers.size() - 2);
+        final Pair<String, String> authorization = headers.get(headers.size() - 1);
+        assertEquals(new Pair<String, String>("X-Api-Key", "key"), apiKey);
+        assertEquals(HttpUrlConnectionRequest.AUTH_HEADER, authorization.first);
+        assertEquals(HttpUrlConnectionRequest.encodeAuthHeaderValue("token"),
+                authorization.second);
+        try {
+            headers.add(new Pair<String, String>("X-Other", "value"));
+            fail("The template's headers cannot be modified");
+        } catch (UnsupportedOperationException e) {
+        }
+        assertNull(template.getAuthenticator());
+    }
+
+    @Test
+    public void rejectsMalformedBaseUrl() {
+        try {
+            new RequestTemplate.Builder("not a url").build();
+            fail("Expected a MalformedURLException");
+        } catch (MalformedURLException e) {
+        }
+    }
+
+    @Test
+    public void sendsStaticPartsWithEachRequest() throws MalformedURLException {
+        final RequestTemplate template = new RequestTemplate.Builder(
+                this.mServer.getUrl() + "/items")
+                .addQueryParameter("lang", "en")
+                .addRequestHeader("X-Api-Key", "key")
+                .build();
+        for (int page = 1; page <= 3; page++) {
+            final HttpUrlGetRequest request = new HttpUrlGetRequest(template);
+            request.addQueryParameter("page", String.valueOf(page));
+            request.send();
+
+            final TestServer.Request received = this.mServer.getLastRequest();
+            assertEquals("ok", request.getResponseBody());
+            assertEquals("/items?lang=en&page=" + page, received.getPath());
+            assertEquals("key", received.getHeader("X-Api-Key"));
+        }
+        assertEquals(3, this.mServer.getRequestCount());
+        assertEquals(this.mServer.getUrl() + "/items?lang=en", template.getRequestUrl());
+    }
+
+    @Test
+    public void sendsStaticFormParameters() throws IOException {
+        final RequestTemplate template = new RequestTemplate.Builder(
+                this.mServer.getUrl() + "/form")
+                .addRequestParameter("client", "app")
+                .build();
+        final HttpUrlWwwFormRequest request = new HttpUrlWwwFormRequest(template);
+        request.addRequestParameter("name", "a b");
+        request.send();
+
+        assertEquals("client=app&name=a+b",
+                new String(this.mServer.getLastRequest().getBody(), "US-ASCII"));
+        assertEquals(1, template.getRequestParameters().size());
+    }
+
+    @Test
+    public void resolvesTemplateAuthenticator() throws MalformedURLException {
+        final AtomicInteger calls = new AtomicInteger();
+        final RequestTemplate template = new RequestTemplate.Builder(
+                this.mServer.getUrl() + "/items")
+                .setAuthenticator(new Authenticator() {
+                    @Override
+                    public String getAuthHeaderValue() {
+                        return "Bearer " + calls.incrementAndGet();
+                    }
+
+                    @Override
+                    public void invalidate(String headerValue) {
+                    }
+                })
+                .build();
+        for (int i = 1; i <= 2; i++) {
+            final HttpUrlGetRequest request = new HttpUrlGetRequest(template);
+            request.send();
+
+            assertEquals("Bearer " + i, this.mServer.getLastRequest()
+                    .getHeader(HttpUrlConnectionRequest.AUTH_HEADER));
+        }
+    }
+
+}
@@ -0,0 +1,121 @@
+package com.brettnamba.tomoeame.http;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that response bodies are read byte for byte, decoded with the charset of their
+ * Content-Type and streamed into a sink without building a String
+ */
+public class ResponseBodyTest {
+
+    /**
+     * The body the server sends, with mixed line terminators and a Latin-1 character
+     */
+    private static final byte[] BODY = new byte[]{'a', '\r', '\n', 'b', '\n', (byte) 0xE9, '\n'};
+
+    /**
+     * The server that sends BODY as ISO-8859-1 text
+     */
+    private TestServer mServer;
+
+    @Before
+    public void setUp() throws IOException {
+        this.mServer = new TestServer(new TestServer.Handler() {
+            @Override
+            public boolean respond(TestServer.Request request, OutputStream out)
+                    throws IOException {
+                TestServer.writeResponse(out, 200,
+                        "Content-Type: text/plain; charset=\"ISO-8859-1\"\r\n", BODY);
+                return true;
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        this.mServer.close();
+    }
+
+    @Test
+    public void keepsLineTerminatorsAndCharset() {
+        final HttpUrlGetRequest request = new HttpUrlGetRequest(this.mServer.getUrl() + "/text");
+        request.send();
+
+        assertEquals("a\r\nb\n\u00e9\n", request.getResponseBody());
+        assertEquals("text/plain; charset=\"ISO-8859-1\"",
+                request.getResponseHeader("content-type"));
+        assertEquals(BODY.length, request.getResponseContentLength());
+    }
+
+    @Test
+    public void streamsIntoSink() {
+        final ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        final HttpUrlGetRequest request = new HttpUrlGetRequest(this.mServer.getUrl() + "/text");
+        request.setResponseSink(sink);
+        request.send();
+
+        assertNull(request.getResponseBody());
+        assertTrue(Arrays.equals(BODY, sink.toByteArray()));
+    }
+
+    @Test
+    public void readsOpenedBodyInPieces() throws IOException {
+        final HttpUrlGetRequest request = new HttpUrlGetRequest(this.mServer.getUrl() + "/text");
+        request.connect();
+        final ResponseBody body = request.openResponseBody();
+        try {
+            assertEquals(Charset.forName("ISO-8859-1"), body.getCharset());
+            assertEquals(BODY.length, body.getContentLength());
+            final ByteBuffer piece = ByteBuffer.allocateDirect(4);
+            final ByteArrayOutputStream read = new ByteArrayOutputStream();
+            while (body.read(piece) != -1) {
+                piece.flip();
+                while (piece.hasRemaining()) {
+                    read.write(piece.get());
+                }
+                piece.clear();
+            }
+            assertTrue(Arrays.equals(BODY, read.toByteArray()));
+        } finally {
+            body.close();
+            request.close();
+        }
+    }
+
+    @Test
+    public void writesToStream() throws IOException {
+        final ResponseBody body = new ResponseBody(new ByteArrayInputStream(BODY),
+                "text/plain", BODY.length);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        assertEquals(BODY.length, body.writeTo(out));
+        assertTrue(Arrays.equals(BODY, out.toByteArray()));
+    }
+
+    @Test
+    public void parsesCharset() {
+        final Charset fallback = ResponseBody.DEFAULT_CHARSET;
+        assertEquals(fallback, ResponseBody.parseCharset(null, fallback));
+        assertEquals(fallback, ResponseBody.parseCharset("text/plain", fallback));
+        assertEquals(fallback, ResponseBody.parseCharset("text/plain; charset=nope", fallback));
+        assertEquals(Charset.forName("UTF-16"),
+                ResponseBody.parseCharset("text/plain; Charset=utf-16", fallback));
+        assertEquals(Charset.forName("ISO-8859-1"),
+                ResponseBody.parseCharset("text/plain; q=1; charset=\"latin1\"", fallback));
+    }
+
+}
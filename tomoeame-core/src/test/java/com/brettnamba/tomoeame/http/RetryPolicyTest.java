@@ -0,0 +1,152 @@
+package com.brettnamba.tomoeame.http;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the jittered exponential backoff of the RetryPolicy, which failures it retries, how it
+ * honors Retry-After and that requests are retried accordingly
+ */
+public class RetryPolicyTest {
+
+    /**
+     * The number of responses the server fails with before it succeeds
+     */
+    private final AtomicInteger mFailuresLeft = new AtomicInteger();
+
+    /**
+     * The server that answers with a 503 while failures are left, otherwise with "ok"
+     */
+    private TestServer mServer;
+
+    @Before
+    public void setUp() throws IOException {
+        this.mServer = new TestServer(new TestServer.Handler() {
+            @Override
+            public boolean respond(TestServer.Request request, OutputStream out)
+                    throws IOException {
+                if (RetryPolicyTest.this.mFailuresLeft.getAndDecrement() > 0) {
+                    TestServer.writeResponse(out, 503, "Retry-After: 0\r\n",
+                            TestServer.ascii("unavailable"));
+                } else {
+                    TestServer.writeResponse(out, 200, "", TestServer.ascii("ok"));
+                }
+                return true;
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        this.mServer.close();
+    }
+
+    @Test
+    public void jittersBackoffUpToExponentialCeiling() {
+        final RetryPolicy policy = new RetryPolicy(5, 100, 400, 60000, false);
+        final long[] ceilings = new long[]{100, 200, 400, 400};
+        for (int attempt = 1; attempt <= ceilings.length; attempt++) {
+            for (int i = 0; i < 100; i++) {
+                final long delay = policy.getRetryDelayMillis("GET", attempt, 0, 502, null, null);
+                assertTrue(delay >= 0 && delay <= ceilings[attempt - 1]);
+            }
+        }
+        assertEquals(-1, policy.getRetryDelayMillis("GET", 5, 0, 502, null, null));
+    }
+
+    @Test
+    public void honorsRetryAfter() {
+        final RetryPolicy policy = new RetryPolicy();
+        assertEquals(2000, policy.getRetryDelayMillis("GET", 1, 0, 503, "2", null));
+        assertEquals(3000, policy.getRetryDelayMillis("GET", 1, 0, 429, " 3 ", null));
+
+        final long nowMillis = 1000000000000L;
+        final SimpleDateFormat format =
+                new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        assertEquals(5000, RetryPolicy.parseRetryAfterMillis(
+                format.format(new Date(nowMillis + 5000)), nowMillis));
+        assertEquals(0, RetryPolicy.parseRetryAfterMillis(
+                format.format(new Date(nowMillis - 5000)), nowMillis));
+        assertEquals(-1, RetryPolicy.parseRetryAfterMillis("-1", nowMillis));
+        assertEquals(-1, RetryPolicy.parseRetryAfterMillis("soon", nowMillis));
+    }
+
+    @Test
+    public void retriesOnlyTransientFailures() {
+        final RetryPolicy policy = new RetryPolicy();
+        assertTrue(policy.getRetryDelayMillis("GET", 1, 0, -1, null,
+                new SocketTimeoutException()) >= 0);
+        assertTrue(policy.getRetryDelayMillis("GET", 1, 0, 504, null, null) >= 0);
+        assertEquals(-1, policy.getRetryDelayMillis("GET", 1, 0, 500, null, null));
+        assertEquals(-1, policy.getRetryDelayMillis("GET", 1, 0, 404, null, null));
+        assertEquals(-1, policy.getRetryDelayMillis("GET", 1, 0, -1, null,
+                new InterruptedIOException()));
+        assertEquals(-1, policy.getRetryDelayMillis("GET", 1, 0, -1, null,
+                new RejectedRequestException("rejected")));
+        assertEquals(-1, policy.getRetryDelayMillis("POST", 1, 0, 503, null, null));
+        assertTrue(new RetryPolicy(3, 0, 0, 60000, true)
+                .getRetryDelayMillis("POST", 1, 0, 503, null, null) >= 0);
+    }
+
+    @Test
+    public void stopsAtDeadline() {
+        final RetryPolicy policy = new RetryPolicy(3, 100, 100, 1000, false);
+        assertEquals(-1, policy.getRetryDelayMillis("GET", 1, 500, 503, "1", null));
+        assertEquals(-1, policy.getRetryDelayMillis("GET", 1, 1000, 502, null, null));
+    }
+
+    @Test
+    public void retriesRequestUntilItSucceeds() {
+        this.mFailuresLeft.set(2);
+        final List<Integer> responseCodes = new ArrayList<Integer>();
+        final HttpUrlGetRequest request = new HttpUrlGetRequest(this.mServer.getUrl() + "/items");
+        request.setRetryPolicy(new RetryPolicy(3, 0, 0, 60000, false));
+        request.setAttemptListener(new HttpUrlConnectionRequest.AttemptListener() {
+            @Override
+            public void onAttempt(HttpUrlConnectionRequest request, int attempt,
+                                  int responseCode, IOException exception, long durationMillis,
+                                  long delayMillis) {
+                responseCodes.add(responseCode);
+            }
+        });
+        request.send();
+
+        assertEquals("ok", request.getResponseBody());
+        assertEquals(3, request.getAttemptCount());
+        assertEquals(3, this.mServer.getRequestCount());
+        assertEquals(3, responseCodes.size());
+        assertEquals(Integer.valueOf(503), responseCodes.get(0));
+        assertEquals(Integer.valueOf(200), responseCodes.get(2));
+    }
+
+    @Test
+    public void doesNotRetryPost() {
+        this.mFailuresLeft.set(1);
+        final HttpUrlWwwFormRequest request =
+                new HttpUrlWwwFormRequest(this.mServer.getUrl() + "/items");
+        request.setRetryPolicy(new RetryPolicy(3, 0, 0, 60000, false));
+        request.send();
+
+        assertEquals(503, request.getResponseCode());
+        assertEquals(1, request.getAttemptCount());
+        assertEquals(1, this.mServer.getRequestCount());
+    }
+
+}
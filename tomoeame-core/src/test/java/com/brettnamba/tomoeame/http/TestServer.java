@@ -0,0 +1,483 @@
+package com.brettnamba.tomoeame.http;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Server on the loopback interface that the core tests send requests to.  Each connection is
+ * served by its own thread.  By default the server speaks HTTP/1.1, reading each request with its
+ * body, decoding chunked bodies, and letting a Handler write the response, so connections are
+ * kept alive and pipelined requests are answered in order.  Tests of other protocols can take the
+ * accepted sockets over with a ConnectionHandler instead.
+ */
+final class TestServer implements Runnable {
+
+    /**
+     * The listening socket
+     */
+    private final ServerSocket mServerSocket;
+
+    /**
+     * Answers the HTTP/1.1 requests or null if the sockets are taken over
+     */
+    private final Handler mHandler;
+
+    /**
+     * Serves the accepted sockets or null if the server answers HTTP/1.1 requests
+     */
+    private final ConnectionHandler mConnectionHandler;
+
+    /**
+     * The number of sockets that were accepted
+     */
+    private final AtomicInteger mAcceptedCount = new AtomicInteger();
+
+    /**
+     * The number of HTTP/1.1 requests that were read
+     */
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+
+    /**
+     * The last HTTP/1.1 request that was read
+     */
+    private volatile Request mLastRequest;
+
+    /**
+     * Constructor that starts answering HTTP/1.1 requests
+     *
+     * @param handler Writes the response to each request
+     * @throws IOException
+     */
+    TestServer(Handler handler) throws IOException {
+        this(handler, null);
+    }
+
+    /**
+     * Constructor that starts handing the accepted sockets over
+     *
+     * @param connectionHandler Serves each accepted socket
+     * @throws IOException
+     */
+    TestServer(ConnectionHandler connectionHandler) throws IOException {
+        this(null, connectionHandler);
+    }
+
+    /**
+     * Constructor that starts accepting connections
+     *
+     * @param handler           Writes the response to each request or null
+     * @param connectionHandler Serves each accepted socket or null
+     * @throws IOException
+     */
+    private TestServer(Handler handler, ConnectionHandler connectionHandler) throws IOException {
+        this.mHandler = handler;
+        this.mConnectionHandler = connectionHandler;
+        this.mServerSocket = new ServerSocket(0, 1024, InetAddress.getByName("127.0.0.1"));
+        final Thread thread = new Thread(this, "TestServer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Creates a server that stalls each request until the latch is released and then answers it
+     * with a 200, except for requests to /unavailable, which get a 503 at once that asks to retry
+     * in ten seconds
+     *
+     * @param release Released to let the stalled requests be answered
+     * @return The started server
+     * @throws IOException
+     */
+    static TestServer stalling(final CountDownLatch release) throws IOException {
+        return new TestServer(new Handler() {
+            @Override
+            public boolean respond(Request request, OutputStream out) throws IOException {
+                if (request.getPath().startsWith("/unavailable")) {
+                    writeResponse(out, 503, "Retry-After: 10\r\n", ascii("unavailable"));
+                    return true;
+                }
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    return false;
+                }
+                writeResponse(out, 200, "", ascii("ok"));
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Returns the base URL of the server, which is also its host key
+     *
+     * @return The URL without a trailing slash
+     */
+    String getUrl() {
+        return "http://127.0.0.1:" + this.mServerSocket.getLocalPort();
+    }
+
+    /**
+     * Returns the number of sockets that were accepted
+     *
+     * @return The accepted count
+     */
+    int getAcceptedCount() {
+        return this.mAcceptedCount.get();
+    }
+
+    /**
+     * Returns the number of HTTP/1.1 requests that were read
+     *
+     * @return The request count
+     */
+    int getRequestCount() {
+        return this.mRequestCount.get();
+    }
+
+    /**
+     * Returns the last HTTP/1.1 request that was read
+     *
+     * @return The request or null if none was read
+     */
+    Request getLastRequest() {
+        return this.mLastRequest;
+    }
+
+    /**
+     * Stops accepting connections
+     */
+    void close() {
+        try {
+            this.mServerSocket.close();
+        } catch (IOException e) {
+        }
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            final Socket socket;
+            try {
+                socket = this.mServerSocket.accept();
+                socket.setTcpNoDelay(true);
+            } catch (IOException e) {
+                return;
+            }
+            this.mAcceptedCount.incrementAndGet();
+            final Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    TestServer.this.serve(socket);
+                }
+            }, "TestServer connection");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Serves one connection until either side closes it
+     *
+     * @param socket The connection
+     */
+    private void serve(Socket socket) {
+        try {
+            if (this.mConnectionHandler != null) {
+                this.mConnectionHandler.serve(socket);
+                return;
+            }
+            final InputStream in = new BufferedInputStream(socket.getInputStream());
+            final OutputStream out = socket.getOutputStream();
+            Request request;
+            while ((request = readRequest(in)) != null) {
+                this.mRequestCount.incrementAndGet();
+                this.mLastRequest = request;
+                if (!this.mHandler.respond(request, out)) {
+                    return;
+                }
+                out.flush();
+            }
+        } catch (IOException e) {
+            // The client closed the socket
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    /**
+     * Writes a response with a Content-Length in one write, so Nagle's algorithm does not delay
+     * the body
+     *
+     * @param out          The connection's stream
+     * @param responseCode The response code
+     * @param headers      Extra header lines, each ending in CRLF, or an empty String
+     * @param body         The response body
+     * @throws IOException
+     */
+    static void writeResponse(OutputStream out, int responseCode, String headers, byte[] body)
+            throws IOException {
+        final ByteArrayOutputStream response = new ByteArrayOutputStream(body.length + 128);
+        response.write(ascii("HTTP/1.1 " + responseCode + " Test\r\n" + headers
+                + "Content-Length: " + body.length + "\r\n\r\n"));
+        response.write(body);
+        response.writeTo(out);
+    }
+
+    /**
+     * Returns the ASCII bytes of text
+     *
+     * @param text The text
+     * @return The bytes
+     */
+    static byte[] ascii(String text) {
+        try {
+            return text.getBytes("US-ASCII");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Reads a stream to the end
+     *
+     * @param inputStream The stream
+     * @return The bytes that were read
+     * @throws IOException
+     */
+    static byte[] readAll(InputStream inputStream) throws IOException {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[8192];
+        int bytesRead;
+        while ((bytesRead = inputStream.read(buffer)) != -1) {
+            outputStream.write(buffer, 0, bytesRead);
+        }
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * Reads bytes until the array is full
+     *
+     * @param inputStream The stream
+     * @param bytes       The array
+     * @throws IOException If the stream ended first
+     */
+    static void readFully(InputStream inputStream, byte[] bytes) throws IOException {
+        int offset = 0;
+        while (offset < bytes.length) {
+            final int bytesRead = inputStream.read(bytes, offset, bytes.length - offset);
+            if (bytesRead == -1) {
+                throw new IOException("Unexpected end of stream");
+            }
+            offset += bytesRead;
+        }
+    }
+
+    /**
+     * Reads the head and body of the next request
+     *
+     * @param in The connection's stream
+     * @return The request or null if the client closed the connection
+     * @throws IOException
+     */
+    private static Request readRequest(InputStream in) throws IOException {
+        final String requestLine = readLine(in);
+        if (requestLine == null || requestLine.isEmpty()) {
+            return null;
+        }
+        final StringBuilder head = new StringBuilder(requestLine).append("\r\n");
+        final Map<String, String> headers = new LinkedHashMap<String, String>();
+        String line;
+        while ((line = readLine(in)) != null && !line.isEmpty()) {
+            head.append(line).append("\r\n");
+            final int colon = line.indexOf(':');
+            if (colon > 0) {
+                headers.put(line.substring(0, colon).trim().toLowerCase(),
+                        line.substring(colon + 1).trim());
+            }
+        }
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        final String transferEncoding = headers.get("transfer-encoding");
+        final String contentLength = headers.get("content-length");
+        if (transferEncoding != null && transferEncoding.toLowerCase().contains("chunked")) {
+            int chunkLength;
+            while ((chunkLength = Integer.parseInt(readLine(in).trim(), 16)) > 0) {
+                final byte[] chunk = new byte[chunkLength];
+                readFully(in, chunk);
+                body.write(chunk);
+                readLine(in);
+            }
+            readLine(in);
+        } else if (contentLength != null) {
+            final byte[] bytes = new byte[Integer.parseInt(contentLength)];
+            readFully(in, bytes);
+            body.write(bytes);
+        }
+        final String[] parts = requestLine.split(" ");
+        return new Request(parts[0], parts.length > 1 ? parts[1] : "", head.toString(),
+                headers, body.toByteArray());
+    }
+
+    /**
+     * Reads a line of the request head
+     *
+     * @param in The connection's stream
+     * @return The line without its terminator or null at the end of the stream
+     * @throws IOException
+     */
+    private static String readLine(InputStream in) throws IOException {
+        final StringBuilder line = new StringBuilder();
+        int b;
+        while ((b = in.read()) != -1 && b != '\n') {
+            if (b != '\r') {
+                line.append((char) b);
+            }
+        }
+        if (b == -1 && line.length() == 0) {
+            return null;
+        }
+        return line.toString();
+    }
+
+    /**
+     * A request read by the server
+     */
+    static final class Request {
+
+        /**
+         * The request method
+         */
+        private final String mMethod;
+
+        /**
+         * The path and query of the request line
+         */
+        private final String mPath;
+
+        /**
+         * The request line and headers
+         */
+        private final String mHead;
+
+        /**
+         * The headers by their lowercase names
+         */
+        private final Map<String, String> mHeaders;
+
+        /**
+         * The body, decoded if it was chunked
+         */
+        private final byte[] mBody;
+
+        /**
+         * Constructor
+         *
+         * @param method  The request method
+         * @param path    The path and query of the request line
+         * @param head    The request line and headers
+         * @param headers The headers by their lowercase names
+         * @param body    The body, decoded if it was chunked
+         */
+        Request(String method, String path, String head, Map<String, String> headers,
+                byte[] body) {
+            this.mMethod = method;
+            this.mPath = path;
+            this.mHead = head;
+            this.mHeaders = Collections.unmodifiableMap(headers);
+            this.mBody = body;
+        }
+
+        /**
+         * Returns the request method
+         *
+         * @return The method
+         */
+        String getMethod() {
+            return this.mMethod;
+        }
+
+        /**
+         * Returns the path and query of the request line
+         *
+         * @return The path
+         */
+        String getPath() {
+            return this.mPath;
+        }
+
+        /**
+         * Returns the request line and headers
+         *
+         * @return The head
+         */
+        String getHead() {
+            return this.mHead;
+        }
+
+        /**
+         * Returns the value of a header
+         *
+         * @param name The header name in any case
+         * @return The value or null if the request does not have the header
+         */
+        String getHeader(String name) {
+            return this.mHeaders.get(name.toLowerCase());
+        }
+
+        /**
+         * Returns the body
+         *
+         * @return The body, decoded if it was chunked
+         */
+        byte[] getBody() {
+            return this.mBody;
+        }
+
+    }
+
+    /**
+     * Writes the responses to HTTP/1.1 requests
+     */
+    interface Handler {
+
+        /**
+         * Writes the response to a request
+         *
+         * @param request The request
+         * @param out     The connection's stream
+         * @return True to keep the connection open or false to close it
+         * @throws IOException
+         */
+        boolean respond(Request request, OutputStream out) throws IOException;
+
+    }
+
+    /**
+     * Serves the accepted sockets of a protocol other than HTTP/1.1
+     */
+    interface ConnectionHandler {
+
+        /**
+         * Serves a socket until either side closes it.  The server closes it afterwards.
+         *
+         * @param socket The accepted socket
+         * @throws IOException
+         */
+        void serve(Socket socket) throws IOException;
+
+    }
+
+}
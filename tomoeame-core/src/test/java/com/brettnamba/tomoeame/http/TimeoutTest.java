@@ -0,0 +1,196 @@
+package com.brettnamba.tomoeame.http;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the read and write timeouts fail a stalled attempt, and that the call timeout
+ * bounds a whole send() including its retries and leaves the thread's interrupt cleared
+ */
+public class TimeoutTest {
+
+    /**
+     * The number of seconds a timed out send() may take at most
+     */
+    private static final long MAX_SECONDS = 5;
+
+    /**
+     * Released to let the servers finish
+     */
+    private final CountDownLatch mRelease = new CountDownLatch(1);
+
+    /**
+     * The stalling server whose responses and retry backoffs the timeouts cut short
+     */
+    private TestServer mServer;
+
+    @Before
+    public void setUp() throws IOException {
+        this.mServer = TestServer.stalling(this.mRelease);
+    }
+
+    @After
+    public void tearDown() {
+        this.mRelease.countDown();
+        this.mServer.close();
+    }
+
+    @Test
+    public void readTimeoutFailsStalledResponse() {
+        final HttpUrlGetRequest request = new HttpUrlGetRequest(this.mServer.getUrl() + "/slow");
+        request.setReadTimeout(200);
+        final long startNanos = System.nanoTime();
+        request.send();
+
+        assertTrue(request.getException() instanceof SocketTimeoutException);
+        assertTrue(System.nanoTime() - startNanos < TimeUnit.SECONDS.toNanos(MAX_SECONDS));
+    }
+
+    @Test
+    public void writeTimeoutFailsStalledUpload() throws IOException {
+        final TestServer server = new TestServer(new TestServer.ConnectionHandler() {
+            @Override
+            public void serve(Socket socket) {
+                // Never read the request so the client's writes fill the socket buffers
+                TimeoutTest.this.awaitRelease();
+            }
+        });
+        try {
+            final HttpUrlMultiPartRequest request = new HttpUrlMultiPartRequest(
+                    server.getUrl() + "/upload", "token");
+            request.setChunkedStreamingEnabled(true);
+            request.setWriteTimeout(200);
+            request.addFileUpload("file", new ZeroFileUpload(256 * 1024 * 1024));
+            final long startNanos = System.nanoTime();
+            request.send();
+
+            assertTrue(request.getException() instanceof SocketTimeoutException);
+            assertTrue(System.nanoTime() - startNanos < TimeUnit.SECONDS.toNanos(MAX_SECONDS));
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void callTimeoutBoundsStalledAttempt() {
+        final HttpClient client = new HttpClient();
+        client.setCallTimeout(200);
+        final HttpUrlGetRequest request = new HttpUrlGetRequest(this.mServer.getUrl() + "/slow");
+        final long startNanos = System.nanoTime();
+        request.send(client);
+
+        assertTrue(request.getException() instanceof InterruptedIOException);
+        assertFalse(request.getException() instanceof SocketTimeoutException);
+        assertTrue(System.nanoTime() - startNanos < TimeUnit.SECONDS.toNanos(MAX_SECONDS));
+        assertFalse(Thread.interrupted());
+    }
+
+    @Test
+    public void callTimeoutBoundsRetryBackoff() {
+        final HttpUrlGetRequest request =
+                new HttpUrlGetRequest(this.mServer.getUrl() + "/unavailable");
+        request.setRetryPolicy(new RetryPolicy());
+        request.setCallTimeout(200);
+        final long startNanos = System.nanoTime();
+        request.send();
+
+        assertTrue(request.getException() instanceof InterruptedIOException);
+        assertEquals(1, request.getAttemptCount());
+        assertEquals(1, this.mServer.getRequestCount());
+        assertTrue(System.nanoTime() - startNanos < TimeUnit.SECONDS.toNanos(MAX_SECONDS));
+        assertFalse(Thread.interrupted());
+    }
+
+    /**
+     * Waits until the test releases the servers
+     */
+    private void awaitRelease() {
+        try {
+            this.mRelease.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * An upload of zeros of a fixed length that is produced as it is read
+     */
+    private static final class ZeroFileUpload implements FileUpload {
+
+        /**
+         * The length of the upload
+         */
+        private final long mLength;
+
+        /**
+         * Constructor
+         *
+         * @param length The length of the upload
+         */
+        ZeroFileUpload(long length) {
+            this.mLength = length;
+        }
+
+        @Override
+        public String getContentType() {
+            return null;
+        }
+
+        @Override
+        public long getLength() {
+            return this.mLength;
+        }
+
+        @Override
+        public boolean isMetadataCheap() {
+            return true;
+        }
+
+        @Override
+        public ReadableByteChannel open() {
+            return new ReadableByteChannel() {
+
+                /**
+                 * The number of bytes left to read
+                 */
+                private long mRemaining = ZeroFileUpload.this.mLength;
+
+                @Override
+                public int read(ByteBuffer byteBuffer) {
+                    if (this.mRemaining == 0) {
+                        return -1;
+                    }
+                    final int count = (int) Math.min(byteBuffer.remaining(), this.mRemaining);
+                    byteBuffer.position(byteBuffer.position() + count);
+                    this.mRemaining -= count;
+                    return count;
+                }
+
+                @Override
+                public boolean isOpen() {
+                    return true;
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+
+    }
+
+}
@@ -0,0 +1,135 @@
+package com.brettnamba.tomoeame.http;
+
+import org.junit.Test;
+
+import java.net.URLEncoder;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that UrlEncoder encodes text and whole forms exactly like the URLEncoder based path
+ * that urlEncodeParameters() used to take
+ */
+public class UrlEncoderTest {
+
+    /**
+     * The number of fields in the form
+     */
+    private static final int FIELD_COUNT = 2000;
+
+    @Test
+    public void encodesLikeUrlEncoder() throws Exception {
+        final Random random = new Random(42);
+        final String[] samples = {"", "abc XYZ 019", ".-*_~!'()", "a&b=c+d%e/f?g#h",
+                "caf\u00e9 \u65e5\u672c", "\ud83d\ude00 emoji", "lone \ud800 high",
+                "lone \udc00 low", "tail \ud83d"};
+        for (String sample : samples) {
+            assertEncodesLikeUrlEncoder(sample);
+        }
+        for (int i = 0; i < 1000; i++) {
+            assertEncodesLikeUrlEncoder(randomText(random, random.nextInt(40)));
+        }
+    }
+
+    @Test
+    public void encodesFormLikeUrlEncoder() throws Exception {
+        final Random random = new Random(7);
+        final String[] names = new String[FIELD_COUNT];
+        final String[] values = new String[FIELD_COUNT];
+        for (int i = 0; i < FIELD_COUNT; i++) {
+            names[i] = "field_" + i;
+            values[i] = randomText(random, 24);
+        }
+        assertArrayEquals(encodeWithJavaUrlEncoder(names, values),
+                encodeWithUrlEncoder(names, values));
+    }
+
+    /**
+     * Encodes the form the way urlEncodeParameters() and HttpUrlWwwFormRequest used to
+     *
+     * @param names  The field names
+     * @param values The field values
+     * @return The form body
+     * @throws Exception
+     */
+    private static byte[] encodeWithJavaUrlEncoder(String[] names, String[] values)
+            throws Exception {
+        final StringBuilder stringBuilder = new StringBuilder();
+        for (int i = 0; i < names.length; i++) {
+            if (i > 0) {
+                stringBuilder.append("&");
+            }
+            stringBuilder.append(URLEncoder.encode(names[i], "UTF-8"));
+            stringBuilder.append("=");
+            stringBuilder.append(URLEncoder.encode(values[i], "UTF-8"));
+        }
+        return stringBuilder.toString().getBytes("UTF-8");
+    }
+
+    /**
+     * Encodes the form the way urlEncodeParametersToBytes() does
+     *
+     * @param names  The field names
+     * @param values The field values
+     * @return The form body
+     */
+    private static byte[] encodeWithUrlEncoder(String[] names, String[] values) {
+        int length = names.length - 1;
+        for (int i = 0; i < names.length; i++) {
+            length += UrlEncoder.encodedLength(names[i]) + 1
+                    + UrlEncoder.encodedLength(values[i]);
+        }
+        final byte[] bytes = new byte[length];
+        int position = 0;
+        for (int i = 0; i < names.length; i++) {
+            if (i > 0) {
+                bytes[position++] = '&';
+            }
+            position = UrlEncoder.encode(names[i], bytes, position);
+            bytes[position++] = '=';
+            position = UrlEncoder.encode(values[i], bytes, position);
+        }
+        assertEquals(length, position);
+        return bytes;
+    }
+
+    /**
+     * Checks that UrlEncoder produces the same bytes and length as URLEncoder
+     *
+     * @param text The text to encode
+     * @throws Exception
+     */
+    private static void assertEncodesLikeUrlEncoder(String text) throws Exception {
+        final byte[] expected = URLEncoder.encode(text, "UTF-8").getBytes("US-ASCII");
+        assertEquals(text, expected.length, UrlEncoder.encodedLength(text));
+        assertEquals(text, Arrays.toString(expected), Arrays.toString(UrlEncoder.encode(text)));
+    }
+
+    /**
+     * Creates text mixing ASCII, reserved characters, multi-byte characters and surrogates
+     *
+     * @param random The source of the text
+     * @param length The number of characters
+     * @return The text
+     */
+    private static String randomText(Random random, int length) {
+        final StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            final int kind = random.nextInt(10);
+            if (kind < 6) {
+                builder.append((char) (' ' + random.nextInt(95)));
+            } else if (kind < 8) {
+                builder.append((char) (0x80 + random.nextInt(0x780)));
+            } else if (kind < 9) {
+                builder.append((char) (0x800 + random.nextInt(0xD000)));
+            } else {
+                builder.appendCodePoint(0x10000 + random.nextInt(0x1000));
+            }
+        }
+        return builder.toString();
+    }
+
+}
@@ -83,6 +83,15 @@ public class RetainedTaskFragment extends Fragment {
         this.mTask = task;
     }
 
+    /**
+     * Aborts the associated background task, cancelling the request it is sending
+     *
+     * @return True if the task was cancelled, otherwise false
+     */
+    public boolean cancelTask() {
+        return this.mTask != null && this.mTask.abort();
+    }
+
     /**
      * Determines if the associated background task is running
      *
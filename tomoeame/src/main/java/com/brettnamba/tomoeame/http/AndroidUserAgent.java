@@ -0,0 +1,36 @@
+package com.brettnamba.tomoeame.http;
+
+import android.os.Build;
+
+/**
+ * Describes the library as running on Android in the User-Agent of every request.  The core
+ * sends a platform-neutral User-Agent, so call install() once before requests are constructed,
+ * such as from Application.onCreate().
+ *
+ * @author Brett Namba (https://github.com/bretten)
+ */
+public final class AndroidUserAgent {
+
+    /**
+     * Not instantiable
+     */
+    private AndroidUserAgent() {
+    }
+
+    /**
+     * Returns the User-Agent of the library on this device
+     *
+     * @return The User-Agent, including the API level
+     */
+    public static String get() {
+        return "tomoeame (android; API " + Build.VERSION.SDK_INT + ")";
+    }
+
+    /**
+     * Sets the User-Agent of every request constructed afterwards to get()
+     */
+    public static void install() {
+        HttpUrlConnectionRequest.setUserAgent(get());
+    }
+
+}
@@ -0,0 +1,278 @@
+package com.brettnamba.tomoeame.http;
+
+import android.accounts.Account;
+import android.accounts.AccountManager;
+import android.accounts.AuthenticatorException;
+import android.accounts.OperationCanceledException;
+import android.content.Context;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Provides the value of the HTTP authentication header for an Account.
+ *
+ * Authentication tokens are fetched from the AccountManager and the encoded header value is
+ * cached per Account and token type until it expires or is invalidated, so sending a request does
+ * not require an IPC call to the authenticator each time.  Concurrent requests for the same token
+ * share a single fetch.  Requests use the provider through the Authenticator returned by
+ * getAuthenticator().
+ *
+ * @author Brett Namba (https://github.com/bretten)
+ */
+public class AuthTokenProvider {
+
+    /**
+     * The default duration in milliseconds that a cached token is used before it is fetched again
+     */
+    public static final long DEFAULT_TOKEN_LIFETIME_MILLIS = 30 * 60 * 1000;
+
+    /**
+     * The lazily created provider shared by the whole application
+     */
+    private static AuthTokenProvider sDefaultProvider;
+
+    /**
+     * The AccountManager the tokens are fetched from
+     */
+    private final AccountManager mAccountManager;
+
+    /**
+     * The duration in milliseconds that a cached token is used before it is fetched again
+     */
+    private final long mTokenLifetimeMillis;
+
+    /**
+     * Collection mapping the Account and token type to the cached token
+     */
+    private final ConcurrentHashMap<String, CachedToken> mTokens =
+            new ConcurrentHashMap<String, CachedToken>();
+
+    /**
+     * Collection mapping the Account and token type to a fetch that is in progress
+     */
+    private final ConcurrentHashMap<String, FutureTask<CachedToken>> mPendingFetches =
+            new ConcurrentHashMap<String, FutureTask<CachedToken>>();
+
+    /**
+     * Constructs a provider with the default token lifetime
+     *
+     * @param context The current Context
+     */
+    public AuthTokenProvider(Context context) {
+        this(context, DEFAULT_TOKEN_LIFETIME_MILLIS);
+    }
+
+    /**
+     * Constructs a provider with the specified token lifetime
+     *
+     * @param context             The current Context
+     * @param tokenLifetimeMillis The duration in milliseconds a cached token is used for
+     */
+    public AuthTokenProvider(Context context, long tokenLifetimeMillis) {
+        if (context == null) {
+            throw new IllegalArgumentException("Context cannot be null");
+        }
+        this.mAccountManager = AccountManager.get(context.getApplicationContext());
+        this.mTokenLifetimeMillis = tokenLifetimeMillis;
+    }
+
+    /**
+     * Returns the shared provider, creating it if it does not exist yet
+     *
+     * @param context The current Context
+     * @return The shared provider
+     */
+    public static synchronized AuthTokenProvider getDefault(Context context) {
+        if (sDefaultProvider == null) {
+            sDefaultProvider = new AuthTokenProvider(context);
+        }
+        return sDefaultProvider;
+    }
+
+    /**
+     * Returns the value of the authentication header for the Account, fetching the token from
+     * the AccountManager only if no unexpired value is cached.  This may block, so it should not
+     * be called on the main thread.
+     *
+     * @param account       The Account the token belongs to
+     * @param authTokenType The type of authentication token
+     * @return The encoded authentication header value
+     * @throws IOException If the token could not be fetched
+     */
+    public String getAuthHeaderValue(final Account account, final String authTokenType)
+            throws IOException {
+        final String key = getKey(account, authTokenType);
+        final CachedToken cachedToken = this.mTokens.get(key);
+        if (cachedToken != null && cachedToken.expiresAtMillis > System.currentTimeMillis()) {
+            return cachedToken.headerValue;
+        }
+
+        // Only one thread fetches the token and the others wait for it
+        FutureTask<CachedToken> fetch = new FutureTask<CachedToken>(new Callable<CachedToken>() {
+            @Override
+            public CachedToken call() throws IOException {
+                final CachedToken fetchedToken =
+                        AuthTokenProvider.this.fetchToken(account, authTokenType);
+                AuthTokenProvider.this.mTokens.put(key, fetchedToken);
+                return fetchedToken;
+            }
+        });
+        final FutureTask<CachedToken> pendingFetch = this.mPendingFetches.putIfAbsent(key, fetch);
+        if (pendingFetch != null) {
+            fetch = pendingFetch;
+        } else {
+            try {
+                fetch.run();
+            } finally {
+                this.mPendingFetches.remove(key, fetch);
+            }
+        }
+
+        try {
+            return fetch.get().headerValue;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while fetching the auth token");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Could not fetch the auth token", e.getCause());
+        }
+    }
+
+    /**
+     * Returns an Authenticator that provides the header value of an Account's token to requests
+     * and invalidates it when a request is rejected
+     *
+     * @param account       The Account the token belongs to
+     * @param authTokenType The type of authentication token
+     * @return The Authenticator
+     */
+    public Authenticator getAuthenticator(final Account account, final String authTokenType) {
+        if (account == null) {
+            throw new IllegalArgumentException("Account cannot be null");
+        }
+        return new Authenticator() {
+            @Override
+            public String getAuthHeaderValue() throws IOException {
+                return AuthTokenProvider.this.getAuthHeaderValue(account, authTokenType);
+            }
+
+            @Override
+            public void invalidate(String headerValue) {
+                AuthTokenProvider.this.invalidate(account, authTokenType, headerValue);
+            }
+        };
+    }
+
+    /**
+     * Invalidates the token the specified header value was built from, both in this cache and
+     * in the AccountManager, so that the next request fetches a new one.  If the cached token
+     * has already been replaced, for example by another request that was also rejected, the
+     * newer token is left alone.
+     *
+     * @param account       The Account the token belongs to
+     * @param authTokenType The type of authentication token
+     * @param headerValue   The header value that was rejected
+     */
+    public void invalidate(Account account, String authTokenType, String headerValue) {
+        final String key = getKey(account, authTokenType);
+        final CachedToken cachedToken = this.mTokens.get(key);
+        if (cachedToken != null && cachedToken.headerValue.equals(headerValue)) {
+            this.mTokens.remove(key, cachedToken);
+            this.mAccountManager.invalidateAuthToken(account.type, cachedToken.authToken);
+        }
+    }
+
+    /**
+     * Removes all cached tokens without invalidating them in the AccountManager
+     */
+    public void clear() {
+        this.mTokens.clear();
+    }
+
+    /**
+     * Encodes an authentication token as the authentication header value
+     *
+     * @param authToken The authentication token
+     * @return The encoded header value
+     */
+    public static String encodeAuthHeaderValue(String authToken) {
+        return HttpUrlConnectionRequest.encodeAuthHeaderValue(authToken);
+    }
+
+    /**
+     * Fetches the token from the AccountManager and encodes it
+     *
+     * @param account       The Account the token belongs to
+     * @param authTokenType The type of authentication token
+     * @return The fetched token
+     * @throws IOException If the token could not be fetched
+     */
+    private CachedToken fetchToken(Account account, String authTokenType) throws IOException {
+        final String authToken;
+        try {
+            authToken = this.mAccountManager.blockingGetAuthToken(account, authTokenType, true);
+        } catch (OperationCanceledException | AuthenticatorException e) {
+            throw new IOException("Could not fetch the auth token", e);
+        }
+        if (authToken == null) {
+            throw new IOException("No auth token is available for the account");
+        }
+        return new CachedToken(authToken, encodeAuthHeaderValue(authToken),
+                System.currentTimeMillis() + this.mTokenLifetimeMillis);
+    }
+
+    /**
+     * Builds the key identifying an Account and token type
+     *
+     * @param account       The Account
+     * @param authTokenType The type of authentication token
+     * @return The key
+     */
+    private static String getKey(Account account, String authTokenType) {
+        return account.type + "\n" + account.name + "\n" + authTokenType;
+    }
+
+    /**
+     * An authentication token and its encoded header value
+     */
+    private static final class CachedToken {
+
+        /**
+         * The raw authentication token, needed to invalidate it in the AccountManager
+         */
+        final String authToken;
+
+        /**
+         * The encoded authentication header value
+         */
+        final String headerValue;
+
+        /**
+         * The time in milliseconds after which the token is fetched again
+         */
+        final long expiresAtMillis;
+
+        /**
+         * Constructor
+         *
+         * @param authToken       The raw authentication token
+         * @param headerValue     The encoded authentication header value
+         * @param expiresAtMillis The time in milliseconds after which the token is fetched again
+         */
+        CachedToken(String authToken, String headerValue, long expiresAtMillis) {
+            this.authToken = authToken;
+            this.headerValue = headerValue;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+
+    }
+
+}
@@ -0,0 +1,110 @@
+package com.brettnamba.tomoeame.http;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.net.Uri;
+import android.webkit.MimeTypeMap;
+
+import com.brettnamba.tomoeame.util.Files;
+
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * FileUpload of a file behind a FileProvider content URI or a file URI.  The length and MIME type
+ * of a content URI are queried from its ContentProvider, so they are only cheap to find for file
+ * URIs.
+ *
+ * @author Brett Namba (https://github.com/bretten)
+ */
+public class ContentUriFileUpload implements FileUpload {
+
+    /**
+     * The application Context used to access the ContentResolver
+     */
+    private final Context mContext;
+
+    /**
+     * The URI of the file
+     */
+    private final Uri mUri;
+
+    /**
+     * Constructor
+     *
+     * @param context The current Context
+     * @param uri     The FileProvider content URI or file URI of the file to be uploaded
+     */
+    public ContentUriFileUpload(Context context, Uri uri) {
+        if (context == null || uri == null) {
+            throw new IllegalArgumentException("Context or uri cannot be null");
+        }
+        this.mContext = context.getApplicationContext();
+        this.mUri = uri;
+    }
+
+    /**
+     * Returns the URI of the file
+     *
+     * @return The URI
+     */
+    public Uri getUri() {
+        return this.mUri;
+    }
+
+    /**
+     * Determines the MIME type of the file, first from the ContentResolver and then from the
+     * extension of the URI
+     *
+     * @return The MIME type or null if neither knows it
+     */
+    @Override
+    public String getContentType() {
+        // First try the ContentResolver
+        String mimeType = this.mContext.getContentResolver().getType(this.mUri);
+        // If no type was found, try MimeTypeMap
+        if (mimeType == null) {
+            mimeType = MimeTypeMap.getSingleton().getMimeTypeFromExtension(
+                    MimeTypeMap.getFileExtensionFromUrl(this.mUri.toString()));
+        }
+        return mimeType;
+    }
+
+    @Override
+    public long getLength() {
+        return Files.getFileSize(this.mContext, this.mUri);
+    }
+
+    @Override
+    public boolean isMetadataCheap() {
+        return !Files.isContentUri(this.mUri);
+    }
+
+    /**
+     * Opens the file through its AssetFileDescriptor.  A FileChannel is returned when the
+     * descriptor covers the whole file, which includes file URIs and most FileProvider content
+     * URIs.
+     *
+     * @return The channel the file is read from
+     * @throws IOException If the file could not be opened
+     */
+    @Override
+    public ReadableByteChannel open() throws IOException {
+        final AssetFileDescriptor fileDescriptor =
+                this.mContext.getContentResolver().openAssetFileDescriptor(this.mUri, "r");
+        if (fileDescriptor == null) {
+            throw new FileNotFoundException("The file could not be opened: " + this.mUri);
+        }
+        // The stream closes the file descriptor when it is closed
+        final FileInputStream fileInputStream = fileDescriptor.createInputStream();
+
+        // A FileChannel would read past the end of a file descriptor that only covers part of
+        // a file, such as a resource in an APK, so those are read through the bounded stream
+        return fileDescriptor.getDeclaredLength() == AssetFileDescriptor.UNKNOWN_LENGTH
+                ? fileInputStream.getChannel() : Channels.newChannel(fileInputStream);
+    }
+
+}
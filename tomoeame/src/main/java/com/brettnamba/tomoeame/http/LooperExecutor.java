@@ -0,0 +1,58 @@
+package com.brettnamba.tomoeame.http;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Executor that posts to a Looper, so listeners of a request, such as its DataSentListener, can
+ * be called on the main thread.
+ *
+ * @author Brett Namba (https://github.com/bretten)
+ */
+public class LooperExecutor implements Executor {
+
+    /**
+     * The lazily created Executor of the main Looper
+     */
+    private static LooperExecutor sMainExecutor;
+
+    /**
+     * The Handler the commands are posted to
+     */
+    private final Handler mHandler;
+
+    /**
+     * Constructor
+     *
+     * @param looper The Looper the commands are run on
+     */
+    public LooperExecutor(Looper looper) {
+        if (looper == null) {
+            throw new IllegalArgumentException("Looper cannot be null");
+        }
+        this.mHandler = new Handler(looper);
+    }
+
+    /**
+     * Returns the Executor of the main Looper, creating it if it does not exist yet
+     *
+     * @return The Executor of the main thread
+     */
+    public static synchronized LooperExecutor getMain() {
+        if (sMainExecutor == null) {
+            sMainExecutor = new LooperExecutor(Looper.getMainLooper());
+        }
+        return sMainExecutor;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        if (command == null) {
+            throw new IllegalArgumentException("Command cannot be null");
+        }
+        this.mHandler.post(command);
+    }
+
+}
@@ -2,6 +2,8 @@ package com.brettnamba.tomoeame.os;
 
 import android.os.AsyncTask;
 
+import com.brettnamba.tomoeame.http.HttpUrlConnectionRequest;
+
 /**
  * Abstraction of AsyncTask that is meant to use listeners when the
  * standard AsyncTask's methods are invoked
@@ -17,6 +19,11 @@ import android.os.AsyncTask;
 public abstract class AsyncListenerTask<Params, Progress, Result>
         extends AsyncTask<Params, Progress, Result> {
 
+    /**
+     * The request the task is currently sending, which is canceled when the task is aborted
+     */
+    private volatile HttpUrlConnectionRequest mRequest;
+
     /**
      * Sets the listener for the AsyncTask
      *
@@ -29,6 +36,35 @@ public abstract class AsyncListenerTask<Params, Progress, Result>
      */
     public abstract void removeListener();
 
+    /**
+     * Sets the request the task is currently sending so that abort() can cancel it.  Should be
+     * called from doInBackground() before the request is sent.
+     *
+     * @param request The request being sent or null if there is none
+     */
+    protected void setRequest(HttpUrlConnectionRequest request) {
+        this.mRequest = request;
+        // The task may have been aborted before the request was set
+        if (request != null && this.isCancelled()) {
+            request.cancel();
+        }
+    }
+
+    /**
+     * Cancels the task along with the request it is sending, so an upload or download in
+     * progress stops immediately instead of running to completion
+     *
+     * @return False if the task could not be cancelled because it already completed
+     */
+    public boolean abort() {
+        final boolean isCancelled = this.cancel(true);
+        final HttpUrlConnectionRequest request = this.mRequest;
+        if (request != null) {
+            request.cancel();
+        }
+        return isCancelled;
+    }
+
     /**
      * Base TaskListener interface that all listeners should extend from
      */
@@ -47,26 +47,30 @@ public final class Files {
      *
      * @param context The current Context so the ContentResolver can be accessed
      * @param uri     The URI of the file which can be a content or file URI
-     * @return The size of the file in bytes
+     * @return The size of the file in bytes or -1 if the provider does not report it
      */
     public static long getFileSize(Context context, Uri uri) {
         // Check the scheme
-        if (uri.getScheme().equals(ContentResolver.SCHEME_CONTENT)) {
+        if (Files.isContentUri(uri)) {
             // The URI is a content URI, so the file size can be queried using a ContentProvider
             Cursor c = context.getContentResolver()
                     .query(uri, new String[]{OpenableColumns.SIZE}, null, null, null);
-            // Get the column index of the file size column
-            int sizeIndex = c.getColumnIndex(OpenableColumns.SIZE);
-            // Move to the first matching row
-            if (c.moveToFirst()) {
-                // Get the size
-                long size = c.getLong(sizeIndex);
+            if (c == null) {
+                // The provider could not be queried
+                return -1;
+            }
+            try {
+                // Get the column index of the file size column
+                int sizeIndex = c.getColumnIndex(OpenableColumns.SIZE);
+                // Move to the first matching row and get the size if the provider knows it
+                if (sizeIndex != -1 && c.moveToFirst() && !c.isNull(sizeIndex)) {
+                    return c.getLong(sizeIndex);
+                }
+                // No matching row or size was found
+                return -1;
+            } finally {
                 // Close the cursor
                 c.close();
-                return size;
-            } else {
-                // No matching row was found
-                return 0;
             }
         } else {
             // The URI is a file path
@@ -76,4 +80,15 @@ public final class Files {
         }
     }
 
+    /**
+     * Determines if the URI is a content URI, whose file size and MIME type can only be found
+     * by querying its ContentProvider
+     *
+     * @param uri The URI of the file
+     * @return True if it is a content URI, otherwise false
+     */
+    public static boolean isContentUri(Uri uri) {
+        return ContentResolver.SCHEME_CONTENT.equals(uri.getScheme());
+    }
+
 }